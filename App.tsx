@@ -1,6 +1,6 @@
 import React, { useState, useEffect, useCallback, useRef } from 'react';
 import { v4 as uuidv4 } from 'uuid';
-import { ClickScript, ClickStep, AppMode, SavedScriptSummary } from './types';
+import { ClickScript, ClickStep, AppMode, SavedScriptSummary, BackgroundTrack, BulkImportEvent, BulkImportProgress, ScheduledStartEvent, ScheduledStartStatus } from './types';
 import { FloatingHUD } from './components/FloatingHUD';
 import { ClickCanvas } from './components/ClickCanvas';
 import { StepEditor } from './components/StepEditor';
@@ -18,14 +18,62 @@ declare global {
       reportPos?: (x: number, y: number, width: number, height: number) => void;
       openFilePicker?: (slot: string) => void;
       saveFile?: (name: string, content: string) => void;
+      // Compact export (delta-encoded varints, gzip); import detects the format from the content
+      saveCompactFile?: (name: string, scriptJson: string) => boolean;
       requestInputFocus?: () => void;
       clearInputFocus?: () => void;
       setRecordingMode?: (recording: boolean) => void;
       setHudRect?: (x: number, y: number, width: number, height: number) => void;
       dispatchRecordedGesture?: (canvasX: number, canvasY: number) => void;
       dispatchRecordedSwipe?: (x1: number, y1: number, x2: number, y2: number, durationMs: number) => void;
+      playScript?: (scriptJson: string, speed: number, startIndex: number) => boolean;
+      stopScript?: () => void;
+      getPlaybackStats?: () => string;
+      getDispatchRateStats?: () => string;
+      getOverlayLayoutStats?: () => string;
+      setControlServerEnabled?: (enabled: boolean) => boolean;
+      setTracingEnabled?: (enabled: boolean) => void;
+      setLowPowerPlayback?: (enabled: boolean, windowMs: number) => void;
+      getPowerStats?: () => string; // JSON: wakeups / wakeupsPerMin / spinMs / cpuMs / cpuMsPerMin
+      startBackgroundScript?: (scriptJson: string, speed: number, loop: boolean, loopCount: number) => number;
+      stopBackgroundScript?: (trackId: number) => void;
+      stopAllScripts?: () => void;
+      // Bulk import: pick a folder natively, convert every song against the layout script in parallel
+      startBulkImport?: (layoutJson: string) => boolean;
+      convertPickedSheet?: () => string;
+      getScriptCacheStats?: () => string;
+      setStallWatchdog?: (enabled: boolean, thresholdMs: number) => void;
+      getStallReport?: () => string;
+      exportStallReport?: () => boolean;
+      reportUiReady?: () => void;
+      getStartupTimings?: () => string;
+      // Wall-clock start: the first tap lands on targetWallMs (epoch ms)
+      scheduleScriptStart?: (scriptJson: string, targetWallMs: number, speed: number) => boolean;
+      cancelScheduledStart?: () => void;
+      getScheduledStart?: () => string;
+      // Live note stream: notes arrive over the control socket, mapped through the layout's Key1-Key15
+      setLiveMode?: (layoutJson: string) => boolean;
+      getLiveStats?: () => string;
+      cancelBulkImport?: () => void;
+      // Paged step API: the native side holds the script, JS only touches the visible window
+      openScript?: (scriptJson: string) => string;
+      closeScript?: (scriptId: string) => void;
+      playStoredScript?: (scriptId: string, speed: number, startIndex: number) => boolean;
+      getStepCount?: (scriptId: string) => number;
+      getSteps?: (scriptId: string, offset: number, count: number) => string; // JSON: (ClickStep & { time: number })[]
+      insertSteps?: (scriptId: string, index: number, stepsJson: string) => boolean;
+      updateSteps?: (scriptId: string, index: number, stepsJson: string) => boolean;
+      deleteSteps?: (scriptId: string, index: number, count: number) => boolean;
+      getStepTime?: (scriptId: string, index: number) => number;
+      findStepAtTime?: (scriptId: string, timeMs: number) => number;
+      getScriptSpan?: (scriptId: string) => number;
+      exportScript?: (scriptId: string) => string | null;
     };
     __omniclickOnFilePicked?: (slot: string, fileName: string, content: string) => void;
+    __omniclickOnPlaybackProgress?: (stepIndex: number, loopIndex: number, trackId: number) => void;
+    __omniclickOnPlaybackFinished?: (stats: any, cancelled: boolean, trackId: number) => void;
+    __omniclickOnBulkImport?: (events: BulkImportEvent[]) => void;
+    __omniclickOnScheduledStart?: (event: ScheduledStartEvent) => void;
   }
 }
 
@@ -102,6 +150,9 @@ function App() {
   // Playback Visual State
   const [playbackSpeed, setPlaybackSpeed] = useState(1);
   const playbackSpeedRef = useRef(1); // Ref to access current speed inside playback closures
+  // Low-power native playback: coarse wakeups, batched steps, HUD updates paused while playing
+  const [lowPowerPlayback, setLowPowerPlayback] = useState(false);
+  const [scheduledStart, setScheduledStart] = useState<ScheduledStartStatus | null>(null);
 
   // Editing State
   const [selectedStepId, setSelectedStepId] = useState<string | null>(null);
@@ -109,6 +160,7 @@ function App() {
   // Playback & Recording Refs
   const playbackTimeoutRef = useRef<number | null>(null);
   const isPlayingRef = useRef(false);
+  const isNativePlaybackRef = useRef(false); // 由 Android PlaybackScheduler 播放中
   const loopCounterRef = useRef(0);
   const startTimeRef = useRef<number>(0);
   const lastActionTimeRef = useRef<number>(0);
@@ -119,6 +171,12 @@ function App() {
   // Playback UI State
   const [activePlaybackStepIndex, setActivePlaybackStepIndex] = useState<number | null>(null);
 
+  // Scripts running concurrently in the native scheduler (background tracks)
+  const [backgroundTracks, setBackgroundTracks] = useState<BackgroundTrack[]>([]);
+
+  // Native folder import progress
+  const [bulkImport, setBulkImport] = useState<BulkImportProgress | null>(null);
+
   // HUD Rect for Android touch layer alignment
   const hudRectRef = useRef({ x: 20, y: 20, width: 380, height: 500, isCollapsed: false });
 
@@ -137,11 +195,20 @@ function App() {
     playbackSpeedRef.current = playbackSpeed;
   }, [playbackSpeed]);
 
+  useEffect(() => {
+    window.Android?.setLowPowerPlayback?.(lowPowerPlayback, 0);
+  }, [lowPowerPlayback]);
+
   // --- Storage Logic ---
   useEffect(() => {
     loadSavedScriptsList();
   }, []);
 
+  // First render done: the native quick-play prompt can go away
+  useEffect(() => {
+    window.Android?.reportUiReady?.();
+  }, []);
+
   const loadSavedScriptsList = () => {
     try {
       const raw = localStorage.getItem(STORAGE_KEY);
@@ -215,6 +282,40 @@ function App() {
     }
   };
 
+  // Run a saved script in the background, with its own loop settings, alongside the main one
+  const handleStartBackground = (id: string) => {
+    if (!window.Android?.startBackgroundScript) return;
+    try {
+      const raw = localStorage.getItem(STORAGE_KEY);
+      const target: ClickScript | undefined = raw ? JSON.parse(raw)[id] : undefined;
+      if (!target || target.steps.length === 0) return;
+
+      const trackId = window.Android.startBackgroundScript(
+        JSON.stringify(target),
+        playbackSpeedRef.current,
+        target.metadata.loop,
+        target.metadata.loopCount || 0
+      );
+      if (trackId < 0) return;
+
+      setBackgroundTracks(prev => [...prev, {
+        trackId,
+        scriptId: target.metadata.id,
+        name: target.metadata.name,
+        stepCount: target.steps.length,
+        stepIndex: -1,
+        loopIndex: 0
+      }]);
+    } catch (e) {
+      console.error(e);
+    }
+  };
+
+  const handleStopBackground = (trackId: number) => {
+    window.Android?.stopBackgroundScript?.(trackId);
+    setBackgroundTracks(prev => prev.filter(t => t.trackId !== trackId));
+  };
+
   const handleDeleteLocal = (id: string) => {
     if (!window.confirm("Are you sure you want to delete this script?")) return;
 
@@ -278,6 +379,20 @@ function App() {
 
   // --- Logic: Converter ---
   const handleConvertSheet = async (songFile: File, mapFile: File) => {
+    // Files picked through the native picker stay on the Android side (the WebView only
+    // gets empty placeholders); conversion there goes through the compiled-script cache.
+    if (window.Android?.convertPickedSheet && songFile.size === 0 && mapFile.size === 0) {
+      const result = JSON.parse(window.Android.convertPickedSheet());
+      if (result.error) {
+        alert(result.error);
+        return;
+      }
+      const converted: ClickScript = result.script;
+      saveScriptToStorage(converted);
+      loadSavedScriptsList();
+      alert(`Success! Created script "${converted.metadata.name}" with ${converted.steps.length} steps.`);
+      return;
+    }
     try {
       const songText = await songFile.text();
       const mapText = await mapFile.text();
@@ -376,6 +491,67 @@ function App() {
     }
   };
 
+  const handleBulkImport = async (mapFile: File) => {
+    if (!window.Android?.startBulkImport) return;
+    // Empty text means the layout was picked natively; the bridge falls back to that copy
+    const layoutJson = await mapFile.text();
+    if (!window.Android.startBulkImport(layoutJson)) {
+      alert("Layout script must have at least 15 steps (Key1 to Key15).");
+    }
+  };
+
+  // Native bulk import events arrive batched (at most one call per frame)
+  useEffect(() => {
+    window.__omniclickOnBulkImport = (events: BulkImportEvent[]) => {
+      const converted: ClickScript[] = [];
+      setBulkImport(prev => {
+        let next: BulkImportProgress = prev ?? {
+          running: true, total: 0, done: 0, converted: 0, failed: 0, skipped: 0, errors: []
+        };
+        for (const e of events) {
+          if (e.type === 'started') {
+            next = { running: true, total: e.total, done: 0, converted: 0, failed: 0, skipped: 0, errors: [] };
+          } else if (e.type === 'file') {
+            next = { ...next, done: next.done + 1 };
+            if (e.status === 'ok') next.converted++;
+            else if (e.status === 'skipped') next.skipped++;
+            else {
+              next.failed++;
+              next.errors = [...next.errors, { fileName: e.fileName, error: e.error || 'Unknown error' }].slice(-5);
+            }
+          } else {
+            next = { ...next, running: false, elapsedMs: e.elapsedMs };
+          }
+        }
+        return next;
+      });
+      for (const e of events) {
+        if (e.type === 'file' && e.script) converted.push(e.script);
+      }
+      if (converted.length > 0) {
+        // One storage write per batch instead of one per song
+        try {
+          const raw = localStorage.getItem(STORAGE_KEY);
+          const allScripts = raw ? JSON.parse(raw) : {};
+          for (const s of converted) allScripts[s.metadata.id] = s;
+          localStorage.setItem(STORAGE_KEY, JSON.stringify(allScripts));
+        } catch (err) {
+          console.error("Bulk import storage error", err);
+          setBulkImport(prev => prev && {
+            ...prev,
+            converted: prev.converted - converted.length,
+            failed: prev.failed + converted.length,
+            errors: [...prev.errors, { fileName: `${converted.length} songs`, error: 'Storage full' }].slice(-5)
+          });
+        }
+      }
+      if (events.some(e => e.type === 'finished')) loadSavedScriptsList();
+    };
+    return () => {
+      delete window.__omniclickOnBulkImport;
+    };
+  }, []);
+
   // --- Logic: Recording ---
   const handleCanvasClick = (x: number, y: number) => {
     if (mode === AppMode.RECORDING) {
@@ -547,6 +723,10 @@ function App() {
     if (playbackTimeoutRef.current) {
       clearTimeout(playbackTimeoutRef.current);
     }
+    if (isNativePlaybackRef.current) {
+      isNativePlaybackRef.current = false;
+      window.Android?.stopScript?.();
+    }
     isPlayingRef.current = false;
     setActivePlaybackStepIndex(null);
     setMode(AppMode.IDLE);
@@ -609,8 +789,9 @@ function App() {
       // 使用 canvas CSS 座標直接傳入 performClick / performSwipe，
       // Java 端會用 canvas↔screen 比例做正確換算，不再用 dpr 乘法。
 
-      if (step.type === 'swipe' && step.endX !== undefined && step.endY !== undefined) {
-        const swipeDur = step.swipeDuration ?? 300;
+      // JS 後備路徑沒有複合手勢：press-drag 近似為一次拉長的 swipe，其餘當成單點
+      if ((step.type === 'swipe' || step.type === 'press-drag') && step.endX !== undefined && step.endY !== undefined) {
+        const swipeDur = (step.swipeDuration ?? 300) + (step.type === 'press-drag' ? (step.holdDuration ?? 600) : 0);
         if (window.Android?.performSwipe) {
           window.Android.performSwipe(step.x, step.y, step.endX, step.endY, swipeDur);
         } else if (window.Android?.swipe) {
@@ -657,11 +838,80 @@ function App() {
       loopCounterRef.current = 0;
       setSessionStartTime(Date.now());
 
+      // Prefer native absolute-deadline playback; fall back to the JS setTimeout chain
+      if (window.Android?.playScript &&
+          window.Android.playScript(JSON.stringify(script), playbackSpeedRef.current, startIndex)) {
+        isNativePlaybackRef.current = true;
+        return;
+      }
+
       // Start the chain from the determined index
       playStep(startIndex, 0);
     }
   };
 
+  const handleScheduleStart = (targetWallMs: number) => {
+    if (script.steps.length === 0 || !window.Android?.scheduleScriptStart) return;
+    if (!window.Android.scheduleScriptStart(JSON.stringify(script), targetWallMs, playbackSpeedRef.current)) {
+      alert("Could not schedule: pick a time within the next 24 hours.");
+      return;
+    }
+    setScheduledStart({ state: 'scheduled', targetWallMs });
+  };
+
+  // Scheduled start: once armed the native scheduler owns playback, so switch the HUD to PLAYING
+  useEffect(() => {
+    window.__omniclickOnScheduledStart = (event: ScheduledStartEvent) => {
+      if (event.type === 'armed') {
+        setMode(AppMode.PLAYING);
+        setSelectedStepId(null);
+        isPlayingRef.current = true;
+        isNativePlaybackRef.current = true;
+        loopCounterRef.current = 0;
+        setSessionStartTime(Date.now());
+      } else if (event.type === 'started') {
+        setSessionStartTime(Date.now());
+      }
+      setScheduledStart({
+        state: event.type,
+        targetWallMs: event.targetWallMs,
+        startErrorMs: event.type === 'started' ? event.startErrorMs : undefined
+      });
+    };
+    return () => {
+      delete window.__omniclickOnScheduledStart;
+    };
+  }, []);
+
+  // Native playback callbacks (progress is coalesced to at most once per frame on the Java side)
+  useEffect(() => {
+    window.__omniclickOnPlaybackProgress = (stepIndex: number, loopIndex: number, trackId: number) => {
+      if (trackId) {
+        setBackgroundTracks(prev => prev.map(t => t.trackId === trackId ? { ...t, stepIndex, loopIndex } : t));
+        return;
+      }
+      if (!isNativePlaybackRef.current) return;
+      if (stepIndex === 0 && loopIndex !== loopCounterRef.current) {
+        loopCounterRef.current = loopIndex;
+        setSessionStartTime(Date.now()); // Reset timer for visual loop
+      }
+      setActivePlaybackStepIndex(stepIndex);
+    };
+    window.__omniclickOnPlaybackFinished = (stats: any, cancelled: boolean, trackId: number) => {
+      if (trackId) {
+        setBackgroundTracks(prev => prev.filter(t => t.trackId !== trackId));
+        return;
+      }
+      if (!isNativePlaybackRef.current) return;
+      isNativePlaybackRef.current = false;
+      stopPlayback();
+    };
+    return () => {
+      delete window.__omniclickOnPlaybackProgress;
+      delete window.__omniclickOnPlaybackFinished;
+    };
+  }, [stopPlayback]);
+
   // Cleanup on unmount
   useEffect(() => {
     return () => {
@@ -694,6 +944,14 @@ function App() {
     downloadAnchorNode.remove();
   };
 
+  // Compact export: much smaller than pretty JSON, native only (the picker converts it back on import)
+  const handleExportCompact = () => {
+    const fileName = `${script.metadata.name.replace(/\s+/g, '_')}.omniclick.gz`;
+    if (!window.Android?.saveCompactFile?.(fileName, JSON.stringify(script))) {
+      alert("Compact export failed.");
+    }
+  };
+
   const handleLoadFile = (file: File) => {
     const reader = new FileReader();
     reader.onload = (e) => {
@@ -868,6 +1126,7 @@ function App() {
 
         onSaveLocal={handleSaveLocal}
         onExport={handleExportFile}
+        onExportCompact={window.Android?.saveCompactFile ? handleExportCompact : undefined}
         onLoadFile={handleLoadFile}
         onLoadLocal={handleLoadLocal}
         onCreateNew={handleCreateNew}
@@ -875,6 +1134,13 @@ function App() {
         onCloseScript={handleCloseScript}
         onExitApp={handleExitApp}
         onConvertSheet={handleConvertSheet}
+        onBulkImport={window.Android?.startBulkImport ? handleBulkImport : undefined}
+        onCancelBulkImport={() => window.Android?.cancelBulkImport?.()}
+        bulkImport={bulkImport}
+
+        backgroundTracks={backgroundTracks}
+        onStartBackground={window.Android?.startBackgroundScript ? handleStartBackground : undefined}
+        onStopBackground={handleStopBackground}
 
         setLoop={(loop) => setScript(prev => ({ ...prev, metadata: { ...prev.metadata, loop } }))}
         setLoopCount={(loopCount) => setScript(prev => ({ ...prev, metadata: { ...prev.metadata, loopCount } }))}
@@ -885,6 +1151,11 @@ function App() {
 
         playbackSpeed={playbackSpeed}
         setPlaybackSpeed={setPlaybackSpeed}
+        lowPowerPlayback={lowPowerPlayback}
+        setLowPowerPlayback={window.Android?.setLowPowerPlayback ? setLowPowerPlayback : undefined}
+        onScheduleStart={window.Android?.scheduleScriptStart ? handleScheduleStart : undefined}
+        onCancelScheduledStart={() => window.Android?.cancelScheduledStart?.()}
+        scheduledStart={scheduledStart}
 
         onRectChange={handleHudRectChange}
         onDuplicateStep={handleStepDuplicate}
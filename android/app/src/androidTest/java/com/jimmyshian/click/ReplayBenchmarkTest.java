@@ -0,0 +1,308 @@
+package com.jimmyshian.click;
+
+import static org.junit.Assert.*;
+import static org.junit.Assume.assumeTrue;
+
+import android.app.Instrumentation;
+import android.os.Build;
+import android.os.Bundle;
+import android.os.ParcelFileDescriptor;
+import android.util.Log;
+
+import androidx.test.core.app.ActivityScenario;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * 回放準確度 benchmark：透過無障礙服務的排程器，對本地 TouchTargetActivity 播放合成腳本
+ * （單點、和弦、滑動、長循環），逐步提高頻率，比對預定時間與實際收到的觸控時間。
+ *
+ * 結果以 JSON 輸出到：
+ * - 外部 app 目錄的 replay-benchmark.json（adb pull 取回）
+ * - instrumentation status（am instrument -r 的 "replay-benchmark" 欄位）
+ * - logcat（tag OmniClickBenchmark）
+ *
+ * 不需要網路，可在模擬器上執行；需要 API 24 以上（dispatchGesture）。
+ */
+@RunWith(AndroidJUnit4.class)
+public class ReplayBenchmarkTest {
+
+    private static final String TAG = "OmniClickBenchmark";
+    private static final String SERVICE = "com.jimmyshian.click/.OmniClickAccessibilityService";
+    private static final String RESULT_FILE = "replay-benchmark.json";
+
+    private static final long MS = 1_000_000L;
+    // 收到的觸控與預定事件的最大配對時間差
+    private static final long MATCH_WINDOW_NS = 250 * MS;
+    // 視為「可持續」的頻率條件
+    private static final double MAX_DROP_RATE = 0.01;
+    private static final double MAX_P95_JITTER_MS = 4.0;
+
+    private static final int[] TAP_RATES_HZ = {5, 10, 20, 30, 40, 50, 60, 80};
+    private static final int[] CHORD_RATES_HZ = {4, 8, 16};
+    private static final int[] SWIPE_RATES_HZ = {2, 4, 8};
+    private static final int GRID_COLS = 6;
+    private static final int GRID_ROWS = 8;
+
+    private final Instrumentation instrumentation = InstrumentationRegistry.getInstrumentation();
+    private ActivityScenario<TouchTargetActivity> scenario;
+    private TouchTargetActivity activity;
+    private OmniClickAccessibilityService service;
+    private PlaybackScheduler scheduler;
+    private int[] bounds;
+
+    /** 預定送出的一個觸控 */
+    private static final class Intended {
+        final long timeNs;
+        final float x;
+        final float y;
+        boolean matched;
+
+        Intended(long timeNs, float x, float y) {
+            this.timeNs = timeNs;
+            this.x = x;
+            this.y = y;
+        }
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        assumeTrue("dispatchGesture requires API 24", Build.VERSION.SDK_INT >= Build.VERSION_CODES.N);
+        shell("settings put secure enabled_accessibility_services " + SERVICE);
+        shell("settings put secure accessibility_enabled 1");
+
+        long deadline = System.currentTimeMillis() + 15_000;
+        while ((service = OmniClickAccessibilityService.getInstance()) == null
+                || service.getPlaybackScheduler() == null) {
+            assertTrue("accessibility service did not connect", System.currentTimeMillis() < deadline);
+            Thread.sleep(100);
+        }
+        scheduler = service.getPlaybackScheduler();
+
+        scenario = ActivityScenario.launch(TouchTargetActivity.class);
+        scenario.onActivity(a -> activity = a);
+        instrumentation.runOnMainSync(() -> service.setOverlaysHidden(true));
+        // 等 overlay 與 Activity 版面穩定
+        Thread.sleep(800);
+        scenario.onActivity(a -> bounds = a.targetBounds());
+    }
+
+    @After
+    public void tearDown() {
+        if (service != null) {
+            scheduler.stopAll();
+            instrumentation.runOnMainSync(() -> service.setOverlaysHidden(false));
+        }
+        if (scenario != null) scenario.close();
+    }
+
+    @Test
+    public void replayFidelity() throws Exception {
+        JSONArray scenarios = new JSONArray();
+
+        int maxTapHz = 0;
+        JSONObject baseline = null;
+        for (int hz : TAP_RATES_HZ) {
+            JSONObject r = run("tap", hz, false, 0, steps(hz, 60, 1, false));
+            scenarios.put(r);
+            if (baseline == null) baseline = r;
+            if (isSustainable(r)) maxTapHz = hz;
+        }
+        int maxChordHz = 0;
+        for (int hz : CHORD_RATES_HZ) {
+            JSONObject r = run("chord3", hz, false, 0, steps(hz, 30, 3, false));
+            scenarios.put(r);
+            if (isSustainable(r)) maxChordHz = hz;
+        }
+        for (int hz : SWIPE_RATES_HZ) {
+            scenarios.put(run("swipe", hz, false, 0, steps(hz, 20, 1, true)));
+        }
+        // 長循環：檢查跨輪時不會累積誤差
+        scenarios.put(run("loop", 10, true, 5, steps(10, 20, 1, false)));
+
+        JSONObject report = new JSONObject();
+        report.put("device", Build.MANUFACTURER + " " + Build.MODEL);
+        report.put("sdk", Build.VERSION.SDK_INT);
+        report.put("maxSustainableTapHz", maxTapHz);
+        report.put("maxSustainableChordHz", maxChordHz);
+        report.put("criteria", new JSONObject()
+                .put("maxDropRate", MAX_DROP_RATE)
+                .put("maxP95JitterMs", MAX_P95_JITTER_MS));
+        report.put("rateController", new JSONObject(scheduler.getRateStatsJson()));
+        report.put("scenarios", scenarios);
+        publish(report.toString(2));
+
+        // 最低頻率的單點必須完全沒有遺失
+        assertEquals("drops at " + TAP_RATES_HZ[0] + " Hz", 0, baseline.getInt("dropped"));
+    }
+
+    /**
+     * 合成腳本：count 組事件，每組 fingers 個同時按下的點，組與組間隔 1000 / hz ms。
+     * 每個點放在不同的格子，方便以位置配對收到的觸控。
+     */
+    private List<ScriptStep> steps(int hz, int count, int fingers, boolean swipe) {
+        float cellW = bounds[2] / (float) GRID_COLS;
+        float cellH = bounds[3] / (float) GRID_ROWS;
+        List<ScriptStep> list = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            for (int f = 0; f < fingers; f++) {
+                int cell = (i * fingers + f) % (GRID_COLS * GRID_ROWS);
+                ScriptStep s = new ScriptStep();
+                s.id = "b" + list.size();
+                s.x = bounds[0] + (cell % GRID_COLS + 0.5f) * cellW;
+                s.y = bounds[1] + (cell / GRID_COLS + 0.5f) * cellH;
+                s.delay = f > 0 ? 0 : (i == 0 ? 200 : 1000.0 / hz);
+                if (swipe) {
+                    s.type = "swipe";
+                    s.hasEnd = true;
+                    s.endX = s.x + cellW / 3;
+                    s.endY = s.y;
+                    s.swipeDuration = 150;
+                }
+                list.add(s);
+            }
+        }
+        return list;
+    }
+
+    /** 播放一個情境並比對收到的觸控，回傳該情境的結果 JSON */
+    private JSONObject run(String name, int hz, boolean loop, int loopCount, List<ScriptStep> list)
+            throws Exception {
+        StepBlockList steps = new StepBlockList();
+        steps.addAll(list);
+        // 座標已是螢幕 px，不做 canvas 換算
+        ScriptTimeline timeline = ScriptTimeline.compile(name, loop, loopCount, 0, steps, 1f,
+                (x, y) -> new float[]{x, y});
+        int loops = loop ? loopCount : 1;
+
+        activity.drainTouches();
+        long startNs = System.nanoTime();
+        scheduler.start(timeline, 0);
+
+        long endNs = startNs + loops * timeline.loopLengthNs;
+        Thread.sleep(Math.max(0, (endNs - System.nanoTime()) / MS) + 100);
+        long timeoutMs = System.currentTimeMillis() + 10_000;
+        while (scheduler.isRunning() && System.currentTimeMillis() < timeoutMs) {
+            Thread.sleep(20);
+        }
+        // 最後一個觸控送達
+        Thread.sleep(300);
+        List<TouchTargetActivity.Touch> touches = activity.drainTouches();
+
+        List<Intended> intended = new ArrayList<>();
+        for (int l = 0; l < loops; l++) {
+            for (int e = 0; e < timeline.size; e++) {
+                intended.add(new Intended(startNs + l * timeline.loopLengthNs + timeline.offsetNs[e],
+                        timeline.x[e], timeline.y[e]));
+            }
+        }
+        JSONObject r = match(intended, touches, bounds[2] / (float) GRID_COLS / 2);
+        r.put("scenario", name);
+        r.put("rateHz", hz);
+        r.put("stats", new JSONObject(scheduler.getLastStatsJson()));
+        Log.i(TAG, name + " @" + hz + "Hz: " + r);
+        return r;
+    }
+
+    /**
+     * 依位置（同一格）與時間最接近的原則配對。固定的輸入管線延遲取中位數，
+     * 其餘的差值視為抖動（jitter）。
+     */
+    private static JSONObject match(List<Intended> intended, List<TouchTargetActivity.Touch> touches,
+                                    float radius) throws Exception {
+        List<Long> errors = new ArrayList<>();
+        for (TouchTargetActivity.Touch t : touches) {
+            Intended best = null;
+            long bestDiff = Long.MAX_VALUE;
+            for (Intended i : intended) {
+                if (i.matched || Math.abs(i.x - t.x) > radius || Math.abs(i.y - t.y) > radius) continue;
+                long diff = Math.abs(t.timeNs - i.timeNs);
+                if (diff < bestDiff && diff <= MATCH_WINDOW_NS) {
+                    best = i;
+                    bestDiff = diff;
+                }
+            }
+            if (best != null) {
+                best.matched = true;
+                errors.add(t.timeNs - best.timeNs);
+            }
+        }
+
+        Collections.sort(errors);
+        long latencyNs = errors.isEmpty() ? 0 : errors.get(errors.size() / 2);
+        double[] jitterMs = new double[errors.size()];
+        double sum = 0;
+        for (int i = 0; i < errors.size(); i++) {
+            jitterMs[i] = Math.abs(errors.get(i) - latencyNs) / 1e6;
+            sum += jitterMs[i];
+        }
+        Arrays.sort(jitterMs);
+
+        int dropped = intended.size() - errors.size();
+        JSONObject r = new JSONObject();
+        r.put("intended", intended.size());
+        r.put("received", touches.size());
+        r.put("matched", errors.size());
+        r.put("dropped", dropped);
+        r.put("dropRate", intended.isEmpty() ? 0 : (double) dropped / intended.size());
+        r.put("latencyMs", latencyNs / 1e6);
+        r.put("meanJitterMs", jitterMs.length > 0 ? sum / jitterMs.length : 0);
+        r.put("p95JitterMs", percentile(jitterMs, 0.95));
+        r.put("maxJitterMs", jitterMs.length > 0 ? jitterMs[jitterMs.length - 1] : 0);
+        return r;
+    }
+
+    private static double percentile(double[] sorted, double p) {
+        if (sorted.length == 0) return 0;
+        int index = (int) Math.ceil(p * sorted.length) - 1;
+        return sorted[Math.max(0, Math.min(sorted.length - 1, index))];
+    }
+
+    private static boolean isSustainable(JSONObject r) {
+        return r.optInt("matched") > 0
+                && r.optDouble("dropRate", 1) <= MAX_DROP_RATE
+                && r.optDouble("p95JitterMs", Double.MAX_VALUE) <= MAX_P95_JITTER_MS;
+    }
+
+    private void publish(String json) throws IOException {
+        Log.i(TAG, json);
+        File dir = instrumentation.getTargetContext().getExternalFilesDir(null);
+        if (dir != null) {
+            try (FileOutputStream out = new FileOutputStream(new File(dir, RESULT_FILE))) {
+                out.write(json.getBytes(StandardCharsets.UTF_8));
+            }
+        }
+        Bundle status = new Bundle();
+        status.putString("replay-benchmark", json);
+        instrumentation.sendStatus(0, status);
+    }
+
+    private void shell(String command) throws IOException {
+        ParcelFileDescriptor pfd = instrumentation.getUiAutomation().executeShellCommand(command);
+        // 讀完輸出代表指令已執行完畢
+        try (FileInputStream in = new ParcelFileDescriptor.AutoCloseInputStream(pfd)) {
+            byte[] buf = new byte[1024];
+            while (in.read(buf) != -1) {
+                // 丟棄輸出
+            }
+        }
+        Log.d(TAG, "shell: " + command);
+    }
+}
@@ -0,0 +1,75 @@
+package com.jimmyshian.click;
+
+import android.app.Activity;
+import android.os.Bundle;
+import android.view.MotionEvent;
+import android.view.View;
+import android.view.WindowManager;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Benchmark 用的全螢幕觸控目標：記錄每個手指按下的時間（MotionEvent.getEventTime，
+ * 與 System.nanoTime 同為 CLOCK_MONOTONIC）與螢幕座標。
+ */
+public class TouchTargetActivity extends Activity {
+
+    /** 收到的一次手指按下 */
+    static final class Touch {
+        final long timeNs;
+        final float x;
+        final float y;
+
+        Touch(long timeNs, float x, float y) {
+            this.timeNs = timeNs;
+            this.x = x;
+            this.y = y;
+        }
+    }
+
+    private final List<Touch> touches = new ArrayList<>();
+    private View target;
+
+    @Override
+    protected void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+        getWindow().addFlags(WindowManager.LayoutParams.FLAG_KEEP_SCREEN_ON);
+        target = new View(this);
+        target.setBackgroundColor(0xFF101418);
+        target.setOnTouchListener((v, event) -> {
+            record(event);
+            return true;
+        });
+        setContentView(target);
+    }
+
+    private void record(MotionEvent event) {
+        int action = event.getActionMasked();
+        if (action != MotionEvent.ACTION_DOWN && action != MotionEvent.ACTION_POINTER_DOWN) return;
+        int index = event.getActionIndex();
+        // getX(i) 是 view 座標，加上 view 在螢幕上的偏移
+        float offsetX = event.getRawX() - event.getX();
+        float offsetY = event.getRawY() - event.getY();
+        synchronized (touches) {
+            touches.add(new Touch(event.getEventTime() * 1_000_000L,
+                    event.getX(index) + offsetX, event.getY(index) + offsetY));
+        }
+    }
+
+    /** 取出並清空目前收到的觸控 */
+    List<Touch> drainTouches() {
+        synchronized (touches) {
+            List<Touch> out = new ArrayList<>(touches);
+            touches.clear();
+            return out;
+        }
+    }
+
+    /** 觸控目標在螢幕上的範圍 {left, top, width, height} */
+    int[] targetBounds() {
+        int[] loc = new int[2];
+        target.getLocationOnScreen(loc);
+        return new int[]{loc[0], loc[1], target.getWidth(), target.getHeight()};
+    }
+}
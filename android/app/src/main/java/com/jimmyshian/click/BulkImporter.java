@@ -0,0 +1,210 @@
+package com.jimmyshian.click;
+
+import android.content.ContentResolver;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Process;
+import android.os.SystemClock;
+import android.provider.DocumentsContract;
+import android.util.Log;
+
+import java.io.InputStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 從 ACTION_OPEN_DOCUMENT_TREE 選到的資料夾批次匯入樂譜。
+ *
+ * 協調執行緒先走訪資料夾（含子資料夾）列出 .json / .txt 檔，再交給固定大小
+ * （CPU 核心數）的執行緒池平行讀取並以 SheetConverter 轉換（先查 CompiledScriptCache，
+ * 重複匯入同一批樂譜時不必重新轉換），每個檔案完成時由 Listener 回報轉換結果或錯誤。工作執行緒使用 THREAD_PRIORITY_BACKGROUND，不與 overlay / 播放排程搶 CPU。
+ * Listener 會在工作執行緒上被呼叫。
+ */
+final class BulkImporter {
+
+    interface Listener {
+        void onStarted(int total);
+
+        /**
+         * 單一檔案完成。
+         *
+         * @param result 轉換結果；失敗或略過時為 null
+         * @param error  錯誤訊息；成功或略過時為 null
+         */
+        void onFile(int index, int total, String fileName, SheetConverter.Result result, String error);
+
+        void onFinished(int converted, int failed, int skipped, long elapsedMs, boolean cancelled);
+    }
+
+    private static final String TAG = "OmniClickBulkImport";
+    // 超過此大小的檔案不當成樂譜讀取
+    private static final long MAX_FILE_BYTES = 16L * 1024 * 1024;
+
+    private static final class Entry {
+        final Uri uri;
+        final String name;
+
+        Entry(Uri uri, String name) {
+            this.uri = uri;
+            this.name = name;
+        }
+    }
+
+    private final ContentResolver resolver;
+    private final Uri treeUri;
+    private final SheetConverter.Layout layout;
+    private final String layoutHash;
+    private final CompiledScriptCache cache;
+    private final Listener listener;
+    private final int threads;
+    private final AtomicInteger converted = new AtomicInteger();
+    private final AtomicInteger failed = new AtomicInteger();
+    private final AtomicInteger skipped = new AtomicInteger();
+    private volatile boolean cancelled = false;
+    private volatile ThreadPoolExecutor pool;
+
+    /**
+     * @param layoutHash layout 腳本內容的 hash（快取 key 的一部分）
+     * @param cache      轉換結果快取，可為 null
+     */
+    BulkImporter(ContentResolver resolver, Uri treeUri, SheetConverter.Layout layout, String layoutHash,
+                 CompiledScriptCache cache, Listener listener) {
+        this.resolver = resolver;
+        this.treeUri = treeUri;
+        this.layout = layout;
+        this.layoutHash = layoutHash;
+        this.cache = cache;
+        this.listener = listener;
+        this.threads = Math.max(1, Runtime.getRuntime().availableProcessors());
+    }
+
+    void start() {
+        new Thread(this::run, "OmniClickBulkImport").start();
+    }
+
+    /** 取消：尚未開始的檔案不再處理，進行中的檔案完成後丟棄結果 */
+    void cancel() {
+        cancelled = true;
+        ThreadPoolExecutor p = pool;
+        if (p != null) p.shutdownNow();
+    }
+
+    boolean isCancelled() {
+        return cancelled;
+    }
+
+    private void run() {
+        Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+        long start = SystemClock.elapsedRealtime();
+        List<Entry> files = listFiles();
+        int total = files.size();
+        Log.d(TAG, "bulk import: " + total + " files, threads=" + threads);
+        listener.onStarted(total);
+
+        ThreadPoolExecutor p = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<>(), r -> {
+                    Thread t = new Thread(() -> {
+                        Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                        r.run();
+                    }, "OmniClickBulkImport-worker");
+                    t.setDaemon(true);
+                    return t;
+                });
+        pool = p;
+        for (int i = 0; i < total && !cancelled; i++) {
+            final int index = i;
+            final Entry e = files.get(i);
+            try {
+                p.execute(() -> importOne(index, total, e));
+            } catch (Exception rejected) {
+                // cancel() 之後 execute 會被拒絕
+                break;
+            }
+        }
+        p.shutdown();
+        try {
+            while (!p.awaitTermination(1, TimeUnit.SECONDS)) {
+                if (cancelled) p.shutdownNow();
+            }
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            cancelled = true;
+        }
+        long elapsed = SystemClock.elapsedRealtime() - start;
+        Log.d(TAG, String.format(Locale.US, "bulk import %s: converted=%d, failed=%d, skipped=%d, %dms",
+                cancelled ? "cancelled" : "finished", converted.get(), failed.get(), skipped.get(), elapsed));
+        listener.onFinished(converted.get(), failed.get(), skipped.get(), elapsed, cancelled);
+    }
+
+    private void importOne(int index, int total, Entry e) {
+        if (cancelled) return;
+        SheetConverter.Result result = null;
+        String error = null;
+        try (InputStream in = resolver.openInputStream(e.uri)) {
+            if (in == null) throw new IllegalStateException("Cannot open file");
+            result = SheetConverter.convertCached(SheetConverter.readBytes(in), stripExtension(e.name),
+                    layout, layoutHash, cache);
+        } catch (Exception ex) {
+            error = ex.getMessage() != null ? ex.getMessage() : ex.getClass().getSimpleName();
+        }
+        if (cancelled) return;
+        if (result != null) {
+            converted.incrementAndGet();
+        } else if (error != null) {
+            failed.incrementAndGet();
+            Log.w(TAG, "bulk import failed: " + e.name + ": " + error);
+        } else {
+            skipped.incrementAndGet();
+        }
+        listener.onFile(index, total, e.name, result, error);
+    }
+
+    /** 以 BFS 走訪資料夾，回傳所有可能是樂譜的檔案 */
+    private List<Entry> listFiles() {
+        List<Entry> out = new ArrayList<>();
+        ArrayDeque<String> dirs = new ArrayDeque<>();
+        dirs.add(DocumentsContract.getTreeDocumentId(treeUri));
+        String[] projection = {
+                DocumentsContract.Document.COLUMN_DOCUMENT_ID,
+                DocumentsContract.Document.COLUMN_DISPLAY_NAME,
+                DocumentsContract.Document.COLUMN_MIME_TYPE,
+                DocumentsContract.Document.COLUMN_SIZE
+        };
+        while (!dirs.isEmpty() && !cancelled) {
+            Uri children = DocumentsContract.buildChildDocumentsUriUsingTree(treeUri, dirs.poll());
+            try (Cursor c = resolver.query(children, projection, null, null, null)) {
+                if (c == null) continue;
+                while (c.moveToNext()) {
+                    String docId = c.getString(0);
+                    String name = c.getString(1);
+                    String mime = c.getString(2);
+                    long size = c.getLong(3);
+                    if (DocumentsContract.Document.MIME_TYPE_DIR.equals(mime)) {
+                        dirs.add(docId);
+                    } else if (name != null && isSongFile(name) && size <= MAX_FILE_BYTES) {
+                        out.add(new Entry(DocumentsContract.buildDocumentUriUsingTree(treeUri, docId), name));
+                    }
+                }
+            } catch (Exception e) {
+                Log.e(TAG, "listFiles failed", e);
+            }
+        }
+        return out;
+    }
+
+    private static boolean isSongFile(String name) {
+        String lower = name.toLowerCase(Locale.US);
+        return lower.endsWith(".json") || lower.endsWith(".txt");
+    }
+
+    private static String stripExtension(String name) {
+        int dot = name.lastIndexOf('.');
+        return dot > 0 ? name.substring(0, dot) : name;
+    }
+}
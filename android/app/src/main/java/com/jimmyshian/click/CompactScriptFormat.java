@@ -0,0 +1,355 @@
+package com.jimmyshian.click;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * 精簡的腳本匯出格式（gzip 串流），取代格式化 JSON 中的絕對浮點數與每個 step 的 UUID。
+ *
+ * gzip 內容：magic "OMNC" + varint 版本 + metadata JSON（varint 長度 + UTF-8），之後逐筆 step，
+ * 以 END 結束。每個 step：
+ *   head（1 byte）：bit 0–2 type 代碼，bit 3 有終點，bit 4 有 label，bit 5 非預設的 repeat，
+ *                   bit 6 非預設的手勢參數
+ *   目標點：varint 參照；0 = 新的點，接著 zigzag(x, y 與上一個新點的差)，n > 0 = 第 n 個出現過的點
+ *   delay：zigzag(與上一個 step 的 delay 差)
+ *   其餘欄位依 head 的旗標出現；type 為其他字串與 label 以字串表參照（與目標點相同的規則）。
+ * 座標以 0.01 px、時間以 1 µs 為單位存成整數；step id 不保存，讀回時依順序重新產生。
+ * Writer / Reader 一次只編碼 / 解碼一個 step，格式本身不需要把整份腳本放在記憶體中；
+ * 但目前的匯出仍由 JS 傳入完整 JSON 並解析成 NativeScript，匯入也是讀入整個檔案後
+ * 轉回完整的 JSON 字串交給 WebView，兩邊的上限都是腳本 JSON 本身的大小。
+ */
+final class CompactScriptFormat {
+
+    static final int VERSION = 1;
+    private static final byte[] MAGIC = {'O', 'M', 'N', 'C'};
+    private static final int END = 0xff;
+    // 字串表 / 目標點表的上限；超過後新的值直接寫出，不再編號（讀寫兩邊規則相同）
+    private static final int MAX_INTERNED = 4096;
+    private static final int BUFFER_BYTES = 16 * 1024;
+
+    private static final String[] TYPES = {"click", "double-click", "hold", "swipe", "press-drag", "multi-tap"};
+    private static final int TYPE_OTHER = 7;
+    private static final int HAS_END = 1 << 3;
+    private static final int HAS_LABEL = 1 << 4;
+    private static final int HAS_REPEAT = 1 << 5;
+    private static final int HAS_PARAMS = 1 << 6;
+
+    private CompactScriptFormat() {
+    }
+
+    /** 內容是否為 gzip（精簡格式）；JSON 文字不會以這兩個 byte 開頭 */
+    static boolean isCompact(byte[] head) {
+        return head.length >= 2 && (head[0] & 0xff) == 0x1f && (head[1] & 0xff) == 0x8b;
+    }
+
+    /** 把整份腳本串流寫到 out（寫完會關閉 out） */
+    static void write(String metadataJson, Iterable<ScriptStep> steps, OutputStream out) throws IOException {
+        try (Writer w = new Writer(out, metadataJson)) {
+            for (ScriptStep s : steps) {
+                w.write(s);
+            }
+        }
+    }
+
+    /** 精簡格式轉回 ClickScript JSON（匯入時交給 WebView / parseLayout） */
+    static String toJson(byte[] content) throws IOException {
+        // 預估容量：gzip 後約為 JSON 的 1/8；上限 4M 字元，更大的腳本由 StringBuilder 自行擴充
+        StringBuilder json = new StringBuilder((int) Math.min(content.length * 8L, 1 << 22));
+        toJson(new ByteArrayInputStream(content), json);
+        return json.toString();
+    }
+
+    /** 逐筆解碼並附加到 out，step 不會累積在記憶體中 */
+    static void toJson(InputStream in, StringBuilder out) throws IOException {
+        try (Reader r = new Reader(in)) {
+            out.append("{\"metadata\":").append(r.metadataJson()).append(",\"steps\":[");
+            ScriptStep s;
+            for (int i = 0; (s = r.next()) != null; i++) {
+                if (i > 0) out.append(',');
+                appendJson(s, out);
+            }
+            out.append("]}");
+        }
+    }
+
+    /** 與 ScriptStep.toJson 相同的欄位（不依賴 org.json） */
+    static void appendJson(ScriptStep s, StringBuilder out) {
+        out.append("{\"id\":").append(SheetConverter.quote(s.id))
+                .append(",\"x\":").append(centi(s.x))
+                .append(",\"y\":").append(centi(s.y))
+                .append(",\"delay\":").append(SheetConverter.number(s.delay))
+                .append(",\"type\":").append(SheetConverter.quote(s.type));
+        if (s.label != null) out.append(",\"label\":").append(SheetConverter.quote(s.label));
+        if (s.hasEnd) {
+            out.append(",\"endX\":").append(centi(s.endX)).append(",\"endY\":").append(centi(s.endY));
+        }
+        if ("swipe".equals(s.type) || "press-drag".equals(s.type)) {
+            out.append(",\"swipeDuration\":").append(s.swipeDuration);
+        }
+        if ("hold".equals(s.type) || "press-drag".equals(s.type)) {
+            out.append(",\"holdDuration\":").append(s.holdDuration);
+        }
+        if ("multi-tap".equals(s.type)) {
+            out.append(",\"fingers\":").append(s.fingers)
+                    .append(",\"fingerSpacing\":").append(centi(s.fingerSpacing));
+        }
+        out.append(",\"repeat\":").append(s.repeat)
+                .append(",\"repeatInterval\":").append(SheetConverter.number(s.repeatInterval))
+                .append('}');
+    }
+
+    private static String centi(float v) {
+        return SheetConverter.number(Math.round(v * 100.0) / 100.0);
+    }
+
+    /** 逐筆寫入 step；close 時寫入結尾並完成 gzip */
+    static final class Writer implements Closeable {
+        private final OutputStream out;
+        private final HashMap<Long, Integer> points = new HashMap<>();
+        private final HashMap<String, Integer> strings = new HashMap<>();
+        private long lastX;
+        private long lastY;
+        private long lastDelayUs;
+        private boolean closed;
+
+        Writer(OutputStream target, String metadataJson) throws IOException {
+            out = new BufferedOutputStream(new GZIPOutputStream(target, BUFFER_BYTES), BUFFER_BYTES);
+            out.write(MAGIC);
+            writeVarint(VERSION);
+            byte[] meta = metadataJson.getBytes(StandardCharsets.UTF_8);
+            writeVarint(meta.length);
+            out.write(meta);
+        }
+
+        void write(ScriptStep s) throws IOException {
+            int type = typeCode(s.type);
+            boolean repeat = s.repeat != 1 || s.repeatInterval != 100;
+            boolean params = s.swipeDuration != ScriptTimeline.DEFAULT_SWIPE_DURATION_MS
+                    || s.holdDuration != ScriptTimeline.DEFAULT_HOLD_MS
+                    || s.fingers != ScriptTimeline.DEFAULT_FINGERS
+                    || s.fingerSpacing != ScriptTimeline.DEFAULT_FINGER_SPACING;
+            out.write(type | (s.hasEnd ? HAS_END : 0) | (s.label != null ? HAS_LABEL : 0)
+                    | (repeat ? HAS_REPEAT : 0) | (params ? HAS_PARAMS : 0));
+
+            long x = Math.round(s.x * 100.0);
+            long y = Math.round(s.y * 100.0);
+            Long point = (x << 32) ^ (y & 0xffffffffL);
+            Integer ref = points.get(point);
+            if (ref != null) {
+                writeVarint(ref + 1);
+            } else {
+                writeVarint(0);
+                writeSigned(x - lastX);
+                writeSigned(y - lastY);
+                lastX = x;
+                lastY = y;
+                if (points.size() < MAX_INTERNED) points.put(point, points.size());
+            }
+            long delayUs = Math.round(s.delay * 1000.0);
+            writeSigned(delayUs - lastDelayUs);
+            lastDelayUs = delayUs;
+
+            if (s.hasEnd) {
+                writeSigned(Math.round(s.endX * 100.0) - x);
+                writeSigned(Math.round(s.endY * 100.0) - y);
+            }
+            if (s.label != null) writeString(s.label);
+            if (repeat) {
+                writeVarint(s.repeat);
+                writeVarint(Math.round(s.repeatInterval * 1000.0));
+            }
+            if (params) {
+                writeVarint(s.swipeDuration);
+                writeVarint(s.holdDuration);
+                writeVarint(s.fingers);
+                writeSigned(Math.round(s.fingerSpacing * 100.0));
+            }
+            if (type == TYPE_OTHER) writeString(s.type);
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (closed) return;
+            closed = true;
+            out.write(END);
+            out.close();
+        }
+
+        private void writeString(String s) throws IOException {
+            Integer ref = strings.get(s);
+            if (ref != null) {
+                writeVarint(ref + 1);
+                return;
+            }
+            writeVarint(0);
+            byte[] b = s.getBytes(StandardCharsets.UTF_8);
+            writeVarint(b.length);
+            out.write(b);
+            if (strings.size() < MAX_INTERNED) strings.put(s, strings.size());
+        }
+
+        private void writeSigned(long v) throws IOException {
+            writeVarint((v << 1) ^ (v >> 63));
+        }
+
+        private void writeVarint(long v) throws IOException {
+            while ((v & ~0x7fL) != 0) {
+                out.write((int) ((v & 0x7f) | 0x80));
+                v >>>= 7;
+            }
+            out.write((int) v);
+        }
+
+        private static int typeCode(String type) {
+            for (int i = 0; i < TYPES.length; i++) {
+                if (TYPES[i].equals(type)) return i;
+            }
+            return TYPE_OTHER;
+        }
+    }
+
+    /** 逐筆讀出 step；格式錯誤時丟出 IOException */
+    static final class Reader implements Closeable {
+        private final InputStream in;
+        private final String metadataJson;
+        private final ArrayList<long[]> points = new ArrayList<>();
+        private final ArrayList<String> strings = new ArrayList<>();
+        private long lastX;
+        private long lastY;
+        private long lastDelayUs;
+        private int index;
+        private boolean ended;
+
+        Reader(InputStream source) throws IOException {
+            in = new BufferedInputStream(new GZIPInputStream(source, BUFFER_BYTES), BUFFER_BYTES);
+            for (byte m : MAGIC) {
+                if (readByte() != m) throw new IOException("Not an OmniClick compact script");
+            }
+            long version = readVarint();
+            if (version != VERSION) throw new IOException("Unsupported compact script version " + version);
+            metadataJson = new String(readBytes((int) readVarint()), StandardCharsets.UTF_8);
+        }
+
+        String metadataJson() {
+            return metadataJson;
+        }
+
+        /** 下一個 step，結尾時回傳 null */
+        ScriptStep next() throws IOException {
+            if (ended) return null;
+            int head = readByte();
+            if (head == END) {
+                ended = true;
+                return null;
+            }
+            ScriptStep s = new ScriptStep();
+            s.id = "s" + Integer.toString(index++, 36);
+            int type = head & 0x07;
+
+            long ref = readVarint();
+            long x;
+            long y;
+            if (ref == 0) {
+                x = lastX + readSigned();
+                y = lastY + readSigned();
+                lastX = x;
+                lastY = y;
+                if (points.size() < MAX_INTERNED) points.add(new long[]{x, y});
+            } else {
+                if (ref > points.size()) throw new IOException("Bad point reference " + ref);
+                long[] p = points.get((int) ref - 1);
+                x = p[0];
+                y = p[1];
+            }
+            s.x = x / 100f;
+            s.y = y / 100f;
+            lastDelayUs += readSigned();
+            s.delay = lastDelayUs / 1000.0;
+
+            if ((head & HAS_END) != 0) {
+                s.hasEnd = true;
+                s.endX = (x + readSigned()) / 100f;
+                s.endY = (y + readSigned()) / 100f;
+            }
+            if ((head & HAS_LABEL) != 0) s.label = readString();
+            if ((head & HAS_REPEAT) != 0) {
+                s.repeat = (int) readVarint();
+                s.repeatInterval = readVarint() / 1000.0;
+            }
+            if ((head & HAS_PARAMS) != 0) {
+                s.swipeDuration = readVarint();
+                s.holdDuration = readVarint();
+                s.fingers = (int) readVarint();
+                s.fingerSpacing = readSigned() / 100f;
+            }
+            if (type == TYPE_OTHER) {
+                s.type = readString();
+            } else if (type < TYPES.length) {
+                s.type = TYPES[type];
+            } else {
+                throw new IOException("Bad step type " + type);
+            }
+            return s;
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+
+        private String readString() throws IOException {
+            long ref = readVarint();
+            if (ref != 0) {
+                if (ref > strings.size()) throw new IOException("Bad string reference " + ref);
+                return strings.get((int) ref - 1);
+            }
+            String s = new String(readBytes((int) readVarint()), StandardCharsets.UTF_8);
+            if (strings.size() < MAX_INTERNED) strings.add(s);
+            return s;
+        }
+
+        private byte[] readBytes(int length) throws IOException {
+            if (length < 0 || length > ControlProtocol.MAX_PAYLOAD) throw new IOException("Bad length " + length);
+            byte[] b = new byte[length];
+            int off = 0;
+            while (off < length) {
+                int r = in.read(b, off, length - off);
+                if (r < 0) throw new EOFException("Truncated compact script");
+                off += r;
+            }
+            return b;
+        }
+
+        private int readByte() throws IOException {
+            int b = in.read();
+            if (b < 0) throw new EOFException("Truncated compact script");
+            return b;
+        }
+
+        private long readSigned() throws IOException {
+            long v = readVarint();
+            return (v >>> 1) ^ -(v & 1);
+        }
+
+        private long readVarint() throws IOException {
+            long v = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                int b = readByte();
+                v |= (long) (b & 0x7f) << shift;
+                if ((b & 0x80) == 0) return v;
+            }
+            throw new IOException("Malformed varint");
+        }
+    }
+}
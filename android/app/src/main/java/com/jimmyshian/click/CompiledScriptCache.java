@@ -0,0 +1,240 @@
+package com.jimmyshian.click;
+
+import android.util.Log;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * 轉換結果的持久快取：key 為來源內容的 SHA-256 加上轉換參數，值為編譯好的 step 陣列。
+ *
+ * 每個項目一個檔案（app 私有目錄），總大小超過 budget 時依 LRU 淘汰；
+ * LRU 順序以檔案的 lastModified 保存（命中時更新），重新啟動後照樣有效。
+ * 索引操作 synchronized，檔案讀寫在鎖外進行，批次匯入的多個工作執行緒可同時使用。
+ */
+final class CompiledScriptCache {
+
+    private static final String TAG = "OmniClickScriptCache";
+    private static final String SUFFIX = ".bin";
+    /** 預設容量上限 */
+    static final long DEFAULT_BUDGET_BYTES = 32L * 1024 * 1024;
+
+    private final File dir;
+    private final long budgetBytes;
+    // key -> 檔案大小，access order = LRU
+    private final LinkedHashMap<String, Long> index = new LinkedHashMap<>(64, 0.75f, true);
+    private boolean loaded = false;
+    private long totalBytes = 0;
+    private long tmpSeq = 0;
+
+    private long hits = 0;
+    private long misses = 0;
+    private long puts = 0;
+    private long evictions = 0;
+
+    CompiledScriptCache(File dir, long budgetBytes) {
+        this.dir = dir;
+        this.budgetBytes = budgetBytes;
+    }
+
+    /** 以 '\n' 連接各部分後取 SHA-256（hex），用來組合內容 hash 與轉換參數 */
+    static String key(String... parts) {
+        MessageDigest md = sha256();
+        for (String p : parts) {
+            md.update((p != null ? p : "").getBytes(StandardCharsets.UTF_8));
+            md.update((byte) '\n');
+        }
+        return hex(md.digest());
+    }
+
+    /** 內容的 SHA-256（hex） */
+    static String hash(byte[] content) {
+        return hex(sha256().digest(content));
+    }
+
+    /** 取出快取內容；沒有時回傳 null（計入 miss） */
+    String get(String key) {
+        File file;
+        synchronized (this) {
+            ensureLoaded();
+            if (index.get(key) == null) {
+                misses++;
+                return null;
+            }
+            file = fileFor(key);
+        }
+        try {
+            String value = new String(readAll(file), StandardCharsets.UTF_8);
+            file.setLastModified(System.currentTimeMillis());
+            synchronized (this) {
+                hits++;
+            }
+            return value;
+        } catch (IOException e) {
+            Log.w(TAG, "cache entry unreadable, dropping " + key, e);
+            synchronized (this) {
+                remove(key);
+                misses++;
+            }
+            return null;
+        }
+    }
+
+    /** 寫入（已存在時覆蓋），之後依 LRU 淘汰到 budget 以內 */
+    void put(String key, String value) {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        if (bytes.length > budgetBytes) return;
+        File tmp;
+        synchronized (this) {
+            ensureLoaded();
+            tmp = new File(dir, key + "." + (tmpSeq++) + ".tmp");
+        }
+        try (FileOutputStream out = new FileOutputStream(tmp)) {
+            out.write(bytes);
+        } catch (IOException e) {
+            Log.w(TAG, "cache write failed for " + key, e);
+            tmp.delete();
+            return;
+        }
+        synchronized (this) {
+            File file = fileFor(key);
+            if (!tmp.renameTo(file)) {
+                tmp.delete();
+                return;
+            }
+            Long old = index.put(key, (long) bytes.length);
+            if (old != null) totalBytes -= old;
+            totalBytes += bytes.length;
+            puts++;
+            trim();
+        }
+    }
+
+    synchronized void clear() {
+        ensureLoaded();
+        for (String key : new ArrayList<>(index.keySet())) {
+            remove(key);
+        }
+    }
+
+    synchronized long sizeBytes() {
+        ensureLoaded();
+        return totalBytes;
+    }
+
+    synchronized int entryCount() {
+        ensureLoaded();
+        return index.size();
+    }
+
+    synchronized long getHits() {
+        return hits;
+    }
+
+    synchronized long getMisses() {
+        return misses;
+    }
+
+    synchronized long getEvictions() {
+        return evictions;
+    }
+
+    synchronized String toJson() {
+        ensureLoaded();
+        long lookups = hits + misses;
+        return String.format(Locale.US,
+                "{\"entries\":%d,\"bytes\":%d,\"budgetBytes\":%d,\"hits\":%d,\"misses\":%d,\"hitRate\":%.3f,"
+                        + "\"puts\":%d,\"evictions\":%d}",
+                index.size(), totalBytes, budgetBytes, hits, misses,
+                lookups > 0 ? (double) hits / lookups : 0, puts, evictions);
+    }
+
+    /** 第一次使用時從目錄重建索引（依 lastModified 排序，舊的在前） */
+    private void ensureLoaded() {
+        if (loaded) return;
+        loaded = true;
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            Log.w(TAG, "cannot create cache dir " + dir);
+            return;
+        }
+        File[] files = dir.listFiles();
+        if (files == null) return;
+        Arrays.sort(files, (a, b) -> Long.compare(a.lastModified(), b.lastModified()));
+        for (File f : files) {
+            String name = f.getName();
+            if (name.endsWith(".tmp")) {
+                // 上次寫到一半
+                f.delete();
+            } else if (name.endsWith(SUFFIX)) {
+                long size = f.length();
+                index.put(name.substring(0, name.length() - SUFFIX.length()), size);
+                totalBytes += size;
+            }
+        }
+        trim();
+    }
+
+    private void trim() {
+        Iterator<Map.Entry<String, Long>> it = index.entrySet().iterator();
+        while (totalBytes > budgetBytes && it.hasNext()) {
+            Map.Entry<String, Long> eldest = it.next();
+            it.remove();
+            totalBytes -= eldest.getValue();
+            fileFor(eldest.getKey()).delete();
+            evictions++;
+        }
+    }
+
+    private void remove(String key) {
+        Long size = index.remove(key);
+        if (size != null) totalBytes -= size;
+        fileFor(key).delete();
+    }
+
+    private File fileFor(String key) {
+        return new File(dir, key + SUFFIX);
+    }
+
+    private static byte[] readAll(File file) throws IOException {
+        try (InputStream in = new FileInputStream(file)) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream((int) Math.max(16, file.length()));
+            byte[] buf = new byte[16 * 1024];
+            int r;
+            while ((r = in.read(buf)) != -1) {
+                out.write(buf, 0, r);
+            }
+            return out.toByteArray();
+        }
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String hex(byte[] bytes) {
+        char[] out = new char[bytes.length * 2];
+        final char[] digits = "0123456789abcdef".toCharArray();
+        for (int i = 0; i < bytes.length; i++) {
+            out[i * 2] = digits[(bytes[i] >> 4) & 0xf];
+            out[i * 2 + 1] = digits[bytes[i] & 0xf];
+        }
+        return new String(out);
+    }
+}
@@ -0,0 +1,120 @@
+package com.jimmyshian.click;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * 本機控制通道的 frame 格式（裝置端 ControlSession 與主機端 control-client 模組的 ControlClient 共用）。
+ *
+ * 每個 frame：1 byte type + 4 byte 長度（big-endian）+ payload。
+ * payload 以 DataOutputStream 編碼（int / float 為 big-endian，字串為 writeUTF 或 UTF-8 bytes）。
+ * 連線建立後裝置先送出 HELLO（協定版本）；主機送出的每個請求都會收到一個 RESULT，
+ * 訂閱後另外會收到 PROGRESS / FINISHED / METRICS 推播，與 RESULT 交錯出現。
+ * 例外：即時模式的 NOTES 是單向串流，不回 RESULT（延遲統計放在 METRICS 的 "live" 欄位）。
+ */
+public final class ControlProtocol {
+
+    public static final int VERSION = 1;
+    /** 裝置端的 abstract Unix socket 名稱：adb forward tcp:7345 localabstract:omniclick.control */
+    public static final String SOCKET_NAME = "omniclick.control";
+    public static final int DEFAULT_HOST_PORT = 7345;
+    // 上傳腳本的上限，避免錯誤的長度欄位讓裝置端配置過大的 buffer
+    static final int MAX_PAYLOAD = 8 * 1024 * 1024;
+    /** 前景腳本的 track id（與 PlaybackScheduler.MAIN_TRACK_ID 相同；主機端不依賴 Android 類別） */
+    public static final int MAIN_TRACK_ID = 0;
+
+    // 主機 -> 裝置
+    /** payload：腳本 JSON（UTF-8 bytes）；RESULT 訊息為 script id */
+    public static final int UPLOAD = 0x01;
+    /** payload：writeUTF(scriptId) + float speed + int startIndex */
+    public static final int START = 0x02;
+    /** payload：空 */
+    public static final int STOP = 0x03;
+    /** payload：int stepIndex（目前這一輪內跳到指定 step 重新開始） */
+    public static final int SEEK = 0x04;
+    /** payload：boolean（true 開始推播進度與 metrics，false 停止） */
+    public static final int SUBSCRIBE = 0x05;
+    /** payload：layout 腳本 JSON（UTF-8 bytes，Key1–Key15）開始即時模式；空 payload 停止 */
+    public static final int LIVE = 0x06;
+    /** payload：int count + count 個 (byte key, long 傳送端時間戳 ns)；不回 RESULT */
+    public static final int NOTES = 0x07;
+    /** 一個 NOTES frame 最多的音符數 */
+    public static final int MAX_NOTES_PER_FRAME = 256;
+
+    // 裝置 -> 主機
+    /** payload：int version */
+    public static final int HELLO = 0x40;
+    /** payload：boolean ok + writeUTF(message) */
+    public static final int RESULT = 0x41;
+    /** payload：int trackId + int stepIndex + int loopIndex + long 裝置端 elapsedRealtimeNanos */
+    public static final int PROGRESS = 0x42;
+    /** payload：int trackId + boolean cancelled + UTF-8 統計 JSON */
+    public static final int FINISHED = 0x43;
+    /** payload：UTF-8 metrics JSON（jitter / 速率控制 / 推播丟棄數） */
+    public static final int METRICS = 0x44;
+
+    private ControlProtocol() {
+    }
+
+    /** 解碼後的一個 frame */
+    public static final class Frame {
+        public final int type;
+        public final byte[] payload;
+
+        Frame(int type, byte[] payload) {
+            this.type = type;
+            this.payload = payload;
+        }
+
+        public DataInputStream data() {
+            return new DataInputStream(new ByteArrayInputStream(payload));
+        }
+
+        public String text() {
+            return new String(payload, StandardCharsets.UTF_8);
+        }
+    }
+
+    /** 讀取一個 frame；對方正常關閉連線時回傳 null */
+    static Frame read(DataInputStream in) throws IOException {
+        int type = in.read();
+        if (type < 0) return null;
+        int length = in.readInt();
+        if (length < 0 || length > MAX_PAYLOAD) {
+            throw new IOException("Bad frame length " + length + " for type 0x" + Integer.toHexString(type));
+        }
+        byte[] payload = new byte[length];
+        try {
+            in.readFully(payload);
+        } catch (EOFException e) {
+            throw new IOException("Truncated frame", e);
+        }
+        return new Frame(type, payload);
+    }
+
+    static byte[] frame(int type, byte[] payload) {
+        byte[] out = new byte[5 + payload.length];
+        out[0] = (byte) type;
+        out[1] = (byte) (payload.length >>> 24);
+        out[2] = (byte) (payload.length >>> 16);
+        out[3] = (byte) (payload.length >>> 8);
+        out[4] = (byte) payload.length;
+        System.arraycopy(payload, 0, out, 5, payload.length);
+        return out;
+    }
+
+    /** 以 DataOutputStream 組 payload 的小工具 */
+    static final class Payload {
+        private final ByteArrayOutputStream bytes = new ByteArrayOutputStream(32);
+        final DataOutputStream out = new DataOutputStream(bytes);
+
+        byte[] toFrame(int type) {
+            return frame(type, bytes.toByteArray());
+        }
+    }
+}
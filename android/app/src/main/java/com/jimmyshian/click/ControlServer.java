@@ -0,0 +1,142 @@
+package com.jimmyshian.click;
+
+import android.net.Credentials;
+import android.net.LocalServerSocket;
+import android.net.LocalSocket;
+import android.net.LocalSocketAddress;
+import android.os.Process;
+import android.util.Log;
+
+import java.io.IOException;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * 本機控制伺服器：abstract Unix socket（ControlProtocol.SOCKET_NAME），預設不開啟。
+ *
+ * 主機端透過 adb forward tcp:7345 localabstract:omniclick.control 連入。
+ * abstract socket 裝置上的其他 App 也連得到，因此只接受 shell（adb）、root 與本 App 自己的 uid。
+ * 每條連線一個 ControlSession；推播由服務的播放回呼廣播給所有已訂閱的連線。
+ */
+final class ControlServer {
+
+    private static final String TAG = "ControlServer";
+    // android.os.Process.SHELL_UID / ROOT_UID 要到 API 29 才公開
+    private static final int SHELL_UID = 2000;
+    private static final int ROOT_UID = 0;
+    private static final int MAX_SESSIONS = 4;
+
+    private final ControlSession.Target target;
+    private final CopyOnWriteArrayList<ControlSession> sessions = new CopyOnWriteArrayList<>();
+    private LocalServerSocket serverSocket;
+    private Thread acceptThread;
+    private volatile boolean running = false;
+
+    ControlServer(ControlSession.Target target) {
+        this.target = target;
+    }
+
+    boolean isRunning() {
+        return running;
+    }
+
+    synchronized boolean start() {
+        if (running) return true;
+        try {
+            serverSocket = new LocalServerSocket(ControlProtocol.SOCKET_NAME);
+        } catch (IOException e) {
+            Log.e(TAG, "Cannot bind control socket " + ControlProtocol.SOCKET_NAME, e);
+            return false;
+        }
+        running = true;
+        LocalServerSocket socket = serverSocket;
+        acceptThread = new Thread(() -> acceptLoop(socket), "OmniClickControl");
+        acceptThread.start();
+        Log.d(TAG, "Control server listening on localabstract:" + ControlProtocol.SOCKET_NAME);
+        return true;
+    }
+
+    synchronized void stop() {
+        if (!running) return;
+        running = false;
+        for (ControlSession s : sessions) {
+            s.close();
+        }
+        sessions.clear();
+        // 關閉 LocalServerSocket 不會喚醒阻塞中的 accept()：先自己連一次讓它返回
+        try (LocalSocket wake = new LocalSocket()) {
+            wake.connect(new LocalSocketAddress(ControlProtocol.SOCKET_NAME));
+        } catch (IOException ignored) {
+            // accept 已結束
+        }
+        try {
+            serverSocket.close();
+        } catch (IOException ignored) {
+            // 已關閉
+        }
+        serverSocket = null;
+        acceptThread = null;
+        Log.d(TAG, "Control server stopped");
+    }
+
+    void publishProgress(int trackId, int stepIndex, int loopIndex, long timeNs) {
+        for (ControlSession s : sessions) {
+            s.pushProgress(trackId, stepIndex, loopIndex, timeNs);
+        }
+    }
+
+    void publishFinished(int trackId, boolean cancelled, String statsJson) {
+        for (ControlSession s : sessions) {
+            s.pushFinished(trackId, cancelled, statsJson);
+        }
+    }
+
+    private void acceptLoop(LocalServerSocket server) {
+        while (running) {
+            LocalSocket client;
+            try {
+                client = server.accept();
+            } catch (IOException e) {
+                if (running) Log.e(TAG, "accept failed", e);
+                break;
+            }
+            if (!running) {
+                closeQuietly(client);
+                break;
+            }
+            if (!isTrusted(client) || sessions.size() >= MAX_SESSIONS) {
+                closeQuietly(client);
+                continue;
+            }
+            try {
+                ControlSession session = new ControlSession(client.getInputStream(),
+                        client.getOutputStream(), client, target);
+                session.setOnClosed(() -> sessions.remove(session));
+                sessions.add(session);
+                new Thread(session, "OmniClickControlSession").start();
+            } catch (IOException e) {
+                Log.e(TAG, "Cannot open control session", e);
+                closeQuietly(client);
+            }
+        }
+    }
+
+    private static boolean isTrusted(LocalSocket client) {
+        try {
+            Credentials peer = client.getPeerCredentials();
+            int uid = peer.getUid();
+            if (uid == SHELL_UID || uid == ROOT_UID || uid == Process.myUid()) return true;
+            Log.w(TAG, "Rejected control connection from uid " + uid);
+        } catch (IOException e) {
+            Log.w(TAG, "Cannot read peer credentials", e);
+        }
+        return false;
+    }
+
+    private static void closeQuietly(LocalSocket socket) {
+        try {
+            socket.close();
+        } catch (IOException ignored) {
+            // 已關閉
+        }
+    }
+}
@@ -0,0 +1,271 @@
+package com.jimmyshian.click;
+
+import android.util.Log;
+
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 一條控制連線：讀取執行緒解析請求並呼叫 Target，寫入執行緒負責所有輸出。
+ *
+ * 推播（進度 / 結束）可能來自排程執行緒，因此只把編碼好的 frame 放進有上限的佇列，
+ * 佇列滿了直接丟棄並計數，慢的主機端不會拖住播放。
+ * 訂閱中時寫入執行緒每秒送出一次 METRICS。
+ * NOTES frame 不回 RESULT：讀取執行緒收到後立即交給 Target，不經過寫入佇列。
+ * 與傳輸方式無關（abstract Unix socket、TCP 或測試用的 loopback 都可以）。
+ */
+final class ControlSession implements Runnable {
+
+    private static final String TAG = "ControlSession";
+    private static final int OUTBOX_CAPACITY = 256;
+    private static final long METRICS_INTERVAL_MS = 1000;
+    // 回應不可丟棄：佇列滿時讀取執行緒最多等這麼久，超過視為主機端卡住並關閉連線
+    private static final long RESULT_TIMEOUT_MS = 5000;
+    private static final byte[] CLOSE = new byte[0];
+
+    /** 控制命令的實際執行者（服務端或測試替身） */
+    interface Target {
+        /** 載入腳本，回傳 script id */
+        String upload(String scriptJson) throws Exception;
+
+        boolean start(String scriptId, float speed, int startIndex);
+
+        void stop();
+
+        boolean seek(int stepIndex);
+
+        /** 目前的延遲與速率統計（JSON 物件） */
+        String metricsJson();
+
+        /** 以 layout 腳本開始即時模式；layoutJson 為空時停止 */
+        boolean live(String layoutJson) throws Exception;
+
+        /** 即時模式的一批音符（讀取執行緒上呼叫，不可阻塞）；receivedNs 為 System.nanoTime() */
+        void notes(int[] keys, long[] senderNs, int count, long receivedNs);
+    }
+
+    private final InputStream input;
+    private final OutputStream output;
+    private final Target target;
+    private final Closeable transport;
+    private final ArrayBlockingQueue<byte[]> outbox = new ArrayBlockingQueue<>(OUTBOX_CAPACITY);
+    private volatile boolean subscribed = false;
+    private volatile boolean closed = false;
+    // 送出端來自多條執行緒（排程、metrics、讀取執行緒）
+    private final AtomicLong dropped = new AtomicLong();
+    private Runnable onClosed;
+    // NOTES 解碼用（只在讀取執行緒上使用）
+    private final int[] noteKeys = new int[ControlProtocol.MAX_NOTES_PER_FRAME];
+    private final long[] noteTimes = new long[ControlProtocol.MAX_NOTES_PER_FRAME];
+
+    ControlSession(InputStream input, OutputStream output, Closeable transport, Target target) {
+        this.input = input;
+        this.output = output;
+        this.transport = transport;
+        this.target = target;
+    }
+
+    void setOnClosed(Runnable onClosed) {
+        this.onClosed = onClosed;
+    }
+
+    boolean isSubscribed() {
+        return subscribed && !closed;
+    }
+
+    /** 讀取迴圈（在呼叫端提供的執行緒上執行，直到連線關閉） */
+    @Override
+    public void run() {
+        Thread writer = new Thread(this::writeLoop, "OmniClickControlWriter");
+        writer.start();
+        DataInputStream in = new DataInputStream(input);
+        try {
+            reply(hello());
+            ControlProtocol.Frame frame;
+            while (!closed && (frame = ControlProtocol.read(in)) != null) {
+                if (frame.type == ControlProtocol.NOTES) {
+                    notes(frame);
+                } else {
+                    reply(handle(frame));
+                }
+            }
+        } catch (IOException e) {
+            if (!closed) Log.w(TAG, "control connection dropped: " + e.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            close();
+        }
+    }
+
+    void pushProgress(int trackId, int stepIndex, int loopIndex, long timeNs) {
+        if (!isSubscribed()) return;
+        ControlProtocol.Payload p = new ControlProtocol.Payload();
+        try {
+            p.out.writeInt(trackId);
+            p.out.writeInt(stepIndex);
+            p.out.writeInt(loopIndex);
+            p.out.writeLong(timeNs);
+        } catch (IOException ignored) {
+            // ByteArrayOutputStream 不會丟出
+        }
+        send(p.toFrame(ControlProtocol.PROGRESS));
+    }
+
+    void pushFinished(int trackId, boolean cancelled, String statsJson) {
+        if (!isSubscribed()) return;
+        ControlProtocol.Payload p = new ControlProtocol.Payload();
+        try {
+            p.out.writeInt(trackId);
+            p.out.writeBoolean(cancelled);
+            p.out.write(statsJson.getBytes(StandardCharsets.UTF_8));
+        } catch (IOException ignored) {
+            // ByteArrayOutputStream 不會丟出
+        }
+        send(p.toFrame(ControlProtocol.FINISHED));
+    }
+
+    void close() {
+        if (closed) return;
+        closed = true;
+        outbox.clear();
+        outbox.offer(CLOSE);
+        try {
+            transport.close();
+        } catch (IOException ignored) {
+            // 已關閉
+        }
+        if (onClosed != null) onClosed.run();
+    }
+
+    private byte[] handle(ControlProtocol.Frame frame) {
+        try {
+            DataInputStream data = frame.data();
+            switch (frame.type) {
+                case ControlProtocol.UPLOAD:
+                    return result(true, target.upload(frame.text()));
+                case ControlProtocol.START: {
+                    String scriptId = data.readUTF();
+                    float speed = data.readFloat();
+                    int startIndex = data.readInt();
+                    boolean ok = target.start(scriptId, speed, startIndex);
+                    return result(ok, ok ? "started" : "cannot start " + scriptId);
+                }
+                case ControlProtocol.STOP:
+                    target.stop();
+                    return result(true, "stopped");
+                case ControlProtocol.SEEK: {
+                    int stepIndex = data.readInt();
+                    boolean ok = target.seek(stepIndex);
+                    return result(ok, ok ? "seeked" : "nothing playing");
+                }
+                case ControlProtocol.SUBSCRIBE:
+                    subscribed = data.readBoolean();
+                    return result(true, subscribed ? "subscribed" : "unsubscribed");
+                case ControlProtocol.LIVE: {
+                    boolean on = frame.payload.length > 0;
+                    boolean ok = target.live(on ? frame.text() : "");
+                    return result(ok, on ? (ok ? "live" : "cannot start live mode") : "live stopped");
+                }
+                default:
+                    return result(false, "unknown frame type 0x" + Integer.toHexString(frame.type));
+            }
+        } catch (Exception e) {
+            Log.e(TAG, "control request 0x" + Integer.toHexString(frame.type) + " failed", e);
+            return result(false, String.valueOf(e.getMessage()));
+        }
+    }
+
+    /** 即時音符：解碼後直接交給 Target，格式錯誤的 frame 整個略過 */
+    private void notes(ControlProtocol.Frame frame) {
+        long receivedNs = System.nanoTime();
+        DataInputStream data = frame.data();
+        try {
+            int count = data.readInt();
+            if (count < 0 || count > ControlProtocol.MAX_NOTES_PER_FRAME) {
+                Log.w(TAG, "bad NOTES count " + count);
+                return;
+            }
+            for (int i = 0; i < count; i++) {
+                noteKeys[i] = data.readUnsignedByte();
+                noteTimes[i] = data.readLong();
+            }
+            target.notes(noteKeys, noteTimes, count, receivedNs);
+        } catch (IOException e) {
+            Log.w(TAG, "truncated NOTES frame");
+        }
+    }
+
+    /** 推播：佇列滿時丟棄 */
+    private void send(byte[] frame) {
+        if (closed) return;
+        if (!outbox.offer(frame)) dropped.incrementAndGet();
+    }
+
+    /** 回應：主機端在等，必須送達 */
+    private void reply(byte[] frame) throws IOException, InterruptedException {
+        if (!outbox.offer(frame, RESULT_TIMEOUT_MS, TimeUnit.MILLISECONDS)) {
+            throw new IOException("control client is not reading");
+        }
+    }
+
+    private void writeLoop() {
+        long lastMetricsMs = System.currentTimeMillis();
+        try {
+            while (!closed) {
+                byte[] frame = outbox.poll(METRICS_INTERVAL_MS, TimeUnit.MILLISECONDS);
+                if (frame == CLOSE) break;
+                if (frame != null) output.write(frame);
+                long now = System.currentTimeMillis();
+                if (subscribed && now - lastMetricsMs >= METRICS_INTERVAL_MS) {
+                    output.write(metrics());
+                    lastMetricsMs = now;
+                }
+                // 佇列還有東西時累積到最後一起 flush
+                if (outbox.isEmpty()) output.flush();
+            }
+        } catch (IOException e) {
+            if (!closed) Log.w(TAG, "control write failed: " + e.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            close();
+        }
+    }
+
+    private byte[] metrics() {
+        String json = target.metricsJson();
+        String withDrops = json.endsWith("}") && json.length() > 2
+                ? json.substring(0, json.length() - 1) + ",\"droppedFrames\":" + dropped.get() + "}"
+                : "{\"droppedFrames\":" + dropped.get() + "}";
+        return ControlProtocol.frame(ControlProtocol.METRICS, withDrops.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static byte[] hello() {
+        ControlProtocol.Payload p = new ControlProtocol.Payload();
+        try {
+            p.out.writeInt(ControlProtocol.VERSION);
+        } catch (IOException ignored) {
+            // ByteArrayOutputStream 不會丟出
+        }
+        return p.toFrame(ControlProtocol.HELLO);
+    }
+
+    private static byte[] result(boolean ok, String message) {
+        ControlProtocol.Payload p = new ControlProtocol.Payload();
+        try {
+            p.out.writeBoolean(ok);
+            p.out.writeUTF(message == null ? "" : message);
+        } catch (IOException ignored) {
+            // ByteArrayOutputStream 不會丟出
+        }
+        return p.toFrame(ControlProtocol.RESULT);
+    }
+}
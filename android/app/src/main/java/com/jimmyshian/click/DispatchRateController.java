@@ -0,0 +1,143 @@
+package com.jimmyshian.click;
+
+import java.util.Locale;
+
+/**
+ * 依手勢完成 / 被取消的回饋，估計裝置可穩定承受的最高手勢送出頻率。
+ *
+ * 每次 dispatch 記下與前一次 dispatch 的間隔；結果回來（onCompleted / onCancelled）時
+ * 放進最近 WINDOW 筆的滑動視窗。被取消的手勢若間隔小於 MAX_GAP_NS，視為送太快，
+ * 把最小間隔提高到該間隔之上（乘法增加）；整個視窗都沒有取消時，再慢慢縮小間隔往上試探
+ * （加法減少），最後收斂在裝置實際的上限附近。
+ *
+ * 排程器依 minGapNs() 把太近的事件合併成同一個手勢，或在容許範圍內稍微延後送出。
+ * 純邏輯類別，時間皆由呼叫端傳入；只在排程執行緒上使用。
+ */
+final class DispatchRateController {
+
+    // 滑動視窗大小（手勢數）
+    static final int WINDOW = 32;
+    // 為了對齊速率上限，單一事件最多可延後的時間
+    static final long SHIFT_TOLERANCE_NS = 6_000_000L;
+    // 間隔超過這個值仍被取消，多半是使用者觸控等其他原因，不調整速率
+    static final long MAX_GAP_NS = 250_000_000L;
+    // 沒有取消時每個視窗縮小的間隔
+    private static final long PROBE_STEP_NS = 1_000_000L;
+    // 尚未 dispatch 結果的手勢最多記錄幾筆
+    private static final int PENDING = 64;
+
+    private final boolean[] window = new boolean[WINDOW];
+    private int windowCount = 0;
+    private int windowPos = 0;
+    private int windowCancelled = 0;
+    // 距上次調整後連續完成的手勢數
+    private int cleanStreak = 0;
+
+    // 等待結果中的手勢（依 dispatch 順序，結果回來的順序相同）
+    private final long[] pendingGapNs = new long[PENDING];
+    private final int[] pendingTrackId = new int[PENDING];
+    private int pendingHead = 0;
+    private int pendingSize = 0;
+
+    private long lastDispatchNs = 0;
+    private long minGapNs = 0;
+
+    private long completedTotal = 0;
+    private long cancelledTotal = 0;
+
+    /** 目前要求的兩次 dispatch 最小間隔；0 代表不限制 */
+    long minGapNs() {
+        return minGapNs;
+    }
+
+    long lastDispatchNs() {
+        return lastDispatchNs;
+    }
+
+    /** 目前估計的最高手勢頻率（Hz）；未受限制時回傳 0 */
+    double maxRateHz() {
+        return minGapNs > 0 ? 1e9 / minGapNs : 0;
+    }
+
+    /** 滑動視窗內被取消的比例 */
+    double cancelRatio() {
+        return windowCount > 0 ? (double) windowCancelled / windowCount : 0;
+    }
+
+    /**
+     * 依速率限制，deadline 為 eventNs 的手勢最早可送出的時間。
+     * 需要延後但超出 SHIFT_TOLERANCE_NS 時回傳 eventNs（交給合併處理）。
+     */
+    long gateNs(long eventNs) {
+        if (minGapNs == 0 || lastDispatchNs == 0) return eventNs;
+        long gate = lastDispatchNs + minGapNs;
+        return gate > eventNs && gate - eventNs <= SHIFT_TOLERANCE_NS ? gate : eventNs;
+    }
+
+    void onDispatched(long nowNs, int trackId) {
+        long gap = lastDispatchNs == 0 ? Long.MAX_VALUE : nowNs - lastDispatchNs;
+        lastDispatchNs = nowNs;
+        if (pendingSize == PENDING) {
+            // 結果遲遲沒回來：丟掉最舊的一筆
+            pendingHead = (pendingHead + 1) % PENDING;
+            pendingSize--;
+        }
+        int slot = (pendingHead + pendingSize) % PENDING;
+        pendingGapNs[slot] = gap;
+        pendingTrackId[slot] = trackId;
+        pendingSize++;
+    }
+
+    /**
+     * 手勢結果回報。
+     *
+     * @return 該手勢第一個 stroke 所屬的 track id；沒有對應的 dispatch 時回傳 -1
+     */
+    int onResult(boolean cancelled) {
+        if (pendingSize == 0) return -1;
+        long gap = pendingGapNs[pendingHead];
+        int trackId = pendingTrackId[pendingHead];
+        pendingHead = (pendingHead + 1) % PENDING;
+        pendingSize--;
+
+        if (windowCount == WINDOW) {
+            if (window[windowPos]) windowCancelled--;
+        } else {
+            windowCount++;
+        }
+        window[windowPos] = cancelled;
+        if (cancelled) windowCancelled++;
+        windowPos = (windowPos + 1) % WINDOW;
+
+        if (cancelled) {
+            cancelledTotal++;
+            cleanStreak = 0;
+            if (gap < MAX_GAP_NS) {
+                // 這個間隔撐不住：提高到它的 1.25 倍以上
+                long raised = Math.max(minGapNs + PROBE_STEP_NS, gap + gap / 4);
+                minGapNs = Math.min(MAX_GAP_NS, raised);
+            }
+        } else {
+            completedTotal++;
+            if (++cleanStreak >= WINDOW && windowCancelled == 0 && minGapNs > 0) {
+                // 整個視窗都穩定：縮小間隔試探更高的頻率
+                minGapNs = Math.max(0, minGapNs - PROBE_STEP_NS);
+                cleanStreak = 0;
+            }
+        }
+        return trackId;
+    }
+
+    /**
+     * 以 JSON 字串輸出目前狀態，供 JS / log 使用。
+     */
+    String toJson() {
+        return String.format(Locale.US,
+                "{\"minGapMs\":%.3f,\"maxRateHz\":%.1f,\"cancelRatio\":%.3f,\"completed\":%d,\"cancelled\":%d}",
+                minGapNs / 1e6,
+                maxRateHz(),
+                cancelRatio(),
+                completedTotal,
+                cancelledTotal);
+    }
+}
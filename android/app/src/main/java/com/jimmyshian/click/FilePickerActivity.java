@@ -8,20 +8,24 @@ import android.os.Bundle;
 import android.provider.OpenableColumns;
 import android.util.Log;
 
-import java.io.BufferedReader;
-import java.io.IOException;
-import java.io.InputStream;
-import java.io.InputStreamReader;
-
 public class FilePickerActivity extends Activity {
 
     private static final String TAG = "FilePickerActivity";
     private static final int REQ_PICK_FILE = 1001;
+    private static final int REQ_PICK_TREE = 1002;
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
 
+        // 批次匯入：選擇整個資料夾
+        if (getIntent().getBooleanExtra("tree", false)) {
+            Intent tree = new Intent(Intent.ACTION_OPEN_DOCUMENT_TREE);
+            tree.addFlags(Intent.FLAG_GRANT_READ_URI_PERMISSION);
+            startActivityForResult(tree, REQ_PICK_TREE);
+            return;
+        }
+
         Intent intent = new Intent(Intent.ACTION_GET_CONTENT);
         intent.addCategory(Intent.CATEGORY_OPENABLE);
         intent.setType("*/*");
@@ -30,7 +34,9 @@ public class FilePickerActivity extends Activity {
                 "text/plain",            // 標準 txt
                 "text/*",                // 重點修正：這能涵蓋大部分被誤判的 txt 檔
                 "application/json",      // 標準 json
-                "application/octet-stream" // 有些手機會把未知的文字檔視為二進位流，加這行更保險
+                "application/octet-stream", // 有些手機會把未知的文字檔視為二進位流，加這行更保險
+                "application/gzip",      // 精簡格式匯出的腳本（CompactScriptFormat，內容自動判斷）
+                "application/x-gzip"
         });
         Intent chooser = Intent.createChooser(intent, "Select JSON file");
         startActivityForResult(chooser, REQ_PICK_FILE);
@@ -40,40 +46,37 @@ public class FilePickerActivity extends Activity {
     protected void onActivityResult(int requestCode, int resultCode, Intent data) {
         super.onActivityResult(requestCode, resultCode, data);
 
+        if (requestCode == REQ_PICK_TREE) {
+            OmniClickAccessibilityService service = OmniClickAccessibilityService.getInstance();
+            Uri tree = resultCode == RESULT_OK && data != null ? data.getData() : null;
+            if (service != null) {
+                service.onTreePickedFromActivity(tree);
+            } else {
+                Log.w(TAG, "Service instance is null, bulk import dropped");
+            }
+            finish();
+            return;
+        }
+
         if (requestCode == REQ_PICK_FILE && resultCode == RESULT_OK && data != null) {
             Uri uri = data.getData();
             if (uri != null) {
                 String slot = getIntent().getStringExtra("slot");
                 String fileName = getFileName(uri);
-                String content = readTextFromUri(uri);
-
                 OmniClickAccessibilityService service = OmniClickAccessibilityService.getInstance();
-                if (service != null && content != null) {
-                    service.onFilePickedFromActivity(slot != null ? slot : "", fileName, content);
-                } else {
-                    Log.w(TAG, "Service instance is null or content is null");
+                if (service != null) {
+                    // 讀檔與 hash 在服務的 sheetExecutor 上進行；讀完才關閉，uri 的讀取權限跟著 activity
+                    service.onFilePickedFromActivity(slot != null ? slot : "", fileName, uri,
+                            () -> runOnUiThread(this::finish));
+                    return;
                 }
+                Log.w(TAG, "Service instance is null, file dropped");
             }
         }
 
         finish();
     }
 
-    private String readTextFromUri(Uri uri) {
-        StringBuilder sb = new StringBuilder();
-        try (InputStream in = getContentResolver().openInputStream(uri);
-             BufferedReader reader = new BufferedReader(new InputStreamReader(in))) {
-            String line;
-            while ((line = reader.readLine()) != null) {
-                sb.append(line).append('\n');
-            }
-        } catch (IOException e) {
-            Log.e(TAG, "Failed to read file content", e);
-            return null;
-        }
-        return sb.toString();
-    }
-
     private String getFileName(Uri uri) {
         String result = null;
         Cursor cursor = null;
@@ -15,6 +15,8 @@ public class FileSaveActivity extends Activity {
     private static final int REQ_CREATE_FILE = 2001;
 
     private String pendingContent;
+    // 精簡格式：內容由服務在取得輸出位置後串流寫入（不經過 Intent extra）
+    private boolean compact;
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
@@ -22,6 +24,7 @@ public class FileSaveActivity extends Activity {
 
         String fileName = getIntent().getStringExtra("fileName");
         pendingContent = getIntent().getStringExtra("content");
+        compact = getIntent().getBooleanExtra("compact", false);
 
         if (fileName == null || fileName.trim().isEmpty()) {
             fileName = "script.json";
@@ -29,7 +32,7 @@ public class FileSaveActivity extends Activity {
 
         Intent intent = new Intent(Intent.ACTION_CREATE_DOCUMENT);
         intent.addCategory(Intent.CATEGORY_OPENABLE);
-        intent.setType("application/json");
+        intent.setType(compact ? "application/gzip" : "application/json");
         intent.putExtra(Intent.EXTRA_TITLE, fileName);
 
         startActivityForResult(intent, REQ_CREATE_FILE);
@@ -39,20 +42,38 @@ public class FileSaveActivity extends Activity {
     protected void onActivityResult(int requestCode, int resultCode, Intent data) {
         super.onActivityResult(requestCode, resultCode, data);
 
-        if (requestCode == REQ_CREATE_FILE && resultCode == RESULT_OK && data != null && pendingContent != null) {
+        if (requestCode == REQ_CREATE_FILE && resultCode == RESULT_OK && data != null
+                && (compact || pendingContent != null)) {
             Uri uri = data.getData();
             if (uri != null) {
-                try (OutputStream out = getContentResolver().openOutputStream(uri)) {
-                    if (out != null) {
-                        out.write(pendingContent.getBytes(StandardCharsets.UTF_8));
-                        out.flush();
-                    }
-                } catch (Exception e) {
-                    Log.e(TAG, "Failed to write file", e);
-                }
+                // 寫入（精簡格式需要逐筆 gzip 編碼）放到背景執行緒，完成後才結束 activity
+                new Thread(() -> {
+                    write(uri);
+                    runOnUiThread(this::finish);
+                }, "OmniClickExport").start();
+                return;
             }
         }
 
         finish();
     }
+
+    private void write(Uri uri) {
+        boolean trace = OmniTrace.begin("file.export");
+        try (OutputStream out = getContentResolver().openOutputStream(uri)) {
+            OmniClickAccessibilityService service = OmniClickAccessibilityService.getInstance();
+            if (out != null && compact) {
+                if (service == null || !service.writePendingExport(out)) {
+                    Log.w(TAG, "Nothing to export (service gone or export already written)");
+                }
+            } else if (out != null) {
+                out.write(pendingContent.getBytes(StandardCharsets.UTF_8));
+                out.flush();
+            }
+        } catch (Exception e) {
+            Log.e(TAG, "Failed to write file", e);
+        } finally {
+            OmniTrace.end(trace);
+        }
+    }
 }
@@ -0,0 +1,160 @@
+package com.jimmyshian.click;
+
+/**
+ * 一次 dispatchGesture 要送出的多個 stroke（可來自不同腳本）。
+ * 由 PlaybackScheduler 重複使用，播放中不配置新物件。
+ *
+ * 複合手勢在加入時展開成多個 stroke，內部時間固定，一起送出：
+ * double-click 為兩個短按、multi-tap 為多指同時按下、hold 為一個長按。
+ * press-drag 是「按住」加上接續的「拖曳」stroke（continuesFrom 指向按住的 stroke）：
+ * API 26+ 以 willContinue / continueStroke 分兩段 dispatch，手指不放開；
+ * 舊版則拆成先後兩個獨立 stroke。因為要分段送出，含 press-drag 的手勢不與其他事件合併。
+ */
+final class GestureBatch {
+
+    final int capacity;
+    // stroke 數
+    int count = 0;
+    // 事件數（複合手勢算一個）
+    int events = 0;
+    // 含需要分段送出的 stroke，不能再加入其他事件
+    boolean exclusive = false;
+
+    final float[] x;
+    final float[] y;
+    final float[] endX;
+    final float[] endY;
+    // 相對於整個手勢開始的 stroke 起始時間與持續時間（ms）
+    final long[] startMs;
+    final long[] durationMs;
+    // 接續哪一個 stroke（同一根手指不放開）；-1 代表新的 stroke
+    final int[] continuesFrom;
+    // 是否為事件的第一個 stroke（統計與進度只看這一個）
+    final boolean[] primary;
+    // 來源資訊（回報進度用）
+    final int[] trackId;
+    final int[] stepIndex;
+
+    GestureBatch(int capacity) {
+        this.capacity = capacity;
+        x = new float[capacity];
+        y = new float[capacity];
+        endX = new float[capacity];
+        endY = new float[capacity];
+        startMs = new long[capacity];
+        durationMs = new long[capacity];
+        continuesFrom = new int[capacity];
+        primary = new boolean[capacity];
+        trackId = new int[capacity];
+        stepIndex = new int[capacity];
+    }
+
+    void clear() {
+        count = 0;
+        events = 0;
+        exclusive = false;
+    }
+
+    boolean isFull() {
+        return count >= capacity || exclusive;
+    }
+
+    /** 事件展開後是否放得進目前的手勢（空的手勢一定放得進，超出的 stroke 會被截掉） */
+    boolean canFit(ScriptTimeline timeline, int event) {
+        if (count == 0) return true;
+        if (exclusive || timeline.type[event] == ScriptTimeline.TYPE_PRESS_DRAG) return false;
+        return count + timeline.strokeCount(event) <= capacity;
+    }
+
+    /** 是否有需要以 continueStroke 分段送出的 stroke */
+    boolean hasContinuation() {
+        for (int i = 0; i < count; i++) {
+            if (continuesFrom[i] >= 0) return true;
+        }
+        return false;
+    }
+
+    /** stroke i 之後是否還有接續的 stroke（willContinue） */
+    boolean isContinued(int i) {
+        for (int j = 0; j < count; j++) {
+            if (continuesFrom[j] == i) return true;
+        }
+        return false;
+    }
+
+    void add(ScriptTimeline timeline, int event, long startMs, int trackId) {
+        int first = count;
+        float ex = timeline.x[event];
+        float ey = timeline.y[event];
+        switch (timeline.type[event]) {
+            case ScriptTimeline.TYPE_DOUBLE_TAP: {
+                long press = ScriptTimeline.DOUBLE_TAP_PRESS_MS;
+                addStroke(ex, ey, ex, ey, startMs, press, -1);
+                addStroke(ex, ey, ex, ey, startMs + press + ScriptTimeline.DOUBLE_TAP_GAP_MS, press, -1);
+                break;
+            }
+            case ScriptTimeline.TYPE_PRESS_DRAG: {
+                long hold = timeline.holdMs[event];
+                int press = addStroke(ex, ey, ex, ey, startMs, hold, -1);
+                addStroke(ex, ey, timeline.endX[event], timeline.endY[event], startMs + hold,
+                        timeline.durationMs[event] - hold, press);
+                exclusive = true;
+                break;
+            }
+            case ScriptTimeline.TYPE_MULTI_TAP: {
+                // 以中心點左右對稱排開
+                int n = timeline.fingers[event];
+                float spacing = timeline.spacingPx[event];
+                for (int f = 0; f < n; f++) {
+                    float fx = ex + (f - (n - 1) / 2f) * spacing;
+                    addStroke(fx, ey, fx, ey, startMs, timeline.durationMs[event], -1);
+                }
+                break;
+            }
+            default:
+                addStroke(ex, ey, timeline.endX[event], timeline.endY[event], startMs,
+                        timeline.durationMs[event], -1);
+                break;
+        }
+        if (count == first) return;
+        events++;
+        for (int i = first; i < count; i++) {
+            primary[i] = i == first;
+            this.trackId[i] = trackId;
+            stepIndex[i] = timeline.stepIndex[event];
+        }
+    }
+
+    /** 即時模式：直接加入一個點擊（不經過 timeline），stepIndex 為來源的鍵號索引 */
+    void addTap(float tx, float ty, long startMs, long durationMs, int trackId, int stepIndex) {
+        int i = addStroke(tx, ty, tx, ty, startMs, durationMs, -1);
+        if (i < 0) return;
+        events++;
+        primary[i] = true;
+        this.trackId[i] = trackId;
+        this.stepIndex[i] = stepIndex;
+    }
+
+    /** 加入一個 stroke，回傳其索引；已滿時忽略並回傳 -1 */
+    private int addStroke(float sx, float sy, float ex, float ey, long start, long duration, int continues) {
+        if (count >= capacity) return -1;
+        int i = count++;
+        x[i] = sx;
+        y[i] = sy;
+        endX[i] = ex;
+        endY[i] = ey;
+        startMs[i] = start;
+        durationMs[i] = duration;
+        continuesFrom[i] = continues;
+        return i;
+    }
+
+    /** 整個手勢的結束時間（ms，相對手勢開始） */
+    long endMs() {
+        long end = 0;
+        for (int i = 0; i < count; i++) {
+            end = Math.max(end, startMs[i] + durationMs[i]);
+        }
+        return end;
+    }
+}
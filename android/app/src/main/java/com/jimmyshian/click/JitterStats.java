@@ -0,0 +1,154 @@
+package com.jimmyshian.click;
+
+import java.util.Locale;
+
+/**
+ * 單次播放的時間誤差統計（實際送出時間 - 預定 deadline，單位 ns）。
+ * 使用 Welford 演算法累積平均與變異數，不保留每筆樣本。
+ */
+final class JitterStats {
+
+    // 超過此誤差視為「遲到」的一筆
+    static final long LATE_THRESHOLD_NS = 2_000_000L;
+
+    private long count = 0;
+    private double mean = 0;
+    private double m2 = 0;
+    private long minNs = Long.MAX_VALUE;
+    private long maxNs = Long.MIN_VALUE;
+    private long maxAbsNs = 0;
+    private long lateCount = 0;
+    // 與其他事件合併成同一個手勢的 stroke 數
+    private long mergedCount = 0;
+    // 因前一個手勢尚未結束（stroke 數已滿）而延後送出的次數
+    private long deferredCount = 0;
+    // 系統回報取消的手勢數
+    private long cancelledCount = 0;
+    // 速率限制：為了不超過裝置上限而合併 / 延後的事件數（避免掉的取消）
+    private long rateMergedCount = 0;
+    private long rateShiftedCount = 0;
+
+    // 整段播放的預定結束時間與實際結束時間差（ns），未結束時為 0
+    private long endErrorNs = 0;
+    private long intendedLengthNs = 0;
+
+    void reset() {
+        count = 0;
+        mean = 0;
+        m2 = 0;
+        minNs = Long.MAX_VALUE;
+        maxNs = Long.MIN_VALUE;
+        maxAbsNs = 0;
+        lateCount = 0;
+        mergedCount = 0;
+        deferredCount = 0;
+        cancelledCount = 0;
+        rateMergedCount = 0;
+        rateShiftedCount = 0;
+        endErrorNs = 0;
+        intendedLengthNs = 0;
+    }
+
+    void add(long errorNs) {
+        count++;
+        double delta = errorNs - mean;
+        mean += delta / count;
+        m2 += delta * (errorNs - mean);
+        if (errorNs < minNs) minNs = errorNs;
+        if (errorNs > maxNs) maxNs = errorNs;
+        long abs = Math.abs(errorNs);
+        if (abs > maxAbsNs) maxAbsNs = abs;
+        if (errorNs > LATE_THRESHOLD_NS) lateCount++;
+    }
+
+    void addMerged() {
+        mergedCount++;
+    }
+
+    void addDeferred() {
+        deferredCount++;
+    }
+
+    void addCancelled() {
+        cancelledCount++;
+    }
+
+    void addRateMerged() {
+        rateMergedCount++;
+    }
+
+    void addRateShifted() {
+        rateShiftedCount++;
+    }
+
+    void setEnd(long intendedLengthNs, long endErrorNs) {
+        this.intendedLengthNs = intendedLengthNs;
+        this.endErrorNs = endErrorNs;
+    }
+
+    long getCount() {
+        return count;
+    }
+
+    double getMeanNs() {
+        return mean;
+    }
+
+    double getStdDevNs() {
+        return count > 1 ? Math.sqrt(m2 / (count - 1)) : 0;
+    }
+
+    long getMaxAbsNs() {
+        return maxAbsNs;
+    }
+
+    long getLateCount() {
+        return lateCount;
+    }
+
+    long getMergedCount() {
+        return mergedCount;
+    }
+
+    long getDeferredCount() {
+        return deferredCount;
+    }
+
+    long getCancelledCount() {
+        return cancelledCount;
+    }
+
+    long getDropsAvoided() {
+        return rateMergedCount + rateShiftedCount;
+    }
+
+    long getEndErrorNs() {
+        return endErrorNs;
+    }
+
+    /**
+     * 以 JSON 字串輸出（單位 ms），供 JS / log 使用。
+     */
+    String toJson() {
+        return String.format(Locale.US,
+                "{\"count\":%d,\"meanMs\":%.3f,\"stdDevMs\":%.3f,\"minMs\":%.3f,\"maxMs\":%.3f,"
+                        + "\"maxAbsMs\":%.3f,\"late\":%d,\"merged\":%d,\"deferred\":%d,"
+                        + "\"cancelled\":%d,\"rateMerged\":%d,\"rateShifted\":%d,\"dropsAvoided\":%d,"
+                        + "\"lengthMs\":%.3f,\"endErrorMs\":%.3f}",
+                count,
+                mean / 1e6,
+                getStdDevNs() / 1e6,
+                count > 0 ? minNs / 1e6 : 0,
+                count > 0 ? maxNs / 1e6 : 0,
+                maxAbsNs / 1e6,
+                lateCount,
+                mergedCount,
+                deferredCount,
+                cancelledCount,
+                rateMergedCount,
+                rateShiftedCount,
+                getDropsAvoided(),
+                intendedLengthNs / 1e6,
+                endErrorNs / 1e6);
+    }
+}
@@ -0,0 +1,319 @@
+package com.jimmyshian.click;
+
+import android.util.Log;
+
+import java.util.Locale;
+
+/**
+ * 即時音符模式：外部來源（桌面音序器、對應 Key1–Key15 的鍵盤）送來 (鍵號, 時間戳) 事件，
+ * 依 layout 腳本的座標立即點擊，不經過預先編譯的腳本。
+ *
+ * 讀取執行緒只把事件放進有上限的佇列並 post 一次 drain；drain 在播放時鐘的執行緒上
+ * （與 PlaybackScheduler 相同）把佇列中已到的事件一次取完，組成一個手勢送出：
+ * 傳送端時間戳相差 CHORD_WINDOW_NS 以內的音符視為和弦（同一個 stroke 起始時間），
+ * 其餘依傳送端的間隔設定 stroke 偏移（最多 MAX_SPREAD_MS），不另外等待後面的事件。
+ * dispatchGesture 會取消進行中的手勢，所以前一個手勢結束前到達的音符等它結束才送出（計入 deferred）。
+ *
+ * 延遲 = 手指實際按下的時間（送出時間 + stroke 偏移）- 收到事件的時間，等系統回報手勢完成後才計入
+ * JitterStats；被取消的手勢（使用者觸控、腳本開始播放）只計入 cancelled。
+ * transit 為「收到時間 - 傳送端時間戳」相對於目前最小值的增量，反映傳輸路徑的抖動（兩邊時鐘不需同步）。
+ * 與腳本播放共用手勢出口，兩者互斥：由服務在開始其中一個時停止另一個。
+ */
+final class LiveNoteStream {
+
+    /** 即時模式手勢的 track id（不與腳本的 track 重複） */
+    static final int LIVE_TRACK_ID = -1;
+    /** 傳送端時間相差在此之內的音符合併為和弦 */
+    static final long CHORD_WINDOW_NS = 4_000_000L;
+    /** 每個音符的按壓時間（比腳本的點擊短，快速連打時前一個手勢較早結束） */
+    static final long TAP_MS = 30L;
+    // 積壓的事件依傳送端間隔放進同一個手勢的上限，超過的留到下一個手勢
+    static final long MAX_SPREAD_MS = 250L;
+    private static final int QUEUE_CAPACITY = 512;
+    // 等待系統結果的手勢數上限（結果依送出順序回來；超過時最舊的視為已完成）
+    private static final int AWAITING_SLOTS = 4;
+    private static final String TAG = "OmniClickLive";
+
+    private final PlaybackClock clock;
+    private final PlaybackScheduler.Dispatcher dispatcher;
+    private final GestureBatch batch;
+
+    // ---- 佇列：讀取執行緒寫入、時鐘執行緒取出（以 this 同步）----
+    private final int[] queueKey = new int[QUEUE_CAPACITY];
+    private final long[] queueSenderNs = new long[QUEUE_CAPACITY];
+    private final long[] queueReceivedNs = new long[QUEUE_CAPACITY];
+    private int queueHead;
+    private int queueCount;
+    private boolean drainPosted;
+    private long dropped;
+
+    private volatile SheetConverter.Layout layout;
+    private volatile String statsJson = "{}";
+
+    // ---- 以下只在時鐘執行緒上存取 ----
+    private final JitterStats latency = new JitterStats();
+    private final JitterStats transit = new JitterStats();
+    private final long[] strokeReceivedNs;
+    // 已送出、等待結果的手勢的延遲樣本（環狀，依送出順序）
+    private final long[][] awaitingLatencyNs;
+    private final int[] awaitingCount = new int[AWAITING_SLOTS];
+    private int awaitingHead;
+    private int awaitingSize;
+    private long minTransitNs = Long.MAX_VALUE;
+    private long inFlightEndNs;
+    private long notes;
+    private long gestures;
+    private long unmapped;
+    private long rejected;
+
+    private final Runnable drain = this::drain;
+
+    LiveNoteStream(PlaybackClock clock, PlaybackScheduler.Dispatcher dispatcher, int maxStrokes) {
+        this.clock = clock;
+        this.dispatcher = dispatcher;
+        this.batch = new GestureBatch(Math.max(1, maxStrokes));
+        this.strokeReceivedNs = new long[batch.capacity];
+        this.awaitingLatencyNs = new long[AWAITING_SLOTS][batch.capacity];
+    }
+
+    /**
+     * 以 layout 的 Key1–Key15 座標開始接收音符；已在執行時換成新的 layout 並清除統計。
+     * 佇列只在時鐘執行緒上取出，所以清除與切換也 post 到時鐘執行緒上做。
+     */
+    void start(SheetConverter.Layout layout) {
+        clock.post(() -> {
+            clearQueue();
+            synchronized (this) {
+                dropped = 0;
+            }
+            latency.reset();
+            transit.reset();
+            minTransitNs = Long.MAX_VALUE;
+            awaitingSize = 0;
+            notes = gestures = unmapped = rejected = 0;
+            this.layout = layout;
+            publishStats();
+            Log.d(TAG, "live mode started, keys=" + layout.size());
+        });
+    }
+
+    /** 停止接收；尚未送出的音符丟棄 */
+    void stop() {
+        if (layout == null) return;
+        layout = null;
+        clock.post(() -> {
+            clearQueue();
+            publishStats();
+            Log.d(TAG, "live mode stopped: " + statsJson);
+        });
+    }
+
+    boolean isRunning() {
+        return layout != null;
+    }
+
+    /**
+     * 收到一批音符（任意執行緒，通常是控制連線的讀取執行緒）。同一批一起放進佇列，
+     * 不會被 drain 拆開。佇列滿時丟棄並計數。
+     *
+     * @param keys       鍵號（Key1 = 1）
+     * @param senderNs   傳送端的時間戳（任意單調時鐘，ns）
+     * @param receivedNs 收到的時間（clock.nanoTime() 時基）
+     */
+    void offer(int[] keys, long[] senderNs, int count, long receivedNs) {
+        if (layout == null || count <= 0) return;
+        boolean post;
+        synchronized (this) {
+            for (int i = 0; i < count; i++) {
+                if (queueCount == QUEUE_CAPACITY) {
+                    dropped += count - i;
+                    break;
+                }
+                int slot = (queueHead + queueCount++) % QUEUE_CAPACITY;
+                queueKey[slot] = keys[i];
+                queueSenderNs[slot] = senderNs[i];
+                queueReceivedNs[slot] = receivedNs;
+            }
+            post = !drainPosted;
+            drainPosted = true;
+        }
+        if (post) clock.post(drain);
+    }
+
+    /**
+     * 系統對即時模式手勢的結果（在時鐘執行緒上呼叫，依送出順序）。完成時才把延遲計入統計；
+     * 被取消的手勢沒有按下，只計入 cancelled。
+     */
+    void onGestureResult(boolean cancelled) {
+        if (awaitingSize == 0) return;
+        int slot = awaitingHead;
+        awaitingHead = (awaitingHead + 1) % AWAITING_SLOTS;
+        awaitingSize--;
+        if (cancelled) {
+            latency.addCancelled();
+            // 最後送出的手勢已被取消：下一個音符不必等它原本的結束時間
+            if (awaitingSize == 0) inFlightEndNs = 0;
+        } else {
+            land(slot);
+        }
+        publishStats();
+    }
+
+    /** 延遲與計數統計（JSON，單位 ms），任意執行緒可讀 */
+    String toJson() {
+        return statsJson;
+    }
+
+    private void drain() {
+        SheetConverter.Layout keys = layout;
+        if (keys == null) {
+            synchronized (this) {
+                drainPosted = false;
+            }
+            return;
+        }
+        long now = clock.nanoTime();
+        if (now < inFlightEndNs) {
+            // 前一個手勢還在進行：等它結束，最後一小段忙等
+            if (inFlightEndNs - now > clock.spinWindowNs()) {
+                latency.addDeferred();
+                clock.wakeAt(inFlightEndNs, drain);
+                return;
+            }
+            while (clock.nanoTime() < inFlightEndNs) {
+                // spin：最後不到 spinWindowNs，直接忙等
+            }
+        }
+
+        int taken = fillBatch(keys);
+        if (batch.count > 0) {
+            long sentNs = clock.nanoTime();
+            boolean ok = dispatcher.dispatch(batch);
+            gestures++;
+            if (ok) {
+                inFlightEndNs = sentNs + batch.endMs() * 1_000_000L;
+                if (awaitingSize == AWAITING_SLOTS) {
+                    // 結果遲遲沒有回來：最舊的視為已完成
+                    land(awaitingHead);
+                    awaitingHead = (awaitingHead + 1) % AWAITING_SLOTS;
+                    awaitingSize--;
+                }
+                int slot = (awaitingHead + awaitingSize++) % AWAITING_SLOTS;
+                long[] samples = awaitingLatencyNs[slot];
+                for (int i = 0; i < batch.count; i++) {
+                    samples[i] = sentNs + batch.startMs[i] * 1_000_000L - strokeReceivedNs[i];
+                }
+                awaitingCount[slot] = batch.count;
+            } else {
+                rejected++;
+                latency.addCancelled();
+            }
+        }
+        boolean more;
+        synchronized (this) {
+            queueHead = (queueHead + taken) % QUEUE_CAPACITY;
+            queueCount -= taken;
+            more = queueCount > 0;
+            drainPosted = more;
+        }
+        publishStats();
+        if (more) clock.post(drain);
+    }
+
+    private void land(int slot) {
+        long[] samples = awaitingLatencyNs[slot];
+        for (int i = 0; i < awaitingCount[slot]; i++) latency.add(samples[i]);
+    }
+
+    /** 從佇列頭組出一個手勢，回傳消耗掉的事件數（含略過的未對應鍵號） */
+    private int fillBatch(SheetConverter.Layout keys) {
+        batch.clear();
+        int available;
+        synchronized (this) {
+            available = queueCount;
+        }
+        long firstSenderNs = 0;
+        long chordSenderNs = 0;
+        long chordStartMs = 0;
+        int chordFirstStroke = 0;
+        int taken = 0;
+        for (; taken < available; taken++) {
+            int slot = (queueHead + taken) % QUEUE_CAPACITY;
+            int key;
+            long senderNs;
+            long receivedNs;
+            synchronized (this) {
+                key = queueKey[slot];
+                senderNs = queueSenderNs[slot];
+                receivedNs = queueReceivedNs[slot];
+            }
+            if (key < 1 || key > keys.size()) {
+                unmapped++;
+                continue;
+            }
+            if (batch.count == 0) {
+                firstSenderNs = senderNs;
+                chordSenderNs = senderNs;
+                chordStartMs = 0;
+                chordFirstStroke = 0;
+            } else if (senderNs - chordSenderNs > CHORD_WINDOW_NS) {
+                // 新的和弦：依傳送端的間隔放在同一個手勢裡；間隔太大、手勢已滿或同一個鍵還按著時留到下一個
+                long startMs = Math.max(chordStartMs, (senderNs - firstSenderNs) / 1_000_000L);
+                if (startMs > MAX_SPREAD_MS || batch.isFull() || isHeld(key, startMs)) break;
+                chordSenderNs = senderNs;
+                chordStartMs = startMs;
+                chordFirstStroke = batch.count;
+            } else if (batch.isFull()) {
+                break;
+            }
+            notes++;
+            long transitNs = receivedNs - senderNs;
+            if (transitNs < minTransitNs) minTransitNs = transitNs;
+            transit.add(transitNs - minTransitNs);
+            if (inChord(key, chordFirstStroke)) {
+                // 和弦裡重複的鍵：同一個位置只按一次
+                latency.addMerged();
+                continue;
+            }
+            if (batch.count > chordFirstStroke) latency.addMerged();
+            strokeReceivedNs[batch.count] = receivedNs;
+            batch.addTap(keys.x[key - 1], keys.y[key - 1], chordStartMs, TAP_MS, LIVE_TRACK_ID, key - 1);
+        }
+        return taken;
+    }
+
+    private boolean inChord(int key, int from) {
+        for (int i = from; i < batch.count; i++) {
+            if (batch.stepIndex[i] == key - 1) return true;
+        }
+        return false;
+    }
+
+    /** 同一個鍵在 startMs 時是否還按著（重疊的 stroke 會被系統拒絕） */
+    private boolean isHeld(int key, long startMs) {
+        for (int i = 0; i < batch.count; i++) {
+            if (batch.stepIndex[i] == key - 1 && batch.startMs[i] + batch.durationMs[i] > startMs) return true;
+        }
+        return false;
+    }
+
+    private void clearQueue() {
+        clock.cancel(drain);
+        synchronized (this) {
+            queueCount = 0;
+            drainPosted = false;
+        }
+    }
+
+    private void publishStats() {
+        long droppedNow;
+        synchronized (this) {
+            droppedNow = dropped;
+        }
+        statsJson = String.format(Locale.US,
+                "{\"running\":%b,\"notes\":%d,\"gestures\":%d,\"unmapped\":%d,\"dropped\":%d,\"rejected\":%d,"
+                        + "\"transitJitterMs\":%.3f,\"transitMaxMs\":%.3f,\"latency\":%s}",
+                layout != null, notes, gestures, unmapped, droppedNow, rejected,
+                transit.getStdDevNs() / 1e6, transit.getMaxAbsNs() / 1e6, latency.toJson());
+    }
+}
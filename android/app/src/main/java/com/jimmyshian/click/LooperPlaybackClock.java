@@ -0,0 +1,101 @@
+package com.jimmyshian.click;
+
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Process;
+import android.os.SystemClock;
+import android.view.Choreographer;
+
+/**
+ * 裝置上的 PlaybackClock：專用的高優先權 HandlerThread。
+ *
+ * 時間使用 System.nanoTime()（CLOCK_MONOTONIC，與 SystemClock.uptimeMillis / Choreographer
+ * frame time 同一時基）。距離目標超過一個 frame 時掛 Choreographer frame callback，
+ * 每個 vsync 重新評估；不到一個 frame 時以 Handler.postAtTime 睡到忙等區間開頭。
+ */
+final class LooperPlaybackClock implements PlaybackClock {
+
+    // 超過這個時間就交給 Choreographer 的 vsync 喚醒（約 1.25 個 60Hz frame）
+    private static final long COARSE_WINDOW_NS = 20_000_000L;
+    // 最後這段時間由排程器忙等，避開 Handler 的 ms 精度與排程抖動
+    private static final long SPIN_WINDOW_NS = 1_500_000L;
+
+    private final HandlerThread thread;
+    private final Handler handler;
+    private Choreographer choreographer;
+
+    // 目前掛在 frame callback 上的 task（排程器同時只會有一個喚醒）
+    private Runnable frameTask;
+    private final Choreographer.FrameCallback frameCallback = frameTimeNanos -> {
+        Runnable task = frameTask;
+        frameTask = null;
+        if (task != null) task.run();
+    };
+
+    LooperPlaybackClock() {
+        thread = new HandlerThread("OmniClickScheduler", Process.THREAD_PRIORITY_URGENT_DISPLAY);
+        thread.start();
+        handler = new Handler(thread.getLooper());
+        // Choreographer 與 Looper 綁定，必須在排程執行緒上取得
+        handler.post(() -> choreographer = Choreographer.getInstance());
+    }
+
+    /** 手勢結果回呼使用的 Handler，與排程同一條執行緒 */
+    Handler getHandler() {
+        return handler;
+    }
+
+    @Override
+    public long nanoTime() {
+        return System.nanoTime();
+    }
+
+    @Override
+    public long spinWindowNs() {
+        return SPIN_WINDOW_NS;
+    }
+
+    @Override
+    public void post(Runnable task) {
+        handler.post(task);
+    }
+
+    @Override
+    public void wakeAt(long targetNs, Runnable task) {
+        long remaining = targetNs - System.nanoTime();
+        if (remaining > COARSE_WINDOW_NS && choreographer != null) {
+            choreographer.removeFrameCallback(frameCallback);
+            frameTask = task;
+            choreographer.postFrameCallback(frameCallback);
+            return;
+        }
+        long sleepMs = Math.max(0, (remaining - SPIN_WINDOW_NS) / 1_000_000L);
+        handler.postAtTime(task, SystemClock.uptimeMillis() + sleepMs);
+    }
+
+    @Override
+    public void wakeAtCoarse(long targetNs, Runnable task) {
+        // 不走 Choreographer：等待期間不會每個 vsync 喚醒一次
+        long sleepMs = Math.max(0, (targetNs - System.nanoTime()) / 1_000_000L);
+        handler.postAtTime(task, SystemClock.uptimeMillis() + sleepMs);
+    }
+
+    @Override
+    public void cancel(Runnable task) {
+        handler.removeCallbacks(task);
+        if (frameTask == task) {
+            if (choreographer != null) choreographer.removeFrameCallback(frameCallback);
+            frameTask = null;
+        }
+    }
+
+    @Override
+    public long cpuTimeNs() {
+        return Process.getElapsedCpuTime() * 1_000_000L;
+    }
+
+    @Override
+    public void quit() {
+        thread.quitSafely();
+    }
+}
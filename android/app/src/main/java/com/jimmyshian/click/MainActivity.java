@@ -2,69 +2,107 @@ package com.jimmyshian.click;
 
 import android.content.ComponentName;
 import android.content.Intent;
+import android.database.ContentObserver;
+import android.os.Bundle;
 import android.provider.Settings;
 import android.os.Handler;
 import android.os.Looper;
 import android.util.Log;
+import android.view.accessibility.AccessibilityManager;
 
 import com.getcapacitor.BridgeActivity;
 
+/**
+ * 啟動入口：確認無障礙服務已啟用並連線後就移到背景，讓 overlay 顯示。
+ *
+ * 不再定時輪詢 Settings.Secure：服務連線時直接通知（OmniClickAccessibilityService.setReadyListener），
+ * 啟用清單與全域無障礙開關的變化則由 ContentObserver / AccessibilityStateChangeListener 觸發重新檢查。
+ */
 public class MainActivity extends BridgeActivity {
 
     private static final String TAG = "OmniClickMainActivity";
-    private static final long CHECK_DELAY_MS = 1500;
-    private Handler checkHandler;
-    private Runnable checkRunnable;
     private boolean hasOpenedSettings = false;
+    private boolean watching = false;
+    private AccessibilityManager accessibilityManager;
+    private ContentObserver settingsObserver;
+    private final AccessibilityManager.AccessibilityStateChangeListener stateListener = enabled -> checkReady();
+
+    @Override
+    protected void onCreate(Bundle savedInstanceState) {
+        StartupTimeline.mark(StartupTimeline.ACTIVITY_CREATED);
+        super.onCreate(savedInstanceState);
+    }
 
     @Override
     public void onStart() {
         super.onStart();
         Log.d(TAG, "onStart called");
         hasOpenedSettings = false;
-        startPeriodicCheck();
+        startWatching();
+        checkReady();
     }
 
     @Override
     public void onStop() {
         super.onStop();
         Log.d(TAG, "onStop called");
-        stopPeriodicCheck();
+        stopWatching();
     }
 
-    private void startPeriodicCheck() {
-        if (checkHandler == null) {
-            checkHandler = new Handler(Looper.getMainLooper());
-        }
-        
-        checkRunnable = () -> {
-            Log.d(TAG, "Checking accessibility service status...");
-            if (isAccessibilityServiceEnabled()) {
-                Log.d(TAG, "Accessibility service is enabled, moving to background");
-                // 服務已啟用，移到背景讓 overlay 顯示
-                moveTaskToBack(true);
-                stopPeriodicCheck();
-            } else {
-                // 服務未啟用，只在第一次帶使用者去開啟設定
-                if (!hasOpenedSettings) {
-                    Log.d(TAG, "Accessibility service is NOT enabled, showing settings (first time)");
-                    Intent intent = new Intent(Settings.ACTION_ACCESSIBILITY_SETTINGS);
-                    startActivity(intent);
-                    hasOpenedSettings = true;
-                } else {
-                    Log.d(TAG, "Accessibility service is NOT enabled, waiting for user to enable...");
+    private void startWatching() {
+        if (watching) return;
+        watching = true;
+        OmniClickAccessibilityService.setReadyListener(this::checkReady);
+        if (settingsObserver == null) {
+            settingsObserver = new ContentObserver(new Handler(Looper.getMainLooper())) {
+                @Override
+                public void onChange(boolean selfChange) {
+                    checkReady();
                 }
-                // 繼續檢查，直到服務啟用
-                checkHandler.postDelayed(checkRunnable, CHECK_DELAY_MS);
-            }
-        };
-        
-        checkHandler.post(checkRunnable);
+            };
+        }
+        getContentResolver().registerContentObserver(
+                Settings.Secure.getUriFor(Settings.Secure.ENABLED_ACCESSIBILITY_SERVICES), false, settingsObserver);
+        accessibilityManager = (AccessibilityManager) getSystemService(ACCESSIBILITY_SERVICE);
+        if (accessibilityManager != null) {
+            accessibilityManager.addAccessibilityStateChangeListener(stateListener);
+        }
+    }
+
+    private void stopWatching() {
+        if (!watching) return;
+        watching = false;
+        OmniClickAccessibilityService.setReadyListener(null);
+        getContentResolver().unregisterContentObserver(settingsObserver);
+        if (accessibilityManager != null) {
+            accessibilityManager.removeAccessibilityStateChangeListener(stateListener);
+        }
     }
 
-    private void stopPeriodicCheck() {
-        if (checkHandler != null && checkRunnable != null) {
-            checkHandler.removeCallbacks(checkRunnable);
+    /** 服務已連線就移到背景；已啟用但尚未連線時等服務通知；未啟用時（第一次）帶使用者去設定 */
+    private void checkReady() {
+        if (!watching) return;
+        if (OmniClickAccessibilityService.getInstance() != null) {
+            Log.d(TAG, "Accessibility service is connected, moving to background");
+            StartupTimeline.mark(StartupTimeline.SERVICE_ENABLED);
+            // 服務已連線，移到背景讓 overlay 顯示
+            stopWatching();
+            moveTaskToBack(true);
+            return;
+        }
+        if (isAccessibilityServiceEnabled()) {
+            StartupTimeline.mark(StartupTimeline.SERVICE_ENABLED);
+            Log.d(TAG, "Accessibility service is enabled, waiting for it to connect...");
+            return;
+        }
+        // 服務未啟用，只在第一次帶使用者去開啟設定
+        if (!hasOpenedSettings) {
+            Log.d(TAG, "Accessibility service is NOT enabled, showing settings (first time)");
+            Intent intent = new Intent(Settings.ACTION_ACCESSIBILITY_SETTINGS);
+            startActivity(intent);
+            hasOpenedSettings = true;
+        } else {
+            Log.d(TAG, "Accessibility service is NOT enabled, waiting for user to enable...");
         }
     }
 
@@ -0,0 +1,142 @@
+package com.jimmyshian.click;
+
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.Process;
+import android.os.SystemClock;
+import android.util.Log;
+import android.util.Printer;
+
+/**
+ * 主 Looper 卡頓監測：以 Looper.setMessageLogging 的 Printer 量測每個訊息的處理時間，
+ * 超過門檻的訊息（WebView layout、GC、updateViewLayout IPC 等）記入 StallReport，
+ * 與排程器回報的手勢時間對照，確認遲到的點擊是不是被主執行緒拖累。
+ *
+ * 訊息開始時在取樣執行緒上掛一個「門檻時間後」的 callback，訊息還沒結束就抓一次主執行緒的
+ * stack（卡住當下的位置，而不是結束之後）；訊息在門檻內結束時直接移除。
+ * Printer 會讓 Looper 為每個訊息組字串，因此預設關閉，只在需要量測時開啟。
+ * Looper 只能有一個 Printer：啟用時會蓋掉其他人設定的 message logging。
+ */
+final class MainLooperWatchdog {
+
+    private static final String TAG = "OmniClickWatchdog";
+    /** 預設門檻：超過一個 60Hz frame */
+    static final long DEFAULT_THRESHOLD_MS = 16L;
+    private static final int MAX_STALLS = 50;
+    private static final int MAX_LATE_GESTURES = 256;
+    // stack 取樣保留的 frame 數
+    private static final int MAX_FRAMES = 16;
+    private static final int MAX_MESSAGE_CHARS = 160;
+
+    private final Looper looper = Looper.getMainLooper();
+    private final Thread mainThread = looper.getThread();
+    private final StallReport report = new StallReport(MAX_STALLS, MAX_LATE_GESTURES,
+            JitterStats.LATE_THRESHOLD_NS);
+    private HandlerThread samplerThread;
+    private Handler sampler;
+    private volatile long thresholdNs = DEFAULT_THRESHOLD_MS * 1_000_000L;
+    private volatile boolean running = false;
+
+    // ---- 只在主執行緒上存取 ----
+    private long dispatchStartNs;
+    private String dispatchMessage;
+    private int sequence;
+
+    // 取樣 callback 對應的訊息序號（主執行緒寫入）；取樣結果由取樣執行緒寫入、主執行緒讀取
+    private volatile int sequenceAtPost;
+    private volatile int sampledSequence = -1;
+    private volatile String sampledStack;
+
+    private final Runnable sample = () -> {
+        int seq = sequenceAtPost;
+        sampledStack = formatStack(mainThread.getStackTrace());
+        sampledSequence = seq;
+    };
+
+    private final Printer printer = line -> {
+        if (line.startsWith(">>>>>")) {
+            onDispatchStart(line);
+        } else if (line.startsWith("<<<<<")) {
+            onDispatchEnd();
+        }
+    };
+
+    /** 開始監測（主執行緒上呼叫）；清除舊的報告 */
+    void start(long thresholdMs) {
+        if (thresholdMs > 0) thresholdNs = thresholdMs * 1_000_000L;
+        report.reset(System.nanoTime());
+        if (running) return;
+        samplerThread = new HandlerThread("OmniClickWatchdog", Process.THREAD_PRIORITY_BACKGROUND);
+        samplerThread.start();
+        sampler = new Handler(samplerThread.getLooper());
+        dispatchStartNs = 0;
+        running = true;
+        looper.setMessageLogging(printer);
+        Log.d(TAG, "watchdog started, threshold=" + thresholdNs / 1_000_000L + "ms");
+    }
+
+    /** 停止監測（主執行緒上呼叫）；報告保留到下一次 start */
+    void stop() {
+        if (!running) return;
+        running = false;
+        looper.setMessageLogging(null);
+        sampler.removeCallbacksAndMessages(null);
+        samplerThread.quitSafely();
+        samplerThread = null;
+        sampler = null;
+        Log.d(TAG, "watchdog stopped: stalls=" + report.getTotalStalls() + ", late=" + report.getLateGestures()
+                + ", lateDuringStall=" + report.getLateDuringStall());
+    }
+
+    boolean isRunning() {
+        return running;
+    }
+
+    /** 交給 PlaybackScheduler.setStallReport 的報告，手勢時間由排程器直接寫入 */
+    StallReport getReport() {
+        return report;
+    }
+
+    String toJson() {
+        return report.toJson(System.nanoTime(), thresholdNs);
+    }
+
+    private void onDispatchStart(String line) {
+        dispatchStartNs = System.nanoTime();
+        dispatchMessage = line;
+        sequence++;
+        sequenceAtPost = sequence;
+        Handler h = sampler;
+        if (h != null) h.postAtTime(sample, this, SystemClock.uptimeMillis() + thresholdNs / 1_000_000L);
+    }
+
+    private void onDispatchEnd() {
+        long start = dispatchStartNs;
+        if (start == 0) return;
+        dispatchStartNs = 0;
+        Handler h = sampler;
+        if (h != null) h.removeCallbacksAndMessages(this);
+        long end = System.nanoTime();
+        if (end - start < thresholdNs) return;
+        String stack = sampledSequence == sequence ? sampledStack : null;
+        String message = dispatchMessage;
+        // ">>>>> Dispatching to Handler (...) {...} callback: what"
+        if (message.startsWith(">>>>> Dispatching to ")) message = message.substring(21);
+        if (message.length() > MAX_MESSAGE_CHARS) message = message.substring(0, MAX_MESSAGE_CHARS);
+        report.addStall(start, end, message, stack);
+        OmniTrace.counter("mainStallMs", (end - start) / 1_000_000L);
+        Log.w(TAG, "main looper stall " + (end - start) / 1_000_000L + "ms: " + message);
+    }
+
+    private static String formatStack(StackTraceElement[] frames) {
+        StringBuilder sb = new StringBuilder(MAX_FRAMES * 80);
+        int n = Math.min(frames.length, MAX_FRAMES);
+        for (int i = 0; i < n; i++) {
+            if (i > 0) sb.append('\n');
+            sb.append(frames[i]);
+        }
+        if (frames.length > n) sb.append("\n... ").append(frames.length - n).append(" more");
+        return sb.toString();
+    }
+}
@@ -0,0 +1,79 @@
+package com.jimmyshian.click;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 原生端保存的一份 ClickScript：metadata 原樣保留（匯出時寫回），
+ * steps 存在 StepBlockList 中供分頁讀取與區段編輯。
+ */
+final class NativeScript {
+
+    final JSONObject metadata;
+    final StepBlockList steps = new StepBlockList();
+
+    NativeScript(JSONObject metadata) {
+        this.metadata = metadata != null ? metadata : new JSONObject();
+    }
+
+    String id() {
+        return metadata.optString("id", "");
+    }
+
+    boolean loop() {
+        return metadata.optBoolean("loop", false);
+    }
+
+    int loopCount() {
+        return metadata.optInt("loopCount", 0);
+    }
+
+    /** 是否有重複區段（metadata.blocks），有的話以 ScriptAssembler / ScriptVm 播放 */
+    boolean hasBlocks() {
+        JSONArray blocks = metadata.optJSONArray("blocks");
+        return blocks != null && blocks.length() > 0;
+    }
+
+    /** 錄製時的總長度（ms），決定結尾 tail */
+    long durationMs() {
+        return metadata.optLong("duration", 0);
+    }
+
+    static NativeScript fromJson(String json) throws JSONException {
+        JSONObject root = new JSONObject(json);
+        NativeScript script = new NativeScript(root.optJSONObject("metadata"));
+        script.steps.addAll(parseSteps(root.getJSONArray("steps")));
+        return script;
+    }
+
+    static List<ScriptStep> parseSteps(JSONArray array) throws JSONException {
+        ArrayList<ScriptStep> list = new ArrayList<>(array.length());
+        for (int i = 0; i < array.length(); i++) {
+            list.add(ScriptStep.fromJson(array.getJSONObject(i)));
+        }
+        return list;
+    }
+
+    static JSONArray toJsonArray(List<ScriptStep> steps) throws JSONException {
+        JSONArray array = new JSONArray();
+        for (int i = 0; i < steps.size(); i++) {
+            array.put(steps.get(i).toJson());
+        }
+        return array;
+    }
+
+    String toJson() throws JSONException {
+        JSONArray array = new JSONArray();
+        for (ScriptStep s : steps) {
+            array.put(s.toJson());
+        }
+        JSONObject root = new JSONObject();
+        root.put("metadata", metadata);
+        root.put("steps", array);
+        return root.toString();
+    }
+}
@@ -6,11 +6,14 @@ import android.content.Context;
 import android.content.Intent;
 import android.graphics.Path;
 import android.graphics.PixelFormat;
+import android.net.Uri;
 import android.os.Build;
 import android.os.Handler;
 import android.os.Looper;
+import android.os.SystemClock;
 import android.util.DisplayMetrics;
 import android.util.Log;
+import android.util.SparseArray;
 import android.view.Gravity;
 import android.view.MotionEvent;
 import android.view.View;
@@ -31,10 +34,32 @@ import androidx.webkit.WebViewAssetLoader;
 import androidx.annotation.Nullable;
 import androidx.annotation.RequiresApi;
 
+import org.json.JSONException;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.Locale;
+import java.util.UUID;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
 public class OmniClickAccessibilityService extends AccessibilityService {
 
     private static final String TAG = "OmniClickAccessibilityService";
     private static OmniClickAccessibilityService instance;
+    // 服務連線完成時通知 MainActivity（只在主執行緒上存取）
+    private static Runnable readyListener;
     private WindowManager windowManager;
     private WebView webView;
     private WindowManager.LayoutParams webViewLayoutParams;
@@ -61,6 +86,13 @@ public class OmniClickAccessibilityService extends AccessibilityService {
     private float overlayY = 0f;
     private float overlayWidth = 0f;
     private float overlayHeight = 0f;
+    // 觸控 overlay 的待套用狀態：JS 回報矩形後只標記 dirty，下一個 frame 才換算並 relayout
+    private volatile boolean touchGeometryDirty = false;
+    // 前端 input 取得焦點時 touchView 縮成 0x0，避免攔截軟鍵盤觸控
+    private volatile boolean touchHiddenForInput = false;
+    private final int[] touchGeometryLoc = new int[2];
+    // overlay relayout 合併（每個 frame 最多一次 updateViewLayout）
+    private OverlayLayoutBatcher overlayLayout;
 
     // 顯示密度與系統狀態列高度（px）
     private float density = 1f;
@@ -80,10 +112,67 @@ public class OmniClickAccessibilityService extends AccessibilityService {
     private int canvasOffsetXPx = 0;
     private int canvasOffsetYPx = 0;
 
+    // 原生端保存的腳本（分頁讀取 / 區段編輯用）
+    private final ScriptStore scriptStore = new ScriptStore();
+
+    // 原生播放排程器（絕對 deadline），取代 JS setTimeout 鏈
+    private PlaybackScheduler playbackScheduler;
+    private LooperPlaybackClock playbackClock;
+    // 播放進度回報給 JS 時的合併（每個 frame 最多一次）：trackId -> {stepIndex, loopIndex}
+    private final SparseArray<int[]> pendingProgress = new SparseArray<>();
+    private final AtomicBoolean progressPosted = new AtomicBoolean(false);
+    // 播放進度 checkpoint（服務被殺掉後可續播）與原生續播提示
+    private PlaybackCheckpoint checkpoint;
+    private ResumePrompt resumePrompt;
+    // 目前前景播放的腳本（控制通道 seek 用）與最近回報的輪數
+    private volatile String mainScriptId;
+    private volatile float mainSpeed = 1f;
+    private volatile int mainLoopIndex = 0;
+    // 本機控制通道（adb forward），由 JS 開啟
+    private ControlServer controlServer;
+    // 資料夾批次匯入：JS 選定的 layout、進行中的匯入，以及尚未送到 WebView 的事件（每個 frame 合併送出）
+    private volatile SheetConverter.Layout bulkLayout;
+    private volatile String bulkLayoutHash;
+    private BulkImporter bulkImporter;
+    private final ArrayList<String> pendingImportEvents = new ArrayList<>();
+    private final AtomicBoolean importEventsPosted = new AtomicBoolean(false);
+    // 樂譜轉換結果的持久快取（內容 hash + 轉換參數 -> 編譯好的 step 陣列）
+    private CompiledScriptCache scriptCache;
+    // 轉換器選好的樂譜與 layout：內容只留在原生端，兩者都選好時在背景查快取 / 轉換
+    private volatile PickedFile pickedSong;
+    private volatile PickedFile pickedLayout;
+    private volatile Future<SheetConverter.Result> preparedSheet;
+    private final ExecutorService sheetExecutor = Executors.newSingleThreadExecutor();
+    // Convert 在 JS 執行緒上最多等這麼久；轉換還沒完成就回報錯誤讓使用者稍後再按
+    private static final long CONVERT_WAIT_MS = 1000;
+    // 冷啟動的快速播放提示是否仍在顯示（主執行緒）；Web UI 就緒時關閉
+    private boolean quickPlayShowing = false;
+    private volatile boolean webUiReady = false;
+    // 指定牆上時間開始播放
+    private ScheduledStart scheduledStart;
+    // 等待 FileSaveActivity 取得輸出位置的精簡格式匯出
+    private volatile NativeScript pendingCompactExport;
+    // 即時音符模式（控制通道送來的鍵號直接點擊），與腳本播放共用手勢出口
+    private LiveNoteStream liveNotes;
+    // 主 Looper 卡頓監測（預設關閉，只在主執行緒上建立 / 開關）
+    private MainLooperWatchdog mainWatchdog;
+    // onDestroy 時停止播放不應清除 checkpoint
+    private volatile boolean destroying = false;
+
+    // 播放手勢共用的結果回呼（API 24+ 才建立，只在排程執行緒上存取）
+    private GestureResultCallback playbackGestureCallback;
+    // 即時模式手勢的結果回呼（與播放分開，不影響排程器的速率控制）
+    private GestureResultCallback liveGestureCallback;
+    // 進行中手勢的 async trace cookie（結果依 dispatch 順序回來，只在排程執行緒存取）
+    private final int[] inFlightTraceCookies = new int[16];
+    private int inFlightTraceHead = 0;
+    private int inFlightTraceTail = 0;
+
     @Override
     protected void onServiceConnected() {
         super.onServiceConnected();
         instance = this;
+        StartupTimeline.mark(StartupTimeline.SERVICE_CONNECTED);
         Log.d(TAG, "onServiceConnected called!");
         density = getResources().getDisplayMetrics().density;
 
@@ -105,15 +194,256 @@ public class OmniClickAccessibilityService extends AccessibilityService {
 
         Log.d(TAG, "Screen density=" + density + ", statusBarHeightPx=" + statusBarHeightPx
                 + ", screenPx=" + screenWidthPx + "x" + screenHeightPx);
+        int maxStrokes = Build.VERSION.SDK_INT >= Build.VERSION_CODES.N
+                ? GestureDescription.getMaxStrokeCount() : 1;
+        playbackClock = new LooperPlaybackClock();
+        scheduledStart = new ScheduledStart(this, new ScheduledStartTarget());
+        playbackScheduler = new PlaybackScheduler(playbackClock, batch -> {
+            // 腳本開始播放時結束即時模式，避免兩邊的手勢互相取消
+            if (liveNotes.isRunning()) liveNotes.stop();
+            boolean ok = dispatchBatch(batch);
+            // 排定時間開始的第一個手勢：回報開始誤差
+            if (ok && batch.trackId[0] == PlaybackScheduler.MAIN_TRACK_ID) {
+                scheduledStart.onDispatched(System.nanoTime(), batch.startMs[0]);
+            }
+            return ok;
+        }, new PlaybackScheduler.Listener() {
+            @Override
+            public void onProgress(int trackId, int stepIndex, int loopIndex) {
+                if (trackId == PlaybackScheduler.MAIN_TRACK_ID) {
+                    checkpoint.update(loopIndex, stepIndex + 1);
+                    mainLoopIndex = loopIndex;
+                }
+                postPlaybackProgress(trackId, stepIndex, loopIndex);
+                ControlServer server = controlServer;
+                if (server != null) {
+                    server.publishProgress(trackId, stepIndex, loopIndex, SystemClock.elapsedRealtimeNanos());
+                }
+            }
+
+            @Override
+            public void onFinished(int trackId, JitterStats stats, boolean cancelled) {
+                // 被使用者停止時由 bridge 清除；這裡只處理正常播放完畢
+                if (trackId == PlaybackScheduler.MAIN_TRACK_ID && !cancelled && !destroying) {
+                    checkpoint.clear();
+                }
+                if (trackId == PlaybackScheduler.MAIN_TRACK_ID && resumePrompt != null) {
+                    new Handler(Looper.getMainLooper()).post(() -> resumePrompt.dismiss());
+                }
+                String json = stats.toJson();
+                postPlaybackFinished(trackId, json, cancelled);
+                ControlServer server = controlServer;
+                if (server != null) server.publishFinished(trackId, cancelled, json);
+            }
+        }, maxStrokes);
+        liveNotes = new LiveNoteStream(playbackClock, this::dispatchLiveBatch, maxStrokes);
+
+        scriptCache = new CompiledScriptCache(new File(getFilesDir(), "compiled-cache"),
+                CompiledScriptCache.DEFAULT_BUDGET_BYTES);
+        checkpoint = new PlaybackCheckpoint(getFilesDir());
+        resumePrompt = new ResumePrompt(this, windowManager);
+        // 上次的腳本在背景讀入（續播或快速播放），與 WebView 建立同時進行；主執行緒只讀 checkpoint 的標頭
+        PlaybackCheckpoint.Snapshot resume = checkpoint.read();
+        new Thread(() -> preloadLastScript(resume), "OmniClickPreload").start();
+
+        // 排程器與 checkpoint 先準備好，WebView（最慢的一步）最後建立
         createWebViewOverlay();
         createTouchOverlay();
+        if (windowManager != null) {
+            overlayLayout = new OverlayLayoutBatcher(windowManager, this::applyTouchGeometry);
+            overlayLayout.register(webView, webViewLayoutParams);
+            overlayLayout.register(touchView, touchLayoutParams);
+        }
+        StartupTimeline.mark(StartupTimeline.OVERLAY_ATTACHED);
         Log.d(TAG, "Overlay created successfully");
+        if (readyListener != null) readyListener.run();
+    }
+
+    /** MainActivity 等待服務連線用；null 取消 */
+    static void setReadyListener(Runnable listener) {
+        readyListener = listener;
+    }
+
+    /**
+     * 背景執行緒：讀取並解析上一次播放的腳本，完成後在 Web UI 就緒前提供原生的提示。
+     * 上次播放中途被中斷（resume 不為 null 且腳本相符）時提供續播；否則提供快速播放，
+     * Web UI 已就緒或腳本含區塊（需要 VM）時不提供。
+     * 編譯（座標換算會讀 WebView 的位置）留到使用者按下 Play 時在主執行緒上做。
+     */
+    private void preloadLastScript(PlaybackCheckpoint.Snapshot resume) {
+        boolean trace = OmniTrace.begin("startup.preload");
+        try {
+            if (resume != null && checkpoint.loadScript(resume)) {
+                new Handler(Looper.getMainLooper()).post(() -> offerResume(resume));
+                return;
+            }
+            PlaybackCheckpoint.Snapshot last = checkpoint.readLast();
+            if (last == null || Build.VERSION.SDK_INT < Build.VERSION_CODES.N) return;
+            NativeScript script = NativeScript.fromJson(last.scriptJson);
+            if (script.hasBlocks() || script.steps.size() == 0) return;
+            String name = script.metadata.optString("name", "script");
+            new Handler(Looper.getMainLooper()).post(() -> offerQuickPlay(name, script, last));
+        } catch (JSONException e) {
+            Log.w(TAG, "preloadLastScript: last script is invalid", e);
+        } finally {
+            OmniTrace.end(trace);
+        }
+    }
+
+    private void offerQuickPlay(String name, NativeScript script, PlaybackCheckpoint.Snapshot last) {
+        if (webUiReady || destroying || resumePrompt.isShowing() || playbackScheduler == null) return;
+        StartupTimeline.mark(StartupTimeline.NATIVE_PLAYABLE);
+        quickPlayShowing = true;
+        resumePrompt.show("Play \"" + name + "\"?", "Play", () -> {
+            quickPlayShowing = false;
+            ScriptTimeline timeline = ScriptTimeline.compile(script, last.speed, this::mapCanvasToScreen);
+            if (timeline.size == 0) return;
+            playbackScheduler.start(timeline, 0);
+            checkpoint.begin(timeline.scriptId, last.scriptJson, last.speed, 0, 0, 0);
+            mainScriptId = null;
+            resumePrompt.showRunning("Playing \"" + name + "\"", () -> {
+                playbackScheduler.stop();
+                checkpoint.clear();
+            });
+        }, "Close", () -> quickPlayShowing = false);
+    }
+
+    /**
+     * 上次有未完成的播放（腳本已由 preloadLastScript 在背景讀入）：顯示原生續播提示。
+     */
+    private void offerResume(PlaybackCheckpoint.Snapshot snap) {
+        if (destroying || windowManager == null) return;
+        NativeScript script = snap.script;
+
+        // checkpoint 記錄的是「下一個要執行的 step」，剛好跨輪時換到下一輪開頭
+        int loopIndex = snap.loopIndex;
+        int stepIndex = snap.stepIndex;
+        if (stepIndex >= script.steps.size()) {
+            int loopCount = script.loopCount();
+            if (!script.loop() || (loopCount > 0 && loopIndex + 1 >= loopCount)) {
+                checkpoint.clear();
+                return;
+            }
+            loopIndex++;
+            stepIndex = 0;
+        }
+
+        String name = script.metadata.optString("name", "script");
+        Log.d(TAG, "offerResume: " + name + " loop=" + loopIndex + ", step=" + stepIndex
+                + ", elapsedMs=" + snap.elapsedNs / 1_000_000L);
+        final int resumeLoop = loopIndex;
+        final int resumeStep = stepIndex;
+        resumePrompt.show(
+                "Resume \"" + name + "\" at loop " + (loopIndex + 1) + ", step " + (stepIndex + 1) + "?",
+                () -> {
+                    if (Build.VERSION.SDK_INT < Build.VERSION_CODES.N || playbackScheduler == null) return;
+                    // WebView 尚未回報 canvas 尺寸時，mapCanvasToScreen 以 density 換算（全螢幕 canvas 時結果相同）
+                    ScriptTimeline timeline = ScriptTimeline.compile(script, snap.speed, this::mapCanvasToScreen);
+                    if (timeline.size == 0) return;
+                    playbackScheduler.start(timeline, resumeStep, resumeLoop);
+                    checkpoint.begin(snap.scriptId, snap.scriptJson, snap.speed, resumeLoop, resumeStep, snap.elapsedNs);
+                    resumePrompt.showRunning("Resumed \"" + name + "\"", () -> {
+                        playbackScheduler.stop();
+                        checkpoint.clear();
+                    });
+                },
+                () -> checkpoint.clear());
     }
 
     public static OmniClickAccessibilityService getInstance() {
         return instance;
     }
 
+    /** FilePickerActivity 讀到的檔案（原始位元組與 SHA-256） */
+    private static final class PickedFile {
+        final String name;
+        final byte[] bytes;
+        final String hash;
+
+        PickedFile(String name, byte[] bytes, String hash) {
+            this.name = name;
+            this.bytes = bytes;
+            this.hash = hash;
+        }
+    }
+
+    /**
+     * 由 FilePickerActivity 在選檔完成後呼叫。讀檔與 SHA-256 都在 sheetExecutor 上進行（大型樂譜不卡住
+     * 選檔畫面的轉場），讀完後呼叫 done，activity 在那之前保持開啟，讀取 uri 的權限才不會失效。
+     * 轉換器的樂譜 / layout 不把內容送進 WebView，只回報檔名；兩者都選好時接著以內容 hash 查快取，
+     * 沒有命中才轉換，按下 Convert 時結果通常已經準備好。其他 slot 照舊把文字內容交給 JS。
+     */
+    public void onFilePickedFromActivity(String slot, String fileName, Uri uri, Runnable done) {
+        boolean sheet = "song".equals(slot) || "layout".equals(slot);
+        Future<SheetConverter.Result> task;
+        try {
+            task = sheetExecutor.submit(() -> {
+                PickedFile picked;
+                try {
+                    picked = readPickedFile(fileName, uri);
+                } finally {
+                    done.run();
+                }
+                if (picked == null) return null;
+                if (!sheet) {
+                    onFilePickedFromActivity(slot, fileName, SheetConverter.decode(picked.bytes));
+                    return null;
+                }
+                if ("song".equals(slot)) {
+                    pickedSong = picked;
+                } else {
+                    pickedLayout = picked;
+                }
+                onFilePickedFromActivity(slot, fileName, "");
+                return convertPicked();
+            });
+        } catch (RejectedExecutionException e) {
+            // 服務正在結束
+            done.run();
+            return;
+        }
+        // Convert 等這個 task：讀檔完成前按下也會拿到這次選擇的結果
+        if (sheet) preparedSheet = task;
+    }
+
+    private PickedFile readPickedFile(String fileName, Uri uri) {
+        boolean trace = OmniTrace.begin("file.import");
+        try (InputStream in = getContentResolver().openInputStream(uri)) {
+            if (in == null) return null;
+            byte[] content = SheetConverter.readBytes(in);
+            // 內容 hash：轉換結果快取的 key
+            return new PickedFile(fileName, content, CompiledScriptCache.hash(content));
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to read file content", e);
+            return null;
+        } finally {
+            OmniTrace.end(trace);
+        }
+    }
+
+    /** 樂譜與 layout 都選好時查快取 / 轉換（在 sheetExecutor 上）；還缺其中一個時回傳 null */
+    private SheetConverter.Result convertPicked() throws JSONException {
+        PickedFile song = pickedSong;
+        PickedFile layout = pickedLayout;
+        if (song == null || layout == null) return null;
+        boolean trace = OmniTrace.begin("file.convertSheet");
+        try {
+            long start = SystemClock.elapsedRealtime();
+            SheetConverter.Layout parsed = SheetConverter.parseLayout(SheetConverter.decode(layout.bytes));
+            String name = song.name != null ? song.name.replaceFirst("\\.[^.]*$", "") : "Song";
+            SheetConverter.Result result = SheetConverter.convertCached(song.bytes, name, parsed, layout.hash,
+                    scriptCache);
+            if (result == null) {
+                throw new IllegalArgumentException("Invalid Song JSON format. Missing 'songNotes'.");
+            }
+            Log.d(TAG, "convertPicked: " + result.steps + " steps in " + (SystemClock.elapsedRealtime() - start)
+                    + "ms, cache=" + scriptCache.toJson());
+            return result;
+        } finally {
+            OmniTrace.end(trace);
+        }
+    }
+
     // 由 FilePickerActivity 在選檔完成後呼叫，將檔案內容回傳給前端 JS
     public void onFilePickedFromActivity(String slot, String fileName, String content) {
         if (webView == null) {
@@ -123,17 +453,123 @@ public class OmniClickAccessibilityService extends AccessibilityService {
 
         Log.d(TAG, "onFilePickedFromActivity slot=" + slot + ", fileName=" + fileName);
 
+        boolean trace = OmniTrace.begin("file.deliverToWebView");
         final String safeSlot = slot == null ? "" : slot;
         final String safeName = fileName == null ? "" : fileName.replace("\\", "\\\\").replace("\"", "\\\"");
         final String safeContent = content == null ? "" : content
                 .replace("\\", "\\\\")
                 .replace("\"", "\\\"")
+                .replace("\r", "\\r")
                 .replace("\n", "\\n");
 
         String js = "window.__omniclickOnFilePicked && window.__omniclickOnFilePicked(\"" + safeSlot + "\",\"" + safeName + "\",\"" + safeContent + "\")";
+        OmniTrace.end(trace);
         webView.post(() -> webView.evaluateJavascript(js, null));
     }
 
+    /**
+     * 由 FilePickerActivity 在選好資料夾後呼叫（treeUri 為 null 代表使用者取消），
+     * 以 startBulkImport 設定的 layout 開始批次轉換。
+     */
+    public void onTreePickedFromActivity(Uri treeUri) {
+        SheetConverter.Layout layout = bulkLayout;
+        if (treeUri == null || layout == null) {
+            Log.d(TAG, "onTreePickedFromActivity: nothing to import (tree=" + treeUri + ")");
+            postImportEvent("{\"type\":\"finished\",\"converted\":0,\"failed\":0,\"skipped\":0,"
+                    + "\"elapsedMs\":0,\"cancelled\":true}");
+            return;
+        }
+        synchronized (this) {
+            if (bulkImporter != null) bulkImporter.cancel();
+            bulkImporter = new BulkImporter(getContentResolver(), treeUri, layout, bulkLayoutHash, scriptCache,
+                    new BulkImportListener());
+            bulkImporter.start();
+        }
+    }
+
+    private synchronized void cancelBulkImport() {
+        if (bulkImporter != null) {
+            bulkImporter.cancel();
+            bulkImporter = null;
+        }
+    }
+
+    /** 批次匯入的結果轉成 JS 事件（在匯入的工作執行緒上呼叫） */
+    private final class BulkImportListener implements BulkImporter.Listener {
+
+        @Override
+        public void onStarted(int total) {
+            postImportEvent("{\"type\":\"started\",\"total\":" + total + "}");
+        }
+
+        @Override
+        public void onFile(int index, int total, String fileName, SheetConverter.Result result, String error) {
+            StringBuilder e = new StringBuilder(result != null ? result.stepsJson.length() + 400 : 160);
+            e.append("{\"type\":\"file\",\"index\":").append(index)
+                    .append(",\"total\":").append(total)
+                    .append(",\"fileName\":").append(SheetConverter.quote(fileName));
+            if (result != null) {
+                e.append(",\"status\":\"ok\",\"steps\":").append(result.steps)
+                        .append(",\"script\":")
+                        .append(result.toScriptJson(UUID.randomUUID().toString(), System.currentTimeMillis()));
+            } else if (error != null) {
+                e.append(",\"status\":\"error\",\"error\":").append(SheetConverter.quote(error));
+            } else {
+                e.append(",\"status\":\"skipped\"");
+            }
+            postImportEvent(e.append('}').toString());
+        }
+
+        @Override
+        public void onFinished(int converted, int failed, int skipped, long elapsedMs, boolean cancelled) {
+            postImportEvent(String.format(Locale.US,
+                    "{\"type\":\"finished\",\"converted\":%d,\"failed\":%d,\"skipped\":%d,"
+                            + "\"elapsedMs\":%d,\"cancelled\":%b}",
+                    converted, failed, skipped, elapsedMs, cancelled));
+        }
+    }
+
+    // 單一 frame 送進 WebView 的匯入事件上限（字元數），其餘留到下一個 frame
+    private static final int MAX_IMPORT_CHARS_PER_FRAME = 1_000_000;
+
+    /**
+     * 匯入事件合併成每個 frame 一次 evaluateJavascript，且每次最多約 1M 字元，
+     * 大量檔案同時完成時 WebView 仍能持續回應。
+     */
+    private void postImportEvent(String eventJson) {
+        synchronized (pendingImportEvents) {
+            pendingImportEvents.add(eventJson);
+        }
+        scheduleImportFlush();
+    }
+
+    private void scheduleImportFlush() {
+        WebView view = webView;
+        if (view == null || !importEventsPosted.compareAndSet(false, true)) return;
+        view.postOnAnimation(() -> {
+            importEventsPosted.set(false);
+            StringBuilder js = new StringBuilder("window.__omniclickOnBulkImport&&window.__omniclickOnBulkImport([");
+            boolean more;
+            synchronized (pendingImportEvents) {
+                int taken = 0;
+                int chars = 0;
+                while (taken < pendingImportEvents.size()
+                        && (taken == 0 || chars + pendingImportEvents.get(taken).length() <= MAX_IMPORT_CHARS_PER_FRAME)) {
+                    String e = pendingImportEvents.get(taken);
+                    if (taken > 0) js.append(',');
+                    js.append(e);
+                    chars += e.length();
+                    taken++;
+                }
+                pendingImportEvents.subList(0, taken).clear();
+                more = !pendingImportEvents.isEmpty();
+            }
+            js.append("])");
+            if (webView != null) webView.evaluateJavascript(js.toString(), null);
+            if (more) scheduleImportFlush();
+        });
+    }
+
     private void createWebViewOverlay() {
         if (windowManager == null) return;
 
@@ -166,6 +602,7 @@ public class OmniClickAccessibilityService extends AccessibilityService {
             @Override
             public void onPageFinished(WebView view, String url) {
                 Log.d(TAG, "WebView onPageFinished: " + url);
+                StartupTimeline.mark(StartupTimeline.WEB_LOADED);
             }
 
             @Override
@@ -242,6 +679,33 @@ public class OmniClickAccessibilityService extends AccessibilityService {
     public void onDestroy() {
         super.onDestroy();
         instance = null;
+        destroying = true;
+        if (resumePrompt != null) {
+            resumePrompt.dismiss();
+        }
+        if (liveNotes != null) {
+            liveNotes.stop();
+        }
+        if (playbackScheduler != null) {
+            playbackScheduler.release();
+            playbackScheduler = null;
+        }
+        if (overlayLayout != null) {
+            overlayLayout.release();
+            overlayLayout = null;
+        }
+        if (controlServer != null) {
+            controlServer.stop();
+            controlServer = null;
+        }
+        cancelBulkImport();
+        sheetExecutor.shutdownNow();
+        if (scheduledStart != null) {
+            scheduledStart.cancel();
+        }
+        if (mainWatchdog != null) {
+            mainWatchdog.stop();
+        }
         if (windowManager != null) {
             if (webView != null) {
                 windowManager.removeView(webView);
@@ -254,6 +718,49 @@ public class OmniClickAccessibilityService extends AccessibilityService {
         }
     }
 
+    /** 開啟 FileSaveActivity，讓使用者選擇資料夾與檔名後寫入 content */
+    private void startSaveFlow(String fileName, String content) {
+        try {
+            Intent intent = new Intent(this, FileSaveActivity.class);
+            intent.addFlags(Intent.FLAG_ACTIVITY_NEW_TASK);
+            intent.putExtra("fileName", fileName);
+            intent.putExtra("content", content);
+            startActivity(intent);
+        } catch (Exception e) {
+            Log.e(TAG, "Failed to start FileSaveActivity", e);
+        }
+    }
+
+    /**
+     * 精簡格式匯出：腳本留在原生端，FileSaveActivity 取得輸出位置後呼叫 writePendingExport，
+     * 內容不經過 Intent extra。
+     */
+    private void startCompactSaveFlow(String fileName, NativeScript script) {
+        pendingCompactExport = script;
+        try {
+            Intent intent = new Intent(this, FileSaveActivity.class);
+            intent.addFlags(Intent.FLAG_ACTIVITY_NEW_TASK);
+            intent.putExtra("fileName", fileName);
+            intent.putExtra("compact", true);
+            startActivity(intent);
+        } catch (Exception e) {
+            pendingCompactExport = null;
+            Log.e(TAG, "Failed to start FileSaveActivity", e);
+        }
+    }
+
+    /** 由 FileSaveActivity 在背景執行緒呼叫：把待匯出的腳本逐筆編碼寫入 out（會關閉 out）；沒有待匯出的腳本時回傳 false */
+    public boolean writePendingExport(OutputStream out) throws IOException {
+        NativeScript script = pendingCompactExport;
+        pendingCompactExport = null;
+        if (script == null) return false;
+        long start = SystemClock.elapsedRealtime();
+        CompactScriptFormat.write(script.metadata.toString(), script.steps, out);
+        Log.d(TAG, "compact export: " + script.steps.size() + " steps in "
+                + (SystemClock.elapsedRealtime() - start) + "ms");
+        return true;
+    }
+
     private class TouchOverlayView extends View {
 
         TouchOverlayView(Context context) {
@@ -318,13 +825,34 @@ public class OmniClickAccessibilityService extends AccessibilityService {
      * 隱藏 touchView（錄製穿透用）
      */
     private void hideTouchOverlay() {
-        if (touchView == null || touchLayoutParams == null || windowManager == null) return;
+        if (touchView == null || touchLayoutParams == null || overlayLayout == null) return;
+        touchLayoutParams.width = 0;
+        touchLayoutParams.height = 0;
+        // 錄製穿透需要在送出手勢前生效，不等下一個 frame
+        boolean trace = OmniTrace.begin("overlay.hideTouch");
         try {
-            touchLayoutParams.width = 0;
-            touchLayoutParams.height = 0;
-            windowManager.updateViewLayout(touchView, touchLayoutParams);
-        } catch (Exception e) {
-            Log.e(TAG, "hideTouchOverlay failed", e);
+            overlayLayout.applyNow(touchView);
+        } finally {
+            OmniTrace.end(trace);
+        }
+    }
+
+    /**
+     * 給 instrumented benchmark 直接驅動排程器（略過 JS bridge 與 canvas 座標換算）。
+     */
+    PlaybackScheduler getPlaybackScheduler() {
+        return playbackScheduler;
+    }
+
+    /**
+     * 給 instrumented benchmark 暫時隱藏 / 恢復 overlay，讓手勢完整落到測試 Activity 上。
+     * 需在主執行緒呼叫。
+     */
+    void setOverlaysHidden(boolean hidden) {
+        if (hidden) {
+            hideAllOverlays();
+        } else {
+            restoreAllOverlays();
         }
     }
 
@@ -332,7 +860,7 @@ public class OmniClickAccessibilityService extends AccessibilityService {
      * 同時隱藏 touchView 與 webView（讓原生手勢可以穿透到底層 App）
      */
     private void hideAllOverlays() {
-        if (windowManager == null) return;
+        if (overlayLayout == null) return;
         // 隱藏 touchView
         hideTouchOverlay();
         // 讓 webView 不可觸控且不佔位，但不移除（保留 JS 執行環境）
@@ -342,7 +870,12 @@ public class OmniClickAccessibilityService extends AccessibilityService {
                         | WindowManager.LayoutParams.FLAG_NOT_TOUCHABLE;
                 // 移到螢幕外，避免遮擋手勢
                 webViewLayoutParams.x = -10000;
-                windowManager.updateViewLayout(webView, webViewLayoutParams);
+                boolean trace = OmniTrace.begin("overlay.hideAll");
+                try {
+                    overlayLayout.applyNow(webView);
+                } finally {
+                    OmniTrace.end(trace);
+                }
             } catch (Exception e) {
                 Log.e(TAG, "hideAllOverlays webView failed", e);
             }
@@ -353,7 +886,7 @@ public class OmniClickAccessibilityService extends AccessibilityService {
      * 恢復所有 overlay（錄製穿透用，在手勢完成後呼叫）
      */
     private void restoreAllOverlays() {
-        if (windowManager == null) return;
+        if (overlayLayout == null) return;
         // 恢復 webView
         if (webView != null && webViewLayoutParams != null) {
             try {
@@ -361,7 +894,12 @@ public class OmniClickAccessibilityService extends AccessibilityService {
                 // 仍維持 NOT_FOCUSABLE + NOT_TOUCHABLE（overlay 模式，由 touchView 轉發觸控）
                 webViewLayoutParams.flags |= WindowManager.LayoutParams.FLAG_NOT_FOCUSABLE
                         | WindowManager.LayoutParams.FLAG_NOT_TOUCHABLE;
-                windowManager.updateViewLayout(webView, webViewLayoutParams);
+                boolean trace = OmniTrace.begin("overlay.restoreAll");
+                try {
+                    overlayLayout.applyNow(webView);
+                } finally {
+                    OmniTrace.end(trace);
+                }
             } catch (Exception e) {
                 Log.e(TAG, "restoreAllOverlays webView failed", e);
             }
@@ -374,31 +912,35 @@ public class OmniClickAccessibilityService extends AccessibilityService {
 
         @JavascriptInterface
         public void updateOverlayRect(float x, float y, float width, float height) {
-            overlayX = x;
-            overlayY = y;
-            overlayWidth = width;
-            overlayHeight = height;
-            Log.d(TAG, "updateOverlayRect from JS: x=" + x + ", y=" + y + ", w=" + width + ", h=" + height);
-            updateTouchOverlayLayout();
+            OmniTrace.traced("js.updateOverlayRect", () -> {
+                overlayX = x;
+                overlayY = y;
+                overlayWidth = width;
+                overlayHeight = height;
+                // 拖曳 / 動畫時每個 frame 會呼叫多次，這裡不寫 log，只標記待套用
+                updateTouchOverlayLayout();
+            });
         }
 
         // Alias that matches your spec: Android.reportPos(x, y, w, h)
         @JavascriptInterface
         public void reportPos(float x, float y, float width, float height) {
-            updateOverlayRect(x, y, width, height);
+            OmniTrace.traced("js.reportPos", () -> updateOverlayRect(x, y, width, height));
         }
 
         @JavascriptInterface
         public void performClick(float x, float y) {
-            float[] mapped = mapCanvasToScreen(x, y);
-            Log.d(TAG, "performClick from JS -> canvas(x=" + x + ", y=" + y + ") mappedPx(x=" + mapped[0] + ", y=" + mapped[1] + ")");
-            performTapGesture(mapped[0], mapped[1]);
+            OmniTrace.traced("js.performClick", () -> {
+                float[] mapped = mapCanvasToScreen(x, y);
+                Log.d(TAG, "performClick from JS -> canvas(x=" + x + ", y=" + y + ") mappedPx(x=" + mapped[0] + ", y=" + mapped[1] + ")");
+                performTapGesture(mapped[0], mapped[1]);
+            });
         }
 
         // Alias that matches your spec: Android.tap(x, y)
         @JavascriptInterface
         public void tap(float x, float y) {
-            performTapGesture(x, y);
+            OmniTrace.traced("js.tap", () -> performTapGesture(x, y));
         }
 
         /**
@@ -406,16 +948,18 @@ public class OmniClickAccessibilityService extends AccessibilityService {
          */
         @JavascriptInterface
         public void performSwipe(float x1, float y1, float x2, float y2, float durationMs) {
-            float[] start = mapCanvasToScreen(x1, y1);
-            float[] end = mapCanvasToScreen(x2, y2);
-            Log.d(TAG, "performSwipe from JS -> canvas(" + x1 + "," + y1 + ")->(" + x2 + "," + y2 + ") mapped(" + start[0] + "," + start[1] + ")->(" + end[0] + "," + end[1] + ")");
-            performSwipeGesture(start[0], start[1], end[0], end[1], (long) Math.max(100, durationMs));
+            OmniTrace.traced("js.performSwipe", () -> {
+                float[] start = mapCanvasToScreen(x1, y1);
+                float[] end = mapCanvasToScreen(x2, y2);
+                Log.d(TAG, "performSwipe from JS -> canvas(" + x1 + "," + y1 + ")->(" + x2 + "," + y2 + ") mapped(" + start[0] + "," + start[1] + ")->(" + end[0] + "," + end[1] + ")");
+                performSwipeGesture(start[0], start[1], end[0], end[1], (long) Math.max(100, durationMs));
+            });
         }
 
         // 直接 pixel 的 swipe（舊版相容）
         @JavascriptInterface
         public void swipe(float x1, float y1, float x2, float y2, float durationMs) {
-            performSwipeGesture(x1, y1, x2, y2, (long) Math.max(100, durationMs));
+            OmniTrace.traced("js.swipe", () -> performSwipeGesture(x1, y1, x2, y2, (long) Math.max(100, durationMs)));
         }
 
         /**
@@ -424,19 +968,21 @@ public class OmniClickAccessibilityService extends AccessibilityService {
          */
         @JavascriptInterface
         public void dispatchRecordedGesture(float canvasX, float canvasY) {
-            float[] mapped = mapCanvasToScreen(canvasX, canvasY);
-            Log.d(TAG, "dispatchRecordedGesture canvas(" + canvasX + "," + canvasY + ") -> px(" + mapped[0] + "," + mapped[1] + ")");
-
-            new Handler(Looper.getMainLooper()).post(() -> {
-                hideAllOverlays();
-
-                // 短暫延遲讓 WindowManager 移除 overlay，確保手勢不會被攔截
-                new Handler(Looper.getMainLooper()).postDelayed(() -> {
-                    dispatchTapWithCallback(mapped[0], mapped[1], () -> {
-                        // 手勢完成後恢復 overlay
-                        new Handler(Looper.getMainLooper()).post(() -> restoreAllOverlays());
-                    });
-                }, 50);
+            OmniTrace.traced("js.dispatchRecordedGesture", () -> {
+                float[] mapped = mapCanvasToScreen(canvasX, canvasY);
+                Log.d(TAG, "dispatchRecordedGesture canvas(" + canvasX + "," + canvasY + ") -> px(" + mapped[0] + "," + mapped[1] + ")");
+
+                new Handler(Looper.getMainLooper()).post(() -> {
+                    hideAllOverlays();
+
+                    // 短暫延遲讓 WindowManager 移除 overlay，確保手勢不會被攔截
+                    new Handler(Looper.getMainLooper()).postDelayed(() -> {
+                        dispatchTapWithCallback(mapped[0], mapped[1], () -> {
+                            // 手勢完成後恢復 overlay
+                            new Handler(Looper.getMainLooper()).post(() -> restoreAllOverlays());
+                        });
+                    }, 50);
+                });
             });
         }
 
@@ -445,87 +991,173 @@ public class OmniClickAccessibilityService extends AccessibilityService {
          */
         @JavascriptInterface
         public void dispatchRecordedSwipe(float x1, float y1, float x2, float y2, float durationMs) {
-            float[] start = mapCanvasToScreen(x1, y1);
-            float[] end = mapCanvasToScreen(x2, y2);
-            long dur = (long) Math.max(100, durationMs);
-            Log.d(TAG, "dispatchRecordedSwipe canvas(" + x1 + "," + y1 + ")->(" + x2 + "," + y2 + ") -> px(" + start[0] + "," + start[1] + ")->(" + end[0] + "," + end[1] + ")");
-
-            new Handler(Looper.getMainLooper()).post(() -> {
-                hideAllOverlays();
-
-                new Handler(Looper.getMainLooper()).postDelayed(() -> {
-                    dispatchSwipeWithCallback(start[0], start[1], end[0], end[1], dur, () -> {
-                        new Handler(Looper.getMainLooper()).post(() -> restoreAllOverlays());
-                    });
-                }, 50);
+            OmniTrace.traced("js.dispatchRecordedSwipe", () -> {
+                float[] start = mapCanvasToScreen(x1, y1);
+                float[] end = mapCanvasToScreen(x2, y2);
+                long dur = (long) Math.max(100, durationMs);
+                Log.d(TAG, "dispatchRecordedSwipe canvas(" + x1 + "," + y1 + ")->(" + x2 + "," + y2 + ") -> px(" + start[0] + "," + start[1] + ")->(" + end[0] + "," + end[1] + ")");
+
+                new Handler(Looper.getMainLooper()).post(() -> {
+                    hideAllOverlays();
+
+                    new Handler(Looper.getMainLooper()).postDelayed(() -> {
+                        dispatchSwipeWithCallback(start[0], start[1], end[0], end[1], dur, () -> {
+                            new Handler(Looper.getMainLooper()).post(() -> restoreAllOverlays());
+                        });
+                    }, 50);
+                });
             });
         }
 
         // 從 overlay 內開啟原生檔案選擇器。slot 用來區分要填到哪一個輸入框（如 "import", "song", "layout"）。
         @JavascriptInterface
         public void openFilePicker(String slot) {
-            Log.d(TAG, "openFilePicker from JS, slot=" + slot);
-            try {
-                Intent intent = new Intent(OmniClickAccessibilityService.this, FilePickerActivity.class);
-                intent.addFlags(Intent.FLAG_ACTIVITY_NEW_TASK);
-                intent.putExtra("slot", slot);
-                startActivity(intent);
-            } catch (Exception e) {
-                Log.e(TAG, "Failed to start FilePickerActivity", e);
-            }
+            OmniTrace.traced("js.openFilePicker", () -> {
+                Log.d(TAG, "openFilePicker from JS, slot=" + slot);
+                try {
+                    Intent intent = new Intent(OmniClickAccessibilityService.this, FilePickerActivity.class);
+                    intent.addFlags(Intent.FLAG_ACTIVITY_NEW_TASK);
+                    intent.putExtra("slot", slot);
+                    startActivity(intent);
+                } catch (Exception e) {
+                    Log.e(TAG, "Failed to start FilePickerActivity", e);
+                }
+            });
+        }
+
+        /**
+         * 批次匯入：以 layoutJson（Key1~Key15 的 layout 腳本）轉換使用者選擇的資料夾內所有樂譜，
+         * 結果與逐檔進度以 window.__omniclickOnBulkImport(events) 回報。layout 無效時回傳 false。
+         * layoutJson 為空字串時使用轉換器中已選好的 layout 檔。
+         */
+        @JavascriptInterface
+        public boolean startBulkImport(String layoutJson) {
+            return OmniTrace.traced("js.startBulkImport", () -> {
+                try {
+                    try {
+                        PickedFile picked = pickedLayout;
+                        if ((layoutJson == null || layoutJson.isEmpty()) && picked != null) {
+                            bulkLayout = SheetConverter.parseLayout(SheetConverter.decode(picked.bytes));
+                            bulkLayoutHash = picked.hash;
+                        } else {
+                            bulkLayout = SheetConverter.parseLayout(layoutJson);
+                            bulkLayoutHash = CompiledScriptCache.hash(layoutJson.getBytes("UTF-8"));
+                        }
+                    } catch (JSONException | IllegalArgumentException e) {
+                        Log.w(TAG, "startBulkImport: invalid layout: " + e.getMessage());
+                        return false;
+                    }
+                    Intent intent = new Intent(OmniClickAccessibilityService.this, FilePickerActivity.class);
+                    intent.addFlags(Intent.FLAG_ACTIVITY_NEW_TASK);
+                    intent.putExtra("tree", true);
+                    startActivity(intent);
+                    return true;
+                } catch (Exception e) {
+                    Log.e(TAG, "Failed to start bulk import", e);
+                    return false;
+                }
+            });
+        }
+
+        /**
+         * 以轉換器中選好的樂譜與 layout 產生腳本（結果通常已在選檔時由快取或背景轉換準備好）。
+         * 回傳 {"script": ClickScript} 或 {"error": 訊息}；背景轉換超過 CONVERT_WAIT_MS 仍未完成時回報
+         * "Still converting"，不在 JS 執行緒上無限等待。
+         */
+        @JavascriptInterface
+        public String convertPickedSheet() {
+            return OmniTrace.traced("js.convertPickedSheet", () -> {
+                try {
+                    Future<SheetConverter.Result> future = preparedSheet;
+                    SheetConverter.Result result = future != null
+                            ? future.get(CONVERT_WAIT_MS, TimeUnit.MILLISECONDS) : null;
+                    if (result == null) return "{\"error\":\"Select a song and a layout script first.\"}";
+                    return "{\"script\":" + result.toScriptJson(UUID.randomUUID().toString(), System.currentTimeMillis())
+                            + "}";
+                } catch (TimeoutException e) {
+                    return "{\"error\":\"Still converting, try again in a moment.\"}";
+                } catch (ExecutionException e) {
+                    Throwable cause = e.getCause() != null ? e.getCause() : e;
+                    String message = cause.getMessage() != null ? cause.getMessage() : cause.getClass().getSimpleName();
+                    return "{\"error\":" + SheetConverter.quote(message) + "}";
+                } catch (Exception e) {
+                    Log.e(TAG, "convertPickedSheet failed", e);
+                    return "{\"error\":" + SheetConverter.quote(String.valueOf(e.getMessage())) + "}";
+                }
+            });
+        }
+
+        /**
+         * 轉換快取統計：entries / bytes / budgetBytes / hits / misses / hitRate / evictions（JSON）。
+         */
+        @JavascriptInterface
+        public String getScriptCacheStats() {
+            return OmniTrace.traced("js.getScriptCacheStats", () -> {
+                CompiledScriptCache cache = scriptCache;
+                return cache != null ? cache.toJson() : "{}";
+            });
+        }
+
+        @JavascriptInterface
+        public void cancelBulkImport() {
+            OmniTrace.traced("js.cancelBulkImport", () -> OmniClickAccessibilityService.this.cancelBulkImport());
         }
 
         // 從 overlay 內觸發原生儲存流程，使用者可選擇資料夾與檔名。
         @JavascriptInterface
         public void saveFile(String fileName, String content) {
-            Log.d(TAG, "saveFile from JS, fileName=" + fileName);
-            try {
-                Intent intent = new Intent(OmniClickAccessibilityService.this, FileSaveActivity.class);
-                intent.addFlags(Intent.FLAG_ACTIVITY_NEW_TASK);
-                intent.putExtra("fileName", fileName);
-                intent.putExtra("content", content);
-                startActivity(intent);
-            } catch (Exception e) {
-                Log.e(TAG, "Failed to start FileSaveActivity", e);
-            }
+            OmniTrace.traced("js.saveFile", () -> {
+                Log.d(TAG, "saveFile from JS, fileName=" + fileName);
+                startSaveFlow(fileName, content);
+            });
         }
 
         /**
-         * 當前端 input 取得焦點時呼叫，移除 FLAG_NOT_FOCUSABLE 與 FLAG_NOT_TOUCHABLE
-         * 讓軟鍵盤可以彈出，且 WebView 可直接接收觸控事件（避免被 touch overlay 攔截）。
+         * 以精簡格式（varint 差值 + gzip）匯出腳本，檔案通常不到 JSON 的十分之一。
+         * 匯入時 FilePickerActivity 依內容自動判斷格式，不需要另外的入口。
          */
         @JavascriptInterface
-        public void requestInputFocus() {
-            Log.d(TAG, "requestInputFocus");
-            new Handler(Looper.getMainLooper()).post(() -> {
-                // 取消任何待執行的 clearFocus，避免 focus/blur 快速切換造成鍵盤閃退
-                if (pendingClearFocusRunnable != null) {
-                    clearFocusHandler.removeCallbacks(pendingClearFocusRunnable);
-                    pendingClearFocusRunnable = null;
-                }
-                if (webView == null || windowManager == null || webViewLayoutParams == null) return;
-                webViewLayoutParams.flags &= ~WindowManager.LayoutParams.FLAG_NOT_FOCUSABLE;
-                webViewLayoutParams.flags &= ~WindowManager.LayoutParams.FLAG_NOT_TOUCHABLE;
-                webViewLayoutParams.flags &= ~WindowManager.LayoutParams.FLAG_NOT_TOUCH_MODAL;
+        public boolean saveCompactFile(String fileName, String scriptJson) {
+            return OmniTrace.traced("js.saveCompactFile", () -> {
+                NativeScript script;
                 try {
-                    windowManager.updateViewLayout(webView, webViewLayoutParams);
-                } catch (Exception e) {
-                    Log.e(TAG, "requestInputFocus updateViewLayout failed", e);
+                    script = NativeScript.fromJson(scriptJson);
+                } catch (JSONException e) {
+                    Log.e(TAG, "saveCompactFile: invalid script JSON", e);
+                    return false;
                 }
-                webView.requestFocus();
+                startCompactSaveFlow(fileName, script);
+                return true;
+            });
+        }
 
-                // 隱藏 touchView，避免它攔截鍵盤觸控事件
-                // TYPE_ACCESSIBILITY_OVERLAY 層級高於軟鍵盤，touchView 會吃掉鍵盤的觸控
-                if (touchView != null && touchLayoutParams != null) {
-                    try {
-                        touchLayoutParams.width = 0;
-                        touchLayoutParams.height = 0;
-                        windowManager.updateViewLayout(touchView, touchLayoutParams);
-                        Log.d(TAG, "requestInputFocus: touchView hidden (0x0)");
-                    } catch (Exception e) {
-                        Log.e(TAG, "requestInputFocus hide touchView failed", e);
+        /**
+         * 當前端 input 取得焦點時呼叫，移除 FLAG_NOT_FOCUSABLE 與 FLAG_NOT_TOUCHABLE
+         * 讓軟鍵盤可以彈出，且 WebView 可直接接收觸控事件（避免被 touch overlay 攔截）。
+         */
+        @JavascriptInterface
+        public void requestInputFocus() {
+            OmniTrace.traced("js.requestInputFocus", () -> {
+                Log.d(TAG, "requestInputFocus");
+                new Handler(Looper.getMainLooper()).post(() -> {
+                    // 取消任何待執行的 clearFocus，避免 focus/blur 快速切換造成鍵盤閃退
+                    if (pendingClearFocusRunnable != null) {
+                        clearFocusHandler.removeCallbacks(pendingClearFocusRunnable);
+                        pendingClearFocusRunnable = null;
                     }
-                }
+                    if (webView == null || overlayLayout == null || webViewLayoutParams == null) return;
+                    webViewLayoutParams.flags &= ~WindowManager.LayoutParams.FLAG_NOT_FOCUSABLE;
+                    webViewLayoutParams.flags &= ~WindowManager.LayoutParams.FLAG_NOT_TOUCHABLE;
+                    webViewLayoutParams.flags &= ~WindowManager.LayoutParams.FLAG_NOT_TOUCH_MODAL;
+                    // 視窗必須先變成可取得焦點，requestFocus 才能讓軟鍵盤連上：立即套用，不等下一個 frame
+                    overlayLayout.applyNow(webView);
+                    webView.requestFocus();
+
+                    // 隱藏 touchView，避免它攔截鍵盤觸控事件
+                    // TYPE_ACCESSIBILITY_OVERLAY 層級高於軟鍵盤，touchView 會吃掉鍵盤的觸控
+                    touchHiddenForInput = true;
+                    updateTouchOverlayLayout();
+                });
             });
         }
 
@@ -536,30 +1168,22 @@ public class OmniClickAccessibilityService extends AccessibilityService {
          */
         @JavascriptInterface
         public void clearInputFocus() {
-            Log.d(TAG, "clearInputFocus (debounced 300ms)");
-            pendingClearFocusRunnable = () -> {
-                pendingClearFocusRunnable = null;
-                if (webView == null || windowManager == null || webViewLayoutParams == null) return;
-                webViewLayoutParams.flags |= WindowManager.LayoutParams.FLAG_NOT_FOCUSABLE;
-                webViewLayoutParams.flags |= WindowManager.LayoutParams.FLAG_NOT_TOUCHABLE;
-                webViewLayoutParams.flags |= WindowManager.LayoutParams.FLAG_NOT_TOUCH_MODAL;
-                try {
-                    windowManager.updateViewLayout(webView, webViewLayoutParams);
-                } catch (Exception e) {
-                    Log.e(TAG, "clearInputFocus updateViewLayout failed", e);
-                }
-
-                // 恢復 touchView 到上次的 overlay 矩形
-                if (touchView != null && touchLayoutParams != null) {
-                    try {
-                        updateTouchOverlayLayout();
-                        Log.d(TAG, "clearInputFocus: touchView restored");
-                    } catch (Exception e) {
-                        Log.e(TAG, "clearInputFocus restore touchView failed", e);
-                    }
-                }
-            };
-            clearFocusHandler.postDelayed(pendingClearFocusRunnable, 800);
+            OmniTrace.traced("js.clearInputFocus", () -> {
+                Log.d(TAG, "clearInputFocus (debounced 300ms)");
+                pendingClearFocusRunnable = () -> {
+                    pendingClearFocusRunnable = null;
+                    if (webView == null || overlayLayout == null || webViewLayoutParams == null) return;
+                    webViewLayoutParams.flags |= WindowManager.LayoutParams.FLAG_NOT_FOCUSABLE;
+                    webViewLayoutParams.flags |= WindowManager.LayoutParams.FLAG_NOT_TOUCHABLE;
+                    webViewLayoutParams.flags |= WindowManager.LayoutParams.FLAG_NOT_TOUCH_MODAL;
+                    overlayLayout.request(webView);
+
+                    // 恢復 touchView 到上次的 overlay 矩形
+                    touchHiddenForInput = false;
+                    updateTouchOverlayLayout();
+                };
+                clearFocusHandler.postDelayed(pendingClearFocusRunnable, 800);
+            });
         }
 
         /**
@@ -567,8 +1191,10 @@ public class OmniClickAccessibilityService extends AccessibilityService {
          */
         @JavascriptInterface
         public void setRecordingMode(boolean recording) {
-            isRecordingMode = recording;
-            Log.d(TAG, "setRecordingMode: " + recording + " [thread=" + Thread.currentThread().getName() + "]");
+            OmniTrace.traced("js.setRecordingMode", () -> {
+                isRecordingMode = recording;
+                Log.d(TAG, "setRecordingMode: " + recording + " [thread=" + Thread.currentThread().getName() + "]");
+            });
         }
 
         /**
@@ -576,69 +1202,904 @@ public class OmniClickAccessibilityService extends AccessibilityService {
          */
         @JavascriptInterface
         public void setHudRect(float x, float y, float width, float height) {
-            hudRectPxX = x;
-            hudRectPxY = y;
-            hudRectPxW = width;
-            hudRectPxH = height;
-            Log.d(TAG, "setHudRect: (" + x + "," + y + "," + width + "," + height + ")");
+            OmniTrace.traced("js.setHudRect", () -> {
+                hudRectPxX = x;
+                hudRectPxY = y;
+                hudRectPxW = width;
+                hudRectPxH = height;
+                Log.d(TAG, "setHudRect: (" + x + "," + y + "," + width + "," + height + ")");
+            });
         }
 
+        /**
+         * 原生播放：JS 傳入整份 ClickScript JSON，由 PlaybackScheduler 以絕對 deadline 排程。
+         * 回傳 false 代表無法原生播放（JS 端可改用 setTimeout 後備）。
+         */
         @JavascriptInterface
-        public void close() {
-            Handler mainHandler = new Handler(Looper.getMainLooper());
-            mainHandler.post(() -> {
-                if (windowManager != null) {
-                    try {
-                        if (webView != null) {
-                            windowManager.removeView(webView);
-                            webView = null;
-                        }
-                        if (touchView != null) {
-                            windowManager.removeView(touchView);
-                            touchView = null;
-                        }
-                    } catch (IllegalArgumentException e) {
-                        Log.e(TAG, "Error removing overlay views in close()", e);
-                    }
+        public boolean playScript(String scriptJson, float speed, int startIndex) {
+            return OmniTrace.traced("js.playScript", () -> {
+                if (playbackScheduler == null || Build.VERSION.SDK_INT < Build.VERSION_CODES.N) return false;
+                try {
+                    NativeScript script = NativeScript.fromJson(scriptJson);
+                    if (script.hasBlocks()) return startProgram(script, speed, startIndex);
+                    ScriptTimeline timeline = ScriptTimeline.compile(script, speed,
+                            OmniClickAccessibilityService.this::mapCanvasToScreen);
+                    if (timeline.size == 0) return false;
+                    Log.d(TAG, "playScript: steps=" + timeline.stepCount() + ", events=" + timeline.size
+                            + ", speed=" + speed + ", startIndex=" + startIndex);
+                    playbackScheduler.start(timeline, startIndex);
+                    checkpoint.begin(timeline.scriptId, scriptJson, speed, 0, startIndex, 0);
+                    mainScriptId = null;
+                    return true;
+                } catch (JSONException e) {
+                    Log.e(TAG, "playScript: invalid script JSON", e);
+                    return false;
                 }
-
-                // 請求系統停用並關閉此無障礙服務，等同於在設定中將服務關閉
-                disableSelf();
             });
         }
-    }
 
-    private void performTapGesture(float x, float y) {
-        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.N) {
-            return;
+        /**
+         * 播放已由 openScript 載入原生端的腳本，不需再傳整份 JSON。
+         */
+        @JavascriptInterface
+        public boolean playStoredScript(String scriptId, float speed, int startIndex) {
+            return OmniTrace.traced("js.playStoredScript", () -> startStoredScript(scriptId, speed, startIndex, 0));
         }
 
-        // 確保在主執行緒執行 dispatchGesture (提升穩定性，避免部分裝置線程問題)
-        new Handler(Looper.getMainLooper()).post(() -> {
-            try {
-                Path path = new Path();
-                path.moveTo(x, y);
-                // 使用 lineTo 確保路徑非空，雖然原地不動
-                path.lineTo(x, y);
-
-                // 增加持續時間至 100ms (50ms 有時會被視為誤觸或無效)
-                GestureDescription.StrokeDescription stroke =
-                        new GestureDescription.StrokeDescription(path, 0, 100);
+        // ---- 分頁 step API：前端只讀寫可見範圍，編輯成本不隨腳本長度成長 ----
 
-                GestureDescription.Builder builder = new GestureDescription.Builder();
-                builder.addStroke(stroke);
+        /** 將整份腳本載入原生端，回傳 script id；失敗時回傳空字串 */
+        @JavascriptInterface
+        public String openScript(String scriptJson) {
+            return OmniTrace.traced("js.openScript", () -> {
+                try {
+                    String id = scriptStore.open(scriptJson);
+                    Log.d(TAG, "openScript: id=" + id + ", steps=" + scriptStore.count(id));
+                    return id;
+                } catch (JSONException e) {
+                    Log.e(TAG, "openScript: invalid script JSON", e);
+                    return "";
+                }
+            });
+        }
 
-                Log.d(TAG, "Dispatching tap gesture at (" + x + ", " + y + ")");
+        @JavascriptInterface
+        public void closeScript(String scriptId) {
+            OmniTrace.traced("js.closeScript", () -> scriptStore.close(scriptId));
+        }
 
-                boolean displayed = dispatchGesture(builder.build(), new GestureResultCallback() {
-                    @Override
-                    public void onCompleted(GestureDescription gestureDescription) {
-                        Log.d(TAG, "Gesture completed at (" + x + ", " + y + ")");
-                    }
+        @JavascriptInterface
+        public int getStepCount(String scriptId) {
+            return OmniTrace.traced("js.getStepCount", () -> scriptStore.count(scriptId));
+        }
 
-                    @Override
-                    public void onCancelled(GestureDescription gestureDescription) {
-                        Log.e(TAG, "Gesture cancelled at (" + x + ", " + y + ")");
+        /** 取出 [offset, offset + count) 的 step（JSON 陣列），每筆附帶 time（ms） */
+        @JavascriptInterface
+        public String getSteps(String scriptId, int offset, int count) {
+            return OmniTrace.traced("js.getSteps", () -> {
+                try {
+                    return scriptStore.getSteps(scriptId, offset, count);
+                } catch (JSONException e) {
+                    Log.e(TAG, "getSteps failed", e);
+                    return "[]";
+                }
+            });
+        }
+
+        @JavascriptInterface
+        public boolean insertSteps(String scriptId, int index, String stepsJson) {
+            return OmniTrace.traced("js.insertSteps", () -> {
+                try {
+                    return scriptStore.insert(scriptId, index, stepsJson);
+                } catch (JSONException e) {
+                    Log.e(TAG, "insertSteps: invalid steps JSON", e);
+                    return false;
+                }
+            });
+        }
+
+        @JavascriptInterface
+        public boolean updateSteps(String scriptId, int index, String stepsJson) {
+            return OmniTrace.traced("js.updateSteps", () -> {
+                try {
+                    return scriptStore.update(scriptId, index, stepsJson);
+                } catch (JSONException e) {
+                    Log.e(TAG, "updateSteps: invalid steps JSON", e);
+                    return false;
+                }
+            });
+        }
+
+        @JavascriptInterface
+        public boolean deleteSteps(String scriptId, int index, int count) {
+            return OmniTrace.traced("js.deleteSteps", () -> scriptStore.delete(scriptId, index, count));
+        }
+
+        /** step 在時間軸上的開始時間（ms），由 prefix-sum 索引計算 */
+        @JavascriptInterface
+        public double getStepTime(String scriptId, int index) {
+            return OmniTrace.traced("js.getStepTime", () -> scriptStore.timeOf(scriptId, index));
+        }
+
+        /** 時間軸位置（ms）對應的 step 索引 */
+        @JavascriptInterface
+        public int findStepAtTime(String scriptId, double timeMs) {
+            return OmniTrace.traced("js.findStepAtTime", () -> scriptStore.indexAtTime(scriptId, timeMs));
+        }
+
+        @JavascriptInterface
+        public double getScriptSpan(String scriptId) {
+            return OmniTrace.traced("js.getScriptSpan", () -> scriptStore.totalSpanMs(scriptId));
+        }
+
+        /** 匯出整份腳本 JSON（儲存 / 匯出時使用） */
+        @JavascriptInterface
+        public String exportScript(String scriptId) {
+            return OmniTrace.traced("js.exportScript", () -> {
+                try {
+                    return scriptStore.export(scriptId);
+                } catch (JSONException e) {
+                    Log.e(TAG, "exportScript failed", e);
+                    return null;
+                }
+            });
+        }
+
+        @JavascriptInterface
+        public void stopScript() {
+            OmniTrace.traced("js.stopScript", () -> {
+                Log.d(TAG, "stopScript");
+                if (scheduledStart != null) new Handler(Looper.getMainLooper()).post(scheduledStart::cancel);
+                if (playbackScheduler != null) playbackScheduler.stop();
+                if (checkpoint != null) checkpoint.clear();
+            });
+        }
+
+        /**
+         * 在指定的牆上時間（epoch ms）開始播放，第一個點擊對齊該時間。已有排程時取代。
+         * 狀態以 window.__omniclickOnScheduledStart({type: scheduled / armed / started / cancelled})
+         * 回報，started 帶有實際的開始誤差 startErrorMs。
+         */
+        @JavascriptInterface
+        public boolean scheduleScriptStart(String scriptJson, double targetWallMs, float speed) {
+            return OmniTrace.traced("js.scheduleScriptStart", () -> {
+                if (playbackScheduler == null || Build.VERSION.SDK_INT < Build.VERSION_CODES.N) return false;
+                long target = Math.round(targetWallMs);
+                long aheadMs = target - System.currentTimeMillis();
+                if (aheadMs <= 0 || aheadMs > ScheduledStart.MAX_AHEAD_MS) return false;
+                try {
+                    NativeScript script = NativeScript.fromJson(scriptJson);
+                    if (script.hasBlocks()) return false;
+                    // 時間軸在排程時就編譯好
+                    ScriptTimeline timeline = ScriptTimeline.compile(script, speed,
+                            OmniClickAccessibilityService.this::mapCanvasToScreen);
+                    if (timeline.size == 0) return false;
+                    new Handler(Looper.getMainLooper()).post(() ->
+                            scheduledStart.schedule(timeline, scriptJson, speed, target));
+                    return true;
+                } catch (JSONException e) {
+                    Log.e(TAG, "scheduleScriptStart: invalid script JSON", e);
+                    return false;
+                }
+            });
+        }
+
+        @JavascriptInterface
+        public void cancelScheduledStart() {
+            OmniTrace.traced("js.cancelScheduledStart", () -> {
+                if (scheduledStart != null) new Handler(Looper.getMainLooper()).post(scheduledStart::cancel);
+            });
+        }
+
+        /**
+         * 排程狀態：state（idle / scheduled / armed）、targetWallMs、inMs 與最近一次的開始誤差（JSON）。
+         */
+        @JavascriptInterface
+        public String getScheduledStart() {
+            return OmniTrace.traced("js.getScheduledStart", () -> {
+                return scheduledStart != null ? scheduledStart.toJson() : "{}";
+            });
+        }
+
+        /**
+         * 以 layout 腳本（Key1–Key15）開始即時音符模式，音符由控制通道的 NOTES frame 送入；
+         * layoutJson 為空時停止。開始時會停止目前的播放。
+         */
+        @JavascriptInterface
+        public boolean setLiveMode(String layoutJson) {
+            return OmniTrace.traced("js.setLiveMode", () -> setLiveModeEnabled(layoutJson));
+        }
+
+        /** 即時模式的統計：音符數、和弦合併、丟棄數與「收到 -> 按下」延遲（JSON，ms） */
+        @JavascriptInterface
+        public String getLiveStats() {
+            return OmniTrace.traced("js.getLiveStats", () -> liveNotes != null ? liveNotes.toJson() : "{}");
+        }
+
+        /**
+         * 背景播放：與前景腳本同時執行，使用自己的循環設定。
+         * 回傳 track id（進度回呼會帶上此 id），失敗時回傳 -1。
+         */
+        @JavascriptInterface
+        public int startBackgroundScript(String scriptJson, float speed, boolean loop, int loopCount) {
+            return OmniTrace.traced("js.startBackgroundScript", () -> {
+                if (playbackScheduler == null || Build.VERSION.SDK_INT < Build.VERSION_CODES.N) return -1;
+                try {
+                    ScriptTimeline timeline = ScriptTimeline.fromJson(scriptJson, speed,
+                            OmniClickAccessibilityService.this::mapCanvasToScreen);
+                    if (timeline.size == 0) return -1;
+                    int trackId = playbackScheduler.startBackground(timeline, loop, loopCount);
+                    Log.d(TAG, "startBackgroundScript: track=" + trackId + ", events=" + timeline.size
+                            + ", loop=" + loop + "/" + loopCount);
+                    return trackId;
+                } catch (JSONException e) {
+                    Log.e(TAG, "startBackgroundScript: invalid script JSON", e);
+                    return -1;
+                }
+            });
+        }
+
+        @JavascriptInterface
+        public void stopBackgroundScript(int trackId) {
+            OmniTrace.traced("js.stopBackgroundScript", () -> {
+                Log.d(TAG, "stopBackgroundScript: track=" + trackId);
+                if (playbackScheduler != null && trackId != PlaybackScheduler.MAIN_TRACK_ID) {
+                    playbackScheduler.stopTrack(trackId);
+                }
+            });
+        }
+
+        @JavascriptInterface
+        public void stopAllScripts() {
+            OmniTrace.traced("js.stopAllScripts", () -> {
+                Log.d(TAG, "stopAllScripts");
+                if (playbackScheduler != null) playbackScheduler.stopAll();
+                if (checkpoint != null) checkpoint.clear();
+            });
+        }
+
+        /**
+         * 最近一次（或目前這一輪）播放的時間誤差統計，JSON 格式，單位 ms。
+         */
+        @JavascriptInterface
+        public String getPlaybackStats() {
+            return OmniTrace.traced("js.getPlaybackStats", () -> {
+                return playbackScheduler != null ? playbackScheduler.getLastStatsJson() : "{}";
+            });
+        }
+
+        /**
+         * 手勢速率控制器的估計：最小間隔、裝置可承受的最高手勢頻率與最近的取消比例。
+         */
+        @JavascriptInterface
+        public String getDispatchRateStats() {
+            return OmniTrace.traced("js.getDispatchRateStats", () -> {
+                return playbackScheduler != null ? playbackScheduler.getRateStatsJson() : "{}";
+            });
+        }
+
+        /**
+         * 開關低耗電播放：長空檔改用單一低精度計時器，windowMs 內的事件合併成一次喚醒，
+         * 播放中不再回報進度給 HUD。windowMs <= 0 時使用預設值。
+         */
+        @JavascriptInterface
+        public void setLowPowerPlayback(boolean enabled, int windowMs) {
+            OmniTrace.traced("js.setLowPowerPlayback", () -> {
+                if (playbackScheduler == null) return;
+                playbackScheduler.setLowPower(enabled,
+                        windowMs > 0 ? windowMs : PlaybackScheduler.DEFAULT_LOW_POWER_WINDOW_MS);
+            });
+        }
+
+        /**
+         * 開關主 Looper 卡頓監測：處理時間超過 thresholdMs 的訊息會記錄 stack 取樣，
+         * 並與播放中遲到的手勢對照。開啟時清除舊的報告。thresholdMs <= 0 時使用預設值。
+         */
+        @JavascriptInterface
+        public void setStallWatchdog(boolean enabled, int thresholdMs) {
+            OmniTrace.traced("js.setStallWatchdog", () -> {
+                new Handler(Looper.getMainLooper()).post(() -> {
+                    if (enabled) {
+                        if (mainWatchdog == null) mainWatchdog = new MainLooperWatchdog();
+                        mainWatchdog.start(thresholdMs > 0 ? thresholdMs : MainLooperWatchdog.DEFAULT_THRESHOLD_MS);
+                        if (playbackScheduler != null) playbackScheduler.setStallReport(mainWatchdog.getReport());
+                    } else if (mainWatchdog != null) {
+                        if (playbackScheduler != null) playbackScheduler.setStallReport(null);
+                        mainWatchdog.stop();
+                    }
+                });
+            });
+        }
+
+        /**
+         * 卡頓報告：stalls / maxStallMs / late / lateDuringStall / lateWithoutStall，
+         * 以及最近的 stall（訊息、stack 取樣、被延誤的手勢）（JSON）。
+         */
+        @JavascriptInterface
+        public String getStallReport() {
+            return OmniTrace.traced("js.getStallReport", () -> {
+                MainLooperWatchdog w = mainWatchdog;
+                return w != null ? w.toJson() : "{}";
+            });
+        }
+
+        /** 以原生儲存流程匯出卡頓報告；尚未開啟過監測時回傳 false */
+        @JavascriptInterface
+        public boolean exportStallReport() {
+            return OmniTrace.traced("js.exportStallReport", () -> {
+                MainLooperWatchdog w = mainWatchdog;
+                if (w == null) return false;
+                String stamp = new SimpleDateFormat("yyyyMMdd-HHmmss", Locale.US).format(new Date());
+                startSaveFlow("omniclick-stalls-" + stamp + ".json", w.toJson());
+                return true;
+            });
+        }
+
+        /**
+         * Web UI 初始化完成（React 首次 render 之後）：關閉冷啟動的快速播放提示。
+         */
+        @JavascriptInterface
+        public void reportUiReady() {
+            OmniTrace.traced("js.reportUiReady", () -> {
+                webUiReady = true;
+                StartupTimeline.mark(StartupTimeline.WEB_READY);
+                new Handler(Looper.getMainLooper()).post(() -> {
+                    if (quickPlayShowing) {
+                        quickPlayShowing = false;
+                        resumePrompt.dismiss();
+                    }
+                });
+            });
+        }
+
+        /**
+         * 冷啟動各階段時間：stages（stage / atMs / deltaMs）與 firstPlayableMs（JSON）。
+         */
+        @JavascriptInterface
+        public String getStartupTimings() {
+            return OmniTrace.traced("js.getStartupTimings", () -> StartupTimeline.toJson());
+        }
+
+        /**
+         * 目前（或最近一次）播放的耗電指標：wakeups / wakeupsPerMin / spinMs / cpuMs / cpuMsPerMin（JSON）。
+         */
+        @JavascriptInterface
+        public String getPowerStats() {
+            return OmniTrace.traced("js.getPowerStats", () -> {
+                return playbackScheduler != null ? playbackScheduler.getPowerStatsJson() : "{}";
+            });
+        }
+
+        /**
+         * overlay relayout 統計：requests / frames / relayouts / skipped / relayoutsPerSecond（JSON）。
+         */
+        @JavascriptInterface
+        public String getOverlayLayoutStats() {
+            return OmniTrace.traced("js.getOverlayLayoutStats", () -> {
+                OverlayLayoutBatcher batcher = overlayLayout;
+                return batcher != null ? batcher.toJson() : "{}";
+            });
+        }
+
+        /**
+         * 開關本機控制通道（abstract socket omniclick.control，主機端以 adb forward 連入）。
+         * 回傳目前是否在監聽。
+         */
+        @JavascriptInterface
+        public boolean setControlServerEnabled(boolean enabled) {
+            return OmniTrace.traced("js.setControlServerEnabled", () -> {
+                return OmniClickAccessibilityService.this.setControlServerEnabled(enabled);
+            });
+        }
+
+        /**
+         * 執行中開關 android.os.Trace 標記（Perfetto / systrace 擷取時使用）。
+         */
+        @JavascriptInterface
+        public void setTracingEnabled(boolean enabled) {
+            OmniTrace.setEnabled(enabled);
+            Log.d(TAG, "setTracingEnabled: " + enabled);
+        }
+
+        @JavascriptInterface
+        public void close() {
+            OmniTrace.traced("js.close", () -> {
+                Handler mainHandler = new Handler(Looper.getMainLooper());
+                mainHandler.post(() -> {
+                    if (windowManager != null) {
+                        try {
+                            if (webView != null) {
+                                windowManager.removeView(webView);
+                                webView = null;
+                            }
+                            if (touchView != null) {
+                                windowManager.removeView(touchView);
+                                touchView = null;
+                            }
+                        } catch (IllegalArgumentException e) {
+                            Log.e(TAG, "Error removing overlay views in close()", e);
+                        }
+                    }
+
+                    // 請求系統停用並關閉此無障礙服務，等同於在設定中將服務關閉
+                    disableSelf();
+                });
+            });
+        }
+    }
+
+    /**
+     * 編譯並播放 ScriptStore 中的腳本（JS 的 playStoredScript 與控制通道共用）。
+     */
+    private boolean startStoredScript(String scriptId, float speed, int startIndex, int startLoop) {
+        NativeScript script = scriptStore.get(scriptId);
+        if (script == null || playbackScheduler == null || Build.VERSION.SDK_INT < Build.VERSION_CODES.N) return false;
+        if (script.hasBlocks()) return startProgram(script, speed, startIndex);
+        ScriptTimeline timeline;
+        synchronized (scriptStore) {
+            timeline = ScriptTimeline.compile(script, speed, this::mapCanvasToScreen);
+        }
+        if (timeline.size == 0) return false;
+        Log.d(TAG, "startStoredScript: id=" + scriptId + ", events=" + timeline.size + ", startIndex=" + startIndex
+                + ", startLoop=" + startLoop);
+        playbackScheduler.start(timeline, startIndex, startLoop);
+        mainScriptId = scriptId;
+        mainSpeed = speed;
+        mainLoopIndex = startLoop;
+        try {
+            checkpoint.begin(scriptId, scriptStore.export(scriptId), speed, startLoop, startIndex, 0);
+        } catch (JSONException e) {
+            Log.e(TAG, "startStoredScript: checkpoint export failed", e);
+        }
+        return true;
+    }
+
+    /**
+     * 含重複區段（metadata.blocks）的腳本編成 bytecode 交給 ScriptVm，
+     * 區段不展開；從中間 step 開始與 crash 續播只支援展開式時間軸。
+     * startIndex > 0 時回傳 false（區段內的 step 沒有單一的進入點），由呼叫端改用其他方式播放或告知使用者。
+     */
+    private boolean startProgram(NativeScript script, float speed, int startIndex) {
+        if (startIndex > 0) {
+            Log.w(TAG, "startProgram: script " + script.id() + " has blocks, cannot start at step " + startIndex);
+            return false;
+        }
+        ScriptProgram program;
+        synchronized (scriptStore) {
+            program = ScriptAssembler.assemble(script, this::mapCanvasToScreen);
+        }
+        Log.d(TAG, "startProgram: id=" + script.id() + ", instructions=" + program.instructionCount()
+                + ", bytes=" + program.sizeBytes());
+        playbackScheduler.start(program, speed);
+        mainScriptId = script.id();
+        mainSpeed = speed;
+        mainLoopIndex = 0;
+        checkpoint.clear();
+        return true;
+    }
+
+    private synchronized boolean setControlServerEnabled(boolean enabled) {
+        if (enabled) {
+            if (controlServer == null) controlServer = new ControlServer(new ControlTarget());
+            return controlServer.start();
+        }
+        if (controlServer != null) {
+            controlServer.stop();
+            controlServer = null;
+        }
+        return false;
+    }
+
+    /**
+     * 開始 / 停止即時模式。layout 的座標與腳本相同（canvas 座標），在這裡先換算成螢幕座標，
+     * 收到音符時不再做任何轉換。
+     */
+    private boolean setLiveModeEnabled(String layoutJson) {
+        if (liveNotes == null || Build.VERSION.SDK_INT < Build.VERSION_CODES.N) return false;
+        if (layoutJson == null || layoutJson.isEmpty()) {
+            liveNotes.stop();
+            return false;
+        }
+        SheetConverter.Layout layout;
+        try {
+            layout = SheetConverter.parseLayout(layoutJson);
+        } catch (JSONException | IllegalArgumentException e) {
+            Log.e(TAG, "setLiveMode: invalid layout", e);
+            return false;
+        }
+        float[] x = new float[layout.size()];
+        float[] y = new float[layout.size()];
+        for (int i = 0; i < layout.size(); i++) {
+            float[] p = mapCanvasToScreen(layout.x[i], layout.y[i]);
+            x[i] = p[0];
+            y[i] = p[1];
+        }
+        if (scheduledStart != null) new Handler(Looper.getMainLooper()).post(scheduledStart::cancel);
+        if (playbackScheduler != null) playbackScheduler.stop();
+        if (checkpoint != null) checkpoint.clear();
+        mainScriptId = null;
+        liveNotes.start(new SheetConverter.Layout(x, y));
+        return true;
+    }
+
+    /** 控制通道命令對應到服務的播放功能 */
+    private final class ControlTarget implements ControlSession.Target {
+
+        @Override
+        public String upload(String scriptJson) throws JSONException {
+            String id = scriptStore.open(scriptJson);
+            Log.d(TAG, "control upload: id=" + id + ", steps=" + scriptStore.count(id));
+            return id;
+        }
+
+        @Override
+        public boolean start(String scriptId, float speed, int startIndex) {
+            return startStoredScript(scriptId, speed, startIndex, 0);
+        }
+
+        @Override
+        public void stop() {
+            if (playbackScheduler != null) playbackScheduler.stop();
+            if (checkpoint != null) checkpoint.clear();
+            mainScriptId = null;
+        }
+
+        @Override
+        public boolean seek(int stepIndex) {
+            String id = mainScriptId;
+            if (id == null || stepIndex < 0 || stepIndex >= scriptStore.count(id)) return false;
+            return startStoredScript(id, mainSpeed, stepIndex, mainLoopIndex);
+        }
+
+        @Override
+        public String metricsJson() {
+            PlaybackScheduler scheduler = playbackScheduler;
+            OverlayLayoutBatcher batcher = overlayLayout;
+            LiveNoteStream live = liveNotes;
+            return "{\"playback\":" + (scheduler != null ? scheduler.getLastStatsJson() : "{}")
+                    + ",\"rate\":" + (scheduler != null ? scheduler.getRateStatsJson() : "{}")
+                    + ",\"overlay\":" + (batcher != null ? batcher.toJson() : "{}")
+                    + ",\"live\":" + (live != null ? live.toJson() : "{}") + "}";
+        }
+
+        @Override
+        public boolean live(String layoutJson) {
+            return setLiveModeEnabled(layoutJson) || layoutJson.isEmpty();
+        }
+
+        @Override
+        public void notes(int[] keys, long[] senderNs, int count, long receivedNs) {
+            LiveNoteStream live = liveNotes;
+            if (live != null) live.offer(keys, senderNs, count, receivedNs);
+        }
+    }
+
+    /**
+     * PlaybackScheduler 的 Dispatcher：在排程執行緒上直接送出手勢，不再 post 到主執行緒，
+     * 也不逐筆寫 log（高頻播放時 log 本身就是延遲來源）。
+     * batch 內的多個 stroke（可能來自不同腳本）合併為同一個 GestureDescription。
+     */
+    private boolean dispatchBatch(GestureBatch batch) {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.N || batch.count == 0) {
+            return false;
+        }
+        ensurePlaybackGestureCallback();
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O && batch.hasContinuation()) {
+            boolean ok = dispatchContinuedBatch(batch);
+            if (ok) traceGestureStarted();
+            return ok;
+        }
+
+        // API 24/25 沒有 continueStroke：press-drag 拆成先後兩個獨立 stroke（中間手指會放開）
+        boolean trace = OmniTrace.begin("gesture.build");
+        GestureDescription gesture;
+        try {
+            gesture = buildGesture(batch);
+        } finally {
+            OmniTrace.end(trace);
+        }
+        boolean ok;
+        trace = OmniTrace.begin("gesture.dispatch");
+        try {
+            ok = dispatchGesture(gesture, playbackGestureCallback, playbackClock.getHandler());
+        } finally {
+            OmniTrace.end(trace);
+        }
+        if (!ok) {
+            Log.e(TAG, "dispatchGesture for playback batch (" + batch.count + " strokes) returned false (system rejected)");
+        } else {
+            traceGestureStarted();
+        }
+        return ok;
+    }
+
+    /**
+     * LiveNoteStream 的 Dispatcher：即時模式只有單純的點擊（沒有 continueStroke），
+     * 結果交給 LiveNoteStream，不進入排程器的速率控制。
+     */
+    private boolean dispatchLiveBatch(GestureBatch batch) {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.N || batch.count == 0) {
+            return false;
+        }
+        ensureLiveGestureCallback();
+        boolean trace = OmniTrace.begin("gesture.build");
+        GestureDescription gesture;
+        try {
+            gesture = buildGesture(batch);
+        } finally {
+            OmniTrace.end(trace);
+        }
+        boolean ok;
+        trace = OmniTrace.begin("gesture.dispatch");
+        try {
+            ok = dispatchGesture(gesture, liveGestureCallback, playbackClock.getHandler());
+        } finally {
+            OmniTrace.end(trace);
+        }
+        if (!ok) {
+            Log.e(TAG, "dispatchGesture for live batch (" + batch.count + " strokes) returned false (system rejected)");
+        } else {
+            traceGestureStarted();
+        }
+        return ok;
+    }
+
+    private GestureDescription buildGesture(GestureBatch batch) {
+        GestureDescription.Builder builder = new GestureDescription.Builder();
+        for (int i = 0; i < batch.count; i++) {
+            builder.addStroke(new GestureDescription.StrokeDescription(strokePath(batch, i),
+                    batch.startMs[i], batch.durationMs[i]));
+        }
+        return builder.build();
+    }
+
+    /** ScheduledStart 的播放端：預先組手勢、交給排程器、把狀態轉給 JS */
+    private final class ScheduledStartTarget implements ScheduledStart.Target {
+        @Override
+        public void save(ScriptTimeline timeline, String scriptJson) {
+            // 背景寫檔；開始前又播放了其他腳本時 checkpoint 不會啟用（id 不符）
+            checkpoint.saveScript(timeline.scriptId, scriptJson);
+        }
+
+        @Override
+        public void prewarm(ScriptTimeline timeline) {
+            if (Build.VERSION.SDK_INT < Build.VERSION_CODES.N) return;
+            boolean trace = OmniTrace.begin("scheduledStart.prewarm");
+            try {
+                // 與排程器相同的方式組出開頭的手勢，只建構不送出
+                GestureBatch warm = new GestureBatch(GestureDescription.getMaxStrokeCount());
+                long firstNs = timeline.offsetNs[0];
+                for (int i = 0; i < timeline.size && !warm.isFull() && warm.canFit(timeline, i); i++) {
+                    long offsetMs = (timeline.offsetNs[i] - firstNs + 500_000L) / 1_000_000L;
+                    if (i > 0 && offsetMs >= warm.endMs()) break;
+                    warm.add(timeline, i, offsetMs, PlaybackScheduler.MAIN_TRACK_ID);
+                }
+                buildGesture(warm);
+            } finally {
+                OmniTrace.end(trace);
+            }
+        }
+
+        @Override
+        public void startAt(ScriptTimeline timeline, float speed, long firstTapNs) {
+            if (playbackScheduler == null) return;
+            playbackScheduler.startAt(timeline, firstTapNs);
+            // 腳本已在排程時保存：這裡只寫 mmap 的進度，最後的視窗內不做檔案 I/O
+            checkpoint.begin(timeline.scriptId, null, speed, 0, 0, 0);
+            mainScriptId = null;
+        }
+
+        @Override
+        public void onEvent(String json) {
+            WebView view = webView;
+            if (view == null) return;
+            String js = "window.__omniclickOnScheduledStart && window.__omniclickOnScheduledStart(" + json + ")";
+            view.post(() -> {
+                if (webView != null) webView.evaluateJavascript(js, null);
+            });
+        }
+    }
+
+    /** 開始一個 gesture.inflight async slice，到 GestureResultCallback 回來時結束 */
+    private void traceGestureStarted() {
+        if (!OmniTrace.isEnabled()) return;
+        int cookies = inFlightTraceCookies.length;
+        if (inFlightTraceTail - inFlightTraceHead >= cookies) {
+            // 回呼遺失時丟掉最舊的，避免 slice 永遠不結束之外還佔滿佇列
+            OmniTrace.endAsync("gesture.inflight", inFlightTraceCookies[inFlightTraceHead++ % cookies]);
+        }
+        inFlightTraceCookies[inFlightTraceTail++ % cookies] = OmniTrace.beginAsync("gesture.inflight");
+        OmniTrace.counter("inFlightGestures", inFlightTraceTail - inFlightTraceHead);
+    }
+
+    private void traceGestureFinished() {
+        if (inFlightTraceHead == inFlightTraceTail) return;
+        int cookie = inFlightTraceCookies[inFlightTraceHead++ % inFlightTraceCookies.length];
+        OmniTrace.endAsync("gesture.inflight", cookie);
+        OmniTrace.counter("inFlightGestures", inFlightTraceTail - inFlightTraceHead);
+    }
+
+    /**
+     * 含接續 stroke 的手勢（press-drag）：第一段的 stroke 設 willContinue，
+     * 完成後立刻以 continueStroke 送出第二段，手指全程不放開。
+     */
+    @RequiresApi(api = Build.VERSION_CODES.O)
+    private boolean dispatchContinuedBatch(GestureBatch batch) {
+        boolean trace = OmniTrace.begin("gesture.build");
+        GestureDescription.StrokeDescription[] strokes = new GestureDescription.StrokeDescription[batch.count];
+        GestureDescription.Builder first = new GestureDescription.Builder();
+        long firstEndMs = 0;
+        for (int i = 0; i < batch.count; i++) {
+            if (batch.continuesFrom[i] >= 0) continue;
+            strokes[i] = new GestureDescription.StrokeDescription(strokePath(batch, i),
+                    batch.startMs[i], batch.durationMs[i], batch.isContinued(i));
+            first.addStroke(strokes[i]);
+            firstEndMs = Math.max(firstEndMs, batch.startMs[i] + batch.durationMs[i]);
+        }
+        GestureDescription.Builder second = new GestureDescription.Builder();
+        for (int i = 0; i < batch.count; i++) {
+            int from = batch.continuesFrom[i];
+            if (from < 0) continue;
+            second.addStroke(strokes[from].continueStroke(strokePath(batch, i),
+                    Math.max(0, batch.startMs[i] - firstEndMs), batch.durationMs[i], false));
+        }
+        GestureDescription firstGesture = first.build();
+        GestureDescription secondGesture = second.build();
+        OmniTrace.end(trace);
+
+        Handler handler = playbackClock.getHandler();
+        trace = OmniTrace.begin("gesture.dispatch");
+        boolean ok = dispatchGesture(firstGesture, new GestureResultCallback() {
+            @Override
+            public void onCompleted(GestureDescription gestureDescription) {
+                boolean trace = OmniTrace.begin("gesture.dispatchContinuation");
+                boolean sent = dispatchGesture(secondGesture, playbackGestureCallback, handler);
+                OmniTrace.end(trace);
+                if (!sent) {
+                    Log.e(TAG, "dispatchGesture for continued stroke returned false (system rejected)");
+                    traceGestureFinished();
+                    playbackScheduler.onGestureResult(true);
+                }
+            }
+
+            @Override
+            public void onCancelled(GestureDescription gestureDescription) {
+                Log.w(TAG, "Playback gesture cancelled before its continuation");
+                traceGestureFinished();
+                playbackScheduler.onGestureResult(true);
+            }
+        }, handler);
+        OmniTrace.end(trace);
+        if (!ok) {
+            Log.e(TAG, "dispatchGesture for continued playback batch returned false (system rejected)");
+        }
+        return ok;
+    }
+
+    private static Path strokePath(GestureBatch batch, int i) {
+        Path path = new Path();
+        path.moveTo(batch.x[i], batch.y[i]);
+        path.lineTo(batch.endX[i], batch.endY[i]);
+        return path;
+    }
+
+    @RequiresApi(api = Build.VERSION_CODES.N)
+    private void ensurePlaybackGestureCallback() {
+        if (playbackGestureCallback != null) return;
+        // 結果回饋給速率控制器（回呼與排程在同一條執行緒）
+        playbackGestureCallback = new GestureResultCallback() {
+            @Override
+            public void onCompleted(GestureDescription gestureDescription) {
+                boolean trace = OmniTrace.begin("gesture.completed");
+                traceGestureFinished();
+                playbackScheduler.onGestureResult(false);
+                OmniTrace.end(trace);
+            }
+
+            @Override
+            public void onCancelled(GestureDescription gestureDescription) {
+                Log.w(TAG, "Playback gesture cancelled");
+                boolean trace = OmniTrace.begin("gesture.cancelled");
+                traceGestureFinished();
+                playbackScheduler.onGestureResult(true);
+                OmniTrace.end(trace);
+            }
+        };
+    }
+
+    @RequiresApi(api = Build.VERSION_CODES.N)
+    private void ensureLiveGestureCallback() {
+        if (liveGestureCallback != null) return;
+        // 結果回給即時模式的延遲統計（回呼與 LiveNoteStream 的 drain 在同一條執行緒）
+        liveGestureCallback = new GestureResultCallback() {
+            @Override
+            public void onCompleted(GestureDescription gestureDescription) {
+                traceGestureFinished();
+                liveNotes.onGestureResult(false);
+            }
+
+            @Override
+            public void onCancelled(GestureDescription gestureDescription) {
+                Log.w(TAG, "Live gesture cancelled");
+                traceGestureFinished();
+                liveNotes.onGestureResult(true);
+            }
+        };
+    }
+
+    // 播放進度：排程執行緒只寫入各 track 的最新值，實際 evaluateJavascript 每個 frame 最多一次
+    private void postPlaybackProgress(int trackId, int stepIndex, int loopIndex) {
+        // 低耗電模式播放中暫停 HUD 進度更新，WebView 不必為每個事件執行 JS 與重繪
+        PlaybackScheduler scheduler = playbackScheduler;
+        if (scheduler != null && scheduler.isLowPower()) return;
+        synchronized (pendingProgress) {
+            int[] p = pendingProgress.get(trackId);
+            if (p == null) {
+                p = new int[2];
+                pendingProgress.put(trackId, p);
+            }
+            p[0] = stepIndex;
+            p[1] = loopIndex;
+        }
+        WebView view = webView;
+        if (view == null || !progressPosted.compareAndSet(false, true)) return;
+        view.postOnAnimation(() -> {
+            progressPosted.set(false);
+            StringBuilder js = new StringBuilder("if(window.__omniclickOnPlaybackProgress){");
+            synchronized (pendingProgress) {
+                for (int i = 0; i < pendingProgress.size(); i++) {
+                    int[] p = pendingProgress.valueAt(i);
+                    js.append("window.__omniclickOnPlaybackProgress(").append(p[0]).append(',')
+                            .append(p[1]).append(',').append(pendingProgress.keyAt(i)).append(");");
+                }
+                pendingProgress.clear();
+            }
+            js.append('}');
+            if (webView != null) webView.evaluateJavascript(js.toString(), null);
+        });
+    }
+
+    private void postPlaybackFinished(int trackId, String statsJson, boolean cancelled) {
+        WebView view = webView;
+        if (view == null) return;
+        String js = "window.__omniclickOnPlaybackFinished && window.__omniclickOnPlaybackFinished("
+                + statsJson + "," + cancelled + "," + trackId + ")";
+        view.post(() -> {
+            if (webView != null) webView.evaluateJavascript(js, null);
+        });
+    }
+
+    private void performTapGesture(float x, float y) {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.N) {
+            return;
+        }
+
+        // 確保在主執行緒執行 dispatchGesture (提升穩定性，避免部分裝置線程問題)
+        new Handler(Looper.getMainLooper()).post(() -> {
+            try {
+                Path path = new Path();
+                path.moveTo(x, y);
+                // 使用 lineTo 確保路徑非空，雖然原地不動
+                path.lineTo(x, y);
+
+                // 增加持續時間至 100ms (50ms 有時會被視為誤觸或無效)
+                GestureDescription.StrokeDescription stroke =
+                        new GestureDescription.StrokeDescription(path, 0, 100);
+
+                GestureDescription.Builder builder = new GestureDescription.Builder();
+                builder.addStroke(stroke);
+
+                Log.d(TAG, "Dispatching tap gesture at (" + x + ", " + y + ")");
+
+                boolean displayed = dispatchGesture(builder.build(), new GestureResultCallback() {
+                    @Override
+                    public void onCompleted(GestureDescription gestureDescription) {
+                        Log.d(TAG, "Gesture completed at (" + x + ", " + y + ")");
+                    }
+
+                    @Override
+                    public void onCancelled(GestureDescription gestureDescription) {
+                        Log.e(TAG, "Gesture cancelled at (" + x + ", " + y + ")");
                     }
                 }, null);
 
@@ -765,56 +2226,66 @@ public class OmniClickAccessibilityService extends AccessibilityService {
         }
     }
 
+    /**
+     * 標記觸控 overlay 需要依最新的 overlay 矩形重新 layout，實際換算與 updateViewLayout
+     * 在下一個 Choreographer frame 由 applyTouchGeometry 執行（同一個 frame 內的多次呼叫只套用一次）。
+     */
     private void updateTouchOverlayLayout() {
-        if (windowManager == null || touchView == null || touchLayoutParams == null) {
+        if (overlayLayout == null || touchView == null || touchLayoutParams == null) {
             return;
         }
-        // JS 回報的是 dp / CSS px，這裡換成實際像素後更新 overlay 位置與大小
-        Handler mainHandler = new Handler(Looper.getMainLooper());
-        mainHandler.post(() -> {
-            int xPx = (int) (overlayX * density);
-            int yPx = (int) (overlayY * density);
-            int wPx = (int) (overlayWidth * density);
-            int hPx = (int) (overlayHeight * density);
-
-            // 當 overlayX/Y 為 0 代表目前 overlay 佈滿整個錄製 canvas
-            // 直接使用 overlay 的 dp * density 作為 canvas 的實際像素高度，
-            // 這樣 JS canvas 座標 (0..overlayHeight) 會等比例對應到實際可點擊區域，
-            // 不再被整個實體螢幕高度放大，避免垂直偏移。
-            if (overlayX == 0f && overlayY == 0f) {
-                canvasWidthCss = overlayWidth;
-                canvasHeightCss = overlayHeight;
-                canvasWidthPx = wPx;
-                canvasHeightPx = hPx;
-                canvasOffsetXPx = xPx;
-                canvasOffsetYPx = yPx;
+        touchGeometryDirty = true;
+        overlayLayout.request(touchView);
+    }
 
+    /** OverlayLayoutBatcher 每個 frame 套用前呼叫（主執行緒） */
+    private void applyTouchGeometry() {
+        if (!touchGeometryDirty || touchLayoutParams == null) return;
+        touchGeometryDirty = false;
+        // JS 回報的是 dp / CSS px，這裡換成實際像素後更新 overlay 位置與大小
+        int xPx = (int) (overlayX * density);
+        int yPx = (int) (overlayY * density);
+        int wPx = (int) (overlayWidth * density);
+        int hPx = (int) (overlayHeight * density);
+
+        // 當 overlayX/Y 為 0 代表目前 overlay 佈滿整個錄製 canvas
+        // 直接使用 overlay 的 dp * density 作為 canvas 的實際像素高度，
+        // 這樣 JS canvas 座標 (0..overlayHeight) 會等比例對應到實際可點擊區域，
+        // 不再被整個實體螢幕高度放大，避免垂直偏移。
+        if (overlayX == 0f && overlayY == 0f) {
+            boolean changed = canvasWidthPx != wPx || canvasHeightPx != hPx
+                    || canvasOffsetXPx != xPx || canvasOffsetYPx != yPx;
+            canvasWidthCss = overlayWidth;
+            canvasHeightCss = overlayHeight;
+            canvasWidthPx = wPx;
+            canvasHeightPx = hPx;
+            canvasOffsetXPx = xPx;
+            canvasOffsetYPx = yPx;
+
+            if (changed) {
                 Log.d(TAG, "Full canvas metrics -> css(" + canvasWidthCss + "x" + canvasHeightCss
                         + ") px(" + canvasWidthPx + "x" + canvasHeightPx + ") offset(" + canvasOffsetXPx
                         + ", " + canvasOffsetYPx + ")");
             }
+        }
 
-            int[] webViewLoc = new int[2];
-            if (webView != null) {
-                webView.getLocationOnScreen(webViewLoc);
-            }
-
-            // 將像素值套用到觸控 overlay，加上系統狀態列與 WebView 的螢幕實體座標偏移
-            touchLayoutParams.width = wPx;
-            touchLayoutParams.height = hPx;
-            touchLayoutParams.x = xPx + webViewLoc[0];
-            touchLayoutParams.y = yPx + webViewLoc[1];
+        if (touchHiddenForInput) {
+            touchLayoutParams.width = 0;
+            touchLayoutParams.height = 0;
+            return;
+        }
 
-            Log.d(TAG, "updateTouchOverlayLayout -> dp(x=" + overlayX + ", y=" + overlayY +
-                    ", w=" + overlayWidth + ", h=" + overlayHeight + ") px(x=" + xPx +
-                    ", y=" + yPx + ", w=" + wPx + ", h=" + hPx + ")" + 
-                    " final(" + touchLayoutParams.x + ", " + touchLayoutParams.y + ")");
+        int[] webViewLoc = touchGeometryLoc;
+        webViewLoc[0] = 0;
+        webViewLoc[1] = 0;
+        if (webView != null) {
+            webView.getLocationOnScreen(webViewLoc);
+        }
 
-            try {
-                windowManager.updateViewLayout(touchView, touchLayoutParams);
-            } catch (IllegalArgumentException | IllegalStateException e) {
-                Log.e(TAG, "updateViewLayout failed", e);
-            }
-        });
+        // 將像素值套用到觸控 overlay，加上系統狀態列與 WebView 的螢幕實體座標偏移
+        touchLayoutParams.width = wPx;
+        touchLayoutParams.height = hPx;
+        touchLayoutParams.x = xPx + webViewLoc[0];
+        touchLayoutParams.y = yPx + webViewLoc[1];
     }
 }
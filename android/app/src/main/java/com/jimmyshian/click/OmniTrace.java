@@ -0,0 +1,91 @@
+package com.jimmyshian.click;
+
+import android.os.Build;
+import android.os.Trace;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * android.os.Trace 的薄包裝，讓 Perfetto / systrace 能對齊 bridge、手勢與 overlay 的時間。
+ *
+ * 預設關閉，可由 JS（setTracingEnabled）在執行中切換；關閉時每個呼叫只讀一個 volatile。
+ * section 必須成對：begin 回傳是否真的開始了，end 時傳回同一個值，
+ * 中途切換開關也不會造成不成對的 endSection。
+ * async slice 與 counter 需要 API 29，較舊的版本直接略過。
+ */
+final class OmniTrace {
+
+    private static final String PREFIX = "OmniClick.";
+    // 同步 section 名稱上限（atrace 限制 127 字元）
+    private static final int MAX_NAME = 120;
+
+    private static volatile boolean enabled = false;
+    private static final AtomicInteger nextCookie = new AtomicInteger(1);
+
+    private OmniTrace() {
+    }
+
+    static void setEnabled(boolean on) {
+        enabled = on;
+    }
+
+    static boolean isEnabled() {
+        return enabled;
+    }
+
+    /** 開始一個同步 section（同一條執行緒上結束） */
+    static boolean begin(String name) {
+        if (!enabled) return false;
+        String full = PREFIX + name;
+        Trace.beginSection(full.length() > MAX_NAME ? full.substring(0, MAX_NAME) : full);
+        return true;
+    }
+
+    static void end(boolean began) {
+        if (began) Trace.endSection();
+    }
+
+    /** 有回傳值的 traced 區塊（java.util.function.Supplier 需要 API 24） */
+    interface Body<T> {
+        T run();
+    }
+
+    /** 以一個同步 section 包住 body（bridge 方法用）；未啟用時只多一次 volatile 讀取 */
+    static void traced(String name, Runnable body) {
+        boolean began = begin(name);
+        try {
+            body.run();
+        } finally {
+            end(began);
+        }
+    }
+
+    static <T> T traced(String name, Body<T> body) {
+        boolean began = begin(name);
+        try {
+            return body.run();
+        } finally {
+            end(began);
+        }
+    }
+
+    /**
+     * 開始一個可跨執行緒的 async slice，回傳 cookie（未啟用時回傳 0）。
+     */
+    static int beginAsync(String name) {
+        if (!enabled || Build.VERSION.SDK_INT < Build.VERSION_CODES.Q) return 0;
+        int cookie = nextCookie.getAndIncrement();
+        Trace.beginAsyncSection(PREFIX + name, cookie);
+        return cookie;
+    }
+
+    static void endAsync(String name, int cookie) {
+        if (cookie == 0 || Build.VERSION.SDK_INT < Build.VERSION_CODES.Q) return;
+        Trace.endAsyncSection(PREFIX + name, cookie);
+    }
+
+    static void counter(String name, long value) {
+        if (!enabled || Build.VERSION.SDK_INT < Build.VERSION_CODES.Q) return;
+        Trace.setCounter(PREFIX + name, value);
+    }
+}
@@ -0,0 +1,178 @@
+package com.jimmyshian.click;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+import android.view.Choreographer;
+import android.view.View;
+import android.view.WindowManager;
+
+import java.util.ArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 把 overlay 的位置 / 大小 / flags 變更合併成每個 Choreographer frame 最多一次 updateViewLayout。
+ *
+ * 呼叫端只改 LayoutParams（或自己的待套用狀態）後呼叫 request()，任何執行緒皆可；
+ * frame 開始時先跑 beforeApply（由服務依 JS 回報的矩形算出實際像素），
+ * 再對每個 dirty 的 window 與上次實際套用的值比對，沒有變化就略過，省下一次 window manager IPC。
+ * 需要立即生效的路徑（錄製穿透的 hide / restore）用 applyNow()，一樣經過比對與計數。
+ */
+final class OverlayLayoutBatcher implements Choreographer.FrameCallback {
+
+    private static final String TAG = "OverlayLayoutBatcher";
+    private static final long RATE_WINDOW_NS = 1_000_000_000L;
+
+    private static final class Entry {
+        final View view;
+        final WindowManager.LayoutParams params;
+        volatile boolean dirty;
+        boolean applied;
+        int x, y, width, height, flags;
+
+        Entry(View view, WindowManager.LayoutParams params) {
+            this.view = view;
+            this.params = params;
+        }
+    }
+
+    private final WindowManager windowManager;
+    private final Runnable beforeApply;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final ArrayList<Entry> entries = new ArrayList<>();
+    private final AtomicBoolean frameScheduled = new AtomicBoolean(false);
+    private final Runnable scheduleFrame = () -> Choreographer.getInstance().postFrameCallback(this);
+    private boolean released = false;
+
+    // 統計：requests 可能來自 JS bridge 執行緒，其餘只在主執行緒寫入
+    private final AtomicLong requests = new AtomicLong();
+    private volatile long relayouts = 0;
+    private volatile long skipped = 0;
+    private volatile long frames = 0;
+    private volatile float relayoutsPerSecond = 0f;
+    private volatile long rateWindowStartNs = 0;
+    private int rateWindowCount = 0;
+
+    OverlayLayoutBatcher(WindowManager windowManager, Runnable beforeApply) {
+        this.windowManager = windowManager;
+        this.beforeApply = beforeApply;
+    }
+
+    /** 登記一個已 addView 的 overlay（主執行緒） */
+    void register(View view, WindowManager.LayoutParams params) {
+        Entry e = new Entry(view, params);
+        snapshot(e);
+        e.applied = true;
+        entries.add(e);
+    }
+
+    /** 標記 view 需要重新 layout，下一個 frame 套用；view 為 null 時只觸發 beforeApply */
+    void request(View view) {
+        requests.incrementAndGet();
+        Entry e = find(view);
+        if (e != null) e.dirty = true;
+        if (frameScheduled.compareAndSet(false, true)) {
+            if (Looper.myLooper() == Looper.getMainLooper()) {
+                scheduleFrame.run();
+            } else {
+                mainHandler.post(scheduleFrame);
+            }
+        }
+    }
+
+    /** 立即套用（主執行緒），回傳是否真的呼叫了 updateViewLayout */
+    boolean applyNow(View view) {
+        Entry e = find(view);
+        if (e == null) return false;
+        e.dirty = false;
+        return apply(e);
+    }
+
+    @Override
+    public void doFrame(long frameTimeNanos) {
+        frameScheduled.set(false);
+        if (released) return;
+        frames++;
+        if (beforeApply != null) beforeApply.run();
+        for (int i = 0; i < entries.size(); i++) {
+            Entry e = entries.get(i);
+            if (!e.dirty) continue;
+            e.dirty = false;
+            apply(e);
+        }
+    }
+
+    /** 服務結束時呼叫（主執行緒），之後的 request 不再套用 */
+    void release() {
+        released = true;
+        mainHandler.removeCallbacks(scheduleFrame);
+        Choreographer.getInstance().removeFrameCallback(this);
+    }
+
+    String toJson() {
+        // 閒置超過兩個統計區間視為 0，避免停在最後一次拖曳的數值
+        long start = rateWindowStartNs;
+        float rate = start != 0 && System.nanoTime() - start > 2 * RATE_WINDOW_NS ? 0f : relayoutsPerSecond;
+        return "{\"requests\":" + requests.get()
+                + ",\"frames\":" + frames
+                + ",\"relayouts\":" + relayouts
+                + ",\"skipped\":" + skipped
+                + ",\"relayoutsPerSecond\":" + rate + "}";
+    }
+
+    private boolean apply(Entry e) {
+        WindowManager.LayoutParams p = e.params;
+        if (e.applied && e.x == p.x && e.y == p.y && e.width == p.width && e.height == p.height
+                && e.flags == p.flags) {
+            skipped++;
+            return false;
+        }
+        boolean trace = OmniTrace.begin("overlay.relayout");
+        try {
+            windowManager.updateViewLayout(e.view, p);
+            snapshot(e);
+            e.applied = true;
+        } catch (IllegalArgumentException | IllegalStateException ex) {
+            // view 已被移除：不記錄 snapshot，下次重新嘗試
+            Log.e(TAG, "updateViewLayout failed", ex);
+            e.applied = false;
+            return false;
+        } finally {
+            OmniTrace.end(trace);
+        }
+        countRelayout();
+        return true;
+    }
+
+    private void countRelayout() {
+        relayouts++;
+        long now = System.nanoTime();
+        if (rateWindowStartNs == 0) rateWindowStartNs = now;
+        rateWindowCount++;
+        long elapsed = now - rateWindowStartNs;
+        if (elapsed >= RATE_WINDOW_NS) {
+            relayoutsPerSecond = rateWindowCount * 1e9f / elapsed;
+            OmniTrace.counter("overlayRelayoutsPerSecond", Math.round(relayoutsPerSecond));
+            rateWindowStartNs = now;
+            rateWindowCount = 0;
+        }
+    }
+
+    private static void snapshot(Entry e) {
+        WindowManager.LayoutParams p = e.params;
+        e.x = p.x;
+        e.y = p.y;
+        e.width = p.width;
+        e.height = p.height;
+        e.flags = p.flags;
+    }
+
+    private Entry find(View view) {
+        if (view == null) return null;
+        for (int i = 0; i < entries.size(); i++) {
+            if (entries.get(i).view == view) return entries.get(i);
+        }
+        return null;
+    }
+}
@@ -0,0 +1,284 @@
+package com.jimmyshian.click;
+
+import android.util.Log;
+
+import org.json.JSONException;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * 播放進度的 crash-safe checkpoint。
+ *
+ * 進度寫在一個小型 memory-mapped 檔案中（只是記憶體寫入，由 kernel 回寫 page cache），
+ * 即使服務被系統殺掉也會保留；腳本本身在開始播放時另存一份 JSON。
+ * 更新頻率限制在 MIN_INTERVAL_NS 一次，並以 sequence（奇數 = 寫入中）避免讀到寫到一半的資料。
+ * 腳本檔在背景執行緒上以暫存檔 + fsync + rename 取代，呼叫端只寫 mmap 的標頭；
+ * 換好腳本檔之前 active 保持 0，讀取時再比對腳本的 metadata.id，
+ * 中途被殺掉也不會把舊的進度套到新的（或寫到一半的）腳本上。
+ */
+final class PlaybackCheckpoint {
+
+    private static final String TAG = "OmniClickCheckpoint";
+    private static final String STATE_FILE = "playback.ckpt";
+    private static final String SCRIPT_FILE = "playback_script.json";
+    private static final String SCRIPT_TMP_FILE = "playback_script.json.tmp";
+
+    private static final int MAGIC = 0x4F43_4350; // "OCCP"
+    private static final int VERSION = 1;
+    private static final int SIZE = 256;
+    private static final int MAX_ID_BYTES = 128;
+
+    // 欄位位移
+    private static final int OFF_MAGIC = 0;
+    private static final int OFF_VERSION = 4;
+    private static final int OFF_SEQ = 8;
+    private static final int OFF_ACTIVE = 16;
+    private static final int OFF_LOOP = 20;
+    private static final int OFF_STEP = 24;
+    private static final int OFF_SPEED = 28;
+    private static final int OFF_ELAPSED = 32;
+    private static final int OFF_WALL = 40;
+    private static final int OFF_ID_LEN = 48;
+    private static final int OFF_ID = 52;
+
+    // 寫入頻率上限
+    private static final long MIN_INTERVAL_NS = 250_000_000L;
+    // 超過這個時間的 checkpoint 視為過期，不再提供續播
+    static final long MAX_AGE_MS = 6 * 60 * 60 * 1000L;
+
+    /** 讀回的 checkpoint 內容 */
+    static final class Snapshot {
+        String scriptId;
+        String scriptJson;
+        /** loadScript 解析並驗證過的腳本（readLast 不解析，為 null） */
+        NativeScript script;
+        int loopIndex;
+        int stepIndex;
+        float speed;
+        long elapsedNs;
+        long wallTimeMs;
+    }
+
+    private final File dir;
+    private MappedByteBuffer buffer;
+    private long sequence;
+    private long startNs;
+    private long lastWriteNs;
+
+    // 腳本檔的寫入（含 fsync 與 rename）依序在這條執行緒上進行，呼叫端不等待
+    private final ExecutorService writer = Executors.newSingleThreadExecutor(
+            r -> new Thread(r, "OmniClickCheckpoint"));
+    // 最後一次完整寫入的腳本 id（只在 writer 執行緒上存取）；寫入失敗時為 null
+    private String savedScriptId;
+    // 每次 begin / clear 遞增：背景寫完時只啟用仍然有效的那一次 begin（以 this 同步）
+    private int generation;
+
+    PlaybackCheckpoint(File dir) {
+        this.dir = dir;
+        try (RandomAccessFile file = new RandomAccessFile(new File(dir, STATE_FILE), "rw");
+             FileChannel channel = file.getChannel()) {
+            buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, SIZE);
+            buffer.order(ByteOrder.LITTLE_ENDIAN);
+            sequence = buffer.getInt(OFF_MAGIC) == MAGIC ? buffer.getLong(OFF_SEQ) & ~1L : 0;
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to map checkpoint file", e);
+            buffer = null;
+        }
+    }
+
+    /**
+     * 在背景保存腳本 JSON（暫存檔 + fsync + rename），不等待完成。
+     * 可以在開始播放前先保存，begin 時傳入 null 的 scriptJson 就不再寫檔。
+     */
+    void saveScript(String scriptId, String scriptJson) {
+        if (buffer == null) return;
+        writer.execute(() -> {
+            savedScriptId = null;
+            File tmp = new File(dir, SCRIPT_TMP_FILE);
+            try (FileOutputStream out = new FileOutputStream(tmp)) {
+                out.write(scriptJson.getBytes(StandardCharsets.UTF_8));
+                out.getFD().sync();
+            } catch (IOException e) {
+                Log.e(TAG, "Failed to save checkpoint script", e);
+                return;
+            }
+            if (!tmp.renameTo(new File(dir, SCRIPT_FILE))) {
+                Log.e(TAG, "Failed to replace checkpoint script");
+                return;
+            }
+            savedScriptId = scriptId;
+        });
+    }
+
+    /**
+     * 開始播放：寫入第一個 checkpoint，腳本 JSON 交給背景保存（scriptJson 為 null 時沿用 saveScript 存好的）。
+     * 續播時傳入先前的 loopIndex 與已經過時間，讓之後的 checkpoint 接續累計。
+     * 腳本檔換好之前 active 保持 0，寫完後才在背景執行緒上啟用。
+     */
+    void begin(String scriptId, String scriptJson, float speed, int startLoop, int startStep, long elapsedNs) {
+        if (buffer == null) return;
+        if (scriptJson != null) saveScript(scriptId, scriptJson);
+        startNs = System.nanoTime() - elapsedNs;
+        int gen;
+        synchronized (this) {
+            gen = ++generation;
+            beginWrite();
+            byte[] id = idBytes(scriptId);
+            buffer.putInt(OFF_ID_LEN, id.length);
+            for (int i = 0; i < id.length; i++) buffer.put(OFF_ID + i, id[i]);
+            buffer.putFloat(OFF_SPEED, speed);
+            writeProgress(startLoop, startStep);
+            buffer.putInt(OFF_ACTIVE, 0);
+            endWrite();
+        }
+        lastWriteNs = System.nanoTime();
+        // 排在腳本寫入之後執行
+        writer.execute(() -> activate(gen, scriptId));
+    }
+
+    private void activate(int gen, String scriptId) {
+        if (!scriptId.equals(savedScriptId)) return;
+        synchronized (this) {
+            // 之後又 begin 或 clear 過：這次的播放已經不是目前的
+            if (gen != generation) return;
+            beginWrite();
+            buffer.putInt(OFF_ACTIVE, 1);
+            endWrite();
+        }
+    }
+
+    /**
+     * 播放進度（在排程執行緒上呼叫）：stepIndex 為下一個要執行的 step。
+     * 距上次寫入未滿 MIN_INTERVAL_NS 時直接略過。
+     */
+    void update(int loopIndex, int stepIndex) {
+        if (buffer == null) return;
+        long now = System.nanoTime();
+        if (now - lastWriteNs < MIN_INTERVAL_NS) return;
+        lastWriteNs = now;
+        synchronized (this) {
+            beginWrite();
+            writeProgress(loopIndex, stepIndex);
+            endWrite();
+        }
+    }
+
+    /** 播放正常結束或被使用者停止：不再提供續播 */
+    void clear() {
+        if (buffer == null) return;
+        synchronized (this) {
+            generation++;
+            beginWrite();
+            buffer.putInt(OFF_ACTIVE, 0);
+            endWrite();
+        }
+    }
+
+    /**
+     * 上次未完成的播放進度；沒有、已過期或資料不完整時回傳 null。
+     * 只讀 mmap 的標頭（可在主執行緒上呼叫），腳本要再以 loadScript 在背景讀入。
+     */
+    Snapshot read() {
+        if (buffer == null) return null;
+        Snapshot snap = new Snapshot();
+        synchronized (this) {
+            if (buffer.getInt(OFF_MAGIC) != MAGIC || buffer.getInt(OFF_VERSION) != VERSION) return null;
+            if ((buffer.getLong(OFF_SEQ) & 1L) != 0 || buffer.getInt(OFF_ACTIVE) != 1) return null;
+            snap.loopIndex = buffer.getInt(OFF_LOOP);
+            snap.stepIndex = buffer.getInt(OFF_STEP);
+            snap.speed = buffer.getFloat(OFF_SPEED);
+            snap.elapsedNs = buffer.getLong(OFF_ELAPSED);
+            snap.wallTimeMs = buffer.getLong(OFF_WALL);
+            int len = Math.max(0, Math.min(buffer.getInt(OFF_ID_LEN), MAX_ID_BYTES));
+            byte[] id = new byte[len];
+            for (int i = 0; i < len; i++) id[i] = buffer.get(OFF_ID + i);
+            snap.scriptId = new String(id, StandardCharsets.UTF_8);
+        }
+        return System.currentTimeMillis() - snap.wallTimeMs > MAX_AGE_MS ? null : snap;
+    }
+
+    /**
+     * 讀入並解析 read() 回傳的進度所屬的腳本（檔案可能數 MB，在背景執行緒上呼叫）。
+     * 沒有腳本檔時回傳 false；無法解析或與進度不是同一個腳本時另外清除 checkpoint。
+     */
+    boolean loadScript(Snapshot snap) {
+        snap.scriptJson = readScript();
+        if (snap.scriptJson == null) return false;
+        try {
+            snap.script = NativeScript.fromJson(snap.scriptJson);
+        } catch (JSONException e) {
+            Log.e(TAG, "Checkpoint script is invalid", e);
+            clear();
+            return false;
+        }
+        if (!Arrays.equals(idBytes(snap.script.id()), idBytes(snap.scriptId))) {
+            Log.w(TAG, "Checkpoint progress belongs to " + snap.scriptId + ", script file is " + snap.script.id());
+            clear();
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * 上一次播放的腳本與速度（不論是否已播完；clear 之後腳本檔仍然保留），
+     * 進度一律從頭開始。從未播放過時回傳 null。
+     */
+    Snapshot readLast() {
+        if (buffer == null) return null;
+        Snapshot snap = new Snapshot();
+        synchronized (this) {
+            if (buffer.getInt(OFF_MAGIC) != MAGIC || buffer.getInt(OFF_VERSION) != VERSION) return null;
+            snap.speed = buffer.getFloat(OFF_SPEED);
+            snap.wallTimeMs = buffer.getLong(OFF_WALL);
+        }
+        if (!(snap.speed > 0)) snap.speed = 1f;
+        snap.scriptJson = readScript();
+        return snap.scriptJson != null ? snap : null;
+    }
+
+    private String readScript() {
+        File script = new File(dir, SCRIPT_FILE);
+        if (!script.exists()) return null;
+        try (RandomAccessFile in = new RandomAccessFile(script, "r")) {
+            byte[] data = new byte[(int) in.length()];
+            in.readFully(data);
+            return new String(data, StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to read checkpoint script", e);
+            return null;
+        }
+    }
+
+    /** 寫進 checkpoint 的 id（UTF-8，最多 MAX_ID_BYTES） */
+    private static byte[] idBytes(String scriptId) {
+        byte[] id = scriptId.getBytes(StandardCharsets.UTF_8);
+        return id.length <= MAX_ID_BYTES ? id : Arrays.copyOf(id, MAX_ID_BYTES);
+    }
+
+    private void writeProgress(int loopIndex, int stepIndex) {
+        buffer.putInt(OFF_LOOP, loopIndex);
+        buffer.putInt(OFF_STEP, stepIndex);
+        buffer.putLong(OFF_ELAPSED, System.nanoTime() - startNs);
+        buffer.putLong(OFF_WALL, System.currentTimeMillis());
+    }
+
+    private void beginWrite() {
+        buffer.putInt(OFF_MAGIC, MAGIC);
+        buffer.putInt(OFF_VERSION, VERSION);
+        buffer.putLong(OFF_SEQ, ++sequence); // 奇數：寫入中
+    }
+
+    private void endWrite() {
+        buffer.putLong(OFF_SEQ, ++sequence); // 偶數：完整
+    }
+}
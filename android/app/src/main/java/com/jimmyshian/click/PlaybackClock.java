@@ -0,0 +1,40 @@
+package com.jimmyshian.click;
+
+/**
+ * PlaybackScheduler 的時間來源與喚醒機制。
+ *
+ * 正式環境使用 LooperPlaybackClock（HandlerThread + Choreographer），單元測試以虛擬時鐘取代，
+ * 讓整份腳本的排程可以在一般 JVM 上以模擬時間重播。
+ * post() 可由任意執行緒呼叫，其餘方法只在排程執行緒上呼叫。
+ */
+interface PlaybackClock {
+
+    /** 目前時間（ns，單調遞增） */
+    long nanoTime();
+
+    /**
+     * 喚醒精度：距離目標不到這個時間時，排程器不再等待喚醒，改為自己忙等到目標時間。
+     */
+    long spinWindowNs();
+
+    /** 在排程執行緒上執行 task */
+    void post(Runnable task);
+
+    /** 在 targetNs 之前（盡量接近，但不晚於 targetNs - spinWindowNs()）執行 task */
+    void wakeAt(long targetNs, Runnable task);
+
+    /**
+     * 以單一低精度計時器在 targetNs 附近喚醒（可能晚幾 ms），等待期間不產生其他喚醒。
+     * 低耗電模式用來跨過長時間的空檔，最後一小段再交給 wakeAt。
+     */
+    void wakeAtCoarse(long targetNs, Runnable task);
+
+    /** 取消尚未執行的 wakeAt / wakeAtCoarse */
+    void cancel(Runnable task);
+
+    /** 目前行程累計的 CPU 時間（ns），用來估計播放期間的耗電 */
+    long cpuTimeNs();
+
+    /** 停止排程執行緒 */
+    void quit();
+}
@@ -0,0 +1,513 @@
+package com.jimmyshian.click;
+
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.PriorityQueue;
+
+/**
+ * 以「絕對 deadline」驅動的高精度播放排程器，可同時播放多個腳本（track）。
+ *
+ * 每個事件的 deadline = 起始時間 + 輪數 * 一輪長度 + 事件偏移，全部以 PlaybackClock 的
+ * 單調時間計算，因此單次喚醒延遲不會累積到後面的事件。
+ *
+ * 等待交給 PlaybackClock（裝置上為 LooperPlaybackClock：Choreographer frame callback /
+ * Handler.postAtTime），最後不到 clock.spinWindowNs() 的時間由排程器忙等到 deadline 再送出。
+ * 時鐘與 Dispatcher（手勢出口）都是介面，單元測試可用虛擬時鐘重播整份腳本。
+ *
+ * 多個 track 合併在同一個依 (deadline, trackId) 排序的佇列中。dispatchGesture 會取消
+ * 仍在進行中的手勢，所以送出一個手勢時，會把所有落在該手勢期間內的事件（不論來自哪個腳本）
+ * 以 stroke 起始時間偏移合併進同一個 GestureDescription；超過 stroke 上限時，
+ * 後面的事件等目前手勢結束才送出（計入 deferred），絕不互相搶斷。
+ *
+ * 送出時間會再提前「量測到的 dispatch 延遲」（EWMA），讓手勢實際送達時間對齊 deadline。
+ * 系統回報手勢被取消時交給 DispatchRateController 估計裝置的速率上限：之後在最小間隔內的
+ * 事件一律合併進同一個手勢（stroke 偏移不變，時間不受影響），或在容許範圍內稍微延後送出。
+ *
+ * 低耗電模式（setLowPower）：距離下一個目標還很久時只掛一個 wakeAtCoarse 計時器，
+ * 不再每個 vsync 喚醒，最後 LOW_POWER_LEAD_NS 才回到高精度路徑；送出手勢時把合併視窗
+ * 內的後續事件一併以 stroke 偏移放進同一個手勢，一次喚醒處理多個事件。
+ * 事件間隔很短的密集段落本來就落在高精度路徑內，精度不受影響。
+ * 所有狀態只在排程執行緒上存取。
+ */
+final class PlaybackScheduler {
+
+    /** 前景（由 playScript 控制）的 track id；背景 track 由 1 開始編號 */
+    static final int MAIN_TRACK_ID = 0;
+
+    /** 真正送出手勢（在排程執行緒上呼叫）；系統拒絕時回傳 false */
+    interface Dispatcher {
+        boolean dispatch(GestureBatch batch);
+    }
+
+    interface Listener {
+        void onProgress(int trackId, int stepIndex, int loopIndex);
+
+        void onFinished(int trackId, JitterStats stats, boolean cancelled);
+    }
+
+    private static final String TAG = "OmniClickScheduler";
+
+    // dispatch 延遲補償上限，避免異常值讓整體提前太多
+    private static final long MAX_LEAD_NS = 4_000_000L;
+    // 幾乎同時的事件一定合併成同一個手勢（和弦）
+    private static final long COALESCE_NS = 4_000_000L;
+    // 單一 GestureDescription 的總長度上限（系統上限為 60 秒，這裡保守一點）
+    private static final long MAX_GESTURE_MS = 10_000L;
+    // 低耗電模式：距離目標超過此時間才改用低精度計時器（更密集的段落維持高精度）
+    private static final long LOW_POWER_TIGHT_NS = 250_000_000L;
+    // 低精度計時器提前喚醒的量，之後交給 Choreographer / 忙等對齊 deadline
+    private static final long LOW_POWER_LEAD_NS = 50_000_000L;
+    /** 低耗電模式預設的合併視窗 */
+    static final long DEFAULT_LOW_POWER_WINDOW_MS = 500L;
+
+    private static final class Track {
+        final int id;
+        final ScriptTimeline timeline;
+        final boolean loop;
+        final int loopCount;
+        final JitterStats stats = new JitterStats();
+        // bytecode 腳本：事件由 VM 逐一產生到 timeline（單一 slot），cursor 0 = 有事件、1 = 結束
+        ScriptVm vm;
+        long startNs;
+        long baseNs;
+        int loopIndex;
+        int cursor;
+
+        Track(int id, ScriptTimeline timeline, boolean loop, int loopCount) {
+            this.id = id;
+            this.timeline = timeline;
+            this.loop = loop;
+            this.loopCount = loopCount;
+        }
+
+        boolean atLoopEnd() {
+            return cursor >= timeline.size;
+        }
+
+        /** 下一個事件的 deadline，或（已到一輪結尾時）一輪結束的時間 */
+        long nextNs() {
+            return atLoopEnd() ? baseNs + timeline.loopLengthNs : baseNs + timeline.offsetNs[cursor];
+        }
+
+        /** 消耗目前事件，移到下一個 */
+        void advance() {
+            if (vm == null) {
+                cursor++;
+                return;
+            }
+            // 進度回報使用剛送出事件的輪數
+            loopIndex = vm.eventLoop();
+            if (!vm.next()) cursor = 1;
+        }
+
+        boolean hasMoreLoops() {
+            return loop && (loopCount <= 0 || loopIndex + 1 < loopCount);
+        }
+    }
+
+    private final PlaybackClock clock;
+    private final Dispatcher dispatcher;
+    private final Listener listener;
+
+    // 給忙等迴圈檢查的中斷旗標（可由任意執行緒設定）
+    private volatile boolean interrupted = false;
+    private volatile int activeTracks = 0;
+    private volatile String lastStatsJson = "{}";
+    private volatile String rateStatsJson = "{}";
+    private volatile boolean lowPower = false;
+    private volatile long lowPowerWindowNs = DEFAULT_LOW_POWER_WINDOW_MS * 1_000_000L;
+    private final PowerStats power = new PowerStats();
+    // 主執行緒卡頓監測開啟時，每個手勢的誤差也寫一份到這裡對照
+    private volatile StallReport stallReport;
+    private int nextTrackId = MAIN_TRACK_ID + 1;
+
+    // ---- 以下只在排程執行緒上存取 ----
+    private final PriorityQueue<Track> queue = new PriorityQueue<>(4, (a, b) -> {
+        int c = Long.compare(a.nextNs(), b.nextNs());
+        return c != 0 ? c : Integer.compare(a.id, b.id);
+    });
+    private final ArrayList<Track> parked = new ArrayList<>();
+    private final GestureBatch batch;
+    // 與 batch 對應的各 stroke 原始 deadline（ns）
+    private final long[] pendingDeadlineNs;
+    private final DispatchRateController rate = new DispatchRateController();
+    private long leadNs;
+    // 目前手勢預計結束的時間；在此之前再送出手勢會取消它
+    private long inFlightEndNs;
+
+    private final Runnable tick = () -> {
+        power.addWakeup();
+        schedule();
+    };
+
+    PlaybackScheduler(PlaybackClock clock, Dispatcher dispatcher, Listener listener, int maxStrokes) {
+        this.clock = clock;
+        this.dispatcher = dispatcher;
+        this.listener = listener;
+        this.batch = new GestureBatch(Math.max(1, maxStrokes));
+        this.pendingDeadlineNs = new long[batch.capacity];
+    }
+
+    boolean isRunning() {
+        return activeTracks > 0;
+    }
+
+    String getLastStatsJson() {
+        return lastStatsJson;
+    }
+
+    /** 速率控制器目前的估計（最小間隔、最高頻率、取消比例） */
+    String getRateStatsJson() {
+        return rateStatsJson;
+    }
+
+    /**
+     * 開關低耗電模式；windowMs 為合併視窗（之後 windowMs 內的事件併入同一個手勢送出）。
+     * 可在播放中切換，從下一次排程開始生效。
+     */
+    void setLowPower(boolean enabled, long windowMs) {
+        lowPower = enabled;
+        lowPowerWindowNs = Math.max(0, Math.min(windowMs, MAX_GESTURE_MS / 2)) * 1_000_000L;
+        Log.d(TAG, "setLowPower: " + enabled + ", windowMs=" + windowMs);
+    }
+
+    boolean isLowPower() {
+        return lowPower;
+    }
+
+    /** 設定（或以 null 取消）要記錄手勢時間的卡頓報告；可由任意執行緒呼叫 */
+    void setStallReport(StallReport report) {
+        stallReport = report;
+    }
+
+    /** 目前（或最近一次）播放期間的喚醒次數、忙等時間與 CPU 時間 */
+    String getPowerStatsJson() {
+        return power.toJson(clock.nanoTime(), clock.cpuTimeNs());
+    }
+
+    PowerStats getPowerStats() {
+        return power;
+    }
+
+    /**
+     * 手勢結果回報（GestureResultCallback，在排程執行緒上呼叫）。
+     */
+    void onGestureResult(boolean cancelled) {
+        int trackId = rate.onResult(cancelled);
+        if (cancelled && trackId >= 0) {
+            Track t = findTrack(trackId);
+            if (t != null) t.stats.addCancelled();
+        }
+        rateStatsJson = rate.toJson();
+    }
+
+    /**
+     * 以前景 track 播放；若前景已有播放中的腳本會先取消，背景 track 不受影響。
+     */
+    void start(ScriptTimeline timeline, int startStep) {
+        start(timeline, startStep, 0);
+    }
+
+    /**
+     * 從指定的輪數與 step 開始前景播放（crash 後續播用），循環次數照常計算。
+     */
+    void start(ScriptTimeline timeline, int startStep, int startLoop) {
+        startTrack(MAIN_TRACK_ID, timeline, startStep, startLoop, timeline.loop, timeline.loopCount);
+    }
+
+    /**
+     * 前景播放，第一個事件對齊 firstEventNs（clock 的時間；已過時立即開始）。
+     * 指定牆上時間開始（ScheduledStart）用。
+     */
+    void startAt(ScriptTimeline timeline, long firstEventNs) {
+        interrupted = true;
+        clock.post(() -> {
+            Track t = new Track(MAIN_TRACK_ID, timeline, timeline.loop, timeline.loopCount);
+            t.baseNs = firstEventNs - timeline.offsetNs[0];
+            t.startNs = t.baseNs;
+            install(t);
+            Log.d(TAG, "start track at +" + (firstEventNs - clock.nanoTime()) / 1_000_000L + "ms: events="
+                    + timeline.size + ", tracks=" + queue.size());
+            reschedule();
+        });
+    }
+
+    /**
+     * 以前景 track 播放 bytecode 腳本（巢狀迴圈、計數與條件跳躍由 ScriptVm 執行）。
+     */
+    void start(ScriptProgram program, float speed) {
+        interrupted = true;
+        clock.post(() -> {
+            ScriptVm vm = new ScriptVm(program, speed);
+            Track t = new Track(MAIN_TRACK_ID, vm.slot(), false, 0);
+            t.vm = vm;
+            if (!vm.next()) t.cursor = 1;
+            t.loopIndex = vm.eventLoop();
+            t.startNs = clock.nanoTime();
+            t.baseNs = t.startNs;
+            install(t);
+            Log.d(TAG, "start program track: instructions=" + program.instructionCount()
+                    + ", bytes=" + program.sizeBytes() + ", tracks=" + queue.size());
+            reschedule();
+        });
+    }
+
+    /**
+     * 新增一個背景 track，使用自己的循環設定，與其他 track 同時播放。
+     *
+     * @return track id
+     */
+    int startBackground(ScriptTimeline timeline, boolean loop, int loopCount) {
+        int id;
+        synchronized (this) {
+            id = nextTrackId++;
+        }
+        startTrack(id, timeline, 0, 0, loop, loopCount);
+        return id;
+    }
+
+    /** 停止前景 track */
+    void stop() {
+        stopTrack(MAIN_TRACK_ID);
+    }
+
+    void stopTrack(int trackId) {
+        interrupted = true;
+        clock.post(() -> {
+            Track t = findTrack(trackId);
+            if (t != null) {
+                queue.remove(t);
+                finish(t, true);
+            }
+            reschedule();
+        });
+    }
+
+    void stopAll() {
+        interrupted = true;
+        clock.post(() -> {
+            while (!queue.isEmpty()) {
+                finish(queue.poll(), true);
+            }
+            reschedule();
+        });
+    }
+
+    void release() {
+        stopAll();
+        clock.quit();
+    }
+
+    private void startTrack(int id, ScriptTimeline timeline, int startStep, int startLoop,
+                            boolean loop, int loopCount) {
+        interrupted = true;
+        clock.post(() -> {
+            Track t = new Track(id, timeline, loop, loopCount);
+            int first = Math.max(0, Math.min(startStep, timeline.stepCount() - 1));
+            t.cursor = timeline.firstEventOfStep[first];
+            t.loopIndex = Math.max(0, startLoop);
+            t.startNs = clock.nanoTime();
+            t.baseNs = t.startNs - timeline.startShiftNs(first);
+            install(t);
+            Log.d(TAG, "start track " + id + ": events=" + timeline.size + ", startStep=" + first
+                    + ", loop=" + loop + "/" + loopCount + ", loopLengthMs=" + timeline.loopLengthNs / 1_000_000L
+                    + ", tracks=" + queue.size());
+            reschedule();
+        });
+    }
+
+    /** 加入 track，取代同 id 的舊 track（排程執行緒） */
+    private void install(Track t) {
+        Track old = findTrack(t.id);
+        if (old != null) {
+            queue.remove(old);
+            finish(old, true);
+        }
+        if (queue.isEmpty()) power.begin(lowPower, clock.nanoTime(), clock.cpuTimeNs());
+        queue.add(t);
+        activeTracks = queue.size();
+    }
+
+    private Track findTrack(int id) {
+        for (Track t : queue) {
+            if (t.id == id) return t;
+        }
+        return null;
+    }
+
+    /** 佇列內容變動後，取消舊的喚醒並依新的佇列頭重新排程 */
+    private void reschedule() {
+        clock.cancel(tick);
+        interrupted = false;
+        schedule();
+    }
+
+    /**
+     * 佇列頭的目標時間：事件 deadline（扣掉 dispatch 延遲補償、依速率限制延後，
+     * 且不早於目前手勢結束）或一輪結束時間。
+     */
+    private long nextTargetNs(Track head) {
+        if (head.atLoopEnd()) return head.nextNs();
+        return Math.max(rate.gateNs(head.nextNs() - leadNs), inFlightEndNs);
+    }
+
+    private void schedule() {
+        while (!interrupted && !queue.isEmpty()) {
+            long target = nextTargetNs(queue.peek());
+            long remaining = target - clock.nanoTime();
+            if (remaining > clock.spinWindowNs()) {
+                if (lowPower && remaining > LOW_POWER_TIGHT_NS) {
+                    power.addCoarseWakeup();
+                    clock.wakeAtCoarse(target - LOW_POWER_LEAD_NS, tick);
+                } else {
+                    clock.wakeAt(target, tick);
+                }
+                return;
+            }
+            long spinStart = clock.nanoTime();
+            while (!interrupted && clock.nanoTime() < target) {
+                // spin：最後不到 spinWindowNs，直接忙等
+            }
+            power.addSpin(clock.nanoTime() - spinStart);
+            if (interrupted) return;
+            onDeadline();
+        }
+    }
+
+    private void onDeadline() {
+        Track head = queue.poll();
+        if (head.atLoopEnd()) {
+            if (advanceLoop(head)) {
+                queue.add(head);
+            } else {
+                finish(head, false);
+            }
+            return;
+        }
+        fireBatch(head);
+    }
+
+    /** 進入下一輪；沒有下一輪時回傳 false */
+    private boolean advanceLoop(Track t) {
+        if (!t.hasMoreLoops()) return false;
+        t.baseNs += t.timeline.loopLengthNs;
+        t.loopIndex++;
+        t.cursor = 0;
+        if (t.id == MAIN_TRACK_ID) lastStatsJson = t.stats.toJson();
+        return true;
+    }
+
+    /**
+     * 以 head 的事件為起點組成一個手勢，把所有落在手勢期間內的事件一併放入。
+     */
+    private void fireBatch(Track head) {
+        long firstNs = head.nextNs();
+        boolean deferred = inFlightEndNs - firstNs > JitterStats.LATE_THRESHOLD_NS;
+        boolean shifted = rate.gateNs(firstNs - leadNs) != firstNs - leadNs;
+        batch.clear();
+        addToBatch(head, firstNs);
+        queue.add(head);
+
+        // 速率限制：最小間隔內的事件也併入這個手勢，下一個手勢自然與這次相隔 minGap 以上
+        long rateHorizonNs = firstNs + rate.minGapNs();
+        // 低耗電：合併視窗內的事件也放進這個手勢，省下各自的喚醒
+        long powerHorizonNs = lowPower ? firstNs + lowPowerWindowNs : firstNs;
+        long horizonNs = Math.max(firstNs + COALESCE_NS, firstNs + batch.endMs() * 1_000_000L);
+        while (!batch.isFull() && !queue.isEmpty()) {
+            Track next = queue.peek();
+            long ns = next.nextNs();
+            if (ns >= Math.max(Math.max(horizonNs, rateHorizonNs), powerHorizonNs)) break;
+            queue.poll();
+            if (next.atLoopEnd()) {
+                // 一輪的結尾落在手勢期間內：繼續循環就接著往下看，結束則留到時間到再處理
+                if (advanceLoop(next)) {
+                    queue.add(next);
+                } else {
+                    parked.add(next);
+                }
+                continue;
+            }
+            long offsetMs = (ns - firstNs + 500_000L) / 1_000_000L;
+            if (offsetMs + next.timeline.durationMs[next.cursor] > MAX_GESTURE_MS
+                    || !batch.canFit(next.timeline, next.cursor)) {
+                queue.add(next);
+                break;
+            }
+            if (ns >= horizonNs) {
+                if (ns < rateHorizonNs) {
+                    next.stats.addRateMerged();
+                } else {
+                    power.addBatched();
+                }
+            }
+            addToBatch(next, firstNs);
+            queue.add(next);
+            horizonNs = Math.max(horizonNs, firstNs + batch.endMs() * 1_000_000L);
+        }
+        for (int i = 0; i < parked.size(); i++) {
+            queue.add(parked.get(i));
+        }
+        parked.clear();
+        OmniTrace.counter("queueDepth", queue.size());
+        OmniTrace.counter("batchStrokes", batch.count);
+
+        long before = clock.nanoTime();
+        boolean accepted = false;
+        try {
+            accepted = dispatcher.dispatch(batch);
+        } catch (Exception e) {
+            Log.e(TAG, "dispatch failed", e);
+        }
+        long after = clock.nanoTime();
+        if (accepted) rate.onDispatched(before, batch.trackId[0]);
+        power.addDispatch();
+        if (shifted) head.stats.addRateShifted();
+        inFlightEndNs = after + batch.endMs() * 1_000_000L;
+
+        // 各 stroke 的誤差：手勢送出時間 + stroke 偏移 - 該事件 deadline
+        // 複合手勢的其餘 stroke 時間固定，只看第一個
+        StallReport stalls = stallReport;
+        for (int i = 0; i < batch.count; i++) {
+            if (!batch.primary[i]) continue;
+            Track t = findTrack(batch.trackId[i]);
+            if (t == null) continue;
+            JitterStats s = t.stats;
+            long errorNs = after + batch.startMs[i] * 1_000_000L - pendingDeadlineNs[i];
+            s.add(errorNs);
+            if (stalls != null) stalls.addGesture(t.id, batch.stepIndex[i], pendingDeadlineNs[i], errorNs);
+            if (batch.events > 1) s.addMerged();
+            if (i == 0 && deferred) s.addDeferred();
+            listener.onProgress(t.id, batch.stepIndex[i], t.loopIndex);
+        }
+
+        // EWMA(1/8) 更新 dispatch 延遲，下一個手勢提前這麼多送出
+        leadNs += ((after - before) - leadNs) / 8;
+        if (leadNs < 0) leadNs = 0;
+        if (leadNs > MAX_LEAD_NS) leadNs = MAX_LEAD_NS;
+    }
+
+    /** 加入 track 目前的事件；deadline 記在該事件第一個 stroke 的位置 */
+    private void addToBatch(Track t, long firstNs) {
+        long ns = t.nextNs();
+        pendingDeadlineNs[batch.count] = ns;
+        batch.add(t.timeline, t.cursor, (ns - firstNs + 500_000L) / 1_000_000L, t.id);
+        t.advance();
+    }
+
+    private void finish(Track t, boolean cancelled) {
+        long now = clock.nanoTime();
+        long intendedEnd = t.baseNs + t.timeline.loopLengthNs;
+        t.stats.setEnd(intendedEnd - t.startNs, cancelled ? 0 : now - intendedEnd);
+        String json = t.stats.toJson();
+        if (t.id == MAIN_TRACK_ID) lastStatsJson = json;
+        activeTracks = queue.size();
+        if (queue.isEmpty()) {
+            power.end(now, clock.cpuTimeNs());
+            Log.d(TAG, "power: " + getPowerStatsJson());
+        }
+        Log.d(TAG, "track " + t.id + (cancelled ? " cancelled" : " finished") + " loops=" + (t.loopIndex + 1)
+                + " stats=" + json);
+        listener.onFinished(t.id, t.stats, cancelled);
+    }
+}
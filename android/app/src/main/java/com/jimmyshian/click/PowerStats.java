@@ -0,0 +1,104 @@
+package com.jimmyshian.click;
+
+import java.util.Locale;
+
+/**
+ * 排程器的耗電指標：喚醒次數、忙等時間、合併進同一次喚醒的事件數與播放期間的 CPU 時間。
+ *
+ * 只在排程執行緒上寫入；欄位為 volatile，讓 JS bridge 可以隨時讀取目前的數值
+ * （不必為了回報而在每次喚醒時產生字串）。
+ */
+final class PowerStats {
+
+    private volatile boolean lowPower;
+    private volatile long startNs;
+    private volatile long endNs;
+    private volatile long cpuStartNs;
+    private volatile long cpuEndNs;
+    private volatile boolean running;
+    private volatile long wakeups;
+    private volatile long coarseWakeups;
+    private volatile long spinNs;
+    private volatile long dispatches;
+    private volatile long batchedEvents;
+
+    /** 開始一段播放（排程器由閒置變成有 track 時） */
+    void begin(boolean lowPower, long nowNs, long cpuNs) {
+        this.lowPower = lowPower;
+        startNs = nowNs;
+        endNs = nowNs;
+        cpuStartNs = cpuNs;
+        cpuEndNs = cpuNs;
+        wakeups = 0;
+        coarseWakeups = 0;
+        spinNs = 0;
+        dispatches = 0;
+        batchedEvents = 0;
+        running = true;
+    }
+
+    /** 所有 track 結束 */
+    void end(long nowNs, long cpuNs) {
+        endNs = nowNs;
+        cpuEndNs = cpuNs;
+        running = false;
+    }
+
+    void addWakeup() {
+        wakeups++;
+    }
+
+    void addCoarseWakeup() {
+        coarseWakeups++;
+    }
+
+    void addSpin(long ns) {
+        spinNs += ns;
+    }
+
+    void addDispatch() {
+        dispatches++;
+    }
+
+    /** 低耗電模式下因為時間相近而併入同一個手勢（同一次喚醒）的事件 */
+    void addBatched() {
+        batchedEvents++;
+    }
+
+    long getWakeups() {
+        return wakeups;
+    }
+
+    long getCoarseWakeups() {
+        return coarseWakeups;
+    }
+
+    long getBatchedEvents() {
+        return batchedEvents;
+    }
+
+    /**
+     * 以 JSON 字串輸出；播放中時以 nowNs / cpuNs 作為區間結尾。
+     */
+    String toJson(long nowNs, long cpuNs) {
+        boolean active = running;
+        long elapsedNs = Math.max(0, (active ? nowNs : endNs) - startNs);
+        long cpuUsedNs = Math.max(0, (active ? cpuNs : cpuEndNs) - cpuStartNs);
+        double minutes = elapsedNs / 60e9;
+        return String.format(Locale.US,
+                "{\"lowPower\":%b,\"running\":%b,\"elapsedMs\":%.1f,\"wakeups\":%d,\"coarseWakeups\":%d,"
+                        + "\"wakeupsPerMin\":%.1f,\"dispatches\":%d,\"batched\":%d,\"spinMs\":%.3f,"
+                        + "\"cpuMs\":%.1f,\"cpuMsPerMin\":%.1f}",
+                lowPower,
+                active,
+                elapsedNs / 1e6,
+                wakeups,
+                coarseWakeups,
+                minutes > 0 ? wakeups / minutes : 0,
+                dispatches,
+                batchedEvents,
+                spinNs / 1e6,
+                cpuUsedNs / 1e6,
+                minutes > 0 ? cpuUsedNs / 1e6 / minutes : 0);
+    }
+}
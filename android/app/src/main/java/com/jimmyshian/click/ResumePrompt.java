@@ -0,0 +1,135 @@
+package com.jimmyshian.click;
+
+import android.content.Context;
+import android.graphics.PixelFormat;
+import android.util.Log;
+import android.view.Gravity;
+import android.view.WindowManager;
+import android.widget.Button;
+import android.widget.LinearLayout;
+import android.widget.TextView;
+
+/**
+ * 服務重新連線時的原生續播提示（不依賴 WebView，UI 尚未載入完成前就能顯示）。
+ * 使用者選擇續播後，同一個視窗改為顯示「停止」按鈕，直到該次播放結束。
+ * 冷啟動時也用同一個視窗提供「播放上次的腳本」（Web UI 載入完成後關閉）。
+ */
+final class ResumePrompt {
+
+    private static final String TAG = "OmniClickResumePrompt";
+    // 沒有操作時自動關閉提示
+    private static final long AUTO_DISMISS_MS = 15_000L;
+
+    private final Context context;
+    private final WindowManager windowManager;
+    private final float density;
+    private LinearLayout root;
+    private final Runnable autoDismiss = this::dismiss;
+
+    ResumePrompt(Context context, WindowManager windowManager) {
+        this.context = context;
+        this.windowManager = windowManager;
+        this.density = context.getResources().getDisplayMetrics().density;
+    }
+
+    /** 顯示續播提示；需在主執行緒呼叫 */
+    void show(String message, Runnable onResume, Runnable onDiscard) {
+        show(message, "Resume", onResume, "Discard", onDiscard);
+    }
+
+    /** 顯示兩個按鈕的提示；按下第二個按鈕時關閉提示 */
+    void show(String message, String primaryLabel, Runnable onPrimary, String secondaryLabel, Runnable onSecondary) {
+        dismiss();
+        root = new LinearLayout(context);
+        root.setOrientation(LinearLayout.VERTICAL);
+        root.setBackgroundColor(0xE0202830);
+        int pad = dp(12);
+        root.setPadding(pad, pad, pad, pad);
+
+        TextView text = new TextView(context);
+        text.setText(message);
+        text.setTextColor(0xFFE0E0E0);
+        text.setTextSize(14);
+        root.addView(text);
+
+        LinearLayout buttons = new LinearLayout(context);
+        buttons.setOrientation(LinearLayout.HORIZONTAL);
+        buttons.addView(button(primaryLabel, onPrimary), new LinearLayout.LayoutParams(0, LinearLayout.LayoutParams.WRAP_CONTENT, 1f));
+        buttons.addView(button(secondaryLabel, () -> {
+            dismiss();
+            onSecondary.run();
+        }), new LinearLayout.LayoutParams(0, LinearLayout.LayoutParams.WRAP_CONTENT, 1f));
+        root.addView(buttons);
+
+        attach();
+        if (root != null) root.postDelayed(autoDismiss, AUTO_DISMISS_MS);
+    }
+
+    /** 續播中：只保留一個停止按鈕 */
+    void showRunning(String message, Runnable onStop) {
+        dismiss();
+        root = new LinearLayout(context);
+        root.setOrientation(LinearLayout.HORIZONTAL);
+        root.setBackgroundColor(0xC0202830);
+        int pad = dp(6);
+        root.setPadding(pad, pad, pad, pad);
+
+        TextView text = new TextView(context);
+        text.setText(message);
+        text.setTextColor(0xFFE0E0E0);
+        text.setTextSize(12);
+        root.addView(text);
+        root.addView(button("Stop", () -> {
+            dismiss();
+            onStop.run();
+        }));
+        attach();
+    }
+
+    boolean isShowing() {
+        return root != null;
+    }
+
+    void dismiss() {
+        if (root == null) return;
+        root.removeCallbacks(autoDismiss);
+        try {
+            windowManager.removeView(root);
+        } catch (IllegalArgumentException e) {
+            Log.e(TAG, "dismiss failed", e);
+        }
+        root = null;
+    }
+
+    private Button button(String label, Runnable action) {
+        Button b = new Button(context);
+        b.setText(label);
+        b.setAllCaps(false);
+        b.setOnClickListener(v -> action.run());
+        return b;
+    }
+
+    private void attach() {
+        WindowManager.LayoutParams lp = new WindowManager.LayoutParams(
+                WindowManager.LayoutParams.WRAP_CONTENT,
+                WindowManager.LayoutParams.WRAP_CONTENT,
+                WindowManager.LayoutParams.TYPE_ACCESSIBILITY_OVERLAY,
+                WindowManager.LayoutParams.FLAG_NOT_FOCUSABLE
+                        | WindowManager.LayoutParams.FLAG_NOT_TOUCH_MODAL
+                        | WindowManager.LayoutParams.FLAG_LAYOUT_IN_SCREEN,
+                PixelFormat.TRANSLUCENT
+        );
+        lp.gravity = Gravity.TOP | Gravity.CENTER_HORIZONTAL;
+        lp.y = dp(48);
+        try {
+            windowManager.addView(root, lp);
+        } catch (RuntimeException e) {
+            Log.e(TAG, "attach failed", e);
+            root = null;
+        }
+    }
+
+    private int dp(int value) {
+        return (int) (value * density);
+    }
+}
@@ -0,0 +1,242 @@
+package com.jimmyshian.click;
+
+import android.app.AlarmManager;
+import android.content.Context;
+import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.PowerManager;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.util.Locale;
+
+/**
+ * 在指定的牆上時間（System.currentTimeMillis）開始播放，第一個點擊對齊目標時間。
+ *
+ * 目標時間換算到 SystemClock.elapsedRealtimeNanos（睡眠期間也會前進），距離目標超過
+ * FINAL_WINDOW_MS 時只掛一個 ELAPSED_REALTIME_WAKEUP 鬧鐘（同時以 Handler 作為後備），
+ * 不持有 wake lock；進入最後的視窗才取得 PARTIAL_WAKE_LOCK，重新以最新的牆上時間換算一次，
+ * 再換成排程器使用的單調時鐘交給 PlaybackScheduler，第一個手勢送出後立即釋放。
+ * 時間軸在排程時就已編譯好、腳本也在排程時交給播放端保存（checkpoint），最後的視窗內不做檔案 I/O；
+ * 進入視窗時再預先組一次開頭的手勢（不送出），避開第一次的冷啟動成本。
+ * 除 onDispatched 外都在主執行緒上呼叫。
+ * 鬧鐘的 OnAlarmListener 需要 API 24，較舊的版本只靠 Handler（睡眠中會延後觸發）。
+ */
+final class ScheduledStart {
+
+    /** 播放端（服務） */
+    interface Target {
+        /** 排程成立時保存腳本（開始時不再寫檔） */
+        void save(ScriptTimeline timeline, String scriptJson);
+
+        /** 預先組好開頭的手勢（不送出） */
+        void prewarm(ScriptTimeline timeline);
+
+        /** 以單調時鐘 firstTapNs 作為第一個事件的 deadline 開始播放（腳本已由 save 保存） */
+        void startAt(ScriptTimeline timeline, float speed, long firstTapNs);
+
+        /** 狀態事件（scheduled / armed / started / cancelled），JSON */
+        void onEvent(String json);
+    }
+
+    /** 時間來源，單元測試可替換 */
+    interface Clocks {
+        long wallMs();
+
+        long elapsedNs();
+
+        long monoNs();
+    }
+
+    private static final String TAG = "OmniClickScheduledStart";
+    /** 最後這段時間持有 wake lock 並交給排程器 */
+    static final long FINAL_WINDOW_MS = 2_000L;
+    // 可排定的最遠時間
+    static final long MAX_AHEAD_MS = 24L * 60 * 60 * 1000;
+    // 等牆上時間跳到下一個 ms 的上限
+    private static final long EDGE_WAIT_NS = 2_000_000L;
+    // wake lock 逾時（第一個手勢沒有送出時的保險）
+    private static final long WAKE_LOCK_TIMEOUT_MS = FINAL_WINDOW_MS + 5_000L;
+
+    static final Clocks SYSTEM_CLOCKS = new Clocks() {
+        @Override
+        public long wallMs() {
+            return System.currentTimeMillis();
+        }
+
+        @Override
+        public long elapsedNs() {
+            return SystemClock.elapsedRealtimeNanos();
+        }
+
+        @Override
+        public long monoNs() {
+            return System.nanoTime();
+        }
+    };
+
+    private final Context context;
+    private final Target target;
+    private final Handler main = new Handler(Looper.getMainLooper());
+    // 第一次排程時才建立（API 24 以上），API 23 上不會載入 OnAlarmListener
+    private AlarmManager.OnAlarmListener alarm;
+    private final Runnable fallback = this::arm;
+    private PowerManager.WakeLock wakeLock;
+
+    private ScriptTimeline timeline;
+    private float speed;
+    private long targetWallMs;
+    private long armedAtElapsedNs;
+    // 交給排程器的第一個事件 deadline（單調時鐘）；0 = 尚未交出
+    private volatile long firstTapNs;
+    private volatile boolean awaitingFirst;
+    private volatile boolean pending;
+    private volatile String lastResultJson = "{}";
+
+    ScheduledStart(Context context, Target target) {
+        this.context = context;
+        this.target = target;
+    }
+
+    /**
+     * 把牆上時間換算成 elapsedRealtimeNanos。先等 wallMs 跳到下一個 ms（最多 EDGE_WAIT_NS），
+     * 在跳動的邊緣取樣，換算誤差不受 currentTimeMillis 的 ms 解析度影響。
+     */
+    static long wallToElapsedNs(long targetWallMs, Clocks clocks) {
+        long w0 = clocks.wallMs();
+        long limit = clocks.elapsedNs() + EDGE_WAIT_NS;
+        long w;
+        long e;
+        do {
+            w = clocks.wallMs();
+            e = clocks.elapsedNs();
+        } while (w == w0 && e < limit);
+        return e + (targetWallMs - w) * 1_000_000L;
+    }
+
+    /** elapsedRealtimeNanos 換成單調時鐘（醒著的期間兩者同步前進） */
+    static long elapsedToMonoNs(long elapsedNs, Clocks clocks) {
+        long mono = clocks.monoNs();
+        return mono + (elapsedNs - clocks.elapsedNs());
+    }
+
+    /**
+     * 排定開始時間；已有排程時取代。目標已過或太遠時回傳 false。
+     */
+    boolean schedule(ScriptTimeline timeline, String scriptJson, float speed, long targetWallMs) {
+        long aheadMs = targetWallMs - System.currentTimeMillis();
+        if (aheadMs <= 0 || aheadMs > MAX_AHEAD_MS || timeline.size == 0) return false;
+        cancel();
+        this.timeline = timeline;
+        this.speed = speed;
+        this.targetWallMs = targetWallMs;
+        pending = true;
+        long targetElapsedMs = wallToElapsedNs(targetWallMs, SYSTEM_CLOCKS) / 1_000_000L;
+        long armAtElapsedMs = targetElapsedMs - FINAL_WINDOW_MS;
+        Log.d(TAG, "schedule: target=" + targetWallMs + " (in " + aheadMs + "ms), events=" + timeline.size);
+        target.save(timeline, scriptJson);
+        if (armAtElapsedMs <= SystemClock.elapsedRealtime()) {
+            arm();
+            return true;
+        }
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.N) {
+            AlarmManager am = (AlarmManager) context.getSystemService(Context.ALARM_SERVICE);
+            if (am != null) {
+                if (alarm == null) alarm = this::arm;
+                am.setExact(AlarmManager.ELAPSED_REALTIME_WAKEUP, armAtElapsedMs, TAG, alarm, main);
+            }
+        }
+        // 裝置沒有睡眠時 Handler 準時觸發；睡眠中 uptime 停止，改由鬧鐘喚醒
+        main.postAtTime(fallback, SystemClock.uptimeMillis() + (armAtElapsedMs - SystemClock.elapsedRealtime()));
+        target.onEvent(String.format(Locale.US, "{\"type\":\"scheduled\",\"targetWallMs\":%d}", targetWallMs));
+        return true;
+    }
+
+    /** 取消尚未開始的排程（已交給排程器後由 stopScript 停止） */
+    void cancel() {
+        boolean wasPending = pending;
+        pending = false;
+        awaitingFirst = false;
+        main.removeCallbacks(fallback);
+        cancelAlarm();
+        releaseWakeLock();
+        timeline = null;
+        if (wasPending) {
+            target.onEvent(String.format(Locale.US, "{\"type\":\"cancelled\",\"targetWallMs\":%d}", targetWallMs));
+        }
+    }
+
+    private void cancelAlarm() {
+        if (alarm == null || Build.VERSION.SDK_INT < Build.VERSION_CODES.N) return;
+        AlarmManager am = (AlarmManager) context.getSystemService(Context.ALARM_SERVICE);
+        if (am != null) am.cancel(alarm);
+    }
+
+    /** 進入最後的視窗：持有 wake lock、重新換算目標時間並交給排程器 */
+    private void arm() {
+        if (!pending) return;
+        main.removeCallbacks(fallback);
+        cancelAlarm();
+        acquireWakeLock();
+        armedAtElapsedNs = SystemClock.elapsedRealtimeNanos();
+
+        target.prewarm(timeline);
+        long targetElapsedNs = wallToElapsedNs(targetWallMs, SYSTEM_CLOCKS);
+        long mono = elapsedToMonoNs(targetElapsedNs, SYSTEM_CLOCKS);
+        long leadMs = (mono - System.nanoTime()) / 1_000_000L;
+        if (mono <= System.nanoTime()) {
+            Log.w(TAG, "arm: target already passed by " + -leadMs + "ms, starting now");
+        }
+        firstTapNs = mono;
+        awaitingFirst = true;
+        pending = false;
+        target.startAt(timeline, speed, mono);
+        target.onEvent(String.format(Locale.US, "{\"type\":\"armed\",\"targetWallMs\":%d,\"leadMs\":%d}",
+                targetWallMs, leadMs));
+        Log.d(TAG, "armed: first tap in " + leadMs + "ms");
+    }
+
+    /**
+     * 手勢送出後呼叫（排程執行緒）：第一個手勢回報開始誤差並釋放 wake lock。
+     *
+     * @param sentNs         dispatchGesture 回傳時的單調時間
+     * @param firstStrokeMs  第一個 stroke 在手勢內的偏移
+     */
+    void onDispatched(long sentNs, long firstStrokeMs) {
+        if (!awaitingFirst) return;
+        awaitingFirst = false;
+        long errorNs = sentNs + firstStrokeMs * 1_000_000L - firstTapNs;
+        long heldMs = (SystemClock.elapsedRealtimeNanos() - armedAtElapsedNs) / 1_000_000L;
+        firstTapNs = 0;
+        String json = String.format(Locale.US,
+                "{\"type\":\"started\",\"targetWallMs\":%d,\"startErrorMs\":%.3f,\"wakeLockMs\":%d}",
+                targetWallMs, errorNs / 1e6, heldMs);
+        lastResultJson = json;
+        main.post(this::releaseWakeLock);
+        target.onEvent(json);
+        Log.d(TAG, "started: error=" + errorNs / 1e6 + "ms, wake lock held " + heldMs + "ms");
+    }
+
+    /** 目前的排程狀態與最近一次的開始誤差（JSON） */
+    String toJson() {
+        String state = pending ? "scheduled" : awaitingFirst ? "armed" : "idle";
+        return String.format(Locale.US, "{\"state\":\"%s\",\"targetWallMs\":%d,\"inMs\":%d,\"last\":%s}",
+                state, targetWallMs, state.equals("idle") ? 0 : targetWallMs - System.currentTimeMillis(),
+                lastResultJson);
+    }
+
+    private void acquireWakeLock() {
+        if (wakeLock == null) {
+            PowerManager pm = (PowerManager) context.getSystemService(Context.POWER_SERVICE);
+            if (pm == null) return;
+            wakeLock = pm.newWakeLock(PowerManager.PARTIAL_WAKE_LOCK, "OmniClick:scheduledStart");
+            wakeLock.setReferenceCounted(false);
+        }
+        wakeLock.acquire(WAKE_LOCK_TIMEOUT_MS);
+    }
+
+    private void releaseWakeLock() {
+        if (wakeLock != null && wakeLock.isHeld()) wakeLock.release();
+    }
+}
@@ -0,0 +1,360 @@
+package com.jimmyshian.click;
+
+import android.util.Log;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * 產生 ScriptProgram：可逐條指令組譯（測試、手寫程式），或直接把 step list 編譯成 bytecode。
+ *
+ * step list 的編譯規則與 ScriptTimeline 相同（delay、repeat / repeatInterval、結尾 tail、
+ * loop / loopCount），差別在於重複的部分編成迴圈而不是展開：
+ * step 的 repeat 是一個 DJNZ 迴圈（手勢指令只有一份），metadata.blocks（[{start, count, repeat}]，可巢狀）
+ * 讓一段 step 重複指定次數，整份腳本的 loop 則以 r0 計數。
+ * 因此 10 個 step 的區段重複一萬次，仍然只佔 10 個 step 的指令。
+ */
+final class ScriptAssembler {
+
+    private static final String TAG = "ScriptAssembler";
+
+    private int[] code = new int[64];
+    private int codeLength = 0;
+    private float[] constants = new float[32];
+    private int constLength = 0;
+
+    private static final class Gesture {
+        int type;
+        int constIndex;
+        long durationMs;
+        long holdMs;
+        int fingers;
+        float spacingPx;
+    }
+
+    private final ArrayList<Gesture> gestures = new ArrayList<>();
+
+    // 巢狀迴圈：{開始的指令索引, 使用的暫存器（-1 = 無限迴圈，0 = 只跑一次）}
+    private final ArrayList<int[]> loops = new ArrayList<>();
+    private int nextRegister = ScriptProgram.LOOP_REGISTER + 1;
+
+    /** 下一個指令的索引（跳躍目標） */
+    int here() {
+        return codeLength / ScriptProgram.WIDTH;
+    }
+
+    void tap(float x, float y, int stepIndex) {
+        emit(ScriptProgram.OP_TAP, constant(x, y), 0, stepIndex);
+    }
+
+    void swipe(float x, float y, float endX, float endY, long durationMs, int stepIndex) {
+        emit(ScriptProgram.OP_SWIPE, constant(x, y, endX, endY), (int) durationMs, stepIndex);
+    }
+
+    /** 複合手勢（ScriptTimeline.TYPE_DOUBLE_TAP / LONG_PRESS / PRESS_DRAG / MULTI_TAP） */
+    void gesture(int type, float x, float y, float endX, float endY, long durationMs, long holdMs,
+                 int fingers, float spacingPx, int stepIndex) {
+        Gesture g = new Gesture();
+        g.type = type;
+        g.constIndex = constant(x, y, endX, endY);
+        g.durationMs = durationMs;
+        g.holdMs = holdMs;
+        g.fingers = fingers;
+        g.spacingPx = spacingPx;
+        int index = gestures.size();
+        gestures.add(g);
+        emit(ScriptProgram.OP_GESTURE, index, 0, stepIndex);
+    }
+
+    void waitMs(double ms) {
+        long us = Math.round(ms * 1000);
+        while (us > 0) {
+            int chunk = (int) Math.min(us, Integer.MAX_VALUE);
+            emit(ScriptProgram.OP_WAIT, chunk, 0, 0);
+            us -= chunk;
+        }
+    }
+
+    void set(int register, int value) {
+        emit(ScriptProgram.OP_SET, checkRegister(register), value, 0);
+    }
+
+    void add(int register, int value) {
+        emit(ScriptProgram.OP_ADD, checkRegister(register), value, 0);
+    }
+
+    int jump(int target) {
+        int at = here();
+        emit(ScriptProgram.OP_JMP, target, 0, 0);
+        return at;
+    }
+
+    /**
+     * 條件跳躍（OP_JEQ / JNE / JLT / JGE）：register 與 value 比較，成立時跳到 target。
+     * 往前跳時 target 可先填 -1，回傳的指令索引之後交給 patch()（jump() 同理）。
+     */
+    int jumpIf(int op, int register, int value, int target) {
+        if (op < ScriptProgram.OP_JEQ || op > ScriptProgram.OP_JGE) {
+            throw new IllegalArgumentException("Not a conditional jump: " + op);
+        }
+        int at = here();
+        emit(op, checkRegister(register), value, target);
+        return at;
+    }
+
+    /** 把跳躍指令（JMP / DJNZ / 條件跳躍）的目標改成 target */
+    void patch(int instruction, int target) {
+        int i = instruction * ScriptProgram.WIDTH;
+        switch (code[i]) {
+            case ScriptProgram.OP_JMP:
+                code[i + 1] = target;
+                break;
+            case ScriptProgram.OP_DJNZ:
+                code[i + 2] = target;
+                break;
+            case ScriptProgram.OP_JEQ:
+            case ScriptProgram.OP_JNE:
+            case ScriptProgram.OP_JLT:
+            case ScriptProgram.OP_JGE:
+                code[i + 3] = target;
+                break;
+            default:
+                throw new IllegalArgumentException("Instruction " + instruction + " is not a jump");
+        }
+    }
+
+    /** 開始一個重複 count 次的迴圈（count <= 0 為無限迴圈），以 endLoop() 結束 */
+    void beginLoop(int count) {
+        if (count == 1) {
+            loops.add(new int[]{here(), 0});
+            return;
+        }
+        if (count <= 0) {
+            loops.add(new int[]{here(), -1});
+            return;
+        }
+        int register = allocRegister();
+        set(register, count);
+        loops.add(new int[]{here(), register});
+    }
+
+    void endLoop() {
+        int[] loop = loops.remove(loops.size() - 1);
+        if (loop[1] < 0) {
+            jump(loop[0]);
+        } else if (loop[1] > 0) {
+            emit(ScriptProgram.OP_DJNZ, loop[1], loop[0], 0);
+            nextRegister--;
+        }
+    }
+
+    /**
+     * step 的 repeat：手勢指令只出現一次，第二次起先等 repeatInterval。
+     *   SET r, repeat; JMP first; again: WAIT interval; first: 手勢; DJNZ r, again
+     */
+    private void repeatedStep(ScriptStep s, int stepIndex, ScriptTimeline.PointMapper mapper) {
+        int register = allocRegister();
+        set(register, s.repeat);
+        int skip = jump(-1);
+        int again = here();
+        waitMs(s.repeatInterval);
+        patch(skip, here());
+        step(s, stepIndex, mapper);
+        emit(ScriptProgram.OP_DJNZ, register, again, 0);
+        nextRegister--;
+    }
+
+    private int allocRegister() {
+        if (nextRegister >= ScriptProgram.REGISTERS) {
+            throw new IllegalStateException("Loops nested deeper than " + (ScriptProgram.REGISTERS - 1));
+        }
+        return nextRegister++;
+    }
+
+    void halt() {
+        emit(ScriptProgram.OP_HALT, 0, 0, 0);
+    }
+
+    ScriptProgram build(String scriptId) {
+        if (!loops.isEmpty()) throw new IllegalStateException(loops.size() + " loop(s) not closed");
+        int n = gestures.size();
+        int[] type = new int[n];
+        int[] constIndex = new int[n];
+        long[] duration = new long[n];
+        long[] hold = new long[n];
+        int[] fingers = new int[n];
+        float[] spacing = new float[n];
+        for (int i = 0; i < n; i++) {
+            Gesture g = gestures.get(i);
+            type[i] = g.type;
+            constIndex[i] = g.constIndex;
+            duration[i] = g.durationMs;
+            hold[i] = g.holdMs;
+            fingers[i] = g.fingers;
+            spacing[i] = g.spacingPx;
+        }
+        return new ScriptProgram(scriptId, Arrays.copyOf(code, codeLength), Arrays.copyOf(constants, constLength),
+                type, constIndex, duration, hold, fingers, spacing);
+    }
+
+    /** 原生端保存的腳本 -> bytecode（metadata.blocks 可選） */
+    static ScriptProgram assemble(NativeScript script, ScriptTimeline.PointMapper mapper) {
+        return assemble(script.id(), script.loop(), script.loopCount(), script.durationMs(), script.steps,
+                parseBlocks(script.metadata.optJSONArray("blocks")), mapper);
+    }
+
+    /**
+     * 以個別欄位編譯（單元測試直接使用）。
+     *
+     * @param blocks {start, count, repeat} 的重複區段，必須完全巢狀；不合法的區段會被略過
+     */
+    static ScriptProgram assemble(String scriptId, boolean loop, int loopCount, long durationMs,
+                                  StepBlockList steps, List<int[]> blocks, ScriptTimeline.PointMapper mapper) {
+        ScriptAssembler asm = new ScriptAssembler();
+        int stepCount = steps.size();
+        List<int[]> valid = validBlocks(blocks, stepCount);
+        // 每個 step 之後要關閉的區段數
+        int[] closeAfter = new int[stepCount];
+        for (int[] b : valid) {
+            closeAfter[b[0] + b[1] - 1]++;
+        }
+
+        int top = asm.here();
+        double passMs = 0;
+        int i = 0;
+        int nextBlock = 0;
+        for (ScriptStep s : steps) {
+            while (nextBlock < valid.size() && valid.get(nextBlock)[0] == i) {
+                asm.beginLoop(valid.get(nextBlock)[2]);
+                nextBlock++;
+            }
+            asm.waitMs(s.delay);
+            if (s.repeat > 1) {
+                asm.repeatedStep(s, i, mapper);
+            } else {
+                asm.step(s, i, mapper);
+            }
+            passMs += s.spanMs();
+            for (int c = 0; c < closeAfter[i]; c++) {
+                asm.endLoop();
+            }
+            i++;
+        }
+
+        // 結尾 tail 與 ScriptTimeline 相同：max(500, 錄製長度 - 一輪已使用時間)
+        asm.waitMs(Math.max(ScriptTimeline.MIN_TAIL_MS, durationMs - passMs));
+        if (loop) {
+            asm.add(ScriptProgram.LOOP_REGISTER, 1);
+            if (loopCount > 0) {
+                asm.jumpIf(ScriptProgram.OP_JLT, ScriptProgram.LOOP_REGISTER, loopCount, top);
+            } else {
+                asm.jump(top);
+            }
+        }
+        asm.halt();
+        return asm.build(scriptId);
+    }
+
+    /** metadata.blocks -> {start, count, repeat} */
+    static List<int[]> parseBlocks(JSONArray array) {
+        ArrayList<int[]> blocks = new ArrayList<>();
+        if (array == null) return blocks;
+        for (int i = 0; i < array.length(); i++) {
+            JSONObject o = array.optJSONObject(i);
+            if (o == null) continue;
+            blocks.add(new int[]{o.optInt("start", -1), o.optInt("count", 0), o.optInt("repeat", 1)});
+        }
+        return blocks;
+    }
+
+    /** 依 start 排序（同起點時外層在前），略過超出範圍或交錯（非巢狀）的區段 */
+    private static List<int[]> validBlocks(List<int[]> blocks, int stepCount) {
+        ArrayList<int[]> sorted = new ArrayList<>();
+        if (blocks != null) {
+            for (int[] b : blocks) {
+                if (b[0] >= 0 && b[1] > 0 && b[0] + b[1] <= stepCount && b[2] >= 1) sorted.add(b);
+            }
+        }
+        Collections.sort(sorted, (p, q) -> p[0] != q[0] ? Integer.compare(p[0], q[0]) : Integer.compare(q[1], p[1]));
+        ArrayList<int[]> valid = new ArrayList<>();
+        ArrayList<int[]> open = new ArrayList<>();
+        for (int[] b : sorted) {
+            while (!open.isEmpty() && end(open.get(open.size() - 1)) < b[0]) {
+                open.remove(open.size() - 1);
+            }
+            if (!open.isEmpty() && end(b) > end(open.get(open.size() - 1))) {
+                Log.w(TAG, "Skipping block start=" + b[0] + " count=" + b[1] + ": overlaps an enclosing block");
+                continue;
+            }
+            if (open.size() + 1 >= ScriptProgram.REGISTERS - 1) {
+                Log.w(TAG, "Skipping block start=" + b[0] + ": nested too deep");
+                continue;
+            }
+            valid.add(b);
+            open.add(b);
+        }
+        return valid;
+    }
+
+    private static int end(int[] block) {
+        return block[0] + block[1] - 1;
+    }
+
+    /** 一個 step 的手勢指令（座標換算與 ScriptTimeline.compile 相同） */
+    private void step(ScriptStep s, int stepIndex, ScriptTimeline.PointMapper mapper) {
+        int type = ScriptTimeline.typeOf(s);
+        boolean hasEnd = type == ScriptTimeline.TYPE_SWIPE || type == ScriptTimeline.TYPE_PRESS_DRAG;
+        float[] start = mapper.map(s.x, s.y);
+        float[] end = hasEnd ? mapper.map(s.endX, s.endY) : start;
+        long hold = type == ScriptTimeline.TYPE_LONG_PRESS || type == ScriptTimeline.TYPE_PRESS_DRAG ? s.holdDuration : 0;
+        long duration = ScriptTimeline.durationOf(type, s, hold);
+        switch (type) {
+            case ScriptTimeline.TYPE_TAP:
+                tap(start[0], start[1], stepIndex);
+                break;
+            case ScriptTimeline.TYPE_SWIPE:
+                swipe(start[0], start[1], end[0], end[1], duration, stepIndex);
+                break;
+            default: {
+                float spacing = type == ScriptTimeline.TYPE_MULTI_TAP
+                        ? mapper.map(s.x + s.fingerSpacing, s.y)[0] - start[0] : 0;
+                int fingers = type == ScriptTimeline.TYPE_MULTI_TAP ? ScriptTimeline.fingersOf(s) : 1;
+                gesture(type, start[0], start[1], end[0], end[1], duration, hold, fingers, spacing, stepIndex);
+                break;
+            }
+        }
+    }
+
+    private int constant(float... values) {
+        int at = constLength;
+        if (constLength + values.length > constants.length) {
+            constants = Arrays.copyOf(constants, Math.max(constants.length * 2, constLength + values.length));
+        }
+        for (float v : values) {
+            constants[constLength++] = v;
+        }
+        return at;
+    }
+
+    private void emit(int op, int a, int b, int c) {
+        if (codeLength + ScriptProgram.WIDTH > code.length) {
+            code = Arrays.copyOf(code, code.length * 2);
+        }
+        code[codeLength++] = op;
+        code[codeLength++] = a;
+        code[codeLength++] = b;
+        code[codeLength++] = c;
+    }
+
+    private static int checkRegister(int register) {
+        if (register < 0 || register >= ScriptProgram.REGISTERS) {
+            throw new IllegalArgumentException("Bad register r" + register);
+        }
+        return register;
+    }
+}
@@ -0,0 +1,78 @@
+package com.jimmyshian.click;
+
+/**
+ * 組譯後的腳本 bytecode（由 ScriptAssembler 產生，ScriptVm 執行）。
+ *
+ * 每個指令固定 4 個 int：op, a, b, c。暫存器為 REGISTERS 個 int，
+ * r0 保留給最外層循環的輪數（播放進度回報的 loopIndex）。
+ * 座標在組譯時已換算成螢幕 px 存在常數表；等待時間以 µs 存放，播放速度在執行時套用，
+ * 同一份程式可以不同速度播放。
+ *
+ * 指令：
+ *   TAP      a=座標常數索引 (x, y)              c=來源 step
+ *   SWIPE    a=座標常數索引 (x, y, endX, endY) b=持續 ms  c=來源 step
+ *   GESTURE  a=複合手勢表索引                    c=來源 step
+ *   WAIT     a=µs
+ *   SET      ra = b
+ *   ADD      ra += b
+ *   DJNZ     ra -= 1；ra != 0 時跳到 b
+ *   JMP      跳到 a
+ *   JEQ / JNE / JLT / JGE   ra 與 b 比較，成立時跳到 c
+ *   HALT
+ * 跳躍目標為指令索引（不是 code 陣列索引）。
+ */
+final class ScriptProgram {
+
+    static final int OP_HALT = 0;
+    static final int OP_TAP = 1;
+    static final int OP_SWIPE = 2;
+    static final int OP_GESTURE = 3;
+    static final int OP_WAIT = 4;
+    static final int OP_SET = 5;
+    static final int OP_ADD = 6;
+    static final int OP_DJNZ = 7;
+    static final int OP_JMP = 8;
+    static final int OP_JEQ = 9;
+    static final int OP_JNE = 10;
+    static final int OP_JLT = 11;
+    static final int OP_JGE = 12;
+
+    static final int WIDTH = 4;
+    static final int REGISTERS = 16;
+    /** 最外層循環的輪數 */
+    static final int LOOP_REGISTER = 0;
+
+    final String scriptId;
+    final int[] code;
+    final float[] constants;
+
+    // 複合手勢表（double-click / hold / press-drag / multi-tap）
+    final int[] gestureType;
+    final int[] gestureConst;
+    final long[] gestureDurationMs;
+    final long[] gestureHoldMs;
+    final int[] gestureFingers;
+    final float[] gestureSpacingPx;
+
+    ScriptProgram(String scriptId, int[] code, float[] constants, int[] gestureType, int[] gestureConst,
+                  long[] gestureDurationMs, long[] gestureHoldMs, int[] gestureFingers, float[] gestureSpacingPx) {
+        this.scriptId = scriptId;
+        this.code = code;
+        this.constants = constants;
+        this.gestureType = gestureType;
+        this.gestureConst = gestureConst;
+        this.gestureDurationMs = gestureDurationMs;
+        this.gestureHoldMs = gestureHoldMs;
+        this.gestureFingers = gestureFingers;
+        this.gestureSpacingPx = gestureSpacingPx;
+    }
+
+    int instructionCount() {
+        return code.length / WIDTH;
+    }
+
+    /** 程式佔用的大約位元組數（code + 常數 + 複合手勢表） */
+    int sizeBytes() {
+        return code.length * 4 + constants.length * 4 + gestureType.length * (4 + 4 + 8 + 8 + 4 + 4);
+    }
+}
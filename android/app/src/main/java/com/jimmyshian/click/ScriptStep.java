@@ -0,0 +1,87 @@
+package com.jimmyshian.click;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * 原生端的單一 step，欄位與 JS 端 types.ts 的 ClickStep 相同（座標為 canvas CSS px）。
+ */
+final class ScriptStep {
+
+    String id = "";
+    String type = "click";
+    String label = null;
+    float x;
+    float y;
+    boolean hasEnd = false;
+    float endX;
+    float endY;
+    double delay;
+    long swipeDuration = ScriptTimeline.DEFAULT_SWIPE_DURATION_MS;
+    int repeat = 1;
+    double repeatInterval = 100;
+    // 複合手勢參數：hold / press-drag 的按住時間，multi-tap 的手指數與間距（canvas CSS px）
+    long holdDuration = ScriptTimeline.DEFAULT_HOLD_MS;
+    int fingers = ScriptTimeline.DEFAULT_FINGERS;
+    float fingerSpacing = ScriptTimeline.DEFAULT_FINGER_SPACING;
+
+    boolean isSwipe() {
+        return "swipe".equals(type) && hasEnd;
+    }
+
+    boolean isPressDrag() {
+        return "press-drag".equals(type) && hasEnd;
+    }
+
+    /** 此 step 佔用的總時間（ms）：自身 delay 加上所有 repeat 間隔 */
+    double spanMs() {
+        return delay + (repeat > 1 ? (repeat - 1) * repeatInterval : 0);
+    }
+
+    static ScriptStep fromJson(JSONObject s) {
+        ScriptStep step = new ScriptStep();
+        step.id = s.optString("id", "");
+        step.type = s.optString("type", "click");
+        step.label = s.has("label") ? s.optString("label") : null;
+        step.x = (float) s.optDouble("x", 0);
+        step.y = (float) s.optDouble("y", 0);
+        step.hasEnd = s.has("endX") && s.has("endY");
+        if (step.hasEnd) {
+            step.endX = (float) s.optDouble("endX", 0);
+            step.endY = (float) s.optDouble("endY", 0);
+        }
+        step.delay = Math.max(0, s.optDouble("delay", 0));
+        step.swipeDuration = s.optLong("swipeDuration", ScriptTimeline.DEFAULT_SWIPE_DURATION_MS);
+        step.repeat = Math.max(1, s.optInt("repeat", 1));
+        double interval = s.optDouble("repeatInterval", 100);
+        step.repeatInterval = Double.isNaN(interval) || interval <= 0 ? 100 : interval;
+        step.holdDuration = Math.max(ScriptTimeline.TAP_DURATION_MS,
+                s.optLong("holdDuration", ScriptTimeline.DEFAULT_HOLD_MS));
+        step.fingers = Math.max(1, s.optInt("fingers", ScriptTimeline.DEFAULT_FINGERS));
+        step.fingerSpacing = (float) s.optDouble("fingerSpacing", ScriptTimeline.DEFAULT_FINGER_SPACING);
+        return step;
+    }
+
+    JSONObject toJson() throws JSONException {
+        JSONObject o = new JSONObject();
+        o.put("id", id);
+        o.put("x", x);
+        o.put("y", y);
+        o.put("delay", delay);
+        o.put("type", type);
+        if (label != null) o.put("label", label);
+        if (hasEnd) {
+            o.put("endX", endX);
+            o.put("endY", endY);
+        }
+        if ("swipe".equals(type) || "press-drag".equals(type)) o.put("swipeDuration", swipeDuration);
+        if ("hold".equals(type) || "press-drag".equals(type)) o.put("holdDuration", holdDuration);
+        if ("multi-tap".equals(type)) {
+            o.put("fingers", fingers);
+            o.put("fingerSpacing", fingerSpacing);
+        }
+        o.put("repeat", repeat);
+        o.put("repeatInterval", repeatInterval);
+        return o;
+    }
+}
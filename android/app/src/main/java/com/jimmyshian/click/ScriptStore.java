@@ -0,0 +1,109 @@
+package com.jimmyshian.click;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * 原生端已開啟的腳本（以 metadata.id 為 key）。
+ *
+ * 提供分頁讀取、區段插入 / 更新 / 刪除與時間位置查詢，
+ * 讓前端只需處理畫面上可見的那一段 step，而不用每次序列化整份腳本。
+ * 所有方法皆 synchronized（JS bridge 執行緒與播放編譯可能同時存取）。
+ */
+final class ScriptStore {
+
+    private final HashMap<String, NativeScript> scripts = new HashMap<>();
+
+    /** 載入整份腳本 JSON，回傳其 id（已存在時覆蓋） */
+    synchronized String open(String json) throws JSONException {
+        NativeScript script = NativeScript.fromJson(json);
+        scripts.put(script.id(), script);
+        return script.id();
+    }
+
+    synchronized void put(NativeScript script) {
+        scripts.put(script.id(), script);
+    }
+
+    synchronized NativeScript get(String scriptId) {
+        return scripts.get(scriptId);
+    }
+
+    synchronized void close(String scriptId) {
+        scripts.remove(scriptId);
+    }
+
+    synchronized int count(String scriptId) {
+        NativeScript s = scripts.get(scriptId);
+        return s != null ? s.steps.size() : 0;
+    }
+
+    /**
+     * 取出 [offset, offset + count) 的 step，每筆另外附上 "time"（該 step 開始執行的 ms）。
+     */
+    synchronized String getSteps(String scriptId, int offset, int count) throws JSONException {
+        NativeScript s = scripts.get(scriptId);
+        if (s == null || offset < 0 || offset >= s.steps.size()) return "[]";
+        List<ScriptStep> page = s.steps.getRange(offset, count);
+        JSONArray out = new JSONArray();
+        double t = s.steps.timeOf(offset) - page.get(0).delay;
+        for (int i = 0; i < page.size(); i++) {
+            ScriptStep step = page.get(i);
+            JSONObject o = step.toJson();
+            o.put("time", t + step.delay);
+            t += step.spanMs();
+            out.put(o);
+        }
+        return out.toString();
+    }
+
+    synchronized boolean insert(String scriptId, int index, String stepsJson) throws JSONException {
+        NativeScript s = scripts.get(scriptId);
+        if (s == null || index < 0 || index > s.steps.size()) return false;
+        s.steps.insert(index, NativeScript.parseSteps(new JSONArray(stepsJson)));
+        return true;
+    }
+
+    synchronized boolean update(String scriptId, int index, String stepsJson) throws JSONException {
+        NativeScript s = scripts.get(scriptId);
+        List<ScriptStep> steps = NativeScript.parseSteps(new JSONArray(stepsJson));
+        if (s == null || index < 0 || index + steps.size() > s.steps.size()) return false;
+        s.steps.update(index, steps);
+        return true;
+    }
+
+    synchronized boolean delete(String scriptId, int index, int count) {
+        NativeScript s = scripts.get(scriptId);
+        if (s == null || index < 0 || index >= s.steps.size() || count <= 0) return false;
+        s.steps.delete(index, count);
+        return true;
+    }
+
+    /** step 開始執行的時間（ms）；不存在時回傳 -1 */
+    synchronized double timeOf(String scriptId, int index) {
+        NativeScript s = scripts.get(scriptId);
+        if (s == null || index < 0 || index >= s.steps.size()) return -1;
+        return s.steps.timeOf(index);
+    }
+
+    /** 在 timeMs 或之後第一個執行的 step 索引；不存在時回傳 -1 */
+    synchronized int indexAtTime(String scriptId, double timeMs) {
+        NativeScript s = scripts.get(scriptId);
+        return s != null ? s.steps.indexAtTime(timeMs) : -1;
+    }
+
+    /** 所有 step 的總時間（ms，不含結尾 tail） */
+    synchronized double totalSpanMs(String scriptId) {
+        NativeScript s = scripts.get(scriptId);
+        return s != null ? s.steps.totalSpanMs() : 0;
+    }
+
+    synchronized String export(String scriptId) throws JSONException {
+        NativeScript s = scripts.get(scriptId);
+        return s != null ? s.toJson() : null;
+    }
+}
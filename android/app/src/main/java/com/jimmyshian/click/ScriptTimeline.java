@@ -0,0 +1,247 @@
+package com.jimmyshian.click;
+
+import android.accessibilityservice.GestureDescription;
+import android.os.Build;
+import android.util.Log;
+
+import org.json.JSONException;
+
+/**
+ * 將 ClickScript（JS 端的 JSON 格式）展開成「絕對時間軸」。
+ * 每個事件記錄相對於一輪開頭的偏移（ns），播放時以 start + loop * loopLength + offset
+ * 計算 deadline，避免逐步相對 setTimeout 造成的誤差累積。
+ *
+ * 座標在編譯時即換算成螢幕 px，播放中不再做轉換。
+ *
+ * 複合手勢（double-click、hold、press-drag、multi-tap）是單一事件，durationMs 為整個
+ * 複合手勢的長度；送出時由 GestureBatch 展開成同一個 GestureDescription 內的多個 stroke。
+ */
+final class ScriptTimeline {
+
+    static final int TYPE_TAP = 0;
+    static final int TYPE_SWIPE = 1;
+    static final int TYPE_DOUBLE_TAP = 2;
+    static final int TYPE_LONG_PRESS = 3;
+    static final int TYPE_PRESS_DRAG = 4;
+    static final int TYPE_MULTI_TAP = 5;
+
+    // 與 JS 端一致：tap 持續 100ms，swipe 最短 100ms、預設 300ms
+    static final long TAP_DURATION_MS = 100;
+    static final long MIN_SWIPE_DURATION_MS = 100;
+    static final long DEFAULT_SWIPE_DURATION_MS = 300;
+    // 與 JS 端一致：一輪結束後至少等待 500ms 才進入下一輪
+    static final long MIN_TAIL_MS = 500;
+
+    // double-click：兩次各按 50ms，中間放開 100ms（在系統 double-tap 判定範圍內）
+    static final long DOUBLE_TAP_PRESS_MS = 50;
+    static final long DOUBLE_TAP_GAP_MS = 100;
+    // hold / press-drag 預設按住時間（超過系統 long-press 判定）
+    static final long DEFAULT_HOLD_MS = 600;
+    // multi-tap 預設兩指，水平間距 40 canvas px
+    static final int DEFAULT_FINGERS = 2;
+    static final float DEFAULT_FINGER_SPACING = 40;
+    // 一個 GestureDescription 的 stroke 上限（目前系統皆為 10）；multi-tap 的手指數不得超過
+    static final int MAX_FINGERS = Build.VERSION.SDK_INT >= Build.VERSION_CODES.N
+            ? GestureDescription.getMaxStrokeCount() : 10;
+
+    private static final String TAG = "ScriptTimeline";
+
+    /** canvas CSS 座標 -> 螢幕 px */
+    interface PointMapper {
+        float[] map(float canvasX, float canvasY);
+    }
+
+    final String scriptId;
+    final boolean loop;
+    final int loopCount;
+
+    // 事件陣列（長度皆為 size）
+    final int size;
+    final long[] offsetNs;
+    final int[] stepIndex;
+    final int[] type;
+    final float[] x;
+    final float[] y;
+    final float[] endX;
+    final float[] endY;
+    final long[] durationMs;
+    // 複合手勢參數：按住時間（ms）、手指數與手指間距（螢幕 px）
+    final long[] holdMs;
+    final int[] fingers;
+    final float[] spacingPx;
+
+    // 每個 step 第一個事件的索引與該 step 的 delay（ns），用於從中間 step 開始播放
+    final int[] firstEventOfStep;
+    final long[] stepDelayNs;
+
+    // 一輪的總長度（含結尾 tail），已套用播放速度
+    long loopLengthNs;
+
+    private ScriptTimeline(String scriptId, boolean loop, int loopCount, int size, int stepCount) {
+        this.scriptId = scriptId;
+        this.loop = loop;
+        this.loopCount = loopCount;
+        this.size = size;
+        this.offsetNs = new long[size];
+        this.stepIndex = new int[size];
+        this.type = new int[size];
+        this.x = new float[size];
+        this.y = new float[size];
+        this.endX = new float[size];
+        this.endY = new float[size];
+        this.durationMs = new long[size];
+        this.holdMs = new long[size];
+        this.fingers = new int[size];
+        this.spacingPx = new float[size];
+        this.firstEventOfStep = new int[stepCount];
+        this.stepDelayNs = new long[stepCount];
+    }
+
+    /**
+     * 只有一個事件欄位的時間軸：ScriptVm 每產生一個事件就覆寫這一格，
+     * 排程器與 GestureBatch 以相同方式讀取。
+     */
+    static ScriptTimeline slot(String scriptId) {
+        return new ScriptTimeline(scriptId, false, 0, 1, 1);
+    }
+
+    int stepCount() {
+        return firstEventOfStep.length;
+    }
+
+    /** 事件展開後佔用的 stroke 數 */
+    int strokeCount(int event) {
+        switch (type[event]) {
+            case TYPE_DOUBLE_TAP:
+            case TYPE_PRESS_DRAG:
+                return 2;
+            case TYPE_MULTI_TAP:
+                return fingers[event];
+            default:
+                return 1;
+        }
+    }
+
+    /**
+     * 從指定 step 開始播放時，第一輪需要扣除的時間偏移：
+     * 與 JS 行為相同，起始 step 仍會先等待自己的 delay。
+     */
+    long startShiftNs(int startStep) {
+        if (startStep <= 0 || startStep >= firstEventOfStep.length) return 0;
+        return offsetNs[firstEventOfStep[startStep]] - stepDelayNs[startStep];
+    }
+
+    /**
+     * 解析 ClickScript JSON 並展開為時間軸。
+     *
+     * @param speed  播放速度倍率（與 JS 端 playbackSpeed 相同語意）
+     * @param mapper canvas -> 螢幕 px 的座標換算
+     */
+    static ScriptTimeline fromJson(String json, float speed, PointMapper mapper) throws JSONException {
+        return compile(NativeScript.fromJson(json), speed, mapper);
+    }
+
+    /**
+     * 將原生端保存的腳本展開為時間軸。
+     */
+    static ScriptTimeline compile(NativeScript script, float speed, PointMapper mapper) {
+        return compile(script.id(), script.loop(), script.loopCount(), script.durationMs(),
+                script.steps, speed, mapper);
+    }
+
+    /**
+     * 以個別欄位展開時間軸（不經過 JSON metadata，單元測試直接使用）。
+     *
+     * @param durationMs 錄製時的總長度，決定結尾 tail
+     */
+    static ScriptTimeline compile(String scriptId, boolean loop, int loopCount, long durationMs,
+                                  StepBlockList steps, float speed, PointMapper mapper) {
+        if (speed <= 0) speed = 1f;
+
+        int size = 0;
+        for (ScriptStep s : steps) {
+            size += s.repeat;
+        }
+
+        ScriptTimeline t = new ScriptTimeline(scriptId, loop, loopCount, size, steps.size());
+
+        double elapsedMs = 0;
+        int i = 0;
+        int e = 0;
+        for (ScriptStep s : steps) {
+            int type = typeOf(s);
+            boolean hasEnd = type == TYPE_SWIPE || type == TYPE_PRESS_DRAG;
+            float[] start = mapper.map(s.x, s.y);
+            float[] end = hasEnd ? mapper.map(s.endX, s.endY) : start;
+            long hold = type == TYPE_LONG_PRESS || type == TYPE_PRESS_DRAG ? s.holdDuration : 0;
+            long dur = durationOf(type, s, hold);
+            // 手指間距以 canvas 上相距 spacing 的兩點換算，與座標縮放一致
+            float spacing = type == TYPE_MULTI_TAP ? mapper.map(s.x + s.fingerSpacing, s.y)[0] - start[0] : 0;
+            int fingers = type == TYPE_MULTI_TAP ? fingersOf(s) : 1;
+
+            t.firstEventOfStep[i] = e;
+            t.stepDelayNs[i] = (long) (s.delay * 1_000_000L / speed);
+
+            for (int r = 0; r < s.repeat; r++, e++) {
+                elapsedMs += r == 0 ? s.delay : s.repeatInterval;
+                t.offsetNs[e] = (long) (elapsedMs * 1_000_000L / speed);
+                t.stepIndex[e] = i;
+                t.type[e] = type;
+                t.x[e] = start[0];
+                t.y[e] = start[1];
+                t.endX[e] = end[0];
+                t.endY[e] = end[1];
+                t.durationMs[e] = dur;
+                t.holdMs[e] = hold;
+                t.fingers[e] = fingers;
+                t.spacingPx[e] = spacing;
+            }
+            i++;
+        }
+
+        // 結尾 tail 與 JS 端相同：max(500, duration - 已使用時間)
+        double tailMs = Math.max(MIN_TAIL_MS, durationMs - elapsedMs);
+        t.loopLengthNs = (long) ((elapsedMs + tailMs) * 1_000_000L / speed);
+        return t;
+    }
+
+    /** multi-tap 的手指數；超過 stroke 上限時截斷，否則多出的 stroke 會被 GestureBatch 丟掉 */
+    static int fingersOf(ScriptStep s) {
+        if (s.fingers <= MAX_FINGERS) return s.fingers;
+        Log.w(TAG, "multi-tap step " + s.id + ": " + s.fingers + " fingers clamped to " + MAX_FINGERS);
+        return MAX_FINGERS;
+    }
+
+    static int typeOf(ScriptStep s) {
+        switch (s.type) {
+            case "swipe":
+                return s.hasEnd ? TYPE_SWIPE : TYPE_TAP;
+            case "double-click":
+                return TYPE_DOUBLE_TAP;
+            case "hold":
+                return TYPE_LONG_PRESS;
+            case "press-drag":
+                return s.hasEnd ? TYPE_PRESS_DRAG : TYPE_LONG_PRESS;
+            case "multi-tap":
+                return s.fingers > 1 ? TYPE_MULTI_TAP : TYPE_TAP;
+            default:
+                return TYPE_TAP;
+        }
+    }
+
+    /** 整個（複合）手勢的長度 */
+    static long durationOf(int type, ScriptStep s, long hold) {
+        switch (type) {
+            case TYPE_SWIPE:
+                return Math.max(MIN_SWIPE_DURATION_MS, s.swipeDuration);
+            case TYPE_DOUBLE_TAP:
+                return DOUBLE_TAP_PRESS_MS * 2 + DOUBLE_TAP_GAP_MS;
+            case TYPE_LONG_PRESS:
+                return hold;
+            case TYPE_PRESS_DRAG:
+                return hold + Math.max(MIN_SWIPE_DURATION_MS, s.swipeDuration);
+            default:
+                return TAP_DURATION_MS;
+        }
+    }
+}
@@ -0,0 +1,142 @@
+package com.jimmyshian.click;
+
+import android.util.Log;
+
+/**
+ * ScriptProgram 的直譯器：每次 next() 執行到下一個手勢指令為止，
+ * 把事件寫進 slot（單一事件的 ScriptTimeline），排程器照一般時間軸的方式讀取。
+ *
+ * 時間以一個累加的 µs 游標表示（從程式開始算，跨越所有循環），事件偏移 = 游標 / 播放速度，
+ * 與 ScriptTimeline 的絕對偏移算法相同，長時間循環也不會累積誤差。
+ * 執行迴圈只操作陣列與基本型別，不配置物件；只在排程執行緒上使用。
+ */
+final class ScriptVm {
+
+    private static final String TAG = "ScriptVm";
+    // 單次 next() 最多執行的指令數：沒有手勢也沒有等待的無窮迴圈直接停止
+    private static final int MAX_STEPS_PER_EVENT = 1_000_000;
+
+    private final ScriptProgram program;
+    private final float speed;
+    private final ScriptTimeline slot;
+    private final int[] regs = new int[ScriptProgram.REGISTERS];
+    private int pc;
+    private long elapsedUs;
+    private boolean halted;
+    private int eventLoop;
+
+    ScriptVm(ScriptProgram program, float speed) {
+        this.program = program;
+        this.speed = speed > 0 ? speed : 1f;
+        this.slot = ScriptTimeline.slot(program.scriptId);
+    }
+
+    /** 目前事件所在的時間軸（只有一格，每次 next() 覆寫） */
+    ScriptTimeline slot() {
+        return slot;
+    }
+
+    boolean halted() {
+        return halted;
+    }
+
+    /** 目前 slot 中事件所屬的輪數（r0） */
+    int eventLoop() {
+        return eventLoop;
+    }
+
+    /**
+     * 執行到下一個手勢，回傳 false 代表程式結束（slot.loopLengthNs 為結束時間）。
+     */
+    boolean next() {
+        if (halted) return false;
+        final int[] code = program.code;
+        final int end = code.length;
+        for (int budget = MAX_STEPS_PER_EVENT; budget > 0; budget--) {
+            int i = pc * ScriptProgram.WIDTH;
+            if (i >= end) break;
+            int op = code[i];
+            int a = code[i + 1];
+            int b = code[i + 2];
+            int c = code[i + 3];
+            pc++;
+            switch (op) {
+                case ScriptProgram.OP_TAP:
+                    emit(ScriptTimeline.TYPE_TAP, a, ScriptTimeline.TAP_DURATION_MS, 0, 1, 0, c, false);
+                    return true;
+                case ScriptProgram.OP_SWIPE:
+                    emit(ScriptTimeline.TYPE_SWIPE, a, b, 0, 1, 0, c, true);
+                    return true;
+                case ScriptProgram.OP_GESTURE: {
+                    int type = program.gestureType[a];
+                    emit(type, program.gestureConst[a], program.gestureDurationMs[a], program.gestureHoldMs[a],
+                            program.gestureFingers[a], program.gestureSpacingPx[a], c,
+                            type == ScriptTimeline.TYPE_PRESS_DRAG);
+                    return true;
+                }
+                case ScriptProgram.OP_WAIT:
+                    elapsedUs += a;
+                    break;
+                case ScriptProgram.OP_SET:
+                    regs[a] = b;
+                    break;
+                case ScriptProgram.OP_ADD:
+                    regs[a] += b;
+                    break;
+                case ScriptProgram.OP_DJNZ:
+                    if (--regs[a] != 0) pc = b;
+                    break;
+                case ScriptProgram.OP_JMP:
+                    pc = a;
+                    break;
+                case ScriptProgram.OP_JEQ:
+                    if (regs[a] == b) pc = c;
+                    break;
+                case ScriptProgram.OP_JNE:
+                    if (regs[a] != b) pc = c;
+                    break;
+                case ScriptProgram.OP_JLT:
+                    if (regs[a] < b) pc = c;
+                    break;
+                case ScriptProgram.OP_JGE:
+                    if (regs[a] >= b) pc = c;
+                    break;
+                case ScriptProgram.OP_HALT:
+                default:
+                    return halt();
+            }
+        }
+        if (pc * ScriptProgram.WIDTH < end) {
+            Log.e(TAG, "program " + program.scriptId + " ran " + MAX_STEPS_PER_EVENT
+                    + " instructions without an event, stopping at pc=" + pc);
+        }
+        return halt();
+    }
+
+    private boolean halt() {
+        halted = true;
+        slot.loopLengthNs = nowNs();
+        return false;
+    }
+
+    private long nowNs() {
+        return (long) (elapsedUs * 1000.0 / speed);
+    }
+
+    private void emit(int type, int constIndex, long durationMs, long holdMs, int fingers, float spacing,
+                      int stepIndex, boolean hasEnd) {
+        float[] k = program.constants;
+        slot.offsetNs[0] = nowNs();
+        slot.stepIndex[0] = stepIndex;
+        slot.type[0] = type;
+        slot.x[0] = k[constIndex];
+        slot.y[0] = k[constIndex + 1];
+        slot.endX[0] = hasEnd ? k[constIndex + 2] : k[constIndex];
+        slot.endY[0] = hasEnd ? k[constIndex + 3] : k[constIndex + 1];
+        slot.durationMs[0] = durationMs;
+        slot.holdMs[0] = holdMs;
+        slot.fingers[0] = fingers;
+        slot.spacingPx[0] = spacing;
+        eventLoop = regs[ScriptProgram.LOOP_REGISTER];
+    }
+}
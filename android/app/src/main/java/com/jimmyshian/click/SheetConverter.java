@@ -0,0 +1,339 @@
+package com.jimmyshian.click;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.json.JSONTokener;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * 樂譜（songNotes）轉成點擊腳本，規則與 App.tsx 的 handleConvertSheet 相同：
+ * 依 time 排序，KeyN 對應 layout 腳本的第 N 個 step，delay = 與前一個音符的時間差，
+ * duration = 最後一個音符的時間 + 1000ms。
+ *
+ * 輸出直接以 StringBuilder 組成 ClickScript JSON（與 NativeScript 讀取的格式相同），
+ * 不經過 JSONObject，大量轉換時配置較少。step 陣列與 metadata 分開保存，
+ * 編譯好的 step 陣列可以放進 CompiledScriptCache，每次匯入再套上新的 id 與時間。
+ * 沒有共用狀態，可在任意執行緒使用。
+ */
+final class SheetConverter {
+
+    /** layout 腳本至少要有 Key1 ~ Key15 */
+    static final int MIN_LAYOUT_KEYS = 15;
+    // 最後一個音符之後保留的時間
+    private static final long END_BUFFER_MS = 1000L;
+    /** 轉換規則版本；規則改變時一併改變，舊的快取項目自然失效 */
+    static final String VERSION = "sheet-v1";
+
+    /** layout 腳本的按鍵位置（Key1 = index 0，canvas CSS px） */
+    static final class Layout {
+        final float[] x;
+        final float[] y;
+
+        Layout(float[] x, float[] y) {
+            this.x = x;
+            this.y = y;
+        }
+
+        int size() {
+            return x.length;
+        }
+    }
+
+    /** 解析後的樂譜：音符時間（ms）與鍵號（Key1 = 1，無法解析為 -1） */
+    static final class Song {
+        final String name;
+        final double[] timeMs;
+        final int[] key;
+
+        Song(String name, double[] timeMs, int[] key) {
+            this.name = name;
+            this.timeMs = timeMs;
+            this.key = key;
+        }
+    }
+
+    /** 轉換結果：腳本名稱、step 陣列 JSON 與總長度 */
+    static final class Result {
+        final String name;
+        final String stepsJson;
+        final int steps;
+        final double duration;
+
+        Result(String name, String stepsJson, int steps, double duration) {
+            this.name = name;
+            this.stepsJson = stepsJson;
+            this.steps = steps;
+            this.duration = duration;
+        }
+
+        long durationMs() {
+            return (long) Math.ceil(duration);
+        }
+
+        /** 套上 metadata，組成完整的 ClickScript JSON */
+        String toScriptJson(String id, long now) {
+            StringBuilder json = new StringBuilder(stepsJson.length() + 256);
+            json.append("{\"metadata\":{\"id\":").append(quote(id))
+                    .append(",\"name\":").append(quote(name))
+                    .append(",\"version\":\"1.0\",\"loop\":false,\"loopCount\":0,\"createdAt\":").append(now)
+                    .append(",\"updatedAt\":").append(now)
+                    .append(",\"duration\":").append(number(duration))
+                    .append("},\"steps\":").append(stepsJson).append('}');
+            return json.toString();
+        }
+
+        /** 快取格式：第一行 step 數與長度，第二行名稱（JSON 字串），之後是 step 陣列 */
+        String serialize() {
+            return steps + " " + number(duration) + "\n" + quote(name) + "\n" + stepsJson;
+        }
+
+        /** serialize() 的反向；格式不符時回傳 null */
+        static Result deserialize(String s) {
+            int nl1 = s.indexOf('\n');
+            int nl2 = nl1 < 0 ? -1 : s.indexOf('\n', nl1 + 1);
+            if (nl2 < 0) return null;
+            String[] head = s.substring(0, nl1).split(" ");
+            String quoted = s.substring(nl1 + 1, nl2);
+            if (head.length != 2 || quoted.length() < 2) return null;
+            try {
+                return new Result(unquote(quoted), s.substring(nl2 + 1),
+                        Integer.parseInt(head[0]), Double.parseDouble(head[1]));
+            } catch (RuntimeException e) {
+                return null;
+            }
+        }
+    }
+
+    private SheetConverter() {
+    }
+
+    static Layout parseLayout(String json) throws JSONException {
+        JSONArray steps = new JSONObject(json).getJSONArray("steps");
+        if (steps.length() < MIN_LAYOUT_KEYS) {
+            throw new IllegalArgumentException("Layout script must have at least 15 steps (Key1 to Key15).");
+        }
+        float[] x = new float[steps.length()];
+        float[] y = new float[steps.length()];
+        for (int i = 0; i < steps.length(); i++) {
+            JSONObject s = steps.getJSONObject(i);
+            x[i] = (float) s.optDouble("x", 0);
+            y[i] = (float) s.optDouble("y", 0);
+        }
+        return new Layout(x, y);
+    }
+
+    /**
+     * 解析樂譜 JSON（可為陣列包一層）。內容是點擊腳本（有 steps、沒有 songNotes）時回傳 null，
+     * 讓批次匯入略過資料夾裡的 layout 檔。
+     */
+    static Song parseSong(String json, String fallbackName) throws JSONException {
+        Object root = new JSONTokener(json).nextValue();
+        if (root instanceof JSONArray) {
+            root = ((JSONArray) root).length() > 0 ? ((JSONArray) root).get(0) : null;
+        }
+        if (!(root instanceof JSONObject)) {
+            throw new IllegalArgumentException("Invalid Song JSON format. Missing 'songNotes'.");
+        }
+        JSONObject entry = (JSONObject) root;
+        JSONArray notes = entry.optJSONArray("songNotes");
+        if (notes == null) {
+            if (entry.has("steps")) return null;
+            throw new IllegalArgumentException("Invalid Song JSON format. Missing 'songNotes'.");
+        }
+        double[] time = new double[notes.length()];
+        int[] key = new int[notes.length()];
+        for (int i = 0; i < notes.length(); i++) {
+            JSONObject n = notes.optJSONObject(i);
+            if (n == null) {
+                key[i] = -1;
+                continue;
+            }
+            time[i] = n.optDouble("time", 0);
+            key[i] = parseKey(n.optString("key", ""));
+        }
+        return new Song(entry.optString("name", fallbackName), time, key);
+    }
+
+    /** "Key5" / "1Key12" 之類的鍵名取出數字；沒有 KeyN 時回傳 -1 */
+    static int parseKey(String key) {
+        int at = key.indexOf("Key");
+        while (at >= 0) {
+            int start = at + 3;
+            int end = start;
+            while (end < key.length() && end - start < 9 && Character.isDigit(key.charAt(end))) end++;
+            if (end > start) return Integer.parseInt(key.substring(start, end));
+            at = key.indexOf("Key", start);
+        }
+        return -1;
+    }
+
+    /**
+     * 以 layout 轉換樂譜。沒有任何可用的音符時丟出 IllegalArgumentException。
+     */
+    static Result convert(Song song, Layout layout) {
+        int n = song.timeMs.length;
+        Integer[] order = new Integer[n];
+        for (int i = 0; i < n; i++) order[i] = i;
+        // 穩定排序，與 JS Array.prototype.sort 相同
+        Arrays.sort(order, (a, b) -> Double.compare(song.timeMs[a], song.timeMs[b]));
+
+        String name = "Converted: " + song.name;
+        StringBuilder steps = new StringBuilder(n * 96).append('[');
+        int count = 0;
+        double previous = 0;
+        for (int o = 0; o < n; o++) {
+            int i = order[o];
+            int index = song.key[i] - 1;
+            if (index < 0 || index >= layout.size()) continue;
+            double time = song.timeMs[i];
+            if (count > 0) steps.append(',');
+            steps.append("{\"id\":\"n").append(count)
+                    .append("\",\"x\":").append(number(layout.x[index]))
+                    .append(",\"y\":").append(number(layout.y[index]))
+                    .append(",\"delay\":").append(number(Math.max(0, time - previous)))
+                    .append(",\"type\":\"click\",\"repeat\":1,\"repeatInterval\":100}");
+            previous = time;
+            count++;
+        }
+        if (count == 0) throw new IllegalArgumentException("No valid notes converted.");
+        return new Result(name, steps.append(']').toString(), count, previous + END_BUFFER_MS);
+    }
+
+    /**
+     * 先以（轉換版本、layout hash、樂譜內容 hash、預設名稱）查快取，沒有時解析並轉換後寫回快取。
+     * 內容是點擊腳本而不是樂譜時回傳 null。cache 為 null 時直接轉換。
+     */
+    static Result convertCached(byte[] songBytes, String fallbackName, Layout layout, String layoutHash,
+                                CompiledScriptCache cache) throws JSONException {
+        String key = null;
+        if (cache != null) {
+            key = CompiledScriptCache.key(VERSION, layoutHash, CompiledScriptCache.hash(songBytes), fallbackName);
+            String cached = cache.get(key);
+            Result hit = cached != null ? Result.deserialize(cached) : null;
+            if (hit != null) return hit;
+        }
+        Song song = parseSong(decode(songBytes), fallbackName);
+        if (song == null) return null;
+        Result result = convert(song, layout);
+        if (key != null) cache.put(key, result.serialize());
+        return result;
+    }
+
+    /**
+     * 讀取文字檔：依 BOM 判斷 UTF-8 / UTF-16LE / UTF-16BE（常見的樂譜 txt 為 UTF-16），
+     * 沒有 BOM 時以 UTF-8 解碼。
+     */
+    static String readText(InputStream in) throws IOException {
+        return decode(readBytes(in));
+    }
+
+    static byte[] readBytes(InputStream in) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(16 * 1024);
+        byte[] buf = new byte[16 * 1024];
+        int r;
+        while ((r = in.read(buf)) != -1) {
+            bytes.write(buf, 0, r);
+        }
+        return bytes.toByteArray();
+    }
+
+    /** 依 BOM 解碼（見 readText）；精簡格式（gzip）的腳本先轉回 JSON */
+    static String decode(byte[] b) {
+        if (CompactScriptFormat.isCompact(b)) {
+            try {
+                return CompactScriptFormat.toJson(b);
+            } catch (IOException e) {
+                // 損壞的檔案：交給後面的 JSON 解析回報格式錯誤
+                return "";
+            }
+        }
+        if (b.length >= 3 && (b[0] & 0xff) == 0xef && (b[1] & 0xff) == 0xbb && (b[2] & 0xff) == 0xbf) {
+            return new String(b, 3, b.length - 3, Charset.forName("UTF-8"));
+        }
+        if (b.length >= 2 && (b[0] & 0xff) == 0xff && (b[1] & 0xff) == 0xfe) {
+            return new String(b, 2, b.length - 2, Charset.forName("UTF-16LE"));
+        }
+        if (b.length >= 2 && (b[0] & 0xff) == 0xfe && (b[1] & 0xff) == 0xff) {
+            return new String(b, 2, b.length - 2, Charset.forName("UTF-16BE"));
+        }
+        return new String(b, Charset.forName("UTF-8"));
+    }
+
+    /** JSON 字串常值（含引號） */
+    static String quote(String s) {
+        StringBuilder sb = new StringBuilder(s.length() + 2).append('"');
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            switch (c) {
+                case '"':
+                    sb.append("\\\"");
+                    break;
+                case '\\':
+                    sb.append("\\\\");
+                    break;
+                case '\n':
+                    sb.append("\\n");
+                    break;
+                case '\r':
+                    sb.append("\\r");
+                    break;
+                case '\t':
+                    sb.append("\\t");
+                    break;
+                default:
+                    // U+2028 / U+2029 在舊的 JS 引擎中不能出現在字串常值內
+                    if (c < 0x20 || c == '\u2028' || c == '\u2029') {
+                        sb.append(String.format(Locale.US, "\\u%04x", (int) c));
+                    } else {
+                        sb.append(c);
+                    }
+            }
+        }
+        return sb.append('"').toString();
+    }
+
+    /** quote() 的反向（只處理 quote 會產生的跳脫） */
+    static String unquote(String quoted) {
+        StringBuilder sb = new StringBuilder(quoted.length());
+        for (int i = 1; i < quoted.length() - 1; i++) {
+            char c = quoted.charAt(i);
+            if (c != '\\' || i + 1 >= quoted.length() - 1) {
+                sb.append(c);
+                continue;
+            }
+            char e = quoted.charAt(++i);
+            switch (e) {
+                case 'n':
+                    sb.append('\n');
+                    break;
+                case 'r':
+                    sb.append('\r');
+                    break;
+                case 't':
+                    sb.append('\t');
+                    break;
+                case 'u':
+                    sb.append((char) Integer.parseInt(quoted.substring(i + 1, i + 5), 16));
+                    i += 4;
+                    break;
+                default:
+                    sb.append(e);
+            }
+        }
+        return sb.toString();
+    }
+
+    /** 整數值不輸出小數點，其餘照 Double.toString */
+    static String number(double v) {
+        if (Double.isNaN(v) || Double.isInfinite(v)) return "0";
+        if (v == Math.rint(v) && Math.abs(v) < 1e15) return Long.toString((long) v);
+        return Double.toString(v);
+    }
+}
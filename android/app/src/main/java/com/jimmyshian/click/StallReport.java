@@ -0,0 +1,208 @@
+package com.jimmyshian.click;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * 主執行緒卡頓（stall）與手勢時間誤差的對照報告，容量固定（環狀覆寫最舊的紀錄）。
+ *
+ * MainLooperWatchdog 在主執行緒上回報超過門檻的訊息，排程器在排程執行緒上回報每個送出的手勢。
+ * 兩邊的時間都是 System.nanoTime()（與 LooperPlaybackClock 同一時基）。
+ * 遲到的手勢若「deadline 到實際送出」的區間與某個 stall 重疊，就連結到該 stall（被它延誤）；
+ * deadline 落在 stall 期間但準時送出的手勢另外計數，用來判斷 stall 是否真的是遲到的原因。
+ * 手勢可能在 stall 結束前就送出，所以兩邊新增紀錄時都會互相比對。
+ */
+final class StallReport {
+
+    /** 每個 stall 最多保留的連結手勢數 */
+    static final int MAX_LINKS_PER_STALL = 16;
+
+    static final class Stall {
+        final long startNs;
+        final long endNs;
+        final String message;
+        final String stack;
+        final ArrayList<Gesture> delayed = new ArrayList<>(2);
+        int onTimeDuring;
+
+        Stall(long startNs, long endNs, String message, String stack) {
+            this.startNs = startNs;
+            this.endNs = endNs;
+            this.message = message;
+            this.stack = stack;
+        }
+
+        long durationNs() {
+            return endNs - startNs;
+        }
+    }
+
+    static final class Gesture {
+        final int trackId;
+        final int stepIndex;
+        final long deadlineNs;
+        final long errorNs;
+        boolean linked;
+
+        Gesture(int trackId, int stepIndex, long deadlineNs, long errorNs) {
+            this.trackId = trackId;
+            this.stepIndex = stepIndex;
+            this.deadlineNs = deadlineNs;
+            this.errorNs = errorNs;
+        }
+
+        long sentNs() {
+            return deadlineNs + errorNs;
+        }
+    }
+
+    private final long lateThresholdNs;
+    private final Stall[] stalls;
+    private final Gesture[] late;
+    private int stallHead;
+    private int stallCount;
+    private int lateHead;
+    private int lateCount;
+
+    private long totalStalls;
+    private long totalStallNs;
+    private long maxStallNs;
+    private long gestures;
+    private long lateGestures;
+    private long lateDuringStall;
+    private long onTimeDuringStall;
+    private long startedNs;
+
+    StallReport(int maxStalls, int maxLateGestures, long lateThresholdNs) {
+        this.stalls = new Stall[maxStalls];
+        this.late = new Gesture[maxLateGestures];
+        this.lateThresholdNs = lateThresholdNs;
+    }
+
+    /** 清除所有紀錄，nowNs 為新的報告起點 */
+    synchronized void reset(long nowNs) {
+        Arrays.fill(stalls, null);
+        Arrays.fill(late, null);
+        stallHead = stallCount = lateHead = lateCount = 0;
+        totalStalls = totalStallNs = maxStallNs = 0;
+        gestures = lateGestures = lateDuringStall = onTimeDuringStall = 0;
+        startedNs = nowNs;
+    }
+
+    /** 主執行緒的一個訊息處理超過門檻 */
+    synchronized void addStall(long startNs, long endNs, String message, String stack) {
+        Stall s = new Stall(startNs, endNs, message, stack);
+        totalStalls++;
+        totalStallNs += s.durationNs();
+        if (s.durationNs() > maxStallNs) maxStallNs = s.durationNs();
+        // 已經送出（stall 結束前）的遲到手勢
+        for (int i = 0; i < lateCount; i++) {
+            Gesture g = late[(lateHead - 1 - i + late.length) % late.length];
+            if (g.sentNs() < startNs) break;
+            if (!g.linked && overlaps(g, s)) link(s, g);
+        }
+        stalls[stallHead] = s;
+        stallHead = (stallHead + 1) % stalls.length;
+        if (stallCount < stalls.length) stallCount++;
+    }
+
+    /** 排程器送出一個手勢；errorNs = 實際送出時間 - deadline */
+    synchronized void addGesture(int trackId, int stepIndex, long deadlineNs, long errorNs) {
+        gestures++;
+        boolean isLate = errorNs > lateThresholdNs;
+        Gesture g = isLate ? new Gesture(trackId, stepIndex, deadlineNs, errorNs) : null;
+        for (int i = 0; i < stallCount; i++) {
+            Stall s = stalls[(stallHead - 1 - i + stalls.length) % stalls.length];
+            if (s.endNs < deadlineNs) break;
+            if (isLate) {
+                if (overlaps(g, s)) {
+                    link(s, g);
+                    break;
+                }
+            } else if (deadlineNs >= s.startNs && deadlineNs <= s.endNs) {
+                s.onTimeDuring++;
+                onTimeDuringStall++;
+                break;
+            }
+        }
+        if (!isLate) return;
+        lateGestures++;
+        late[lateHead] = g;
+        lateHead = (lateHead + 1) % late.length;
+        if (lateCount < late.length) lateCount++;
+    }
+
+    private static boolean overlaps(Gesture g, Stall s) {
+        return g.deadlineNs <= s.endNs && g.sentNs() >= s.startNs;
+    }
+
+    private void link(Stall s, Gesture g) {
+        g.linked = true;
+        lateDuringStall++;
+        if (s.delayed.size() < MAX_LINKS_PER_STALL) s.delayed.add(g);
+    }
+
+    synchronized long getTotalStalls() {
+        return totalStalls;
+    }
+
+    synchronized long getGestures() {
+        return gestures;
+    }
+
+    synchronized long getLateGestures() {
+        return lateGestures;
+    }
+
+    synchronized long getLateDuringStall() {
+        return lateDuringStall;
+    }
+
+    synchronized long getOnTimeDuringStall() {
+        return onTimeDuringStall;
+    }
+
+    /** 保留中的 stall，舊的在前 */
+    synchronized ArrayList<Stall> getStalls() {
+        ArrayList<Stall> out = new ArrayList<>(stallCount);
+        for (int i = stallCount - 1; i >= 0; i--) {
+            out.add(stalls[(stallHead - 1 - i + stalls.length) % stalls.length]);
+        }
+        return out;
+    }
+
+    /**
+     * 以 JSON 字串輸出（單位 ms，時間相對於報告起點）。
+     */
+    synchronized String toJson(long nowNs, long thresholdNs) {
+        StringBuilder sb = new StringBuilder(1024 + stallCount * 512);
+        sb.append(String.format(Locale.US,
+                "{\"thresholdMs\":%.1f,\"lateThresholdMs\":%.1f,\"elapsedMs\":%.1f,\"stalls\":%d,"
+                        + "\"stallMs\":%.1f,\"maxStallMs\":%.1f,\"gestures\":%d,\"late\":%d,"
+                        + "\"lateDuringStall\":%d,\"lateWithoutStall\":%d,\"onTimeDuringStall\":%d,\"recent\":[",
+                thresholdNs / 1e6, lateThresholdNs / 1e6, (nowNs - startedNs) / 1e6, totalStalls,
+                totalStallNs / 1e6, maxStallNs / 1e6, gestures, lateGestures,
+                lateDuringStall, lateGestures - lateDuringStall, onTimeDuringStall));
+        ArrayList<Stall> list = getStalls();
+        for (int i = 0; i < list.size(); i++) {
+            Stall s = list.get(i);
+            if (i > 0) sb.append(',');
+            sb.append(String.format(Locale.US, "{\"atMs\":%.1f,\"durationMs\":%.1f,\"message\":",
+                    (s.startNs - startedNs) / 1e6, s.durationNs() / 1e6))
+                    .append(SheetConverter.quote(s.message != null ? s.message : ""))
+                    .append(",\"stack\":").append(s.stack != null ? SheetConverter.quote(s.stack) : "null")
+                    .append(",\"onTimeDuring\":").append(s.onTimeDuring)
+                    .append(",\"delayed\":[");
+            for (int j = 0; j < s.delayed.size(); j++) {
+                Gesture g = s.delayed.get(j);
+                if (j > 0) sb.append(',');
+                sb.append(String.format(Locale.US,
+                        "{\"track\":%d,\"step\":%d,\"deadlineMs\":%.1f,\"lateMs\":%.3f}",
+                        g.trackId, g.stepIndex, (g.deadlineNs - startedNs) / 1e6, g.errorNs / 1e6));
+            }
+            sb.append("]}");
+        }
+        return sb.append("]}").toString();
+    }
+}
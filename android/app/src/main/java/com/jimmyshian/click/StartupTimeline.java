@@ -0,0 +1,90 @@
+package com.jimmyshian.click;
+
+import android.os.Build;
+import android.os.Process;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.Locale;
+
+/**
+ * 冷啟動到「可以播放」的各階段時間（SystemClock.elapsedRealtime，ms）。
+ *
+ * Activity 與服務在同一個 process，因此以 static 保存；每個階段只記第一次。
+ * 起點為 process 啟動時間（API 24+），較舊的版本以第一個階段為起點。
+ * 「可播放」取原生快速播放（上次的腳本已預先編譯）與 Web UI 就緒兩者較早的一個。
+ */
+final class StartupTimeline {
+
+    private static final String TAG = "OmniClickStartup";
+
+    static final String ACTIVITY_CREATED = "activityCreated";
+    static final String SERVICE_ENABLED = "serviceEnabled";
+    static final String SERVICE_CONNECTED = "serviceConnected";
+    static final String NATIVE_PLAYABLE = "nativePlayable";
+    static final String OVERLAY_ATTACHED = "overlayAttached";
+    static final String WEB_LOADED = "webLoaded";
+    static final String WEB_READY = "webReady";
+
+    private static final ArrayList<String> stages = new ArrayList<>();
+    private static final ArrayList<Long> times = new ArrayList<>();
+    private static long originMs = -1;
+
+    private StartupTimeline() {
+    }
+
+    static void mark(String stage) {
+        mark(stage, SystemClock.elapsedRealtime());
+    }
+
+    /** 記錄一個階段；已記錄過的階段忽略 */
+    static synchronized void mark(String stage, long nowMs) {
+        if (stages.contains(stage)) return;
+        if (originMs < 0) {
+            originMs = Build.VERSION.SDK_INT >= Build.VERSION_CODES.N ? Process.getStartElapsedRealtime() : nowMs;
+            if (originMs <= 0 || originMs > nowMs) originMs = nowMs;
+        }
+        stages.add(stage);
+        times.add(nowMs);
+        Log.d(TAG, stage + " at +" + (nowMs - originMs) + "ms");
+        if ((NATIVE_PLAYABLE.equals(stage) || WEB_READY.equals(stage)) && firstPlayableMs() == nowMs - originMs) {
+            Log.d(TAG, "first playable after " + (nowMs - originMs) + "ms (" + stage + ")");
+        }
+    }
+
+    /** 清除（測試用，或服務重新連線時重新量測） */
+    static synchronized void reset(long originMs) {
+        stages.clear();
+        times.clear();
+        StartupTimeline.originMs = originMs;
+    }
+
+    /** 起點到第一個可播放階段的時間；尚未可播放時回傳 -1 */
+    static synchronized long firstPlayableMs() {
+        long best = -1;
+        for (int i = 0; i < stages.size(); i++) {
+            String s = stages.get(i);
+            if (!NATIVE_PLAYABLE.equals(s) && !WEB_READY.equals(s)) continue;
+            long at = times.get(i) - originMs;
+            if (best < 0 || at < best) best = at;
+        }
+        return best;
+    }
+
+    /**
+     * 以 JSON 字串輸出：各階段相對於起點的時間與距上一階段的間隔（依發生順序）。
+     */
+    static synchronized String toJson() {
+        StringBuilder sb = new StringBuilder(256).append("{\"stages\":[");
+        long previous = originMs;
+        for (int i = 0; i < stages.size(); i++) {
+            long t = times.get(i);
+            if (i > 0) sb.append(',');
+            sb.append(String.format(Locale.US, "{\"stage\":\"%s\",\"atMs\":%d,\"deltaMs\":%d}",
+                    stages.get(i), t - originMs, t - previous));
+            previous = t;
+        }
+        return sb.append("],\"firstPlayableMs\":").append(firstPlayableMs()).append('}').toString();
+    }
+}
@@ -0,0 +1,294 @@
+package com.jimmyshian.click;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * 分塊儲存的 step 清單，並以 Fenwick tree 維護各區塊 step 數與時間總和的 prefix-sum 索引。
+ *
+ * 插入 / 刪除只會搬動單一區塊內的元素，並以 O(log 區塊數) 更新索引；
+ * 依位置或時間找到區塊是在索引上二分搜尋，之後只掃描該區塊內的元素，
+ * 因此查詢與編輯約為 O(log 區塊數 + 區塊大小)。
+ * 區塊切分或移除（區塊數改變，約每 BLOCK_SIZE 次插入一次）時才整個重建索引。
+ */
+final class StepBlockList implements Iterable<ScriptStep> {
+
+    // 區塊目標大小；超過兩倍時重新切分
+    static final int BLOCK_SIZE = 256;
+
+    private static final class Block {
+        final ArrayList<ScriptStep> steps = new ArrayList<>(BLOCK_SIZE);
+        double spanMs = 0;
+
+        void recompute() {
+            spanMs = 0;
+            for (int i = 0; i < steps.size(); i++) {
+                spanMs += steps.get(i).spanMs();
+            }
+        }
+    }
+
+    private final ArrayList<Block> blocks = new ArrayList<>();
+    private int size = 0;
+    private double totalSpanMs = 0;
+
+    // 區塊的 Fenwick tree（1-based）：step 數與時間總和；區塊數改變後標記為需要重建
+    private int[] sizeTree = new int[1];
+    private double[] spanTree = new double[1];
+    private boolean treeDirty = false;
+    // locate() 的第二個回傳值：index 在區塊內的位置
+    private int locatedLocal;
+
+    int size() {
+        return size;
+    }
+
+    /** 所有 step 的總時間（ms，不含結尾 tail） */
+    double totalSpanMs() {
+        return totalSpanMs;
+    }
+
+    ScriptStep get(int index) {
+        checkIndex(index, size);
+        int b = locate(index);
+        return blocks.get(b).steps.get(locatedLocal);
+    }
+
+    /** 取出 [offset, offset + count) 範圍內的 step（超出尾端時截斷） */
+    List<ScriptStep> getRange(int offset, int count) {
+        ArrayList<ScriptStep> out = new ArrayList<>(Math.max(0, Math.min(count, size - offset)));
+        if (offset < 0 || offset >= size || count <= 0) return out;
+        int b = locate(offset);
+        int local = locatedLocal;
+        for (; b < blocks.size() && out.size() < count; b++, local = 0) {
+            ArrayList<ScriptStep> steps = blocks.get(b).steps;
+            for (int i = local; i < steps.size() && out.size() < count; i++) {
+                out.add(steps.get(i));
+            }
+        }
+        return out;
+    }
+
+    void addAll(List<ScriptStep> steps) {
+        insert(size, steps);
+    }
+
+    /** 在 index 之前插入多個 step（index == size 代表附加到尾端） */
+    void insert(int index, List<ScriptStep> steps) {
+        checkIndex(index, size + 1);
+        if (steps.isEmpty()) return;
+        if (blocks.isEmpty()) {
+            blocks.add(new Block());
+            treeDirty = true;
+        }
+
+        // 區塊交界處插入到前一個區塊的尾端
+        int b = 0;
+        int local = 0;
+        if (index > 0) {
+            b = locate(index - 1);
+            local = locatedLocal + 1;
+        }
+        Block block = blocks.get(b);
+        block.steps.addAll(local, steps);
+        size += steps.size();
+        double added = 0;
+        for (int i = 0; i < steps.size(); i++) added += steps.get(i).spanMs();
+        block.spanMs += added;
+        totalSpanMs += added;
+        adjust(b, steps.size(), added);
+        splitIfNeeded(b);
+    }
+
+    /** 以新的 step 覆寫從 index 開始的連續範圍 */
+    void update(int index, List<ScriptStep> steps) {
+        if (steps.isEmpty()) return;
+        checkIndex(index, size);
+        checkIndex(index + steps.size() - 1, size);
+        int b = locate(index);
+        int local = locatedLocal;
+        for (int i = 0; i < steps.size(); i++, local++) {
+            Block block = blocks.get(b);
+            if (local >= block.steps.size()) {
+                b++;
+                local = 0;
+                block = blocks.get(b);
+            }
+            ScriptStep old = block.steps.set(local, steps.get(i));
+            double delta = steps.get(i).spanMs() - old.spanMs();
+            block.spanMs += delta;
+            totalSpanMs += delta;
+            adjust(b, 0, delta);
+        }
+    }
+
+    /** 刪除 [index, index + count) */
+    void delete(int index, int count) {
+        checkIndex(index, size);
+        count = Math.min(count, size - index);
+        int b = locate(index);
+        int local = locatedLocal;
+        while (count > 0) {
+            Block block = blocks.get(b);
+            int n = Math.min(count, block.steps.size() - local);
+            List<ScriptStep> range = block.steps.subList(local, local + n);
+            double removed = 0;
+            for (int i = 0; i < range.size(); i++) removed += range.get(i).spanMs();
+            range.clear();
+            block.spanMs -= removed;
+            totalSpanMs -= removed;
+            size -= n;
+            count -= n;
+            adjust(b, -n, -removed);
+            if (block.steps.isEmpty()) {
+                blocks.remove(b);
+                treeDirty = true;
+            } else {
+                b++;
+            }
+            local = 0;
+        }
+    }
+
+    /**
+     * step 開始執行的時間（ms，相對腳本開頭）：前面所有 step 的時間加上自身 delay。
+     */
+    double timeOf(int index) {
+        checkIndex(index, size);
+        int b = locate(index);
+        Block block = blocks.get(b);
+        double t = spanBefore(b);
+        for (int i = 0; i < locatedLocal; i++) t += block.steps.get(i).spanMs();
+        return t + block.steps.get(locatedLocal).delay;
+    }
+
+    /** 在時間 timeMs 之後（含）第一個開始執行的 step；超過結尾時回傳 size */
+    int indexAtTime(double timeMs) {
+        ensureTree();
+        // 二分搜尋：累計時間仍小於 timeMs 的區塊全部略過
+        int n = blocks.size();
+        int first = 0;
+        double t = 0;
+        int base = 0;
+        for (int step = Integer.highestOneBit(Math.max(1, n)); step > 0; step >>= 1) {
+            int next = first + step;
+            if (next <= n && t + spanTree[next] < timeMs) {
+                first = next;
+                t += spanTree[next];
+                base += sizeTree[next];
+            }
+        }
+        for (int b = first; b < blocks.size(); b++) {
+            Block block = blocks.get(b);
+            if (t + block.spanMs >= timeMs) {
+                for (int i = 0; i < block.steps.size(); i++) {
+                    ScriptStep s = block.steps.get(i);
+                    if (t + s.delay >= timeMs) return base + i;
+                    t += s.spanMs();
+                }
+            } else {
+                t += block.spanMs;
+            }
+            base += block.steps.size();
+        }
+        return size;
+    }
+
+    @Override
+    public Iterator<ScriptStep> iterator() {
+        return new Iterator<ScriptStep>() {
+            int b = 0;
+            int i = 0;
+
+            @Override
+            public boolean hasNext() {
+                while (b < blocks.size() && i >= blocks.get(b).steps.size()) {
+                    b++;
+                    i = 0;
+                }
+                return b < blocks.size();
+            }
+
+            @Override
+            public ScriptStep next() {
+                if (!hasNext()) throw new NoSuchElementException();
+                return blocks.get(b).steps.get(i++);
+            }
+        };
+    }
+
+    /** index 所在的區塊（二分搜尋 step 數的 prefix-sum）；區塊內的位置放在 locatedLocal */
+    private int locate(int index) {
+        ensureTree();
+        int n = blocks.size();
+        int pos = 0;
+        int rem = index;
+        for (int step = Integer.highestOneBit(Math.max(1, n)); step > 0; step >>= 1) {
+            int next = pos + step;
+            if (next <= n && sizeTree[next] <= rem) {
+                pos = next;
+                rem -= sizeTree[next];
+            }
+        }
+        locatedLocal = rem;
+        return pos;
+    }
+
+    /** 區塊 b 之前所有區塊的時間總和 */
+    private double spanBefore(int b) {
+        double t = 0;
+        for (int i = b; i > 0; i -= i & -i) t += spanTree[i];
+        return t;
+    }
+
+    /** 區塊 b 的 step 數與時間總和改變（區塊數不變） */
+    private void adjust(int b, int sizeDelta, double spanDelta) {
+        if (treeDirty) return;
+        for (int i = b + 1; i < sizeTree.length; i += i & -i) {
+            sizeTree[i] += sizeDelta;
+            spanTree[i] += spanDelta;
+        }
+    }
+
+    private void ensureTree() {
+        if (!treeDirty) return;
+        int n = blocks.size();
+        sizeTree = new int[n + 1];
+        spanTree = new double[n + 1];
+        for (int i = 1; i <= n; i++) {
+            Block block = blocks.get(i - 1);
+            sizeTree[i] += block.steps.size();
+            spanTree[i] += block.spanMs;
+            int parent = i + (i & -i);
+            if (parent <= n) {
+                sizeTree[parent] += sizeTree[i];
+                spanTree[parent] += spanTree[i];
+            }
+        }
+        treeDirty = false;
+    }
+
+    private void splitIfNeeded(int b) {
+        Block block = blocks.get(b);
+        if (block.steps.size() <= BLOCK_SIZE * 2) return;
+        treeDirty = true;
+
+        // 一次切成多個 BLOCK_SIZE 大小的區塊（大量匯入時只複製一次）
+        ArrayList<ScriptStep> all = new ArrayList<>(block.steps);
+        blocks.remove(b);
+        for (int from = 0; from < all.size(); from += BLOCK_SIZE) {
+            Block chunk = new Block();
+            chunk.steps.addAll(all.subList(from, Math.min(all.size(), from + BLOCK_SIZE)));
+            chunk.recompute();
+            blocks.add(b++, chunk);
+        }
+    }
+
+    private static void checkIndex(int index, int bound) {
+        if (index < 0 || index >= bound) {
+            throw new IndexOutOfBoundsException("index " + index + ", size " + bound);
+        }
+    }
+}
@@ -0,0 +1,146 @@
+package com.jimmyshian.click;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * 精簡匯出格式：逐筆 round-trip、轉回 JSON、自動判斷格式與檔案大小。
+ */
+public class CompactScriptFormatTest {
+
+    private static final String META = "{\"id\":\"song-1\",\"name\":\"Song\",\"loop\":false,\"loopCount\":0}";
+
+    /** 類似樂譜轉換結果的腳本：15 個鍵位、固定節奏、每個 step 一個 UUID */
+    private static List<ScriptStep> song(int n) {
+        List<ScriptStep> steps = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) {
+            ScriptStep s = new ScriptStep();
+            s.id = UUID.randomUUID().toString();
+            int key = (i * 7) % 15;
+            s.x = 120.5f + (key % 5) * 96.25f;
+            s.y = 860f + (key / 5) * 88f;
+            s.delay = i == 0 ? 0 : (i % 4 == 0 ? 0 : 187.5);
+            s.label = "Key" + (key + 1);
+            steps.add(s);
+        }
+        return steps;
+    }
+
+    private static byte[] encode(List<ScriptStep> steps) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        CompactScriptFormat.write(META, steps, out);
+        return out.toByteArray();
+    }
+
+    private static String prettyJson(List<ScriptStep> steps) {
+        StringBuilder sb = new StringBuilder("{\n  \"metadata\": ").append(META).append(",\n  \"steps\": [\n");
+        for (int i = 0; i < steps.size(); i++) {
+            StringBuilder step = new StringBuilder();
+            CompactScriptFormat.appendJson(steps.get(i), step);
+            // JSON.stringify(script, null, 2) 的縮排與換行
+            sb.append("    ").append(step.toString().replace(",\"", ",\n      \"").replace("{\"", "{\n      \""))
+                    .append(i + 1 < steps.size() ? "\n    },\n" : "\n    }\n");
+        }
+        return sb.append("  ]\n}").toString();
+    }
+
+    @Test
+    public void stepsRoundTripIncludingCompositeGestures() throws Exception {
+        List<ScriptStep> steps = song(40);
+        ScriptStep swipe = new ScriptStep();
+        swipe.type = "press-drag";
+        swipe.x = 10.25f;
+        swipe.y = -3f;
+        swipe.hasEnd = true;
+        swipe.endX = 410.75f;
+        swipe.endY = 99.5f;
+        swipe.delay = 1234.567;
+        swipe.holdDuration = 750;
+        swipe.swipeDuration = 420;
+        swipe.repeat = 3;
+        swipe.repeatInterval = 62.5;
+        steps.add(swipe);
+        ScriptStep tap = new ScriptStep();
+        tap.type = "multi-tap";
+        tap.fingers = 3;
+        tap.fingerSpacing = 55.5f;
+        tap.x = 10.25f;
+        tap.y = -3f;
+        steps.add(tap);
+        ScriptStep custom = new ScriptStep();
+        custom.type = "future-gesture";
+        steps.add(custom);
+
+        try (CompactScriptFormat.Reader r = new CompactScriptFormat.Reader(
+                new ByteArrayInputStream(encode(steps)))) {
+            assertEquals(META, r.metadataJson());
+            for (int i = 0; i < steps.size(); i++) {
+                ScriptStep want = steps.get(i);
+                ScriptStep got = r.next();
+                assertNotNull("step " + i, got);
+                assertEquals(want.type, got.type);
+                assertEquals(want.label, got.label);
+                assertEquals(want.x, got.x, 0.005f);
+                assertEquals(want.y, got.y, 0.005f);
+                assertEquals(want.delay, got.delay, 0.0005);
+                assertEquals(want.hasEnd, got.hasEnd);
+                assertEquals(want.endX, got.endX, 0.005f);
+                assertEquals(want.endY, got.endY, 0.005f);
+                assertEquals(want.repeat, got.repeat);
+                assertEquals(want.repeatInterval, got.repeatInterval, 0.0005);
+                assertEquals(want.holdDuration, got.holdDuration);
+                assertEquals(want.swipeDuration, got.swipeDuration);
+                assertEquals(want.fingers, got.fingers);
+                assertEquals(want.fingerSpacing, got.fingerSpacing, 0.005f);
+            }
+            assertNull(r.next());
+            assertNull(r.next());
+        }
+    }
+
+    @Test
+    public void importDetectsCompactContentAndRestoresJson() throws Exception {
+        List<ScriptStep> steps = song(3);
+        byte[] compact = encode(steps);
+        assertTrue(CompactScriptFormat.isCompact(compact));
+        assertFalse(CompactScriptFormat.isCompact("{\"steps\":[]}".getBytes("UTF-8")));
+
+        String json = SheetConverter.decode(compact);
+        assertTrue(json, json.startsWith("{\"metadata\":" + META + ",\"steps\":[{\"id\":\"s0\",\"x\":120.5,"));
+        assertTrue(json, json.contains("{\"id\":\"s1\",\"x\":313,\"y\":948,\"delay\":187.5,\"type\":\"click\","
+                + "\"label\":\"Key8\",\"repeat\":1,\"repeatInterval\":100}"));
+        assertTrue(json, json.endsWith("}]}"));
+    }
+
+    @Test
+    public void songScriptIsAnOrderOfMagnitudeSmaller() throws Exception {
+        List<ScriptStep> steps = song(5000);
+        byte[] compact = encode(steps);
+        int json = prettyJson(steps).getBytes("UTF-8").length;
+        assertTrue("compact " + compact.length + " vs json " + json, compact.length * 10 < json);
+    }
+
+    @Test
+    public void truncatedFileIsRejected() throws Exception {
+        byte[] compact = encode(song(200));
+        byte[] cut = new byte[compact.length / 2];
+        System.arraycopy(compact, 0, cut, 0, cut.length);
+        try (CompactScriptFormat.Reader r = new CompactScriptFormat.Reader(new ByteArrayInputStream(cut))) {
+            while (r.next() != null) {
+                // 讀到截斷處
+            }
+            fail("truncated stream should fail");
+        } catch (IOException expected) {
+            // EOFException / gzip 的 "Unexpected end of ZLIB input stream"
+        }
+        assertEquals("", SheetConverter.decode(cut));
+    }
+}
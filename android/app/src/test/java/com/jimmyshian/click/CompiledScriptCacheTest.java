@@ -0,0 +1,117 @@
+package com.jimmyshian.click;
+
+import static org.junit.Assert.*;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * CompiledScriptCache：命中 / 未命中、LRU 淘汰、容量上限與重新開啟後的持久性。
+ */
+public class CompiledScriptCacheTest {
+
+    private File dir;
+
+    @Before
+    public void setUp() throws Exception {
+        dir = File.createTempFile("compiled-cache", "");
+        assertTrue(dir.delete());
+    }
+
+    @After
+    public void tearDown() {
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File f : files) f.delete();
+        }
+        dir.delete();
+    }
+
+    private static String value(char c, int length) {
+        StringBuilder sb = new StringBuilder(length);
+        for (int i = 0; i < length; i++) sb.append(c);
+        return sb.toString();
+    }
+
+    @Test
+    public void missThenHit() {
+        CompiledScriptCache cache = new CompiledScriptCache(dir, 1024);
+        String key = CompiledScriptCache.key("v1", "layout", "song");
+        assertNull(cache.get(key));
+        cache.put(key, "[1,2,3]");
+        assertEquals("[1,2,3]", cache.get(key));
+        assertEquals(1, cache.getHits());
+        assertEquals(1, cache.getMisses());
+        assertEquals(1, cache.entryCount());
+        assertEquals(7, cache.sizeBytes());
+    }
+
+    @Test
+    public void keyDependsOnEveryPart() {
+        String a = CompiledScriptCache.key("v1", "layoutA", "song");
+        assertEquals(a, CompiledScriptCache.key("v1", "layoutA", "song"));
+        assertFalse(a.equals(CompiledScriptCache.key("v1", "layoutB", "song")));
+        assertFalse(a.equals(CompiledScriptCache.key("v2", "layoutA", "song")));
+        // 分隔符讓 ("ab", "c") 與 ("a", "bc") 不同
+        assertFalse(CompiledScriptCache.key("ab", "c").equals(CompiledScriptCache.key("a", "bc")));
+        assertEquals(64, CompiledScriptCache.hash("x".getBytes(StandardCharsets.UTF_8)).length());
+    }
+
+    @Test
+    public void evictsLeastRecentlyUsedOverBudget() {
+        CompiledScriptCache cache = new CompiledScriptCache(dir, 250);
+        cache.put("a", value('a', 100));
+        cache.put("b", value('b', 100));
+        // 讀取 a 之後 b 成為最久未使用
+        assertNotNull(cache.get("a"));
+        cache.put("c", value('c', 100));
+
+        assertEquals(2, cache.entryCount());
+        assertEquals(200, cache.sizeBytes());
+        assertEquals(1, cache.getEvictions());
+        assertNotNull(cache.get("a"));
+        assertNull(cache.get("b"));
+        assertNotNull(cache.get("c"));
+        assertFalse(new File(dir, "b.bin").exists());
+    }
+
+    @Test
+    public void oversizedValueIsNotStored() {
+        CompiledScriptCache cache = new CompiledScriptCache(dir, 10);
+        cache.put("big", value('x', 11));
+        assertEquals(0, cache.entryCount());
+        assertNull(cache.get("big"));
+    }
+
+    @Test
+    public void entriesSurviveReopen() {
+        CompiledScriptCache first = new CompiledScriptCache(dir, 1024);
+        first.put("k1", "one");
+        first.put("k2", "two");
+
+        CompiledScriptCache second = new CompiledScriptCache(dir, 1024);
+        assertEquals(2, second.entryCount());
+        assertEquals(6, second.sizeBytes());
+        assertEquals("two", second.get("k2"));
+
+        second.clear();
+        assertEquals(0, second.entryCount());
+        assertEquals(0, new CompiledScriptCache(dir, 1024).entryCount());
+    }
+
+    @Test
+    public void resultRoundTripsThroughCacheFormat() {
+        SheetConverter.Result r = new SheetConverter.Result("Converted: \"歌\"\n2", "[{\"id\":\"n0\"}]", 1, 1234.5);
+        SheetConverter.Result back = SheetConverter.Result.deserialize(r.serialize());
+        assertNotNull(back);
+        assertEquals(r.name, back.name);
+        assertEquals(r.stepsJson, back.stepsJson);
+        assertEquals(1, back.steps);
+        assertEquals(1235, back.durationMs());
+        assertNull(SheetConverter.Result.deserialize("garbage"));
+    }
+}
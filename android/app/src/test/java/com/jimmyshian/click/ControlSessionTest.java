@@ -0,0 +1,236 @@
+package com.jimmyshian.click;
+
+import static org.junit.Assert.*;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 以 127.0.0.1 上的 TCP socket 代替裝置的 abstract socket，
+ * 讓 ControlClient 與 ControlSession 走完整的 frame 協定。
+ */
+public class ControlSessionTest {
+
+    /** 記錄收到的命令的 Target 替身 */
+    private static final class FakeTarget implements ControlSession.Target {
+        final List<String> calls = new ArrayList<>();
+        String playing;
+        String layout;
+        final LinkedBlockingQueue<String> notes = new LinkedBlockingQueue<>();
+
+        @Override
+        public synchronized String upload(String scriptJson) throws Exception {
+            if (!scriptJson.startsWith("{")) throw new IllegalArgumentException("not a script");
+            calls.add("upload " + scriptJson.length());
+            return "script-1";
+        }
+
+        @Override
+        public synchronized boolean start(String scriptId, float speed, int startIndex) {
+            calls.add("start " + scriptId + " " + speed + " " + startIndex);
+            if (!"script-1".equals(scriptId)) return false;
+            playing = scriptId;
+            return true;
+        }
+
+        @Override
+        public synchronized void stop() {
+            calls.add("stop");
+            playing = null;
+        }
+
+        @Override
+        public synchronized boolean seek(int stepIndex) {
+            calls.add("seek " + stepIndex);
+            return playing != null;
+        }
+
+        @Override
+        public String metricsJson() {
+            return "{\"count\":3}";
+        }
+
+        @Override
+        public synchronized boolean live(String layoutJson) {
+            calls.add(layoutJson.isEmpty() ? "live off" : "live");
+            layout = layoutJson.isEmpty() ? null : layoutJson;
+            return true;
+        }
+
+        @Override
+        public void notes(int[] keys, long[] senderNs, int count, long receivedNs) {
+            StringBuilder sb = new StringBuilder();
+            for (int i = 0; i < count; i++) {
+                if (i > 0) sb.append(' ');
+                sb.append(keys[i]).append('@').append(senderNs[i]);
+            }
+            notes.add(sb.toString());
+        }
+    }
+
+    private ServerSocket listener;
+    private FakeTarget target;
+    private final LinkedBlockingQueue<ControlSession> sessions = new LinkedBlockingQueue<>();
+    private ControlClient client;
+
+    @Before
+    public void setUp() throws Exception {
+        target = new FakeTarget();
+        listener = new ServerSocket(0, 1, InetAddress.getLoopbackAddress());
+        Thread accept = new Thread(() -> {
+            try {
+                Socket s = listener.accept();
+                ControlSession session = new ControlSession(s.getInputStream(), s.getOutputStream(), s, target);
+                sessions.add(session);
+                session.run();
+            } catch (IOException ignored) {
+                // 測試結束
+            }
+        });
+        accept.setDaemon(true);
+        accept.start();
+        client = ControlClient.connect("127.0.0.1", listener.getLocalPort());
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        client.close();
+        listener.close();
+    }
+
+    @Test
+    public void handshakeReportsProtocolVersion() {
+        assertEquals(ControlProtocol.VERSION, client.getDeviceVersion());
+    }
+
+    @Test
+    public void uploadStartSeekStopReachTarget() throws Exception {
+        String id = client.upload("{\"steps\":[]}");
+        assertEquals("script-1", id);
+        client.start(id, 2f, 3);
+        client.seek(7);
+        client.stop();
+        synchronized (target) {
+            assertEquals(4, target.calls.size());
+            assertEquals("start script-1 2.0 3", target.calls.get(1));
+            assertEquals("seek 7", target.calls.get(2));
+            assertEquals("stop", target.calls.get(3));
+        }
+    }
+
+    @Test
+    public void failuresComeBackAsControlException() throws Exception {
+        try {
+            client.start("missing", 1f, 0);
+            fail("start of unknown script should fail");
+        } catch (ControlClient.ControlException expected) {
+            assertTrue(expected.getMessage().contains("missing"));
+        }
+        try {
+            client.upload("garbage");
+            fail("bad upload should fail");
+        } catch (ControlClient.ControlException expected) {
+            assertEquals("not a script", expected.getMessage());
+        }
+        try {
+            client.seek(1);
+            fail("seek without playback should fail");
+        } catch (ControlClient.ControlException expected) {
+            assertEquals("nothing playing", expected.getMessage());
+        }
+        // 連線在失敗後仍可使用
+        assertEquals("script-1", client.upload("{}"));
+    }
+
+    @Test
+    public void subscriberReceivesProgressFinishedAndMetrics() throws Exception {
+        LinkedBlockingQueue<String> events = new LinkedBlockingQueue<>();
+        client.setListener(new ControlClient.Listener() {
+            @Override
+            public void onProgress(int trackId, int stepIndex, int loopIndex, long deviceTimeNs) {
+                events.add("progress " + trackId + " " + stepIndex + " " + loopIndex + " " + deviceTimeNs);
+            }
+
+            @Override
+            public void onFinished(int trackId, boolean cancelled, String statsJson) {
+                events.add("finished " + trackId + " " + cancelled + " " + statsJson);
+            }
+
+            @Override
+            public void onMetrics(String metricsJson) {
+                events.add("metrics " + metricsJson);
+            }
+        });
+        ControlSession session = sessions.poll(5, TimeUnit.SECONDS);
+        assertNotNull(session);
+
+        // 訂閱前的推播不會送出
+        session.pushProgress(0, 1, 0, 10L);
+        client.subscribe(true);
+        session.pushProgress(0, 2, 1, 20L);
+        session.pushFinished(0, false, "{\"meanUs\":5}");
+
+        assertEquals("progress 0 2 1 20", nextNonMetrics(events));
+        assertEquals("finished 0 false {\"meanUs\":5}", nextNonMetrics(events));
+
+        String metrics = null;
+        for (int i = 0; i < 5 && metrics == null; i++) {
+            String e = events.poll(1500, TimeUnit.MILLISECONDS);
+            if (e != null && e.startsWith("metrics ")) metrics = e;
+        }
+        assertEquals("metrics {\"count\":3,\"droppedFrames\":0}", metrics);
+    }
+
+    @Test
+    public void liveNotesStreamWithoutResults() throws Exception {
+        client.live("{\"steps\":[]}");
+        client.notes(new int[]{1, 5, 8}, new long[]{100L, 100L, 100L});
+        client.notes(new int[]{15}, new long[]{250L});
+        assertEquals("1@100 5@100 8@100", target.notes.poll(5, TimeUnit.SECONDS));
+        assertEquals("15@250", target.notes.poll(5, TimeUnit.SECONDS));
+        // 音符不回 RESULT：之後的請求拿到的是自己的回應
+        assertEquals("script-1", client.upload("{}"));
+        client.stopLive();
+        synchronized (target) {
+            assertEquals("live", target.calls.get(0));
+            assertEquals("live off", target.calls.get(2));
+            assertNull(target.layout);
+        }
+    }
+
+    @Test
+    public void oversizedFrameIsRejected() throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeByte(ControlProtocol.UPLOAD);
+        out.writeInt(ControlProtocol.MAX_PAYLOAD + 1);
+        try {
+            ControlProtocol.read(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+            fail("frame over the payload limit should be rejected");
+        } catch (IOException expected) {
+            assertTrue(expected.getMessage().startsWith("Bad frame length"));
+        }
+    }
+
+    private static String nextNonMetrics(LinkedBlockingQueue<String> events) throws InterruptedException {
+        while (true) {
+            String e = events.poll(5, TimeUnit.SECONDS);
+            if (e == null) return null;
+            if (!e.startsWith("metrics ")) return e;
+        }
+    }
+}
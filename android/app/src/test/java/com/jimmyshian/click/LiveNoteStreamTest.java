@@ -0,0 +1,156 @@
+package com.jimmyshian.click;
+
+import static org.junit.Assert.*;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 以虛擬時鐘驗證即時模式：和弦合併、依傳送端間隔排列、進行中手勢的延後與延遲統計
+ * （含系統回報取消的手勢）。
+ */
+public class LiveNoteStreamTest {
+
+    private static final long MS = 1_000_000L;
+    private static final long T0 = 1_000 * MS;
+
+    /** 送出的一個手勢（複製 GestureBatch 的內容） */
+    private static final class Dispatch {
+        final long timeNs;
+        final float[] x;
+        final long[] startMs;
+
+        Dispatch(long timeNs, GestureBatch batch) {
+            this.timeNs = timeNs;
+            this.x = new float[batch.count];
+            this.startMs = new long[batch.count];
+            for (int i = 0; i < batch.count; i++) {
+                x[i] = batch.x[i];
+                startMs[i] = batch.startMs[i];
+            }
+        }
+    }
+
+    private VirtualPlaybackClock clock;
+    private List<Dispatch> dispatched;
+    private LiveNoteStream live;
+    // 系統回報的手勢結果（true = 取消）
+    private boolean cancelResults;
+
+    @Before
+    public void setUp() {
+        clock = new VirtualPlaybackClock(T0);
+        dispatched = new ArrayList<>();
+        live = new LiveNoteStream(clock, batch -> {
+            dispatched.add(new Dispatch(clock.nanoTime(), batch));
+            // 系統的結果回呼在手勢結束後才到，與裝置相同
+            boolean cancelled = cancelResults;
+            clock.wakeAt(clock.nanoTime() + batch.endMs() * MS, () -> live.onGestureResult(cancelled));
+            return true;
+        }, 10);
+        // Key n 的 x 座標 = n * 10
+        float[] x = new float[15];
+        float[] y = new float[15];
+        for (int i = 0; i < 15; i++) {
+            x[i] = (i + 1) * 10f;
+            y[i] = 500f;
+        }
+        live.start(new SheetConverter.Layout(x, y));
+        clock.advanceBy(0);
+    }
+
+    /** 傳送端以 sentNs 送出一批音符，裝置端在目前時間收到 */
+    private void send(long sentNs, int... keys) {
+        long[] times = new long[keys.length];
+        for (int i = 0; i < keys.length; i++) times[i] = sentNs;
+        live.offer(keys, times, keys.length, clock.nanoTime());
+    }
+
+    @Test
+    public void chordBecomesOneGestureWithoutWaiting() {
+        send(5 * MS, 1, 5, 8);
+        clock.advanceBy(0);
+
+        assertEquals(1, dispatched.size());
+        Dispatch d = dispatched.get(0);
+        assertEquals(T0, d.timeNs);
+        assertArrayEquals(new float[]{10f, 50f, 80f}, d.x, 0f);
+        assertArrayEquals(new long[]{0, 0, 0}, d.startMs);
+        assertTrue(live.toJson().contains("\"notes\":3,\"gestures\":1"));
+    }
+
+    @Test
+    public void notesArrivingTogetherKeepSenderSpacing() {
+        // 兩個和弦在同一次 drain 前到達：第二個依傳送端間隔（40ms）放在同一個手勢裡
+        send(0, 1);
+        send(2 * MS, 2);
+        send(40 * MS, 3);
+        clock.advanceBy(0);
+
+        assertEquals(1, dispatched.size());
+        assertArrayEquals(new long[]{0, 0, 40}, dispatched.get(0).startMs);
+    }
+
+    @Test
+    public void noteDuringInFlightGestureWaitsForItToEnd() {
+        send(0, 1);
+        clock.advanceBy(0);
+        clock.advanceBy(10 * MS);
+        send(10 * MS, 2);
+        clock.advanceBy(100 * MS);
+
+        assertEquals(2, dispatched.size());
+        assertEquals(T0 + LiveNoteStream.TAP_MS * MS, dispatched.get(1).timeNs);
+        String json = live.toJson();
+        assertTrue(json, json.contains("\"deferred\":1"));
+        // 第二個音符：收到後 20ms 才按下
+        assertTrue(json, json.contains("\"maxMs\":20.000"));
+    }
+
+    @Test
+    public void cancelledGestureIsNotCountedAsLanded() {
+        cancelResults = true;
+        send(0, 1, 2);
+        clock.advanceBy(0);
+        String pending = live.toJson();
+        assertTrue(pending, pending.contains("\"count\":0"));
+        clock.advanceBy(100 * MS);
+
+        String json = live.toJson();
+        assertTrue(json, json.contains("\"count\":0"));
+        assertTrue(json, json.contains("\"cancelled\":1"));
+
+        cancelResults = false;
+        send(100 * MS, 3);
+        clock.advanceBy(100 * MS);
+        json = live.toJson();
+        assertTrue(json, json.contains("\"count\":1"));
+        assertTrue(json, json.contains("\"cancelled\":1"));
+    }
+
+    @Test
+    public void unknownKeysAndDuplicatesInChordAreSkipped() {
+        send(0, 0, 3, 3, 16);
+        clock.advanceBy(0);
+
+        assertEquals(1, dispatched.size());
+        assertArrayEquals(new float[]{30f}, dispatched.get(0).x, 0f);
+        String json = live.toJson();
+        assertTrue(json, json.contains("\"unmapped\":2"));
+        assertTrue(json, json.contains("\"merged\":1"));
+    }
+
+    @Test
+    public void stoppedStreamIgnoresNotes() {
+        live.stop();
+        clock.advanceBy(0);
+        send(0, 1);
+        clock.advanceBy(100 * MS);
+
+        assertFalse(live.isRunning());
+        assertEquals(0, dispatched.size());
+    }
+}
@@ -0,0 +1,465 @@
+package com.jimmyshian.click;
+
+import static org.junit.Assert.*;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 以虛擬時鐘重播腳本，驗證 PlaybackScheduler 的送出時間、stroke 合併、循環次數與取消處理。
+ */
+public class PlaybackSchedulerTest {
+
+    private static final long MS = 1_000_000L;
+    private static final long T0 = 1_000 * MS;
+    private static final long LIMIT = T0 + 3_600_000 * MS;
+
+    /** 送出的一個手勢（複製 GestureBatch 的內容） */
+    private static final class Dispatch {
+        final long timeNs;
+        final float[] x;
+        final long[] startMs;
+        final long[] durationMs;
+        final int[] continuesFrom;
+        final int[] trackId;
+        final int[] stepIndex;
+
+        Dispatch(long timeNs, GestureBatch batch) {
+            this.timeNs = timeNs;
+            this.x = new float[batch.count];
+            this.startMs = new long[batch.count];
+            this.durationMs = new long[batch.count];
+            this.continuesFrom = new int[batch.count];
+            this.trackId = new int[batch.count];
+            this.stepIndex = new int[batch.count];
+            for (int i = 0; i < batch.count; i++) {
+                x[i] = batch.x[i];
+                startMs[i] = batch.startMs[i];
+                durationMs[i] = batch.durationMs[i];
+                continuesFrom[i] = batch.continuesFrom[i];
+                trackId[i] = batch.trackId[i];
+                stepIndex[i] = batch.stepIndex[i];
+            }
+        }
+
+        int strokes() {
+            return startMs.length;
+        }
+    }
+
+    private static final class Finish {
+        final int trackId;
+        final JitterStats stats;
+        final boolean cancelled;
+
+        Finish(int trackId, JitterStats stats, boolean cancelled) {
+            this.trackId = trackId;
+            this.stats = stats;
+            this.cancelled = cancelled;
+        }
+    }
+
+    private VirtualPlaybackClock clock;
+    private PlaybackScheduler scheduler;
+    private final List<Dispatch> dispatches = new ArrayList<>();
+    private final List<int[]> progress = new ArrayList<>();
+    private final List<Finish> finishes = new ArrayList<>();
+    // 模擬裝置：與前一個手勢間隔小於此值時回報取消（0 = 永不取消）
+    private long deviceMinGapNs = 0;
+    private long lastDispatchNs = -1;
+
+    @Before
+    public void setUp() {
+        clock = new VirtualPlaybackClock(T0);
+        scheduler = newScheduler(10);
+    }
+
+    private PlaybackScheduler newScheduler(int maxStrokes) {
+        return new PlaybackScheduler(clock, batch -> {
+            long now = clock.nanoTime();
+            dispatches.add(new Dispatch(now, batch));
+            boolean cancelled = lastDispatchNs >= 0 && now - lastDispatchNs < deviceMinGapNs;
+            lastDispatchNs = now;
+            // 系統的結果回呼在稍後才到，與裝置相同
+            clock.post(() -> scheduler.onGestureResult(cancelled));
+            return true;
+        }, new PlaybackScheduler.Listener() {
+            @Override
+            public void onProgress(int trackId, int stepIndex, int loopIndex) {
+                progress.add(new int[]{trackId, stepIndex, loopIndex});
+            }
+
+            @Override
+            public void onFinished(int trackId, JitterStats stats, boolean cancelled) {
+                finishes.add(new Finish(trackId, stats, cancelled));
+            }
+        }, maxStrokes);
+    }
+
+    private static ScriptTimeline timeline(boolean loop, int loopCount, float speed, double... delays) {
+        StepBlockList steps = new StepBlockList();
+        List<ScriptStep> list = new ArrayList<>();
+        for (int i = 0; i < delays.length; i++) {
+            ScriptStep s = new ScriptStep();
+            s.id = "s" + i;
+            s.x = i;
+            s.y = i;
+            s.delay = delays[i];
+            list.add(s);
+        }
+        steps.addAll(list);
+        return ScriptTimeline.compile("test", loop, loopCount, 0, steps, speed,
+                (x, y) -> new float[]{x, y});
+    }
+
+    private static ScriptTimeline single(ScriptStep s) {
+        StepBlockList steps = new StepBlockList();
+        List<ScriptStep> list = new ArrayList<>();
+        list.add(s);
+        steps.addAll(list);
+        return ScriptTimeline.compile("test", false, 0, 0, steps, 1f, (x, y) -> new float[]{x, y});
+    }
+
+    private static ScriptStep composite(String type, double delay) {
+        ScriptStep s = new ScriptStep();
+        s.type = type;
+        s.x = 100;
+        s.y = 200;
+        s.delay = delay;
+        return s;
+    }
+
+    /** 每個 stroke 的實際開始時間（手勢送出時間 + stroke 偏移） */
+    private List<Long> strokeTimes() {
+        List<Long> out = new ArrayList<>();
+        for (Dispatch d : dispatches) {
+            for (int i = 0; i < d.strokes(); i++) {
+                out.add(d.timeNs + d.startMs[i] * MS);
+            }
+        }
+        return out;
+    }
+
+    @Test
+    public void tapsFireAtAbsoluteDeadlines() {
+        scheduler.start(timeline(false, 0, 1f, 100, 200, 300), 0);
+        clock.runUntilIdle(LIMIT);
+
+        assertEquals(3, dispatches.size());
+        assertEquals(T0 + 100 * MS, dispatches.get(0).timeNs);
+        assertEquals(T0 + 300 * MS, dispatches.get(1).timeNs);
+        assertEquals(T0 + 600 * MS, dispatches.get(2).timeNs);
+
+        assertEquals(1, finishes.size());
+        Finish f = finishes.get(0);
+        assertFalse(f.cancelled);
+        assertEquals(3, f.stats.getCount());
+        assertEquals(0, f.stats.getMaxAbsNs());
+        // 一輪 = 600ms + 最短 tail 500ms，結束時間沒有誤差
+        assertEquals(0, f.stats.getEndErrorNs());
+        assertEquals(T0 + 1100 * MS, clock.nanoTime());
+    }
+
+    @Test
+    public void startFromMiddleStepKeepsItsOwnDelay() {
+        scheduler.start(timeline(false, 0, 1f, 100, 200, 300), 2);
+        clock.runUntilIdle(LIMIT);
+
+        assertEquals(1, dispatches.size());
+        assertEquals(T0 + 300 * MS, dispatches.get(0).timeNs);
+        assertEquals(2, dispatches.get(0).stepIndex[0]);
+    }
+
+    @Test
+    public void speedScalesOffsets() {
+        scheduler.start(timeline(false, 0, 2f, 100, 200), 0);
+        clock.runUntilIdle(LIMIT);
+
+        assertEquals(2, dispatches.size());
+        assertEquals(T0 + 50 * MS, dispatches.get(0).timeNs);
+        assertEquals(T0 + 150 * MS, dispatches.get(1).timeNs);
+    }
+
+    @Test
+    public void overlappingEventsShareOneGesture() {
+        // tap 持續 100ms：40ms 後的 tap 必須放進同一個手勢，否則會取消前一個
+        scheduler.start(timeline(false, 0, 1f, 0, 40, 300), 0);
+        clock.runUntilIdle(LIMIT);
+
+        assertEquals(2, dispatches.size());
+        Dispatch chord = dispatches.get(0);
+        assertEquals(T0, chord.timeNs);
+        assertArrayEquals(new long[]{0, 40}, chord.startMs);
+        assertArrayEquals(new int[]{0, 1}, chord.stepIndex);
+        assertEquals(T0 + 340 * MS, dispatches.get(1).timeNs);
+        assertEquals(2, finishes.get(0).stats.getMergedCount());
+    }
+
+    @Test
+    public void fullBatchDefersInsteadOfPreempting() {
+        scheduler = newScheduler(1);
+        scheduler.start(timeline(false, 0, 1f, 0, 40), 0);
+        clock.runUntilIdle(LIMIT);
+
+        // stroke 上限 1：第二個 tap 等第一個手勢（100ms）結束才送出
+        assertEquals(2, dispatches.size());
+        assertEquals(T0, dispatches.get(0).timeNs);
+        assertEquals(T0 + 100 * MS, dispatches.get(1).timeNs);
+        assertEquals(1, finishes.get(0).stats.getDeferredCount());
+    }
+
+    @Test
+    public void loopsRunConfiguredCount() {
+        // 一輪 = 100ms + tail 500ms
+        scheduler.start(timeline(true, 3, 1f, 100), 0);
+        clock.runUntilIdle(LIMIT);
+
+        assertEquals(3, dispatches.size());
+        for (int loop = 0; loop < 3; loop++) {
+            assertEquals(T0 + (100 + loop * 600) * MS, dispatches.get(loop).timeNs);
+            assertEquals(loop, progress.get(loop)[2]);
+        }
+        assertEquals(1, finishes.size());
+        assertFalse(finishes.get(0).cancelled);
+        assertEquals(3, finishes.get(0).stats.getCount());
+        assertEquals(T0 + 1800 * MS, clock.nanoTime());
+    }
+
+    @Test
+    public void resumeStartsAtGivenLoop() {
+        scheduler.start(timeline(true, 3, 1f, 100), 0, 2);
+        clock.runUntilIdle(LIMIT);
+
+        assertEquals(1, dispatches.size());
+        assertEquals(2, progress.get(0)[2]);
+    }
+
+    @Test
+    public void stopCancelsPendingEvents() {
+        scheduler.start(timeline(false, 0, 1f, 100, 200, 300), 0);
+        clock.advanceTo(T0 + 150 * MS);
+        scheduler.stop();
+        clock.runUntilIdle(LIMIT);
+
+        assertEquals(1, dispatches.size());
+        assertEquals(1, finishes.size());
+        assertTrue(finishes.get(0).cancelled);
+        assertFalse(scheduler.isRunning());
+    }
+
+    @Test
+    public void restartReplacesMainTrackOnly() {
+        int bg = scheduler.startBackground(timeline(false, 0, 1f, 500), false, 0);
+        scheduler.start(timeline(false, 0, 1f, 100, 200), 0);
+        clock.advanceTo(T0 + 150 * MS);
+        scheduler.start(timeline(false, 0, 1f, 1000), 0);
+        clock.runUntilIdle(LIMIT);
+
+        // 第一個前景腳本被取消，背景 track 照常完成
+        assertEquals(3, finishes.size());
+        assertEquals(PlaybackScheduler.MAIN_TRACK_ID, finishes.get(0).trackId);
+        assertTrue(finishes.get(0).cancelled);
+        assertEquals(bg, finishes.get(1).trackId);
+        assertFalse(finishes.get(1).cancelled);
+        assertFalse(finishes.get(2).cancelled);
+        assertEquals(T0 + 500 * MS, dispatches.get(1).timeNs);
+        assertEquals(T0 + 1150 * MS, dispatches.get(2).timeNs);
+    }
+
+    @Test
+    public void concurrentTracksMergeIntoOneGesture() {
+        int bg = scheduler.startBackground(timeline(false, 0, 1f, 130), false, 0);
+        scheduler.start(timeline(false, 0, 1f, 100), 0);
+        clock.runUntilIdle(LIMIT);
+
+        assertEquals(1, dispatches.size());
+        Dispatch d = dispatches.get(0);
+        assertEquals(T0 + 100 * MS, d.timeNs);
+        assertArrayEquals(new int[]{PlaybackScheduler.MAIN_TRACK_ID, bg}, d.trackId);
+        assertArrayEquals(new long[]{0, 30}, d.startMs);
+        assertEquals(2, finishes.size());
+    }
+
+    @Test
+    public void cancellationsTeachRateLimitAndLaterTapsMerge() {
+        // 裝置每 150ms 只能接受一個手勢；腳本每 120ms 一個 tap
+        deviceMinGapNs = 150 * MS;
+        double[] delays = new double[20];
+        for (int i = 0; i < delays.length; i++) delays[i] = 120;
+        scheduler.start(timeline(false, 0, 1f, delays), 0);
+        clock.runUntilIdle(LIMIT);
+
+        JitterStats stats = finishes.get(0).stats;
+        assertTrue("cancelled=" + stats.getCancelledCount(), stats.getCancelledCount() <= 2);
+        assertTrue(stats.getDropsAvoided() > 0);
+        assertTrue(dispatches.size() < delays.length);
+        // 合併不改變每個 tap 的時間
+        List<Long> times = strokeTimes();
+        assertEquals(delays.length, times.size());
+        for (int i = 0; i < times.size(); i++) {
+            assertEquals(T0 + (i + 1) * 120 * MS, (long) times.get(i));
+        }
+        // 學到限制之後，相鄰兩個手勢的間隔都不小於裝置上限
+        for (int i = 3; i < dispatches.size(); i++) {
+            assertTrue(dispatches.get(i).timeNs - dispatches.get(i - 1).timeNs >= deviceMinGapNs);
+        }
+    }
+
+    @Test
+    public void doubleTapIsOneGestureWithFixedGap() {
+        scheduler.start(single(composite("double-click", 100)), 0);
+        clock.runUntilIdle(LIMIT);
+
+        assertEquals(1, dispatches.size());
+        Dispatch d = dispatches.get(0);
+        assertEquals(T0 + 100 * MS, d.timeNs);
+        assertArrayEquals(new long[]{0, 150}, d.startMs);
+        assertArrayEquals(new long[]{50, 50}, d.durationMs);
+        assertEquals(1, finishes.get(0).stats.getCount());
+        assertEquals(0, finishes.get(0).stats.getMergedCount());
+    }
+
+    @Test
+    public void multiTapSpreadsFingersAroundCenter() {
+        ScriptStep s = composite("multi-tap", 0);
+        s.fingers = 3;
+        s.fingerSpacing = 40;
+        scheduler.start(single(s), 0);
+        clock.runUntilIdle(LIMIT);
+
+        Dispatch d = dispatches.get(0);
+        assertArrayEquals(new float[]{60, 100, 140}, d.x, 0.001f);
+        assertArrayEquals(new long[]{0, 0, 0}, d.startMs);
+    }
+
+    @Test
+    public void multiTapFingersAreClampedToStrokeLimit() {
+        ScriptStep s = composite("multi-tap", 0);
+        s.fingers = ScriptTimeline.MAX_FINGERS + 5;
+        s.fingerSpacing = 40;
+        scheduler = newScheduler(ScriptTimeline.MAX_FINGERS);
+        scheduler.start(single(s), 0);
+        clock.runUntilIdle(LIMIT);
+
+        assertEquals(1, dispatches.size());
+        Dispatch d = dispatches.get(0);
+        assertEquals(ScriptTimeline.MAX_FINGERS, d.x.length);
+        // 截斷後仍以中心點對稱排開（沒截斷時多出的 stroke 從右側被丟掉）
+        assertEquals(200, d.x[0] + d.x[d.x.length - 1], 0.001f);
+    }
+
+    @Test
+    public void pressDragContinuesHoldAndIsNotMerged() {
+        ScriptStep s = composite("press-drag", 100);
+        s.hasEnd = true;
+        s.endX = 300;
+        s.endY = 200;
+        s.holdDuration = 600;
+        s.swipeDuration = 200;
+        int bg = scheduler.startBackground(timeline(false, 0, 1f, 150), false, 0);
+        scheduler.start(single(s), 0);
+        clock.runUntilIdle(LIMIT);
+
+        assertEquals(2, dispatches.size());
+        Dispatch drag = dispatches.get(0);
+        assertEquals(T0 + 100 * MS, drag.timeNs);
+        assertArrayEquals(new long[]{0, 600}, drag.startMs);
+        assertArrayEquals(new long[]{600, 200}, drag.durationMs);
+        assertArrayEquals(new int[]{-1, 0}, drag.continuesFrom);
+        // 背景 tap 等按住拖曳整段結束才送出
+        assertEquals(bg, dispatches.get(1).trackId[0]);
+        assertEquals(T0 + 900 * MS, dispatches.get(1).timeNs);
+    }
+
+    @Test
+    public void programTrackMatchesExpandedLoops() {
+        // 一輪 = 100ms + tail 500ms，與 loopsRunConfiguredCount 相同但由 VM 產生事件
+        StepBlockList steps = new StepBlockList();
+        List<ScriptStep> list = new ArrayList<>();
+        list.add(composite("click", 100));
+        steps.addAll(list);
+        scheduler.start(ScriptAssembler.assemble("test", true, 3, 0, steps, null,
+                (x, y) -> new float[]{x, y}), 1f);
+        clock.runUntilIdle(LIMIT);
+
+        assertEquals(3, dispatches.size());
+        for (int loop = 0; loop < 3; loop++) {
+            assertEquals(T0 + (100 + loop * 600) * MS, dispatches.get(loop).timeNs);
+            assertEquals(loop, progress.get(loop)[2]);
+        }
+        assertEquals(1, finishes.size());
+        assertFalse(finishes.get(0).cancelled);
+        assertEquals(0, finishes.get(0).stats.getEndErrorNs());
+        assertEquals(T0 + 1800 * MS, clock.nanoTime());
+    }
+
+    @Test
+    public void lowPowerSleepsOnOneCoarseTimerPerGap() {
+        scheduler.setLowPower(true, 0);
+        scheduler.start(timeline(false, 0, 1f, 30_000, 30_000, 30_000), 0);
+        clock.runUntilIdle(LIMIT);
+
+        assertEquals(3, dispatches.size());
+        for (int i = 0; i < 3; i++) {
+            assertEquals(T0 + (i + 1) * 30_000 * MS, dispatches.get(i).timeNs);
+        }
+        // 每個空檔（3 個 tap + 結尾 tail）只有一個低精度計時器，加上最後一段的高精度喚醒
+        assertEquals(4, clock.coarseWakes);
+        assertEquals(8, scheduler.getPowerStats().getWakeups());
+        assertEquals(0, finishes.get(0).stats.getMaxAbsNs());
+    }
+
+    @Test
+    public void lowPowerBatchesNearbyStepsIntoOneGesture() {
+        scheduler.setLowPower(true, 500);
+        scheduler.start(timeline(false, 0, 1f, 100, 200, 150, 1_000), 0);
+        clock.runUntilIdle(LIMIT);
+
+        // 100 / 300 / 450ms 的 tap 在同一次喚醒送出，stroke 偏移保留原本的時間
+        assertEquals(2, dispatches.size());
+        assertEquals(T0 + 100 * MS, dispatches.get(0).timeNs);
+        assertArrayEquals(new long[]{0, 200, 350}, dispatches.get(0).startMs);
+        assertEquals(T0 + 1450 * MS, dispatches.get(1).timeNs);
+        assertEquals(2, scheduler.getPowerStats().getBatchedEvents());
+        assertEquals(0, finishes.get(0).stats.getMaxAbsNs());
+    }
+
+    @Test
+    public void normalModeKeepsPreciseWakeups() {
+        scheduler.start(timeline(false, 0, 1f, 100, 200, 150), 0);
+        clock.runUntilIdle(LIMIT);
+
+        assertEquals(3, dispatches.size());
+        assertEquals(0, clock.coarseWakes);
+        assertEquals(0, scheduler.getPowerStats().getBatchedEvents());
+    }
+
+    @Test
+    public void stallReportSeesEveryPrimaryStroke() {
+        StallReport report = new StallReport(4, 4, JitterStats.LATE_THRESHOLD_NS);
+        report.reset(T0);
+        scheduler.setStallReport(report);
+        scheduler.start(timeline(false, 0, 1f, 100, 1, 200), 0);
+        clock.runUntilIdle(LIMIT);
+
+        // 前兩個 tap 合併成一個手勢，但仍各自記錄一次
+        assertEquals(2, dispatches.size());
+        assertEquals(3, report.getGestures());
+        assertEquals(0, report.getLateGestures());
+    }
+
+    @Test
+    public void startAtAlignsFirstTapWithTarget() {
+        // 第一個 step 本身有 250ms delay，仍然對齊到指定的時間
+        scheduler.startAt(timeline(false, 0, 1f, 250, 100), T0 + 5_000 * MS);
+        clock.runUntilIdle(LIMIT);
+
+        assertEquals(2, dispatches.size());
+        assertEquals(T0 + 5_000 * MS, dispatches.get(0).timeNs);
+        assertEquals(T0 + 5_100 * MS, dispatches.get(1).timeNs);
+        assertEquals(0, finishes.get(0).stats.getMaxAbsNs());
+    }
+}
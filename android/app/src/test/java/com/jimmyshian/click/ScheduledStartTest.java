@@ -0,0 +1,92 @@
+package com.jimmyshian.click;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+/**
+ * ScheduledStart 的時間換算：在牆上時間的 ms 邊緣取樣，以及 elapsedRealtime 到單調時鐘。
+ */
+public class ScheduledStartTest {
+
+    private static final long MS = 1_000_000L;
+
+    /** 每次讀取前進 stepNs；牆上時間 = wallOffsetNs + 經過時間（截到 ms） */
+    private static final class FakeClocks implements ScheduledStart.Clocks {
+        final long stepNs;
+        final long wallOffsetNs;
+        final long monoOffsetNs;
+        long elapsedNs;
+
+        FakeClocks(long elapsedNs, long wallOffsetNs, long monoOffsetNs, long stepNs) {
+            this.elapsedNs = elapsedNs;
+            this.wallOffsetNs = wallOffsetNs;
+            this.monoOffsetNs = monoOffsetNs;
+            this.stepNs = stepNs;
+        }
+
+        @Override
+        public long wallMs() {
+            elapsedNs += stepNs;
+            return (elapsedNs + wallOffsetNs) / MS;
+        }
+
+        @Override
+        public long elapsedNs() {
+            elapsedNs += stepNs;
+            return elapsedNs;
+        }
+
+        @Override
+        public long monoNs() {
+            elapsedNs += stepNs;
+            return elapsedNs + monoOffsetNs;
+        }
+    }
+
+    @Test
+    public void wallTargetMapsWithSubMillisecondError() {
+        // 牆上時間比 elapsed 多 1_700_000_000_000.4ms：只讀一次 currentTimeMillis 會有最多 1ms 的誤差
+        long wallOffsetNs = 1_700_000_000_000L * MS + 400_000L;
+        FakeClocks clocks = new FakeClocks(5_000 * MS + 250_000L, wallOffsetNs, 0, 10_000L);
+        long targetWallMs = 1_700_000_010_000L;
+        long mapped = ScheduledStart.wallToElapsedNs(targetWallMs, clocks);
+
+        long exact = targetWallMs * MS - wallOffsetNs;
+        assertTrue("error " + (mapped - exact), Math.abs(mapped - exact) <= 20_000L);
+    }
+
+    @Test
+    public void edgeWaitIsBounded() {
+        // 牆上時間一直沒有跳動時，最多只等 2ms
+        ScheduledStart.Clocks frozen = new ScheduledStart.Clocks() {
+            long e = 0;
+
+            @Override
+            public long wallMs() {
+                return 42;
+            }
+
+            @Override
+            public long elapsedNs() {
+                e += 100_000L;
+                return e;
+            }
+
+            @Override
+            public long monoNs() {
+                return e;
+            }
+        };
+        long mapped = ScheduledStart.wallToElapsedNs(1042, frozen);
+        assertTrue(mapped >= 1000 * MS + 2 * MS && mapped <= 1000 * MS + 3 * MS);
+    }
+
+    @Test
+    public void elapsedMapsOntoMonotonicClock() {
+        FakeClocks clocks = new FakeClocks(9_000 * MS, 0, -4_000 * MS, 1_000L);
+        long mono = ScheduledStart.elapsedToMonoNs(10_000 * MS, clocks);
+        // 兩次讀取之間前進 1µs
+        assertEquals(6_000 * MS, mono, 2_000L);
+    }
+}
@@ -0,0 +1,185 @@
+package com.jimmyshian.click;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * ScriptAssembler + ScriptVm：與展開式時間軸一致、巢狀區段不展開、計數與條件跳躍。
+ */
+public class ScriptVmTest {
+
+    private static final ScriptTimeline.PointMapper IDENTITY = (x, y) -> new float[]{x, y};
+
+    private static ScriptStep step(String type, float x, double delay) {
+        ScriptStep s = new ScriptStep();
+        s.type = type;
+        s.x = x;
+        s.y = x + 1;
+        s.delay = delay;
+        return s;
+    }
+
+    private static StepBlockList steps(ScriptStep... list) {
+        StepBlockList steps = new StepBlockList();
+        List<ScriptStep> l = new ArrayList<>();
+        Collections.addAll(l, list);
+        steps.addAll(l);
+        return steps;
+    }
+
+    /** 執行到結束，回傳每個事件的 {offsetNs, stepIndex, type, x, durationMs, loop} */
+    private static List<long[]> run(ScriptVm vm) {
+        List<long[]> out = new ArrayList<>();
+        ScriptTimeline slot = vm.slot();
+        while (vm.next()) {
+            out.add(new long[]{slot.offsetNs[0], slot.stepIndex[0], slot.type[0], (long) slot.x[0],
+                    slot.durationMs[0], vm.eventLoop()});
+        }
+        return out;
+    }
+
+    @Test
+    public void flatScriptMatchesTimeline() {
+        ScriptStep swipe = step("swipe", 30, 120);
+        swipe.hasEnd = true;
+        swipe.endX = 300;
+        swipe.endY = 310;
+        swipe.swipeDuration = 250;
+        ScriptStep repeated = step("click", 20, 40);
+        repeated.repeat = 4;
+        repeated.repeatInterval = 75;
+        StepBlockList list = steps(step("click", 10, 100), repeated, swipe,
+                step("double-click", 40, 60), step("hold", 50, 10));
+
+        float speed = 1.5f;
+        ScriptTimeline timeline = ScriptTimeline.compile("s", true, 3, 2000, list, speed, IDENTITY);
+        ScriptProgram program = ScriptAssembler.assemble("s", true, 3, 2000, list, null, IDENTITY);
+        List<long[]> events = run(new ScriptVm(program, speed));
+
+        assertEquals(timeline.size * 3, events.size());
+        for (int loop = 0; loop < 3; loop++) {
+            for (int e = 0; e < timeline.size; e++) {
+                long[] ev = events.get(loop * timeline.size + e);
+                // 時間軸每輪各自取整，VM 以總時間取整：最多差 1ns/輪
+                assertEquals(loop * timeline.loopLengthNs + timeline.offsetNs[e], ev[0], loop + 1);
+                assertEquals(timeline.stepIndex[e], ev[1]);
+                assertEquals(timeline.type[e], ev[2]);
+                assertEquals((long) timeline.x[e], ev[3]);
+                assertEquals(timeline.durationMs[e], ev[4]);
+                assertEquals(loop, ev[5]);
+            }
+        }
+    }
+
+    @Test
+    public void endTimeCoversAllLoops() {
+        StepBlockList list = steps(step("click", 10, 100), step("click", 20, 200));
+        ScriptTimeline timeline = ScriptTimeline.compile("s", true, 4, 0, list, 1f, IDENTITY);
+        ScriptVm vm = new ScriptVm(ScriptAssembler.assemble("s", true, 4, 0, list, null, IDENTITY), 1f);
+        run(vm);
+        assertTrue(vm.halted());
+        assertEquals(4 * timeline.loopLengthNs, vm.slot().loopLengthNs);
+    }
+
+    @Test
+    public void nestedBlocksAreNotExpanded() {
+        ScriptStep[] body = new ScriptStep[12];
+        for (int i = 0; i < body.length; i++) {
+            body[i] = step("click", i, 10);
+        }
+        List<int[]> blocks = new ArrayList<>();
+        // step 1..10 重複 10000 次，其中 step 3..4 每次再重複 2 次
+        blocks.add(new int[]{1, 10, 10_000});
+        blocks.add(new int[]{3, 2, 2});
+        ScriptProgram program = ScriptAssembler.assemble("s", false, 0, 0, steps(body), blocks, IDENTITY);
+
+        // 每個 step 一個 WAIT + 一個手勢，加上兩個迴圈各 SET + DJNZ，tail 與 HALT
+        assertEquals(12 * 2 + 4 + 2, program.instructionCount());
+
+        List<long[]> events = run(new ScriptVm(program, 1f));
+        assertEquals(1 + 10_000 * 12 + 1, events.size());
+        // 內層區段：step 3, 4, 3, 4
+        assertEquals(1, events.get(1)[1]);
+        assertEquals(2, events.get(2)[1]);
+        assertEquals(3, events.get(3)[1]);
+        assertEquals(4, events.get(4)[1]);
+        assertEquals(3, events.get(5)[1]);
+        assertEquals(4, events.get(6)[1]);
+        assertEquals(5, events.get(7)[1]);
+        assertEquals(11, events.get(events.size() - 1)[1]);
+        // 每個事件間隔 10ms，沒有累積誤差
+        assertEquals((events.size() - 1) * 10_000_000L + 10_000_000L, events.get(events.size() - 1)[0]);
+    }
+
+    @Test
+    public void overlappingBlocksAreSkipped() {
+        ScriptStep[] body = new ScriptStep[4];
+        for (int i = 0; i < body.length; i++) {
+            body[i] = step("click", i, 10);
+        }
+        List<int[]> blocks = new ArrayList<>();
+        blocks.add(new int[]{0, 3, 2});
+        blocks.add(new int[]{2, 2, 5});
+        List<long[]> events = run(new ScriptVm(
+                ScriptAssembler.assemble("s", false, 0, 0, steps(body), blocks, IDENTITY), 1f));
+        // 第二個區段與第一個交錯，被略過：0 1 2 0 1 2 3
+        assertEquals(7, events.size());
+        assertEquals(3, events.get(6)[1]);
+    }
+
+    @Test
+    public void countersAndConditionalJumps() {
+        ScriptAssembler asm = new ScriptAssembler();
+        asm.set(1, 0);
+        int top = asm.here();
+        asm.waitMs(5);
+        asm.tap(1, 1, 0);
+        asm.add(1, 1);
+        asm.jumpIf(ScriptProgram.OP_JLT, 1, 3, top);
+        // r1 == 3：跳過下一個 tap
+        int skip = asm.jumpIf(ScriptProgram.OP_JEQ, 1, 3, -1);
+        asm.tap(2, 2, 1);
+        asm.patch(skip, asm.here());
+        asm.beginLoop(2);
+        asm.tap(3, 3, 2);
+        asm.endLoop();
+        asm.halt();
+
+        List<long[]> events = run(new ScriptVm(asm.build("manual"), 1f));
+        assertEquals(5, events.size());
+        assertEquals(1, events.get(0)[3]);
+        assertEquals(1, events.get(2)[3]);
+        assertEquals(3, events.get(3)[3]);
+        assertEquals(3, events.get(4)[3]);
+        assertEquals(15_000_000L, events.get(4)[0]);
+    }
+
+    @Test
+    public void runawayLoopHalts() {
+        ScriptAssembler asm = new ScriptAssembler();
+        asm.beginLoop(0);
+        asm.add(1, 1);
+        asm.endLoop();
+        ScriptVm vm = new ScriptVm(asm.build("spin"), 1f);
+        assertFalse(vm.next());
+        assertTrue(vm.halted());
+    }
+
+    @Test
+    public void unclosedLoopIsRejected() {
+        ScriptAssembler asm = new ScriptAssembler();
+        asm.beginLoop(3);
+        asm.tap(0, 0, 0);
+        try {
+            asm.build("broken");
+            fail("build with an open loop should fail");
+        } catch (IllegalStateException expected) {
+            // 預期
+        }
+    }
+}
@@ -0,0 +1,93 @@
+package com.jimmyshian.click;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.Charset;
+
+/**
+ * SheetConverter：與 JS 端 handleConvertSheet 相同的轉換規則、鍵名解析與文字編碼判斷。
+ */
+public class SheetConverterTest {
+
+    private static SheetConverter.Layout layout() {
+        float[] x = new float[15];
+        float[] y = new float[15];
+        for (int i = 0; i < 15; i++) {
+            x[i] = 10 * (i + 1);
+            y[i] = 500.5f;
+        }
+        return new SheetConverter.Layout(x, y);
+    }
+
+    @Test
+    public void parsesKeyNames() {
+        assertEquals(5, SheetConverter.parseKey("Key5"));
+        assertEquals(12, SheetConverter.parseKey("1Key12"));
+        assertEquals(3, SheetConverter.parseKey("KeyKey3"));
+        assertEquals(-1, SheetConverter.parseKey("Note7"));
+        assertEquals(-1, SheetConverter.parseKey(""));
+    }
+
+    @Test
+    public void convertsSortedNotesWithRelativeDelays() {
+        // 音符未排序；Key0 / Key16 / 無法解析的鍵略過，不影響下一個 delay 的基準
+        SheetConverter.Song song = new SheetConverter.Song("Song",
+                new double[]{600, 100, 300, 400, 450},
+                new int[]{2, 1, 16, -1, 15});
+        SheetConverter.Result r = SheetConverter.convert(song, layout());
+
+        assertEquals(3, r.steps);
+        assertEquals("Converted: Song", r.name);
+        assertEquals(1600, r.durationMs());
+        assertTrue(r.stepsJson.startsWith("[{\"id\":\"n0\",\"x\":10,\"y\":500.5,\"delay\":100,"
+                + "\"type\":\"click\",\"repeat\":1,\"repeatInterval\":100}"));
+        assertTrue(r.stepsJson.contains("{\"id\":\"n1\",\"x\":150,\"y\":500.5,\"delay\":350,"));
+        assertTrue(r.stepsJson.contains("{\"id\":\"n2\",\"x\":20,\"y\":500.5,\"delay\":150,"));
+        assertTrue(r.stepsJson.endsWith("}]"));
+
+        String json = r.toScriptJson("abc", 42L);
+        assertTrue(json.startsWith("{\"metadata\":{\"id\":\"abc\",\"name\":\"Converted: Song\","
+                + "\"version\":\"1.0\",\"loop\":false,\"loopCount\":0,\"createdAt\":42,\"updatedAt\":42,"
+                + "\"duration\":1600},\"steps\":[{"));
+        assertTrue(json.endsWith("}]}"));
+    }
+
+    @Test
+    public void songWithoutUsableNotesIsRejected() {
+        SheetConverter.Song song = new SheetConverter.Song("Empty", new double[]{1, 2}, new int[]{-1, 40});
+        try {
+            SheetConverter.convert(song, layout());
+            fail("conversion without valid notes should fail");
+        } catch (IllegalArgumentException expected) {
+            assertEquals("No valid notes converted.", expected.getMessage());
+        }
+    }
+
+    @Test
+    public void readsUtf16AndUtf8Boms() throws Exception {
+        String text = "[{\"name\":\"歌\"}]";
+        byte[] le = text.getBytes(Charset.forName("UTF-16LE"));
+        byte[] withBom = new byte[le.length + 2];
+        withBom[0] = (byte) 0xff;
+        withBom[1] = (byte) 0xfe;
+        System.arraycopy(le, 0, withBom, 2, le.length);
+        assertEquals(text, SheetConverter.readText(new ByteArrayInputStream(withBom)));
+
+        byte[] utf8 = text.getBytes(Charset.forName("UTF-8"));
+        byte[] utf8Bom = new byte[utf8.length + 3];
+        utf8Bom[0] = (byte) 0xef;
+        utf8Bom[1] = (byte) 0xbb;
+        utf8Bom[2] = (byte) 0xbf;
+        System.arraycopy(utf8, 0, utf8Bom, 3, utf8.length);
+        assertEquals(text, SheetConverter.readText(new ByteArrayInputStream(utf8Bom)));
+        assertEquals(text, SheetConverter.readText(new ByteArrayInputStream(utf8)));
+    }
+
+    @Test
+    public void quotesJsonStrings() {
+        assertEquals("\"a\\\"b\\\\c\\nd\\u2028\"", SheetConverter.quote("a\"b\\c\nd\u2028"));
+    }
+}
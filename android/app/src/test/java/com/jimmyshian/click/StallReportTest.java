@@ -0,0 +1,78 @@
+package com.jimmyshian.click;
+
+import static org.junit.Assert.*;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.List;
+
+/**
+ * StallReport：遲到手勢與主執行緒 stall 的時間對照，以及固定容量。
+ */
+public class StallReportTest {
+
+    private static final long MS = 1_000_000L;
+    private static final long LATE_NS = 2 * MS;
+
+    private StallReport report;
+
+    @Before
+    public void setUp() {
+        report = new StallReport(3, 8, LATE_NS);
+        report.reset(0);
+    }
+
+    @Test
+    public void lateGestureAfterStallIsLinked() {
+        report.addStall(100 * MS, 140 * MS, "Choreographer", "at a.b(C.java:1)");
+        // deadline 在 stall 期間，stall 結束後才送出
+        report.addGesture(0, 7, 120 * MS, 25 * MS);
+
+        List<StallReport.Stall> stalls = report.getStalls();
+        assertEquals(1, stalls.size());
+        assertEquals(1, stalls.get(0).delayed.size());
+        assertEquals(7, stalls.get(0).delayed.get(0).stepIndex);
+        assertEquals(1, report.getLateDuringStall());
+    }
+
+    @Test
+    public void gestureSentDuringOngoingStallIsLinkedWhenStallEnds() {
+        // 排程執行緒在 stall 還沒結束時就回報了手勢
+        report.addGesture(1, 3, 110 * MS, 5 * MS);
+        assertEquals(0, report.getLateDuringStall());
+        report.addStall(100 * MS, 160 * MS, "WebView", null);
+
+        assertEquals(1, report.getLateDuringStall());
+        assertEquals(1, report.getStalls().get(0).delayed.get(0).trackId);
+    }
+
+    @Test
+    public void onTimeAndUnrelatedLateGesturesAreSeparated() {
+        report.addStall(100 * MS, 140 * MS, "updateViewLayout", null);
+        report.addGesture(0, 0, 120 * MS, MS / 2);
+        report.addGesture(0, 1, 300 * MS, 10 * MS);
+
+        assertEquals(2, report.getGestures());
+        assertEquals(1, report.getLateGestures());
+        assertEquals(0, report.getLateDuringStall());
+        assertEquals(1, report.getOnTimeDuringStall());
+        assertEquals(1, report.getStalls().get(0).onTimeDuring);
+    }
+
+    @Test
+    public void keepsOnlyMostRecentStalls() {
+        for (int i = 0; i < 5; i++) {
+            report.addStall(i * 100 * MS, (i * 100 + 20) * MS, "m" + i, null);
+        }
+        List<StallReport.Stall> stalls = report.getStalls();
+        assertEquals(3, stalls.size());
+        assertEquals("m2", stalls.get(0).message);
+        assertEquals("m4", stalls.get(2).message);
+        assertEquals(5, report.getTotalStalls());
+
+        report.reset(0);
+        assertEquals(0, report.getStalls().size());
+        assertEquals(0, report.getTotalStalls());
+    }
+}
@@ -0,0 +1,42 @@
+package com.jimmyshian.click;
+
+import static org.junit.Assert.*;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * StartupTimeline：每個階段只記第一次，可播放時間取原生快速播放與 Web UI 就緒中較早者。
+ */
+public class StartupTimelineTest {
+
+    @Before
+    public void setUp() {
+        StartupTimeline.reset(1_000);
+    }
+
+    @Test
+    public void firstPlayableIsEarliestPlayableStage() {
+        assertEquals(-1, StartupTimeline.firstPlayableMs());
+        StartupTimeline.mark(StartupTimeline.SERVICE_CONNECTED, 1_120);
+        StartupTimeline.mark(StartupTimeline.NATIVE_PLAYABLE, 1_300);
+        StartupTimeline.mark(StartupTimeline.WEB_READY, 1_900);
+        assertEquals(300, StartupTimeline.firstPlayableMs());
+    }
+
+    @Test
+    public void repeatedStagesKeepFirstTime() {
+        StartupTimeline.mark(StartupTimeline.WEB_READY, 1_500);
+        StartupTimeline.mark(StartupTimeline.WEB_READY, 2_500);
+        assertEquals(500, StartupTimeline.firstPlayableMs());
+    }
+
+    @Test
+    public void jsonListsStagesInOrderWithDeltas() {
+        StartupTimeline.mark(StartupTimeline.ACTIVITY_CREATED, 1_050);
+        StartupTimeline.mark(StartupTimeline.SERVICE_CONNECTED, 1_200);
+        assertEquals("{\"stages\":[{\"stage\":\"activityCreated\",\"atMs\":50,\"deltaMs\":50},"
+                        + "{\"stage\":\"serviceConnected\",\"atMs\":200,\"deltaMs\":150}],\"firstPlayableMs\":-1}",
+                StartupTimeline.toJson());
+    }
+}
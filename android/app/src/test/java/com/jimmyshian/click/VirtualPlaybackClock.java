@@ -0,0 +1,97 @@
+package com.jimmyshian.click;
+
+import java.util.PriorityQueue;
+
+/**
+ * 測試用的虛擬時鐘：時間只在 advanceTo / runUntilIdle 時前進，task 依 (時間, 加入順序) 執行。
+ * 喚醒精度為 0，排程器永遠不會忙等，整份腳本可以瞬間重播完畢。
+ */
+final class VirtualPlaybackClock implements PlaybackClock {
+
+    private static final class Task {
+        final long atNs;
+        final long seq;
+        final Runnable runnable;
+
+        Task(long atNs, long seq, Runnable runnable) {
+            this.atNs = atNs;
+            this.seq = seq;
+            this.runnable = runnable;
+        }
+    }
+
+    private final PriorityQueue<Task> tasks = new PriorityQueue<>((a, b) ->
+            a.atNs != b.atNs ? Long.compare(a.atNs, b.atNs) : Long.compare(a.seq, b.seq));
+    private long nowNs;
+    private long seq = 0;
+    // wakeAtCoarse 被呼叫的次數（低耗電模式測試用）
+    int coarseWakes = 0;
+
+    VirtualPlaybackClock(long startNs) {
+        this.nowNs = startNs;
+    }
+
+    @Override
+    public long nanoTime() {
+        return nowNs;
+    }
+
+    @Override
+    public long spinWindowNs() {
+        return 0;
+    }
+
+    @Override
+    public void post(Runnable task) {
+        tasks.add(new Task(nowNs, seq++, task));
+    }
+
+    @Override
+    public void wakeAt(long targetNs, Runnable task) {
+        tasks.add(new Task(Math.max(targetNs, nowNs), seq++, task));
+    }
+
+    @Override
+    public void wakeAtCoarse(long targetNs, Runnable task) {
+        coarseWakes++;
+        wakeAt(targetNs, task);
+    }
+
+    @Override
+    public void cancel(Runnable task) {
+        tasks.removeIf(t -> t.runnable == task);
+    }
+
+    @Override
+    public long cpuTimeNs() {
+        return 0;
+    }
+
+    @Override
+    public void quit() {
+        tasks.clear();
+    }
+
+    /** 依序執行 untilNs 以前（含）的所有 task，最後時間停在 untilNs */
+    void advanceTo(long untilNs) {
+        while (!tasks.isEmpty() && tasks.peek().atNs <= untilNs) {
+            Task t = tasks.poll();
+            nowNs = t.atNs;
+            t.runnable.run();
+        }
+        nowNs = Math.max(nowNs, untilNs);
+    }
+
+    void advanceBy(long ns) {
+        advanceTo(nowNs + ns);
+    }
+
+    /** 執行到沒有待執行的 task 為止（不超過 limitNs） */
+    void runUntilIdle(long limitNs) {
+        while (!tasks.isEmpty() && tasks.peek().atNs <= limitNs) {
+            Task t = tasks.poll();
+            nowNs = t.atNs;
+            t.runnable.run();
+        }
+    }
+}
@@ -0,0 +1,323 @@
+package com.jimmyshian.click;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 主機端的控制通道 client（純 Java，不依賴 Android）。位於 control-client 模組，
+ * 與 app 共用 ControlProtocol.java，不會打包進 APK。
+ *
+ * 先在主機上轉送埠號：
+ *   adb forward tcp:7345 localabstract:omniclick.control
+ * 再以 ControlClient.connect("127.0.0.1", 7345) 連線；也可以直接當命令列工具使用：
+ *   ./gradlew :control-client:run --args="run script.json [speed]"
+ *   ./gradlew :control-client:run --args="live layout.json"   （從 stdin 讀鍵號，一行一個和弦）
+ * 每個請求同步等待對應的 RESULT；推播在讀取執行緒上交給 Listener。
+ */
+public final class ControlClient implements Closeable {
+
+    private static final long RESULT_TIMEOUT_MS = 10_000;
+
+    /** 裝置推播（在讀取執行緒上呼叫，不要在這裡做耗時工作） */
+    public interface Listener {
+        default void onProgress(int trackId, int stepIndex, int loopIndex, long deviceTimeNs) {
+        }
+
+        default void onFinished(int trackId, boolean cancelled, String statsJson) {
+        }
+
+        default void onMetrics(String metricsJson) {
+        }
+
+        default void onDisconnected() {
+        }
+    }
+
+    /** 裝置回覆失敗（ok = false）或連線中斷 */
+    public static final class ControlException extends IOException {
+        ControlException(String message) {
+            super(message);
+        }
+    }
+
+    private final Socket socket;
+    private final DataInputStream in;
+    private final DataOutputStream out;
+    private final LinkedBlockingQueue<ControlProtocol.Frame> results = new LinkedBlockingQueue<>();
+    private final Thread reader;
+    private final Object writeLock = new Object();
+    private volatile Listener listener;
+    private volatile boolean closed = false;
+    private int deviceVersion = -1;
+
+    private ControlClient(Socket socket) throws IOException {
+        this.socket = socket;
+        socket.setTcpNoDelay(true);
+        in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+        out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+        reader = new Thread(this::readLoop, "ControlClientReader");
+        reader.setDaemon(true);
+        reader.start();
+        ControlProtocol.Frame hello = awaitFrame();
+        if (hello.type != ControlProtocol.HELLO) {
+            close();
+            throw new ControlException("Unexpected first frame 0x" + Integer.toHexString(hello.type));
+        }
+        deviceVersion = hello.data().readInt();
+    }
+
+    public static ControlClient connect(String host, int port) throws IOException {
+        return new ControlClient(new Socket(InetAddress.getByName(host), port));
+    }
+
+    public int getDeviceVersion() {
+        return deviceVersion;
+    }
+
+    public void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    /** 上傳腳本 JSON，回傳裝置端的 script id */
+    public String upload(String scriptJson) throws IOException {
+        return request(ControlProtocol.UPLOAD, scriptJson.getBytes(StandardCharsets.UTF_8));
+    }
+
+    public void start(String scriptId, float speed, int startIndex) throws IOException {
+        ControlProtocol.Payload p = new ControlProtocol.Payload();
+        p.out.writeUTF(scriptId);
+        p.out.writeFloat(speed);
+        p.out.writeInt(startIndex);
+        request(p.toFrame(ControlProtocol.START));
+    }
+
+    public void stop() throws IOException {
+        request(ControlProtocol.STOP, new byte[0]);
+    }
+
+    public void seek(int stepIndex) throws IOException {
+        ControlProtocol.Payload p = new ControlProtocol.Payload();
+        p.out.writeInt(stepIndex);
+        request(p.toFrame(ControlProtocol.SEEK));
+    }
+
+    public void subscribe(boolean on) throws IOException {
+        ControlProtocol.Payload p = new ControlProtocol.Payload();
+        p.out.writeBoolean(on);
+        request(p.toFrame(ControlProtocol.SUBSCRIBE));
+    }
+
+    /** 以 layout 腳本（Key1–Key15 的座標）開始即時模式 */
+    public void live(String layoutJson) throws IOException {
+        request(ControlProtocol.LIVE, layoutJson.getBytes(StandardCharsets.UTF_8));
+    }
+
+    public void stopLive() throws IOException {
+        request(ControlProtocol.LIVE, new byte[0]);
+    }
+
+    /**
+     * 送出一批音符（不等回應）。timesNs 為傳送端的單調時間（System.nanoTime()），
+     * 和弦的音符用同一個時間戳；裝置端以此計算和弦與間隔。
+     */
+    public void notes(int[] keys, long[] timesNs) throws IOException {
+        if (keys.length > ControlProtocol.MAX_NOTES_PER_FRAME) {
+            throw new IllegalArgumentException("At most " + ControlProtocol.MAX_NOTES_PER_FRAME + " notes per frame");
+        }
+        ControlProtocol.Payload p = new ControlProtocol.Payload();
+        p.out.writeInt(keys.length);
+        for (int i = 0; i < keys.length; i++) {
+            p.out.writeByte(keys[i]);
+            p.out.writeLong(timesNs[i]);
+        }
+        byte[] frame = p.toFrame(ControlProtocol.NOTES);
+        // 不與等待 RESULT 的請求共用鎖：音符不會被慢的請求擋住
+        synchronized (writeLock) {
+            out.write(frame);
+            out.flush();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        socket.close();
+    }
+
+    private String request(int type, byte[] payload) throws IOException {
+        return request(ControlProtocol.frame(type, payload));
+    }
+
+    private synchronized String request(byte[] frame) throws IOException {
+        synchronized (writeLock) {
+            out.write(frame);
+            out.flush();
+        }
+        ControlProtocol.Frame result = awaitFrame();
+        DataInputStream data = result.data();
+        boolean ok = data.readBoolean();
+        String message = data.readUTF();
+        if (!ok) throw new ControlException(message);
+        return message;
+    }
+
+    private ControlProtocol.Frame awaitFrame() throws IOException {
+        ControlProtocol.Frame frame;
+        try {
+            frame = results.poll(RESULT_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ControlException("Interrupted");
+        }
+        if (frame == null) throw new ControlException("Timed out waiting for device");
+        if (frame.payload == null) throw new ControlException("Connection closed");
+        return frame;
+    }
+
+    private void readLoop() {
+        try {
+            ControlProtocol.Frame frame;
+            while ((frame = ControlProtocol.read(in)) != null) {
+                Listener l = listener;
+                DataInputStream data = frame.data();
+                switch (frame.type) {
+                    case ControlProtocol.HELLO:
+                    case ControlProtocol.RESULT:
+                        results.add(frame);
+                        break;
+                    case ControlProtocol.PROGRESS:
+                        if (l != null) {
+                            l.onProgress(data.readInt(), data.readInt(), data.readInt(), data.readLong());
+                        }
+                        break;
+                    case ControlProtocol.FINISHED:
+                        if (l != null) {
+                            int trackId = data.readInt();
+                            boolean cancelled = data.readBoolean();
+                            String stats = new String(frame.payload, 5, frame.payload.length - 5,
+                                    StandardCharsets.UTF_8);
+                            l.onFinished(trackId, cancelled, stats);
+                        }
+                        break;
+                    case ControlProtocol.METRICS:
+                        if (l != null) l.onMetrics(frame.text());
+                        break;
+                    default:
+                        // 較新版本的推播，忽略
+                        break;
+                }
+            }
+        } catch (IOException e) {
+            if (!closed) System.err.println("ControlClient: " + e.getMessage());
+        } finally {
+            // 讓等待中的請求立刻失敗
+            results.add(new ControlProtocol.Frame(-1, null));
+            Listener l = listener;
+            if (l != null) l.onDisconnected();
+        }
+    }
+
+    /**
+     * 命令列：
+     *   run <script.json> [speed] [port] —— 上傳、播放並印出進度直到結束
+     *   live <layout.json> [port] —— 即時模式，stdin 每一行是一個和弦（空白分隔的鍵號 1–15）
+     */
+    public static void main(String[] args) throws Exception {
+        if (args.length < 2 || !("run".equals(args[0]) || "live".equals(args[0]))) {
+            System.err.println("usage: ControlClient run <script.json> [speed] [port]");
+            System.err.println("       ControlClient live <layout.json> [port]");
+            System.exit(2);
+        }
+        File file = new File(args[1]);
+        byte[] bytes = new byte[(int) file.length()];
+        try (DataInputStream fileIn = new DataInputStream(new FileInputStream(file))) {
+            fileIn.readFully(bytes);
+        }
+        String json = new String(bytes, StandardCharsets.UTF_8);
+        if ("live".equals(args[0])) {
+            int port = args.length > 2 ? Integer.parseInt(args[2]) : ControlProtocol.DEFAULT_HOST_PORT;
+            System.exit(runLive(json, port));
+        }
+        float speed = args.length > 2 ? Float.parseFloat(args[2]) : 1f;
+        int port = args.length > 3 ? Integer.parseInt(args[3]) : ControlProtocol.DEFAULT_HOST_PORT;
+        LinkedBlockingQueue<Boolean> done = new LinkedBlockingQueue<>();
+        try (ControlClient client = connect("127.0.0.1", port)) {
+            client.setListener(new Listener() {
+                @Override
+                public void onProgress(int trackId, int stepIndex, int loopIndex, long deviceTimeNs) {
+                    System.out.println("progress track=" + trackId + " loop=" + loopIndex + " step=" + stepIndex);
+                }
+
+                @Override
+                public void onFinished(int trackId, boolean cancelled, String statsJson) {
+                    System.out.println((cancelled ? "cancelled " : "finished ") + statsJson);
+                    if (trackId == ControlProtocol.MAIN_TRACK_ID) done.add(!cancelled);
+                }
+
+                @Override
+                public void onMetrics(String metricsJson) {
+                    System.out.println("metrics " + metricsJson);
+                }
+
+                @Override
+                public void onDisconnected() {
+                    done.add(false);
+                }
+            });
+            client.subscribe(true);
+            String id = client.upload(json);
+            client.start(id, speed, 0);
+            System.exit(done.take() ? 0 : 1);
+        }
+    }
+
+    /** 即時模式的鍵盤傳送端：每讀到一行就以目前時間送出一個和弦，結束時印出裝置端的延遲統計 */
+    private static int runLive(String layoutJson, int port) throws IOException {
+        LinkedBlockingQueue<String> metrics = new LinkedBlockingQueue<>();
+        try (ControlClient client = connect("127.0.0.1", port)) {
+            client.setListener(new Listener() {
+                @Override
+                public void onMetrics(String metricsJson) {
+                    metrics.add(metricsJson);
+                }
+            });
+            client.live(layoutJson);
+            client.subscribe(true);
+            BufferedReader stdin = new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8));
+            String line;
+            while ((line = stdin.readLine()) != null) {
+                String[] parts = line.trim().split("\\s+");
+                if (parts.length == 0 || parts[0].isEmpty()) continue;
+                int[] keys = new int[parts.length];
+                long[] times = new long[parts.length];
+                long now = System.nanoTime();
+                for (int i = 0; i < parts.length; i++) {
+                    keys[i] = Integer.parseInt(parts[i]);
+                    times[i] = now;
+                }
+                client.notes(keys, times);
+            }
+            try {
+                String last = metrics.poll(1500, TimeUnit.MILLISECONDS);
+                if (last != null) System.out.println("metrics " + last);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            client.stopLive();
+            return 0;
+        }
+    }
+}
@@ -224,7 +224,7 @@ export const ClickCanvas: React.FC<ClickCanvasProps> = ({
           />
           {/* Render swipe arrows */}
           {steps.map((step) => {
-            if (step.type === 'swipe' && step.endX !== undefined && step.endY !== undefined) {
+            if ((step.type === 'swipe' || step.type === 'press-drag') && step.endX !== undefined && step.endY !== undefined) {
               const isSelected = selectedStepId === step.id;
               return (
                 <g key={`swipe-${step.id}`}>
@@ -265,7 +265,7 @@ export const ClickCanvas: React.FC<ClickCanvasProps> = ({
       {/* Render Steps Markers - During recording or editing */}
       {(isRecording || isEditing) && steps.map((step, index) => {
         const isSelected = selectedStepId === step.id;
-        const isSwipe = step.type === 'swipe';
+        const isSwipe = step.type === 'swipe' || step.type === 'press-drag';
         return (
           <React.Fragment key={step.id}>
             {/* Start point */}
@@ -1,6 +1,6 @@
 import React, { useState, useRef, useEffect } from 'react';
-import { AppMode, ClickScript, SavedScriptSummary } from '../types';
-import { Play, Square, Circle, Save, Upload, Trash2, GripHorizontal, MousePointer2, Minimize2, Maximize2, ChevronLeft, Plus, Folder, FileJson, CornerRightDown, Check, Clock, Music, ArrowRightLeft, FileText, Gauge, Power, Copy } from 'lucide-react';
+import { AppMode, ClickScript, SavedScriptSummary, BackgroundTrack, BulkImportProgress, ScheduledStartStatus } from '../types';
+import { Play, Square, Circle, Save, Upload, Trash2, GripHorizontal, MousePointer2, Minimize2, Maximize2, ChevronLeft, Plus, Folder, FileJson, CornerRightDown, Check, Clock, Music, ArrowRightLeft, FileText, Gauge, Power, Copy, Layers, BatteryLow, AlarmClock, FileArchive } from 'lucide-react';
 
 interface FloatingHUDProps {
   mode: AppMode;
@@ -19,6 +19,7 @@ interface FloatingHUDProps {
   // Storage Actions
   onSaveLocal: () => void; // Save to local storage
   onExport: () => void; // Export to file
+  onExportCompact?: () => void; // Export in the compact gzip format (native only)
   onLoadFile: (file: File) => void; // Import from file
   onLoadLocal: (id: string) => void; // Load from local storage
   onCreateNew: () => void;
@@ -28,6 +29,15 @@ interface FloatingHUDProps {
 
   // Converter
   onConvertSheet: (songFile: File, mapFile: File) => void;
+  // Bulk import of a whole song folder (native only)
+  onBulkImport?: (mapFile: File) => void;
+  onCancelBulkImport?: () => void;
+  bulkImport?: BulkImportProgress | null;
+
+  // Background scripts (played concurrently by the native scheduler)
+  backgroundTracks?: BackgroundTrack[];
+  onStartBackground?: (id: string) => void;
+  onStopBackground?: (trackId: number) => void;
 
   // Script Config
   setLoop: (loop: boolean) => void;
@@ -41,6 +51,13 @@ interface FloatingHUDProps {
   // Playback Control
   playbackSpeed: number;
   setPlaybackSpeed: (speed: number) => void;
+  // Low-power playback (native only): the live timer is paused while playing
+  lowPowerPlayback?: boolean;
+  setLowPowerPlayback?: (enabled: boolean) => void;
+  // Wall-clock scheduled start (native only)
+  onScheduleStart?: (targetWallMs: number) => void;
+  onCancelScheduledStart?: () => void;
+  scheduledStart?: ScheduledStartStatus | null;
   // Layout sync back to App / Android
   onRectChange?: (x: number, y: number, width: number, height: number, isCollapsed: boolean) => void;
 }
@@ -52,6 +69,16 @@ const formatTime = (ms: number) => {
   return `${minutes.toString().padStart(2, '0')}:${seconds.toString().padStart(2, '0')}.${milliseconds.toString().padStart(3, '0')}`;
 };
 
+// "HH:MM[:SS[.mmm]]" -> next epoch ms at that local time (today, or tomorrow if already past)
+const nextWallTime = (text: string): number | null => {
+  const m = text.match(/^(\d{1,2}):(\d{2})(?::(\d{2})(?:\.(\d{1,3}))?)?$/);
+  if (!m) return null;
+  const d = new Date();
+  d.setHours(parseInt(m[1], 10), parseInt(m[2], 10), m[3] ? parseInt(m[3], 10) : 0, m[4] ? parseInt(m[4].padEnd(3, '0'), 10) : 0);
+  if (d.getTime() <= Date.now()) d.setDate(d.getDate() + 1);
+  return d.getTime();
+};
+
 export const FloatingHUD: React.FC<FloatingHUDProps> = ({
   mode,
   script,
@@ -64,6 +91,7 @@ export const FloatingHUD: React.FC<FloatingHUDProps> = ({
   onClear,
   onSaveLocal,
   onExport,
+  onExportCompact,
   onLoadFile,
   onLoadLocal,
   onCreateNew,
@@ -71,6 +99,12 @@ export const FloatingHUD: React.FC<FloatingHUDProps> = ({
   onCloseScript,
   onExitApp,
   onConvertSheet,
+  onBulkImport,
+  onCancelBulkImport,
+  bulkImport,
+  backgroundTracks = [],
+  onStartBackground,
+  onStopBackground,
   setLoop,
   setLoopCount,
   setScriptName,
@@ -78,6 +112,11 @@ export const FloatingHUD: React.FC<FloatingHUDProps> = ({
   selectedStepId,
   playbackSpeed,
   setPlaybackSpeed,
+  lowPowerPlayback = false,
+  setLowPowerPlayback,
+  onScheduleStart,
+  onCancelScheduledStart,
+  scheduledStart,
   onRectChange,
   onDuplicateStep
 }) => {
@@ -86,6 +125,7 @@ export const FloatingHUD: React.FC<FloatingHUDProps> = ({
   const [size, setSize] = useState({ width: 380, height: 500 }); // Slightly taller default
   const [isCollapsed, setIsCollapsed] = useState(false);
   const [isAndroidBridge, setIsAndroidBridge] = useState(false);
+  const [startAtText, setStartAtText] = useState('');
 
   // Dragging State
   const [isDragging, setIsDragging] = useState(false);
@@ -201,7 +241,10 @@ export const FloatingHUD: React.FC<FloatingHUDProps> = ({
   // --- Live Timer Effect ---
   useEffect(() => {
     let timerId: number | undefined;
-    if ((mode === AppMode.RECORDING || mode === AppMode.PLAYING) && sessionStartTime) {
+    if (mode === AppMode.PLAYING && lowPowerPlayback) {
+      // Low-power playback: keep the WebView idle, no per-second re-render
+      setLiveDuration(0);
+    } else if ((mode === AppMode.RECORDING || mode === AppMode.PLAYING) && sessionStartTime) {
       // Immediate first update
       setLiveDuration(Date.now() - sessionStartTime);
       // Then update every second (saves CPU vs requestAnimationFrame @60fps)
@@ -213,7 +256,7 @@ export const FloatingHUD: React.FC<FloatingHUDProps> = ({
     }
 
     return () => { if (timerId !== undefined) clearInterval(timerId); };
-  }, [mode, sessionStartTime]);
+  }, [mode, sessionStartTime, lowPowerPlayback]);
 
   // Determine what duration to show in the header
   const totalStepsDuration = script.steps.reduce((acc, step) => {
@@ -222,7 +265,8 @@ export const FloatingHUD: React.FC<FloatingHUDProps> = ({
     return d;
   }, 0);
 
-  const displayDuration = (mode === AppMode.RECORDING || mode === AppMode.PLAYING)
+  const isLiveTimerPaused = mode === AppMode.PLAYING && lowPowerPlayback;
+  const displayDuration = (mode === AppMode.RECORDING || mode === AppMode.PLAYING) && !isLiveTimerPaused
     ? liveDuration
     : Math.max(script.metadata.duration || 0, totalStepsDuration) / playbackSpeed;
 
@@ -454,6 +498,34 @@ export const FloatingHUD: React.FC<FloatingHUDProps> = ({
       {/* Content Area */}
       <div className="flex-1 flex flex-col p-4 gap-4 overflow-hidden overflow-y-auto">
 
+        {/* Background scripts: per-script progress */}
+        {backgroundTracks.length > 0 && (
+          <div className="flex flex-col gap-1 bg-black/20 border border-white/5 rounded-lg p-2">
+            {backgroundTracks.map(t => (
+              <div key={t.trackId} className="flex items-center gap-2 text-[10px] text-gray-300">
+                <Layers size={12} className="text-purple-400 shrink-0" />
+                <span className="truncate flex-1">{t.name}</span>
+                <span className="font-mono text-gray-400">
+                  {t.stepIndex + 1}/{t.stepCount}{t.loopIndex > 0 ? ` ×${t.loopIndex + 1}` : ''}
+                </span>
+                <div className="w-12 h-1 bg-white/10 rounded overflow-hidden">
+                  <div
+                    className="h-full bg-purple-400"
+                    style={{ width: `${Math.max(0, (t.stepIndex + 1) / Math.max(1, t.stepCount)) * 100}%` }}
+                  />
+                </div>
+                <button
+                  onClick={() => onStopBackground?.(t.trackId)}
+                  className="text-gray-500 hover:text-red-400 p-0.5"
+                  title="Stop"
+                >
+                  <Square size={10} />
+                </button>
+              </div>
+            ))}
+          </div>
+        )}
+
         {!isScriptLoaded ? (
           // === LIST VIEW ===
           <div className="flex flex-col h-full animate-in fade-in slide-in-from-left-4 duration-300 relative">
@@ -489,6 +561,15 @@ export const FloatingHUD: React.FC<FloatingHUDProps> = ({
                     <div className="text-[10px] text-gray-400 mt-1 flex gap-2">
                       <span>{s.stepCount} steps</span>
                     </div>
+                    {onStartBackground && (
+                      <button
+                        onClick={(e) => { e.stopPropagation(); onStartBackground(s.id); }}
+                        className="absolute bottom-2 right-8 text-gray-600 hover:text-purple-400 opacity-0 group-hover:opacity-100 transition-opacity p-1"
+                        title="Run in background"
+                      >
+                        <Layers size={14} />
+                      </button>
+                    )}
                     <button
                       onClick={(e) => { e.stopPropagation(); onDeleteLocal(s.id); }}
                       className="absolute bottom-2 right-2 text-gray-600 hover:text-red-400 opacity-0 group-hover:opacity-100 transition-opacity p-1"
@@ -587,6 +668,42 @@ export const FloatingHUD: React.FC<FloatingHUDProps> = ({
                     >
                       Convert & Save
                     </button>
+
+                    {onBulkImport && (
+                      <button
+                        onClick={() => mapFile && onBulkImport(mapFile)}
+                        disabled={!mapFile || !!bulkImport?.running}
+                        className="w-full py-2 bg-gray-700 hover:bg-gray-600 disabled:opacity-50 disabled:cursor-not-allowed text-white rounded text-xs font-bold flex items-center justify-center gap-2"
+                      >
+                        <Folder size={14} /> Import Song Folder...
+                      </button>
+                    )}
+
+                    {bulkImport && (
+                      <div className="text-[11px] text-gray-300 space-y-1">
+                        <div className="flex justify-between items-center">
+                          <span>
+                            {bulkImport.running ? 'Importing' : 'Imported'} {bulkImport.done}/{bulkImport.total}
+                            {' · '}<span className="text-green-300">{bulkImport.converted} ok</span>
+                            {bulkImport.failed > 0 && <span className="text-red-300"> · {bulkImport.failed} failed</span>}
+                            {bulkImport.skipped > 0 && <span className="text-gray-400"> · {bulkImport.skipped} skipped</span>}
+                            {!bulkImport.running && bulkImport.elapsedMs !== undefined && <span className="text-gray-500"> · {(bulkImport.elapsedMs / 1000).toFixed(1)}s</span>}
+                          </span>
+                          {bulkImport.running && onCancelBulkImport && (
+                            <button onClick={onCancelBulkImport} className="text-gray-400 hover:text-white">Cancel</button>
+                          )}
+                        </div>
+                        <div className="h-1 bg-gray-700 rounded overflow-hidden">
+                          <div
+                            className="h-full bg-blue-500"
+                            style={{ width: `${bulkImport.total > 0 ? (bulkImport.done / bulkImport.total) * 100 : 0}%` }}
+                          />
+                        </div>
+                        {bulkImport.errors.map((e, i) => (
+                          <div key={i} className="text-red-300 truncate" title={e.error}>{e.fileName}: {e.error}</div>
+                        ))}
+                      </div>
+                    )}
                   </div>
                 </div>
               )}
@@ -631,6 +748,53 @@ export const FloatingHUD: React.FC<FloatingHUDProps> = ({
                     onChange={(e) => setPlaybackSpeed(parseFloat(e.target.value))}
                     className="h-1.5 bg-gray-600 rounded-lg appearance-none cursor-pointer accent-blue-500 hover:accent-blue-400 w-full"
                   />
+                  {setLowPowerPlayback && (
+                    <label className="text-[12px] text-gray-400 uppercase tracking-wider flex items-center gap-1 cursor-pointer">
+                      <input
+                        type="checkbox"
+                        checked={lowPowerPlayback}
+                        onChange={(e) => setLowPowerPlayback(e.target.checked)}
+                        className="accent-blue-500"
+                      />
+                      <BatteryLow size={12} /> Low Power
+                    </label>
+                  )}
+                  {onScheduleStart && (
+                    <div className="flex flex-col gap-1 text-[12px] text-gray-400">
+                      <div className="flex items-center gap-1">
+                        <AlarmClock size={12} />
+                        <input
+                          type="time"
+                          step="0.001"
+                          value={startAtText}
+                          onChange={(e) => setStartAtText(e.target.value)}
+                          onFocus={() => window.Android?.requestInputFocus?.()}
+                          onBlur={() => window.Android?.clearInputFocus?.()}
+                          className="bg-black/30 border border-gray-600 rounded px-1 text-gray-200 w-24"
+                        />
+                        {scheduledStart?.state === 'scheduled' ? (
+                          <button onClick={onCancelScheduledStart} className="text-red-300 hover:text-red-200">Cancel</button>
+                        ) : (
+                          <button
+                            onClick={() => {
+                              const target = nextWallTime(startAtText);
+                              if (target !== null) onScheduleStart(target);
+                            }}
+                            disabled={!startAtText || mode !== AppMode.IDLE}
+                            className="text-blue-300 hover:text-blue-200 disabled:opacity-40"
+                          >
+                            Start at
+                          </button>
+                        )}
+                      </div>
+                      {scheduledStart?.state === 'scheduled' && (
+                        <span className="text-blue-300 font-mono">Waiting for {new Date(scheduledStart.targetWallMs).toLocaleTimeString()}</span>
+                      )}
+                      {scheduledStart?.startErrorMs !== undefined && (
+                        <span className="font-mono">Start error {scheduledStart.startErrorMs.toFixed(2)}ms</span>
+                      )}
+                    </div>
+                  )}
                 </div>
               </div>
 
@@ -751,7 +915,7 @@ export const FloatingHUD: React.FC<FloatingHUDProps> = ({
                             #{idx + 1}
                           </span>
                           <span className="font-semibold text-lg">
-                            {step.type === 'swipe' ? 'Swipe' : step.type === 'double-click' ? 'DblClick' : step.type === 'hold' ? 'Hold' : 'Click'}
+                            {step.type === 'swipe' ? 'Swipe' : step.type === 'double-click' ? 'DblClick' : step.type === 'hold' ? 'Hold' : step.type === 'press-drag' ? 'HoldDrag' : step.type === 'multi-tap' ? `${step.fingers ?? 2}-Finger` : 'Click'}
                           </span>
                         </div>
 
@@ -800,6 +964,13 @@ export const FloatingHUD: React.FC<FloatingHUDProps> = ({
                 <span>Export</span>
               </button>
 
+              {onExportCompact && (
+                <button onClick={onExportCompact} className="flex-1 flex flex-col items-center gap-1 p-2 rounded hover:bg-white/10 transition-colors text-[12px] text-gray-400 hover:text-white group">
+                  <FileArchive size={16} className="group-hover:scale-110 transition-transform" />
+                  <span>Compact</span>
+                </button>
+              )}
+
               <button onClick={onClear} className="flex-1 flex flex-col items-center gap-1 p-2 rounded hover:bg-red-500/20 transition-colors text-[12px] text-gray-400 hover:text-red-400 group">
                 <Trash2 size={16} className="group-hover:scale-110 transition-transform" />
                 <span>Clear</span>
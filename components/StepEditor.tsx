@@ -186,7 +186,10 @@ export const StepEditor: React.FC<StepEditorProps> = ({ step, index, cumulativeT
   const panelWidth = typeof window !== 'undefined' ? Math.min(256, window.innerWidth - 20) : 256;
   const panelMaxHeight = typeof window !== 'undefined' ? Math.min(400, window.innerHeight - 40) : 400;
 
-  const isSwipe = step.type === 'swipe';
+  // press-drag 與 swipe 一樣有終點與拖曳時間
+  const isSwipe = step.type === 'swipe' || step.type === 'press-drag';
+  const isHold = step.type === 'hold' || step.type === 'press-drag';
+  const isMultiTap = step.type === 'multi-tap';
 
   return (
     <div className="fixed z-50 glass-panel rounded-xl shadow-2xl text-white p-4 border border-blue-500/30 pointer-events-auto overflow-y-auto overflow-x-hidden"
@@ -210,7 +213,7 @@ export const StepEditor: React.FC<StepEditorProps> = ({ step, index, cumulativeT
             onChange={(e) => {
               const newType = e.target.value as ClickStep['type'];
               const updates: Partial<ClickStep> = { type: newType };
-              if (newType === 'swipe' && step.endX === undefined) {
+              if ((newType === 'swipe' || newType === 'press-drag') && step.endX === undefined) {
                 updates.endX = step.x + 100;
                 updates.endY = step.y;
                 updates.swipeDuration = 300;
@@ -223,6 +226,8 @@ export const StepEditor: React.FC<StepEditorProps> = ({ step, index, cumulativeT
             <option value="swipe">Swipe</option>
             <option value="double-click">Double Click</option>
             <option value="hold">Hold</option>
+            <option value="press-drag">Press &amp; Drag</option>
+            <option value="multi-tap">Multi-finger Tap</option>
           </select>
         </div>
 
@@ -316,7 +321,7 @@ export const StepEditor: React.FC<StepEditorProps> = ({ step, index, cumulativeT
         {/* Swipe Duration (Swipe only) */}
         {isSwipe && (
           <div className="space-y-1 animate-in fade-in slide-in-from-top-1">
-            <label className="text-[10px] text-gray-400 uppercase flex items-center gap-1"><Clock size={10} /> Swipe Duration (ms)</label>
+            <label className="text-[10px] text-gray-400 uppercase flex items-center gap-1"><Clock size={10} /> {step.type === 'press-drag' ? 'Drag Duration (ms)' : 'Swipe Duration (ms)'}</label>
             <input
               type="number"
               inputMode="numeric"
@@ -331,6 +336,56 @@ export const StepEditor: React.FC<StepEditorProps> = ({ step, index, cumulativeT
           </div>
         )}
 
+        {/* Hold Duration (Hold / Press & Drag) */}
+        {isHold && (
+          <div className="space-y-1 animate-in fade-in slide-in-from-top-1">
+            <label className="text-[10px] text-gray-400 uppercase flex items-center gap-1"><Clock size={10} /> Hold Duration (ms)</label>
+            <input
+              type="number"
+              inputMode="numeric"
+              min="100"
+              value={step.holdDuration ?? 600}
+              onChange={(e) => handleChange('holdDuration', Math.max(100, Number(e.target.value)))}
+              onFocus={() => window.Android?.requestInputFocus?.()}
+              onBlur={() => window.Android?.clearInputFocus?.()}
+              onKeyDown={blurOnEnter}
+              className="w-full bg-black/30 border border-gray-600 rounded px-2 py-1 text-xs focus:border-blue-500 outline-none"
+            />
+          </div>
+        )}
+
+        {/* Fingers (Multi-finger Tap) */}
+        {isMultiTap && (
+          <div className="space-y-1 animate-in fade-in slide-in-from-top-1">
+            <label className="text-[10px] text-gray-400 uppercase flex items-center gap-1"><Move size={10} /> Fingers / Spacing (px)</label>
+            <div className="grid grid-cols-2 gap-2">
+              <input
+                type="number"
+                inputMode="numeric"
+                min="2"
+                max="10"
+                value={step.fingers ?? 2}
+                onChange={(e) => handleChange('fingers', Math.min(10, Math.max(2, Number(e.target.value))))}
+                onFocus={() => window.Android?.requestInputFocus?.()}
+                onBlur={() => window.Android?.clearInputFocus?.()}
+                onKeyDown={blurOnEnter}
+                className="w-full bg-black/30 border border-gray-600 rounded px-1 py-0.5 text-xs focus:border-blue-500 outline-none"
+              />
+              <input
+                type="number"
+                inputMode="numeric"
+                min="10"
+                value={step.fingerSpacing ?? 40}
+                onChange={(e) => handleChange('fingerSpacing', Math.max(10, Number(e.target.value)))}
+                onFocus={() => window.Android?.requestInputFocus?.()}
+                onBlur={() => window.Android?.clearInputFocus?.()}
+                onKeyDown={blurOnEnter}
+                className="w-full bg-black/30 border border-gray-600 rounded px-1 py-0.5 text-xs focus:border-blue-500 outline-none"
+              />
+            </div>
+          </div>
+        )}
+
         {/* Repeats */}
         <div className="space-y-1">
           <label className="text-[10px] text-gray-400 uppercase flex items-center gap-1"><Repeat size={10} /> Repeats</label>
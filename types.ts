@@ -4,19 +4,30 @@ export interface ClickStep {
   x: number;
   y: number;
   delay: number; // Milliseconds to wait BEFORE this step executes (relative to previous step or start)
-  type: 'click' | 'double-click' | 'hold' | 'swipe';
+  type: 'click' | 'double-click' | 'hold' | 'swipe' | 'press-drag' | 'multi-tap';
   label?: string;
 
   // Swipe end coordinates (only used when type === 'swipe')
   endX?: number;
   endY?: number;
-  swipeDuration?: number; // Duration of the swipe gesture in ms (default 300)
+  swipeDuration?: number; // Duration of the swipe gesture in ms (default 300); drag part of 'press-drag'
+
+  // Composite gestures: played natively as a single system gesture
+  holdDuration?: number; // 'hold' / 'press-drag': how long to press before release or drag (default 600)
+  fingers?: number; // 'multi-tap': number of fingers (default 2)
+  fingerSpacing?: number; // 'multi-tap': horizontal distance between fingers in canvas px (default 40)
 
   // New fields for advanced editing
   repeat: number; // How many times to click at this location (default 1)
   repeatInterval: number; // Time between repeats in ms (default 100)
 }
 
+export interface StepBlock {
+  start: number; // Index of the first step in the block
+  count: number; // Number of steps in the block
+  repeat: number; // How many times the block runs
+}
+
 export interface ScriptMetadata {
   id: string; // Unique ID for storage
   name: string;
@@ -24,6 +35,8 @@ export interface ScriptMetadata {
   loop: boolean;
   loopCount: number; // 0 for infinite
   duration?: number; // Total duration of the script in ms (start to stop)
+  // Repeated step ranges (may nest). Played natively by the bytecode VM without expanding the steps.
+  blocks?: StepBlock[];
   createdAt?: number;
   updatedAt?: number;
 }
@@ -40,6 +53,57 @@ export interface SavedScriptSummary {
   stepCount: number;
 }
 
+// A script running concurrently in the native scheduler alongside the main one
+export interface BackgroundTrack {
+  trackId: number; // Native track id (progress callbacks carry it)
+  scriptId: string;
+  name: string;
+  stepCount: number;
+  stepIndex: number; // Last dispatched step (-1 before the first one)
+  loopIndex: number;
+}
+
+// Events streamed by the native bulk importer (one folder of song sheets, converted in parallel)
+export type BulkImportEvent =
+  | { type: 'started'; total: number }
+  | {
+      type: 'file';
+      index: number;
+      total: number;
+      fileName: string;
+      status: 'ok' | 'error' | 'skipped';
+      steps?: number;
+      error?: string;
+      script?: ClickScript;
+    }
+  | { type: 'finished'; converted: number; failed: number; skipped: number; elapsedMs: number; cancelled: boolean };
+
+// Bulk import progress shown in the HUD
+export interface BulkImportProgress {
+  running: boolean;
+  total: number;
+  done: number;
+  converted: number;
+  failed: number;
+  skipped: number;
+  errors: { fileName: string; error: string }[]; // Most recent failures only
+  elapsedMs?: number;
+}
+
+// Native scheduled start: events posted to window.__omniclickOnScheduledStart
+export type ScheduledStartEvent =
+  | { type: 'scheduled'; targetWallMs: number }
+  | { type: 'armed'; targetWallMs: number; leadMs: number }
+  | { type: 'started'; targetWallMs: number; startErrorMs: number; wakeLockMs: number }
+  | { type: 'cancelled'; targetWallMs: number };
+
+// Scheduled start shown in the HUD
+export interface ScheduledStartStatus {
+  state: 'scheduled' | 'armed' | 'started' | 'cancelled';
+  targetWallMs: number;
+  startErrorMs?: number;
+}
+
 export enum AppMode {
   IDLE = 'IDLE',
   RECORDING = 'RECORDING',